@@ -0,0 +1,26 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.github.naton1.jvmexplorer.protocol.ByteChunk;
+import com.github.naton1.jvmexplorer.protocol.ByteStreamAssembler;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class ByteStreamListener extends Listener {
+
+	private final ByteStreamAssembler byteStreamAssembler;
+
+	@Override
+	public void received(Connection connection, Object object) {
+		if (object instanceof ByteChunk) {
+			byteStreamAssembler.onChunk((ByteChunk) object);
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		byteStreamAssembler.clear();
+	}
+
+}
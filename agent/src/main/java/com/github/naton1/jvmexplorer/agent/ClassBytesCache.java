@@ -0,0 +1,73 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of class files, bounded by the total number of bytes cached. Keys are weak so this never keeps a class
+// (and its class loader) from being unloaded.
+public class ClassBytesCache {
+
+	private final Map<WeakClassKey, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReferenceQueue<Class<?>> collectedClasses = new ReferenceQueue<>();
+	private final long maxBytes;
+
+	private long cachedBytes = 0;
+
+	public ClassBytesCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized byte[] get(Class<?> klass) {
+		return cache.get(new WeakClassKey(klass));
+	}
+
+	public synchronized void put(Class<?> klass, byte[] bytes) {
+		if (bytes.length > maxBytes) {
+			return;
+		}
+		expungeCollected();
+		final byte[] previous = cache.put(new WeakClassKey(klass, collectedClasses), bytes);
+		if (previous != null) {
+			cachedBytes -= previous.length;
+		}
+		cachedBytes += bytes.length;
+		final Iterator<Map.Entry<WeakClassKey, byte[]>> iterator = cache.entrySet().iterator();
+		while (cachedBytes > maxBytes && iterator.hasNext()) {
+			final Map.Entry<WeakClassKey, byte[]> eldest = iterator.next();
+			cachedBytes -= eldest.getValue().length;
+			iterator.remove();
+		}
+	}
+
+	public synchronized void invalidate(Class<?> klass) {
+		final byte[] previous = cache.remove(new WeakClassKey(klass));
+		if (previous != null) {
+			cachedBytes -= previous.length;
+		}
+	}
+
+	public synchronized long getCachedBytes() {
+		expungeCollected();
+		return cachedBytes;
+	}
+
+	public synchronized int size() {
+		expungeCollected();
+		return cache.size();
+	}
+
+	// Entries of unloaded classes can never be looked up again, but still count until they're removed
+	private void expungeCollected() {
+		Reference<? extends Class<?>> collected;
+		while ((collected = collectedClasses.poll()) != null) {
+			final byte[] removed = cache.remove(collected);
+			if (removed != null) {
+				cachedBytes -= removed.length;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// LRU cache of the constants read from each class file, bounded by the total number of characters cached. Repeated
+// searches can skip capturing and reading the class files entirely.
+public class ClassConstantsCache {
+
+	private final Map<WeakClassKey, Constants> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReferenceQueue<Class<?>> collectedClasses = new ReferenceQueue<>();
+	private final long maxChars;
+
+	private long cachedChars = 0;
+
+	public ClassConstantsCache(long maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	public synchronized Constants get(Class<?> klass) {
+		return cache.get(new WeakClassKey(klass));
+	}
+
+	// Lowercased here, once per class, rather than on every search
+	public Constants put(Class<?> klass, String[] constants) {
+		final Constants lowered = new Constants(constants);
+		synchronized (this) {
+			if (lowered.chars > maxChars) {
+				return lowered;
+			}
+			expungeCollected();
+			final Constants previous = cache.put(new WeakClassKey(klass, collectedClasses), lowered);
+			if (previous != null) {
+				cachedChars -= previous.chars;
+			}
+			cachedChars += lowered.chars;
+			final Iterator<Map.Entry<WeakClassKey, Constants>> iterator = cache.entrySet().iterator();
+			while (cachedChars > maxChars && iterator.hasNext()) {
+				final Map.Entry<WeakClassKey, Constants> eldest = iterator.next();
+				cachedChars -= eldest.getValue().chars;
+				iterator.remove();
+			}
+		}
+		return lowered;
+	}
+
+	public synchronized void invalidate(Class<?> klass) {
+		final Constants previous = cache.remove(new WeakClassKey(klass));
+		if (previous != null) {
+			cachedChars -= previous.chars;
+		}
+	}
+
+	public synchronized long getCachedChars() {
+		expungeCollected();
+		return cachedChars;
+	}
+
+	// Drops the constants of classes unloaded since, which no lookup could reach anymore
+	private void expungeCollected() {
+		Reference<? extends Class<?>> collected;
+		while ((collected = collectedClasses.poll()) != null) {
+			final Constants removed = cache.remove(collected);
+			if (removed != null) {
+				cachedChars -= removed.chars;
+			}
+		}
+	}
+
+	public static class Constants {
+
+		private final String[] constants;
+		// Matched against, while the original constants are what's shown
+		private final String[] lowerConstants;
+		private final long chars;
+
+		private Constants(String[] constants) {
+			this.constants = constants;
+			this.lowerConstants = new String[constants.length];
+			long chars = 0;
+			for (int i = 0; i < constants.length; i++) {
+				lowerConstants[i] = constants[i].toLowerCase(Locale.ROOT);
+				chars += constants[i].length();
+				// Most constants are lowercase already, in which case the same string comes back and costs nothing
+				if (lowerConstants[i] != constants[i]) {
+					chars += lowerConstants[i].length();
+				}
+			}
+			this.chars = chars;
+		}
+
+		public int size() {
+			return constants.length;
+		}
+
+		public String getConstant(int index) {
+			return constants[index];
+		}
+
+		public String getLowerConstant(int index) {
+			return lowerConstants[index];
+		}
+
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import lombok.RequiredArgsConstructor;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Registered once and left in place. Retransforms run the transformer on the thread that requested them, so the
+// classes that thread is capturing are tracked per thread. Any other redefinition means our cached bytes are stale.
+@RequiredArgsConstructor
+public class ClassFileCaptureTransformer implements ClassFileTransformer {
+
+	private final ClassBytesCache classBytesCache;
+
+	private final ThreadLocal<Map<Class<?>, byte[]>> captures = new ThreadLocal<>();
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+	                        ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (classBeingRedefined == null) {
+			return null;
+		}
+		final Map<Class<?>, byte[]> capture = captures.get();
+		if (capture != null && capture.containsKey(classBeingRedefined)) {
+			capture.put(classBeingRedefined, classfileBuffer);
+		}
+		else {
+			classBytesCache.invalidate(classBeingRedefined);
+		}
+		return null;
+	}
+
+	// The returned map is filled in with the class files as the classes are retransformed
+	public Map<Class<?>, byte[]> beginCapture(Collection<Class<?>> classes) {
+		final Map<Class<?>, byte[]> capture = new IdentityHashMap<>();
+		for (Class<?> klass : classes) {
+			capture.put(klass, null);
+		}
+		captures.set(capture);
+		return capture;
+	}
+
+	public void endCapture() {
+		captures.remove();
+	}
+
+}
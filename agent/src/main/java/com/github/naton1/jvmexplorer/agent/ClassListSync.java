@@ -0,0 +1,65 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import com.esotericsoftware.minlog.Log;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
+import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
+import com.github.naton1.jvmexplorer.protocol.JvmClient;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class ClassListSync implements Runnable {
+
+	// Keeps each delta comfortably inside the object buffer
+	private static final int MAX_CLASSES_PER_DELTA = 500;
+
+	private final ClassLoadListener classLoadListener;
+	private final InstrumentationHelper instrumentationHelper;
+	private final ClassLoaderStore classLoaderStore;
+	private final JvmClient jvmClient;
+
+	@Override
+	public void run() {
+		// Always clean, even if nobody is listening, so dead entries don't pile up
+		final List<ClassLoaderDescriptor> unloadedClassLoaders = classLoaderStore.clean();
+		if (!classLoadListener.isEnabled()) {
+			return;
+		}
+		final List<LoadedClass> loadedClasses = new ArrayList<>();
+		final List<ClassLoadListener.DefinedClass> definedClasses = classLoadListener.drain();
+		// The listener sees classes before they're defined, but by now they are, so the meta type can be computed
+		final Map<ClassLoadListener.DefinedClass, Class<?>> classes =
+				definedClasses.isEmpty() ? Collections.<ClassLoadListener.DefinedClass, Class<?>>emptyMap()
+				                         : instrumentationHelper.getDefinedClasses(definedClasses);
+		for (ClassLoadListener.DefinedClass definedClass : definedClasses) {
+			final ClassLoader classLoader = definedClass.getClassLoader();
+			final ClassLoaderDescriptor classLoaderDescriptor =
+					classLoader != null ? classLoaderStore.store(classLoader) : null;
+			final Class<?> klass = classes.get(definedClass);
+			// Only missing if the class never finished being defined
+			final LoadedClass.MetaType metaType = klass != null ? LoadedClass.MetaType.getFor(klass) : null;
+			loadedClasses.add(new LoadedClass(definedClass.getName(), classLoaderDescriptor, metaType));
+		}
+		if (loadedClasses.isEmpty() && unloadedClassLoaders.isEmpty()) {
+			return;
+		}
+		Log.debug("Sending class list delta, loaded: " + loadedClasses.size() + ", unloaded class loaders: "
+		          + unloadedClassLoaders.size());
+		int offset = 0;
+		do {
+			final int end = Math.min(offset + MAX_CLASSES_PER_DELTA, loadedClasses.size());
+			final LoadedClass[] loadedClassPacket = loadedClasses.subList(offset, end).toArray(new LoadedClass[0]);
+			// Only the first delta needs to carry the unloads
+			final ClassLoaderDescriptor[] unloadedPacket = offset == 0 ? unloadedClassLoaders.toArray(
+					new ClassLoaderDescriptor[0]) : new ClassLoaderDescriptor[0];
+			jvmClient.sendClassListDelta(new ClassListDelta(loadedClassPacket, unloadedPacket));
+			offset = end;
+		} while (offset < loadedClasses.size());
+	}
+
+}
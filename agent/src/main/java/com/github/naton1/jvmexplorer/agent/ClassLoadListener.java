@@ -0,0 +1,56 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import lombok.Value;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Registered without retransform support, so this is only called when a class is first defined
+public class ClassLoadListener implements ClassFileTransformer {
+
+	private final Queue<DefinedClass> definedClasses = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean enabled;
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+	                        ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (!enabled || classBeingRedefined != null || className == null) {
+			return null;
+		}
+		if (InstrumentationHelper.isAgentProtectionDomain(protectionDomain)) {
+			return null;
+		}
+		definedClasses.add(new DefinedClass(className.replace('/', '.'), loader));
+		return null;
+	}
+
+	// Classes are only tracked once the explorer has requested the full list at least once
+	public void enable() {
+		this.enabled = true;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public List<DefinedClass> drain() {
+		final List<DefinedClass> drained = new ArrayList<>();
+		DefinedClass next;
+		while ((next = definedClasses.poll()) != null) {
+			drained.add(next);
+		}
+		return drained;
+	}
+
+	@Value
+	public static class DefinedClass {
+		private final String name;
+		private final ClassLoader classLoader;
+	}
+
+}
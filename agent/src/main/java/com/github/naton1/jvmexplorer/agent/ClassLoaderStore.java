@@ -2,85 +2,134 @@ package com.github.naton1.jvmexplorer.agent;
 
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Safe to use from many threads at once without blocking. Class loaders are held weakly and compared by identity, and
+// once one is collected its reference shows up in a queue, so cleaning up never has to look at the live entries.
 public class ClassLoaderStore {
 
 	// We need two maps here (inverses of one another).
 	// One to store descriptors, and one to look back up the corresponding classloader.
-	private final Map<ClassLoader, ClassLoaderDescriptor> classLoaderDescriptors = new WeakHashMap<>();
-	private final Map<ClassLoaderDescriptor, WeakReference<ClassLoader>> classLoaders = new HashMap<>();
+	private final ConcurrentMap<ClassLoaderReference, ClassLoaderReference> classLoaderDescriptors =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<Integer, ClassLoaderReference> classLoaders = new ConcurrentHashMap<>();
 
-	public synchronized ClassLoaderDescriptor store(ClassLoader classLoader) {
-		final ClassLoaderDescriptor savedClassLoaderDescriptor = classLoaderDescriptors.get(classLoader);
-		if (savedClassLoaderDescriptor != null) {
-			return savedClassLoaderDescriptor;
+	private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<>();
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	public ClassLoaderDescriptor store(ClassLoader classLoader) {
+		final ClassLoaderReference savedReference = classLoaderDescriptors.get(new ClassLoaderReference(classLoader));
+		if (savedReference != null) {
+			return savedReference.getClassLoaderDescriptor();
 		}
 		final ClassLoaderDescriptor parentDescriptor =
 				classLoader.getParent() != null ? store(classLoader.getParent()) : null;
 		final ClassLoaderDescriptor newClassLoaderDescriptor = ClassLoaderDescriptor.builder()
-		                                                                            .id(UUID.randomUUID().toString())
+		                                                                            .id(nextId.incrementAndGet())
 		                                                                            .description(classLoader.toString())
 		                                                                            .simpleClassName(classLoader.getClass()
 		                                                                                                        .getSimpleName())
 		                                                                            .parent(parentDescriptor)
 		                                                                            .build();
-		classLoaderDescriptors.put(classLoader, newClassLoaderDescriptor);
-		classLoaders.put(newClassLoaderDescriptor, new WeakReference<>(classLoader));
+		final ClassLoaderReference newReference = new ClassLoaderReference(classLoader,
+		                                                                   newClassLoaderDescriptor,
+		                                                                   collectedClassLoaders);
+		// Looked up by id first, so whoever is handed the descriptor, on any thread, can always look it back up
+		classLoaders.put(newClassLoaderDescriptor.getId(), newReference);
+		final ClassLoaderReference racedReference = classLoaderDescriptors.putIfAbsent(newReference, newReference);
+		if (racedReference != null) {
+			// Another thread stored it first. Its id is skipped, which is harmless.
+			classLoaders.remove(newClassLoaderDescriptor.getId());
+			// Never handed out, so it shouldn't be reported by clean either
+			newReference.clear();
+			return racedReference.getClassLoaderDescriptor();
+		}
 		return newClassLoaderDescriptor;
 	}
 
-	public synchronized ClassLoader lookup(ClassLoaderDescriptor classLoaderDescriptor) {
+	public ClassLoader lookup(ClassLoaderDescriptor classLoaderDescriptor) {
 		if (classLoaderDescriptor == null) {
 			// Bootstrap classloader
 			return null;
 		}
-		final WeakReference<ClassLoader> classLoaderRef = classLoaders.get(classLoaderDescriptor);
-		if (classLoaderRef == null) {
-			return null;
-		}
-		final ClassLoader classLoader = classLoaderRef.get();
-		if (classLoader == null) {
-			classLoaders.remove(classLoaderDescriptor);
-			return null;
-		}
-		return classLoader;
+		final ClassLoaderReference classLoaderRef = classLoaders.get(classLoaderDescriptor.getId());
+		return classLoaderRef != null ? classLoaderRef.get() : null;
 	}
 
-	// This exists solely to clean up a bit of extra memory. It won't break anything but let's not leave
-	// dead entries in the map.
-	public synchronized void clean() {
-		final Set<ClassLoaderDescriptor> toRemove = new HashSet<>();
-		for (Map.Entry<ClassLoaderDescriptor, WeakReference<ClassLoader>> entry : classLoaders.entrySet()) {
-			final WeakReference<ClassLoader> classLoaderRef = entry.getValue();
-			if (classLoaderRef.get() == null) {
-				toRemove.add(entry.getKey());
-			}
-		}
-		for (ClassLoaderDescriptor classLoaderDescriptor : toRemove) {
-			classLoaders.remove(classLoaderDescriptor);
+	// Removes the entries of collected class loaders. The removed descriptors are returned since all the classes they
+	// loaded have been unloaded as well.
+	public List<ClassLoaderDescriptor> clean() {
+		final List<ClassLoaderDescriptor> removed = new ArrayList<>();
+		ClassLoaderReference collected;
+		while ((collected = (ClassLoaderReference) collectedClassLoaders.poll()) != null) {
+			// The referent is gone, so this only matches the reference itself
+			classLoaderDescriptors.remove(collected);
+			classLoaders.remove(collected.getClassLoaderDescriptor().getId());
+			removed.add(collected.getClassLoaderDescriptor());
 		}
+		return removed;
 	}
 
 	// Exposed for testing, simulates a garbage collection
-	synchronized void removeClassLoader(ClassLoader classLoader) {
-		final ClassLoaderDescriptor classLoaderDescriptor = classLoaderDescriptors.remove(classLoader);
-		if (classLoaderDescriptor == null) {
+	void removeClassLoader(ClassLoader classLoader) {
+		final ClassLoaderReference classLoaderRef = classLoaderDescriptors.get(new ClassLoaderReference(classLoader));
+		if (classLoaderRef == null) {
 			return;
 		}
-		final WeakReference<ClassLoader> classLoaderRef = classLoaders.get(classLoaderDescriptor);
 		classLoaderRef.clear();
+		classLoaderRef.enqueue();
 	}
 
 	// Exposed for testing, to ensure clean works
-	synchronized boolean containsDescriptor(ClassLoaderDescriptor classLoaderDescriptor) {
-		return classLoaders.containsKey(classLoaderDescriptor);
+	boolean containsDescriptor(ClassLoaderDescriptor classLoaderDescriptor) {
+		return classLoaders.containsKey(classLoaderDescriptor.getId());
+	}
+
+	private static class ClassLoaderReference extends WeakReference<ClassLoader> {
+
+		// Kept since the class loader can be collected while this is still in the map
+		private final int hashCode;
+		private final ClassLoaderDescriptor classLoaderDescriptor;
+
+		// Only used to look up a class loader
+		ClassLoaderReference(ClassLoader classLoader) {
+			this(classLoader, null, null);
+		}
+
+		ClassLoaderReference(ClassLoader classLoader, ClassLoaderDescriptor classLoaderDescriptor,
+		                     ReferenceQueue<ClassLoader> queue) {
+			super(classLoader, queue);
+			this.hashCode = System.identityHashCode(classLoader);
+			this.classLoaderDescriptor = classLoaderDescriptor;
+		}
+
+		ClassLoaderDescriptor getClassLoaderDescriptor() {
+			return classLoaderDescriptor;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ClassLoaderReference)) {
+				return false;
+			}
+			final ClassLoader classLoader = get();
+			return classLoader != null && classLoader == ((ClassLoaderReference) o).get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
 	}
 
 }
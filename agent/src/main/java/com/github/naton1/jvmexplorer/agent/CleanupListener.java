@@ -11,12 +11,15 @@ import java.util.concurrent.ExecutorService;
 public class CleanupListener extends Listener {
 
 	private final ExecutorService executorService;
+	private final ExecutorService scanExecutorService;
 	private final AgentFileLogger agentFileLogger;
 
 	@Override
 	public void disconnected(Connection connection) {
 		Log.info("Cleaning up");
 		executorService.shutdown();
+		// Nothing is left to read the results of any scan still running
+		scanExecutorService.shutdownNow();
 		agentFileLogger.close();
 	}
 
@@ -6,11 +6,15 @@ import com.esotericsoftware.kryonet.rmi.ObjectSpace;
 import com.esotericsoftware.kryonet.rmi.RemoteObject;
 import com.esotericsoftware.minlog.Log;
 import com.github.naton1.jvmexplorer.protocol.AgentConfiguration;
+import com.github.naton1.jvmexplorer.protocol.ByteStreamAssembler;
+import com.github.naton1.jvmexplorer.protocol.CompressingSerialization;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
 import com.github.naton1.jvmexplorer.protocol.Protocol;
 
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -18,15 +22,22 @@ public class ClientLauncher {
 
 	public Client launch(ScheduledExecutorService executorService, AgentConfiguration agentConfiguration,
 	                     Instrumentation instrumentation, AgentFileLogger logger) throws IOException {
-		final Client client = new Client(Protocol.WRITE_BUFFER_SIZE, Protocol.OBJECT_BUFFER_SIZE);
-		setupRmi(client, executorService, agentConfiguration.getIdentifier(), instrumentation);
+		final Client client = new Client(Protocol.WRITE_BUFFER_SIZE,
+		                                 Protocol.OBJECT_BUFFER_SIZE,
+		                                 new CompressingSerialization());
+		// Reading class files for a search is spread out over the other cores
+		final int scanThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		final ExecutorService scanExecutorService =
+				Executors.newFixedThreadPool(scanThreads, new LogUncaughtExceptionThreadFactory());
+		setupRmi(client, executorService, scanExecutorService, agentConfiguration.getIdentifier(), instrumentation);
 		startClient(client, agentConfiguration.getHostName(), agentConfiguration.getPort());
-		client.addListener(new CleanupListener(executorService, logger));
+		client.addListener(new CleanupListener(executorService, scanExecutorService, logger));
 		Log.info("Client connected");
 		return client;
 	}
 
-	private static void setupRmi(Client client, ScheduledExecutorService executorService, String identifier,
+	private static void setupRmi(Client client, ScheduledExecutorService executorService,
+	                             ExecutorService scanExecutorService, String identifier,
 	                             Instrumentation instrumentation) {
 		final Kryo kryo = client.getKryo();
 		Protocol.register(kryo);
@@ -35,18 +46,34 @@ public class ClientLauncher {
 		((RemoteObject) serverTracker).setTransmitReturnValue(false);
 		((RemoteObject) serverTracker).setTransmitExceptions(false);
 		final InstrumentationHelper instrumentationHelper = new InstrumentationHelper(instrumentation);
+		client.addListener(new RemoveTransformerListener(instrumentation,
+		                                                 instrumentationHelper.getCaptureTransformer()));
 		final ClassLoaderStore classLoaderStore = new ClassLoaderStore();
-		executorService.scheduleWithFixedDelay(new CleanClassLoaderStore(classLoaderStore), 10, 10, TimeUnit.SECONDS);
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		final ClassLoadListener classLoadListener = new ClassLoadListener();
+		instrumentation.addTransformer(classLoadListener);
+		client.addListener(new RemoveTransformerListener(instrumentation, classLoadListener));
+		executorService.scheduleWithFixedDelay(new ClassListSync(classLoadListener,
+		                                                         instrumentationHelper,
+		                                                         classLoaderStore,
+		                                                         serverTracker),
+		                                       1,
+		                                       1,
+		                                       TimeUnit.SECONDS);
 		final JvmConnectionImpl jvmConnectionImpl = new JvmConnectionImpl(serverTracker,
 		                                                                  instrumentationHelper,
 		                                                                  client,
 		                                                                  executorService,
-		                                                                  classLoaderStore);
+		                                                                  scanExecutorService,
+		                                                                  classLoaderStore,
+		                                                                  byteStreamAssembler,
+		                                                                  classLoadListener);
 		final ObjectSpace objectSpace = new ObjectSpace(client);
 		objectSpace.register(Protocol.RMI_JVM_CONNECTION, jvmConnectionImpl);
 		final ClientListener clientListener = new ClientListener(executorService, identifier, serverTracker);
 		objectSpace.setExecutor(executorService);
 		client.addListener(clientListener);
+		client.addListener(new ByteStreamListener(byteStreamAssembler));
 	}
 
 	private static void startClient(Client client, String host, int port) throws IOException {
@@ -4,6 +4,7 @@ import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.minlog.Log;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
+import com.github.naton1.jvmexplorer.protocol.Protocol;
 import lombok.RequiredArgsConstructor;
 
 import java.util.concurrent.ExecutorService;
@@ -27,7 +28,7 @@ public class ClientListener extends Listener {
 
 		@Override
 		public void run() {
-			jvmClient.register(identifier);
+			jvmClient.register(identifier, Protocol.SUPPORTED_COMPRESSIONS);
 			Log.info("Registered client");
 		}
 	}
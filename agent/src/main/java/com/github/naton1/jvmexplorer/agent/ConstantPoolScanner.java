@@ -0,0 +1,113 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Reads only the constant pool of a class file. Every string literal, and every class, field and method a class refers
+// to ends up there, so searching them doesn't need to look at any code.
+public class ConstantPoolScanner {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+
+	// String literals, class names, and referenced fields and methods as owner.name
+	public static String[] getConstants(byte[] classFile) throws IOException {
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		// Minor and major version
+		input.readInt();
+		final int count = input.readUnsignedShort();
+		final int[] tags = new int[count];
+		final int[] firstIndexes = new int[count];
+		final int[] secondIndexes = new int[count];
+		final String[] utf8 = new String[count];
+		for (int i = 1; i < count; i++) {
+			tags[i] = input.readUnsignedByte();
+			switch (tags[i]) {
+			case UTF8:
+				utf8[i] = input.readUTF();
+				break;
+			case INTEGER:
+			case FLOAT:
+				input.readInt();
+				break;
+			case LONG:
+			case DOUBLE:
+				input.readLong();
+				// These take up two entries
+				i++;
+				break;
+			case CLASS:
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				firstIndexes[i] = input.readUnsignedShort();
+				break;
+			case FIELD_REF:
+			case METHOD_REF:
+			case INTERFACE_METHOD_REF:
+			case NAME_AND_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				firstIndexes[i] = input.readUnsignedShort();
+				secondIndexes[i] = input.readUnsignedShort();
+				break;
+			case METHOD_HANDLE:
+				input.readUnsignedByte();
+				firstIndexes[i] = input.readUnsignedShort();
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tags[i] + " at " + i);
+			}
+		}
+		final Set<String> constants = new LinkedHashSet<>();
+		for (int i = 1; i < count; i++) {
+			switch (tags[i]) {
+			case STRING:
+				constants.add(utf8[firstIndexes[i]]);
+				break;
+			case CLASS:
+				constants.add(toClassName(utf8[firstIndexes[i]]));
+				break;
+			case FIELD_REF:
+			case METHOD_REF:
+			case INTERFACE_METHOD_REF:
+				final String owner = toClassName(utf8[firstIndexes[firstIndexes[i]]]);
+				final String name = utf8[firstIndexes[secondIndexes[i]]];
+				constants.add(owner + "." + name);
+				break;
+			default:
+				break;
+			}
+		}
+		return constants.toArray(new String[0]);
+	}
+
+	private static String toClassName(String internalName) {
+		return internalName.replace('/', '.');
+	}
+
+}
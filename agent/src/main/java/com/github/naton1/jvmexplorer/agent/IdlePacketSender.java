@@ -2,58 +2,152 @@ package com.github.naton1.jvmexplorer.agent;
 
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.minlog.Log;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
-import com.github.naton1.jvmexplorer.protocol.PacketType;
+import com.github.naton1.jvmexplorer.protocol.PacketCancel;
+import com.github.naton1.jvmexplorer.protocol.PacketCredits;
+import com.github.naton1.jvmexplorer.protocol.Protocol;
 import lombok.RequiredArgsConstructor;
 
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RequiredArgsConstructor
 public class IdlePacketSender<T> extends Listener {
 
+	// Never fill the write buffer past this, otherwise kryonet overflows it or stops reading long enough to time out
+	private static final int MAX_BUFFERED_BYTES = Protocol.WRITE_BUFFER_SIZE / 2;
+	// Don't get too far ahead of the explorer, otherwise a large export ends up entirely in memory here
+	private static final int MAX_QUEUED_PACKETS = Protocol.INITIAL_PACKET_CREDITS * 2;
+	// The explorer stopped reading without telling us, so give up rather than holding on to the packets forever
+	private static final long STALL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
 	private final Queue<T[]> packets;
-	private final PacketType packetType;
+	private final int streamId;
 	private final JvmClient jvmClient;
 	private final boolean autoEnd;
 
+	private final AtomicInteger credits = new AtomicInteger(Protocol.INITIAL_PACKET_CREDITS);
+	private final Object capacityLock = new Object();
+
 	private volatile boolean end;
+	private volatile boolean cancelled;
+	private volatile boolean cancelRequested;
+	private volatile long lastProgressMillis = System.currentTimeMillis();
 
 	private int packetsSent = 0;
 
-	private long nextSendPeriod = System.currentTimeMillis();
+	// Each packet uses up a credit, and the explorer grants more as it drains what it received. This keeps us sending
+	// as fast as the explorer can keep up without flooding the connection.
+	@Override
+	public void received(Connection connection, Object object) {
+		if (object instanceof PacketCredits) {
+			final PacketCredits packetCredits = (PacketCredits) object;
+			if (packetCredits.getStreamId() == streamId) {
+				credits.addAndGet(packetCredits.getCredits());
+				lastProgressMillis = System.currentTimeMillis();
+			}
+		}
+		else if (object instanceof PacketCancel) {
+			if (((PacketCancel) object).getStreamId() == streamId) {
+				Log.debug("Explorer cancelled stream " + streamId);
+				cancelRequested = true;
+				stop();
+			}
+		}
+	}
+
+	@Override
+	public void disconnected(Connection connection) {
+		stop();
+	}
 
-	// Sending too many objects at once overflows a buffer. Not sure why kryonet can't automatically handle it but
-	// this works around that by only sending when the buffer isn't too full
 	@Override
 	public void idle(Connection connection) {
-		if (packets.isEmpty()) {
-			if (autoEnd || end) {
-				jvmClient.endPacketTransfer(packetType, packetsSent);
+		boolean done = true;
+		try {
+			done = sendPackets(connection);
+		}
+		finally {
+			// Also if sending failed, otherwise this would keep failing on every idle
+			if (done) {
 				connection.removeListener(this);
+				stop();
 			}
 		}
-		else {
-			// This is to work around an issue with kryonet. If too much writes are sent at once, it will prevent any
-			// reading and kryonet will think it timed out.
-			// Send data for 9 seconds, sleep for 1 second.
-			if (System.currentTimeMillis() > nextSendPeriod + 9000) {
-				nextSendPeriod = System.currentTimeMillis() + 1000;
-			}
-			if (System.currentTimeMillis() < nextSendPeriod) {
-				// Waiting a bit for kryonet to process...
-				return;
+	}
+
+	private boolean sendPackets(Connection connection) {
+		if (cancelled) {
+			if (cancelRequested) {
+				// Everything sent so far is ahead of this, so the explorer knows nothing else is coming
+				jvmClient.endPacketTransfer(streamId, packetsSent);
 			}
+			return true;
+		}
+		while (credits.get() > 0 && connection.getTcpWriteBufferSize() < MAX_BUFFERED_BYTES) {
 			final T[] next = packets.poll();
 			if (next == null) {
-				return;
+				break;
 			}
+			credits.decrementAndGet();
 			packetsSent += next.length;
-			jvmClient.sendPacket(packetType, next);
+			jvmClient.sendPacket(streamId, next);
+			lastProgressMillis = System.currentTimeMillis();
+			signalCapacity();
+		}
+		if (packets.isEmpty() && (autoEnd || end)) {
+			jvmClient.endPacketTransfer(streamId, packetsSent);
+			return true;
+		}
+		if (!packets.isEmpty() && credits.get() <= 0
+		    && System.currentTimeMillis() - lastProgressMillis > STALL_TIMEOUT_MILLIS) {
+			Log.warn("Explorer stopped granting credits for stream " + streamId + ", giving up after " + packetsSent);
+			// Lets the explorer finish its stream with what it already has
+			jvmClient.endPacketTransfer(streamId, packetsSent);
+			return true;
+		}
+		return false;
+	}
+
+	// Blocks whoever is producing the packets until there's room to queue another one. False once the packets are no
+	// longer wanted, in which case nothing else should be queued.
+	public boolean awaitCapacity() {
+		synchronized (capacityLock) {
+			try {
+				while (!cancelled && packets.size() >= MAX_QUEUED_PACKETS) {
+					// Times out in case a signal is missed, idle runs often enough that this rarely matters
+					capacityLock.wait(100);
+				}
+			}
+			catch (InterruptedException e) {
+				Log.warn("Interrupted while waiting to queue packets");
+				Thread.currentThread().interrupt();
+				return false;
+			}
 		}
+		return !cancelled;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
 	}
 
 	public void end() {
 		this.end = true;
 	}
 
+	private void stop() {
+		cancelled = true;
+		packets.clear();
+		signalCapacity();
+	}
+
+	private void signalCapacity() {
+		synchronized (capacityLock) {
+			capacityLock.notifyAll();
+		}
+	}
+
 }
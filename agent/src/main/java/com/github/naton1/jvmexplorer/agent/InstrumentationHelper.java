@@ -5,7 +5,9 @@ import com.github.naton1.jvmexplorer.protocol.ClassField;
 import com.github.naton1.jvmexplorer.protocol.ClassFieldKey;
 import com.github.naton1.jvmexplorer.protocol.ClassFields;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
+import com.github.naton1.jvmexplorer.protocol.Protocol;
 import com.github.naton1.jvmexplorer.protocol.WrappedObject;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import java.io.PrintWriter;
@@ -14,73 +16,210 @@ import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.net.URL;
 import java.security.CodeSource;
+import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
 @RequiredArgsConstructor
 public class InstrumentationHelper {
 
 	// Let's have some cutoffs for large arrays where it may overflow kryonet's buffers
 	private static final int MAX_ARRAY_BYTES = 10000;
-	private static final int MAX_ARRAY_STRING_LENGTH = 1000;
+	// Longer strings are shown cut off instead, since they can't be edited as a whole anyway
+	private static final int MAX_STRING_LENGTH = 10000;
+	private static final int MAX_VALUE_STRING_LENGTH = 1000;
+	// For all the fields of an object together, keys included. Characters can take up to 3 bytes.
+	private static final int MAX_FIELDS_CHARS = Protocol.OBJECT_BUFFER_SIZE / 4;
+	// Room taken up by a field key besides its names, or by a boxed primitive value
+	private static final int FIELD_OVERHEAD_CHARS = 10;
+	private static final long MAX_FIELDS_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+	// Only when asked for, since this calls toString from the target app
+	private static final int MAX_TO_STRING_LENGTH = Protocol.OBJECT_BUFFER_SIZE / 4;
+	private static final long MAX_TO_STRING_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	// Keeps exports and recompiles from retransforming the same classes over and over
+	private static final long MAX_CACHED_CLASS_BYTES = 32 * 1024 * 1024;
+	private static final int MAX_RETRANSFORM_BATCH = 500;
+
+	// Checked against every loaded class, so it's only looked up once
+	private static final URL AGENT_LOCATION = getAgentLocation();
+	// Classes mostly share a few protection domains, so each is only compared against the agent's location once.
+	// Held weakly, so the domains of unloaded class loaders can still be collected.
+	private static final Map<ProtectionDomain, Boolean> AGENT_PROTECTION_DOMAINS =
+			Collections.synchronizedMap(new WeakHashMap<ProtectionDomain, Boolean>());
+
+	// Objects of the same class tend to be looked at over and over. Fields that can't be made accessible are left out.
+	private static final ClassValue<Field[]> ACCESSIBLE_FIELDS = new ClassValue<Field[]>() {
+		@Override
+		protected Field[] computeValue(Class<?> type) {
+			final List<Field> fields = new ArrayList<>();
+			for (Field field : type.getDeclaredFields()) {
+				try {
+					field.setAccessible(true);
+					fields.add(field);
+				}
+				catch (Exception ignored) {
+					// Such as fields of a module that isn't opened to us
+				}
+			}
+			return fields.toArray(new Field[0]);
+		}
+	};
 
 	private final Instrumentation instrumentation;
 
+	private final ClassBytesCache classBytesCache = new ClassBytesCache(MAX_CACHED_CLASS_BYTES);
+	@Getter
+	private final ClassFileCaptureTransformer captureTransformer = new ClassFileCaptureTransformer(classBytesCache);
+	private volatile boolean captureTransformerRegistered;
+
 	// Note this includes jdk + libraries as well
 	public List<Class<?>> getApplicationClasses() {
 		final List<Class<?>> classes = new ArrayList<>();
 		for (Class<?> c : instrumentation.getAllLoadedClasses()) {
-			if (c.isArray()) {
-				continue;
-			}
-			if (c.isPrimitive()) {
-				continue;
-			}
-			if (!instrumentation.isModifiableClass(c)) {
-				continue;
+			if (isApplicationClass(c)) {
+				classes.add(c);
 			}
-			if (isAgentClass(c)) {
-				continue;
-			}
-			classes.add(c);
 		}
 		return classes;
 	}
 
+	// Every loaded class, to be filtered with isApplicationClass. Lets the filtering be split up across threads.
+	public Class<?>[] getAllLoadedClasses() {
+		return instrumentation.getAllLoadedClasses();
+	}
+
+	public boolean isApplicationClass(Class<?> c) {
+		return !c.isArray() && !c.isPrimitive() && instrumentation.isModifiableClass(c) && !isAgentClass(c);
+	}
+
 	private static boolean isAgentClass(Class<?> klass) {
+		return isAgentProtectionDomain(klass.getProtectionDomain());
+	}
+
+	static boolean isAgentProtectionDomain(ProtectionDomain protectionDomain) {
+		if (protectionDomain == null) {
+			return false;
+		}
+		Boolean isAgent = AGENT_PROTECTION_DOMAINS.get(protectionDomain);
+		if (isAgent == null) {
+			isAgent = isAgentCodeSource(protectionDomain.getCodeSource());
+			AGENT_PROTECTION_DOMAINS.put(protectionDomain, isAgent);
+		}
+		return isAgent;
+	}
+
+	private static boolean isAgentCodeSource(CodeSource classCodeSource) {
+		return AGENT_LOCATION != null && classCodeSource != null
+		       && AGENT_LOCATION.equals(classCodeSource.getLocation());
+	}
+
+	private static URL getAgentLocation() {
 		final CodeSource agentCodeSource = JvmExplorerAgent.class.getProtectionDomain().getCodeSource();
-		final CodeSource classCodeSource = klass.getProtectionDomain().getCodeSource();
-		return agentCodeSource.getLocation() != null && classCodeSource != null && agentCodeSource.getLocation()
-		                                                                                          .equals(classCodeSource.getLocation());
+		return agentCodeSource != null ? agentCodeSource.getLocation() : null;
 	}
 
 	public byte[] getClassBytes(Class<?> klass) {
-		final ClassFileSaveTransformer transformer = new ClassFileSaveTransformer(klass.getName());
-		instrumentation.addTransformer(transformer, true);
+		return getClassBytes(Collections.<Class<?>>singletonList(klass)).get(klass);
+	}
+
+	// Classes that can't be captured map to an empty array
+	public Map<Class<?>, byte[]> getClassBytes(List<Class<?>> classes) {
+		final Map<Class<?>, byte[]> classBytes = new IdentityHashMap<>();
+		final List<Class<?>> toCapture = new ArrayList<>();
+		for (Class<?> klass : classes) {
+			final byte[] cachedBytes = classBytesCache.get(klass);
+			if (cachedBytes != null) {
+				classBytes.put(klass, cachedBytes);
+			}
+			else {
+				toCapture.add(klass);
+			}
+		}
+		if (toCapture.isEmpty()) {
+			return classBytes;
+		}
+		registerCaptureTransformer();
+		for (int i = 0; i < toCapture.size(); i += MAX_RETRANSFORM_BATCH) {
+			capture(toCapture.subList(i, Math.min(i + MAX_RETRANSFORM_BATCH, toCapture.size())), classBytes);
+		}
+		return classBytes;
+	}
+
+	private void registerCaptureTransformer() {
+		if (captureTransformerRegistered) {
+			return;
+		}
+		synchronized (this) {
+			if (!captureTransformerRegistered) {
+				instrumentation.addTransformer(captureTransformer, true);
+				captureTransformerRegistered = true;
+			}
+		}
+	}
+
+	private void capture(List<Class<?>> classes, Map<Class<?>, byte[]> classBytes) {
+		final Map<Class<?>, byte[]> captured = captureTransformer.beginCapture(classes);
 		try {
-			instrumentation.retransformClasses(klass);
+			instrumentation.retransformClasses(classes.toArray(new Class<?>[0]));
 		}
 		catch (InternalError e) {
+			if (classes.size() > 1) {
+				captureIndividually(classes, classBytes);
+				return;
+			}
 			// This provides a better error message if there is a linking problem
 			try {
-				klass.getDeclaredFields();
+				classes.get(0).getDeclaredFields();
 			}
 			catch (NoClassDefFoundError error) {
 				Log.warn("Problem linking class while retransforming", error);
 				// Let's return an empty array so if we are exporting it doesn't fail.
-				return new byte[0];
+				classBytes.put(classes.get(0), new byte[0]);
+				return;
 			}
 			throw e;
 		}
 		catch (Exception e) {
 			Log.warn("Encountered exception retransforming classes", e);
+			if (classes.size() > 1) {
+				captureIndividually(classes, classBytes);
+				return;
+			}
 		}
 		finally {
-			instrumentation.removeTransformer(transformer);
+			captureTransformer.endCapture();
+		}
+		for (Class<?> klass : classes) {
+			final byte[] bytes = captured.get(klass);
+			if (bytes != null) {
+				classBytesCache.put(klass, bytes);
+				classBytes.put(klass, bytes);
+			}
+			else {
+				classBytes.put(klass, new byte[0]);
+			}
+		}
+	}
+
+	// A single bad class fails the whole retransform, so find out which one it was by going one at a time
+	private void captureIndividually(List<Class<?>> classes, Map<Class<?>, byte[]> classBytes) {
+		Log.debug("Batch retransform failed, capturing " + classes.size() + " classes individually");
+		captureTransformer.endCapture();
+		for (Class<?> klass : classes) {
+			capture(Collections.<Class<?>>singletonList(klass), classBytes);
 		}
-		return transformer.getBytes() != null ? transformer.getBytes() : new byte[0];
 	}
 
 	public boolean setObject(ClassLoader classLoader, ClassFieldKey[] classFieldKeys, Object newValue) {
@@ -156,6 +295,48 @@ public class InstrumentationHelper {
 		return null;
 	}
 
+	// Finds the classes the class load listener saw being defined. Anything forName can't find, like a class its loader
+	// doesn't delegate to itself, is found with a single pass over the loaded classes.
+	public Map<ClassLoadListener.DefinedClass, Class<?>> getDefinedClasses(
+			List<ClassLoadListener.DefinedClass> definedClasses) {
+		final Map<ClassLoadListener.DefinedClass, Class<?>> classes = new HashMap<>();
+		final Set<ClassLoadListener.DefinedClass> unresolved = new HashSet<>();
+		for (ClassLoadListener.DefinedClass definedClass : definedClasses) {
+			final Class<?> klass = getDefinedClass(definedClass);
+			if (klass != null) {
+				classes.put(definedClass, klass);
+			}
+			else {
+				unresolved.add(definedClass);
+			}
+		}
+		if (unresolved.isEmpty()) {
+			return classes;
+		}
+		for (Class<?> klass : instrumentation.getAllLoadedClasses()) {
+			final ClassLoadListener.DefinedClass definedClass = new ClassLoadListener.DefinedClass(klass.getName(),
+			                                                                                     klass.getClassLoader());
+			if (unresolved.remove(definedClass)) {
+				classes.put(definedClass, klass);
+				if (unresolved.isEmpty()) {
+					break;
+				}
+			}
+		}
+		return classes;
+	}
+
+	private static Class<?> getDefinedClass(ClassLoadListener.DefinedClass definedClass) {
+		try {
+			final Class<?> klass = Class.forName(definedClass.getName(), false, definedClass.getClassLoader());
+			// A loader can delegate to another one that has a class of the same name
+			return klass.getClassLoader() == definedClass.getClassLoader() ? klass : null;
+		}
+		catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+
 	public Class<?> getClassByName(String name) {
 		return getClassByName(name, null);
 	}
@@ -194,25 +375,32 @@ public class InstrumentationHelper {
 	}
 
 	public ClassFields getClassFields(Class<?> klass, Object object) {
+		final ValueRenderer valueRenderer =
+				new ValueRenderer(MAX_FIELDS_CHARS, MAX_VALUE_STRING_LENGTH, MAX_FIELDS_NANOS, false);
 		final List<ClassField> fields = new ArrayList<>();
 		Class<?> currentClass = klass;
 		try {
 			while (currentClass != null) {
-				final Field[] currentClassFields = currentClass.getDeclaredFields();
-				for (Field field : currentClassFields) {
+				for (Field field : ACCESSIBLE_FIELDS.get(currentClass)) {
 					if (object == null && !Modifier.isStatic(field.getModifiers())) {
 						continue;
 					}
 					final Object fieldValue;
 					try {
-						field.setAccessible(true);
 						fieldValue = field.get(object);
 					}
 					catch (Exception ignored) {
 						continue;
 					}
-					final ClassField classField = convertToClassField(currentClass, field, fieldValue);
-					fields.add(classField);
+					final ClassFieldKey classKey = new ClassFieldKey(currentClass.getName(),
+					                                                 field.getName(),
+					                                                 field.getType().getName(),
+					                                                 Modifier.fieldModifiers() & field.getModifiers());
+					if (!valueRenderer.consume(getKeyChars(classKey))) {
+						Log.warn("Fields of " + klass.getName() + " don't fit in a packet, leaving out the rest");
+						return new ClassFields(fields.toArray(new ClassField[0]));
+					}
+					fields.add(convertToClassField(classKey, fieldValue, valueRenderer));
 				}
 				currentClass = currentClass.getSuperclass();
 			}
@@ -223,48 +411,55 @@ public class InstrumentationHelper {
 		return new ClassFields(fields.toArray(new ClassField[0]));
 	}
 
-	private ClassField convertToClassField(Class<?> currentClass, Field field, Object fieldValue) {
-		final ClassFieldKey classKey = new ClassFieldKey(currentClass.getName(),
-		                                                 field.getName(),
-		                                                 field.getType().getName(),
-		                                                 Modifier.fieldModifiers() & field.getModifiers());
-		if (fieldValue instanceof Class) {
-			return new ClassField(classKey, new WrappedObject(getObjectString(fieldValue)));
+	// The object's own toString, which can be slow, so this is only done when asked for
+	public String getObjectString(ClassLoader classLoader, ClassFieldKey[] classFieldPath) {
+		final Object object = getObject(classLoader, classFieldPath);
+		if (object == null) {
+			return null;
 		}
-		if (fieldValue == null || isPrimitiveOrWrapperOrString(fieldValue)) {
-			return new ClassField(classKey, fieldValue);
+		return new ValueRenderer(MAX_TO_STRING_LENGTH, MAX_TO_STRING_LENGTH, MAX_TO_STRING_NANOS, true).render(object);
+	}
+
+	private static int getKeyChars(ClassFieldKey classKey) {
+		return classKey.getClassName().length() + classKey.getFieldName().length() + classKey.getTypeName().length()
+		       + FIELD_OVERHEAD_CHARS;
+	}
+
+	private ClassField convertToClassField(ClassFieldKey classKey, Object fieldValue, ValueRenderer valueRenderer) {
+		if (fieldValue == null) {
+			return new ClassField(classKey, null);
 		}
-		else if (fieldValue.getClass().isArray() && isPrimitiveOrWrapperOrString(fieldValue.getClass()
-		                                                                                   .getComponentType())) {
-			if (instrumentation.getObjectSize(fieldValue) >= MAX_ARRAY_BYTES) {
-				return new ClassField(classKey, new WrappedObject(getObjectString(fieldValue)));
+		else if (fieldValue instanceof String) {
+			final int length = ((String) fieldValue).length();
+			if (length <= MAX_STRING_LENGTH && valueRenderer.tryReserve(length)) {
+				return new ClassField(classKey, fieldValue);
 			}
+		}
+		else if (isPrimitiveOrWrapperOrString(fieldValue)) {
+			valueRenderer.consume(FIELD_OVERHEAD_CHARS);
 			return new ClassField(classKey, fieldValue);
 		}
-		else if (fieldValue.getClass().isArray()) {
-			try {
-				final String arrayAsString = Arrays.deepToString((Object[]) fieldValue);
-				if (arrayAsString.length() < MAX_ARRAY_STRING_LENGTH) {
-					return new ClassField(classKey, new WrappedObject(arrayAsString));
-				}
-			}
-			catch (Exception e) {
-				// deepToString calls toString on the objects which could throw an exception
-				Log.warn("Failed to get string representation of " + fieldValue, e);
+		else if (fieldValue.getClass().isArray() && isPrimitiveOrWrapperOrString(fieldValue.getClass()
+		                                                                                   .getComponentType())) {
+			final long arrayBytes = getArrayBytes(fieldValue);
+			if (arrayBytes < MAX_ARRAY_BYTES && valueRenderer.tryReserve(arrayBytes)) {
+				return new ClassField(classKey, fieldValue);
 			}
 		}
-		return new ClassField(classKey, new WrappedObject(getObjectString(fieldValue)));
+		return new ClassField(classKey, new WrappedObject(valueRenderer.render(fieldValue)));
 	}
 
-	private String getObjectString(Object fieldValue) {
-		try {
-			return String.valueOf(fieldValue);
-		}
-		catch (Exception e) {
-			// toString can throw an exception, we don't know the implementation
-			Log.warn("Failed to get string representation of " + fieldValue, e);
-			return fieldValue.getClass().getName();
+	// Strings in an array aren't part of its own size
+	private long getArrayBytes(Object array) {
+		long arrayBytes = instrumentation.getObjectSize(array);
+		if (array instanceof String[]) {
+			for (String string : (String[]) array) {
+				if (string != null) {
+					arrayBytes += string.length();
+				}
+			}
 		}
+		return arrayBytes;
 	}
 
 	private static boolean isPrimitiveOrWrapperOrString(Object object) {
@@ -279,16 +474,53 @@ public class InstrumentationHelper {
 	public PatchResult redefineClass(Class<?> klass, byte[] bytes) {
 		try {
 			instrumentation.redefineClasses(new ClassDefinition(klass, bytes));
+			classBytesCache.invalidate(klass);
 			return PatchResult.builder().success(true).build();
 		}
 		catch (Throwable e) {
 			// Several exceptions/errors can be thrown. We just want to know if it fails.
 			Log.warn("Failed to redefine class", e);
-			final StringWriter stringWriter = new StringWriter();
-			final PrintWriter printWriter = new PrintWriter(stringWriter);
-			e.printStackTrace(printWriter);
-			return PatchResult.builder().success(false).message(stringWriter.toString()).build();
+			return PatchResult.builder().success(false).message(getStackTrace(e)).build();
+		}
+	}
+
+	// All classes are redefined in a single call, so either they all change or none do
+	public PatchResult redefineClasses(Map<Class<?>, byte[]> classFiles) {
+		final StringBuilder problems = new StringBuilder();
+		for (Class<?> klass : classFiles.keySet()) {
+			if (!instrumentation.isModifiableClass(klass)) {
+				problems.append(klass.getName()).append(": class is not modifiable\n");
+			}
+		}
+		if (problems.length() > 0) {
+			return PatchResult.builder().success(false).message("No classes were redefined\n" + problems).build();
+		}
+		final List<ClassDefinition> classDefinitions = new ArrayList<>();
+		for (Map.Entry<Class<?>, byte[]> classFile : classFiles.entrySet()) {
+			classDefinitions.add(new ClassDefinition(classFile.getKey(), classFile.getValue()));
+		}
+		try {
+			instrumentation.redefineClasses(classDefinitions.toArray(new ClassDefinition[0]));
+			for (Class<?> klass : classFiles.keySet()) {
+				classBytesCache.invalidate(klass);
+			}
+			return PatchResult.builder().success(true).message("Redefined " + classFiles.size() + " classes").build();
+		}
+		catch (Throwable e) {
+			// The JVM doesn't say which class was the problem, but the message usually includes the class name
+			Log.warn("Failed to redefine classes", e);
+			return PatchResult.builder()
+			                  .success(false)
+			                  .message("No classes were redefined\n" + getStackTrace(e))
+			                  .build();
 		}
 	}
 
+	private String getStackTrace(Throwable throwable) {
+		final StringWriter stringWriter = new StringWriter();
+		final PrintWriter printWriter = new PrintWriter(stringWriter);
+		throwable.printStackTrace(printWriter);
+		return stringWriter.toString();
+	}
+
 }
@@ -2,36 +2,87 @@ package com.github.naton1.jvmexplorer.agent;
 
 import com.esotericsoftware.kryonet.Client;
 import com.esotericsoftware.minlog.Log;
+import com.github.naton1.jvmexplorer.protocol.ByteStreamAssembler;
+import com.github.naton1.jvmexplorer.protocol.ByteStreams;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
 import com.github.naton1.jvmexplorer.protocol.ClassContent;
 import com.github.naton1.jvmexplorer.protocol.ClassField;
 import com.github.naton1.jvmexplorer.protocol.ClassFieldPath;
+import com.github.naton1.jvmexplorer.protocol.ClassFileBundle;
 import com.github.naton1.jvmexplorer.protocol.ClassFields;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
+import com.github.naton1.jvmexplorer.protocol.CompressingSerialization;
+import com.github.naton1.jvmexplorer.protocol.ConstantSearchResult;
 import com.github.naton1.jvmexplorer.protocol.ExecutionResult;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
 import com.github.naton1.jvmexplorer.protocol.JvmConnection;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassBlock;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassFilter;
 import com.github.naton1.jvmexplorer.protocol.PacketType;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
+import com.github.naton1.jvmexplorer.protocol.Protocol;
 import lombok.RequiredArgsConstructor;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RequiredArgsConstructor
 public class JvmConnectionImpl implements JvmConnection {
 
+	private static final int STREAM_TIMEOUT_SECONDS = 30;
+
+	// Classes are retransformed this many at a time, so the first packets go out while the rest are still captured
+	private static final int CLASS_BYTES_BATCH_SIZE = 100;
+	private static final int MAX_CLASSES_PER_PACKET = 100;
+	// Loaded classes are front coded, so a block this size still comes out well under the object buffer
+	private static final int MAX_CLASSES_PER_BLOCK = 500;
+
+	private static final int MAX_RESULTS_PER_PACKET = 50;
+	// Keeps a single class full of matching constants from overflowing a packet
+	private static final int MAX_MATCHES_PER_CLASS = 20;
+	private static final long MAX_CACHED_CONSTANT_CHARS = 16 * 1024 * 1024;
+
+	// The callable's result and stack trace can be any size, so they're cut short to fit the object buffer
+	private static final int MAX_EXECUTION_MESSAGE_LENGTH = Protocol.OBJECT_BUFFER_SIZE / 4;
+	private static final long MAX_EXECUTION_MESSAGE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
 	private final JvmClient jvmClient;
 	private final InstrumentationHelper instrumentationHelper;
 	private final Client client;
 	private final ExecutorService executorService;
+	// Shared by every search on the connection, rather than starting new threads for each one
+	private final ExecutorService scanExecutorService;
 	private final ClassLoaderStore classLoaderStore;
+	private final ByteStreamAssembler byteStreamAssembler;
+	private final ClassLoadListener classLoadListener;
+
+	// The explorer allocates positive stream ids, so use negative ones to avoid any overlap
+	private final AtomicInteger nextStreamId = new AtomicInteger();
+
+	private final ClassConstantsCache classConstantsCache = new ClassConstantsCache(MAX_CACHED_CONSTANT_CHARS);
+
+	// Classes sent so far for the patch being staged. Nothing is redefined until the whole patch has arrived.
+	private final Map<Class<?>, byte[]> stagedClasses = new LinkedHashMap<>();
+	private int stagedPatchId;
 
 	@Override
 	public ClassContent getClassContent(LoadedClass loadedClass) {
@@ -44,8 +95,13 @@ public class JvmConnectionImpl implements JvmConnection {
 				return null;
 			}
 			Log.debug("Found class: " + klass);
-			final byte[] classContent = instrumentationHelper.getClassBytes(klass);
+			byte[] classContent = instrumentationHelper.getClassBytes(klass);
 			Log.debug("Found class bytes for: " + klass);
+			if (classContent.length > Protocol.MAX_INLINE_CLASS_BYTES) {
+				// Too large to send inline, the explorer will stream it separately
+				Log.debug("Class is too large to send inline: " + classContent.length);
+				classContent = null;
+			}
 			final ClassFields classFields = instrumentationHelper.getClassFields(klass, null);
 			Log.debug("Found class fields for: " + klass);
 			return new ClassContent(loadedClass, classContent, classFields);
@@ -75,7 +131,17 @@ public class JvmConnectionImpl implements JvmConnection {
 	}
 
 	@Override
-	public byte[] getClassBytes(LoadedClass loadedClass) {
+	public String getFieldString(ClassFieldPath classFieldPath) {
+		final ClassLoader classLoader = classLoaderStore.lookup(classFieldPath.getClassLoaderDescriptor());
+		return instrumentationHelper.getObjectString(classLoader, classFieldPath.getClassFieldKeys());
+	}
+
+	@Override
+	public void streamClassBytes(int streamId, LoadedClass loadedClass) {
+		executorService.submit(new ClassBytesSender(streamId, loadedClass));
+	}
+
+	private byte[] getClassBytes(LoadedClass loadedClass) {
 		final ClassLoader classLoader = classLoaderStore.lookup(loadedClass.getClassLoaderDescriptor());
 		final Class<?> klass = instrumentationHelper.getClassByName(loadedClass.getName(), classLoader);
 		if (klass == null) {
@@ -85,18 +151,103 @@ public class JvmConnectionImpl implements JvmConnection {
 	}
 
 	@Override
-	public void requestPackets(PacketType packetType) {
-		executorService.submit(new PacketProcessor(packetType));
+	public void requestPackets(int streamId, PacketType packetType) {
+		executorService.submit(new PacketProcessor(streamId, packetType, null, null, LoadedClassFilter.ALL));
+	}
+
+	@Override
+	public void requestLoadedClasses(int streamId, LoadedClassFilter filter) {
+		executorService.submit(new PacketProcessor(streamId, PacketType.LOADED_CLASSES, null, null, filter));
+	}
+
+	@Override
+	public void countLoadedClasses(int requestId, LoadedClassFilter filter) {
+		executorService.submit(new LoadedClassCounter(requestId, filter));
+	}
+
+	@Override
+	public void requestClassBytes(int streamId, LoadedClass[] loadedClasses) {
+		executorService.submit(new PacketProcessor(streamId, PacketType.CLASS_BYTES, loadedClasses, null, null));
+	}
+
+	@Override
+	public void searchConstants(int streamId, String query) {
+		executorService.submit(new PacketProcessor(streamId, PacketType.SEARCH_RESULTS, null, query, null));
 	}
 
 	@Override
-	public PatchResult redefineClass(LoadedClass loadedClass, byte[] bytes) {
+	public PatchResult redefineClass(LoadedClass loadedClass, int streamId) {
+		// Chunks are processed on the update thread before this call is dispatched, so this shouldn't need to wait
+		final byte[] bytes = byteStreamAssembler.await(streamId, STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		if (bytes == null) {
+			return PatchResult.builder().success(false).message("Failed to receive class file").build();
+		}
 		final ClassLoader classLoader = classLoaderStore.lookup(loadedClass.getClassLoaderDescriptor());
 		final Class<?> klass = instrumentationHelper.getClassByName(loadedClass.getName(), classLoader);
 		if (klass == null) {
 			return PatchResult.builder().success(false).message("Failed to find class: " + loadedClass).build();
 		}
-		return instrumentationHelper.redefineClass(klass, bytes);
+		final PatchResult patchResult = instrumentationHelper.redefineClass(klass, bytes);
+		classConstantsCache.invalidate(klass);
+		return patchResult;
+	}
+
+	@Override
+	public synchronized PatchResult stageClasses(int patchId, ClassLoaderDescriptor classLoaderDescriptor,
+	                                             int streamId) {
+		if (patchId != stagedPatchId) {
+			stagedClasses.clear();
+			stagedPatchId = patchId;
+		}
+		final byte[] bundle = byteStreamAssembler.await(streamId, STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		if (bundle == null) {
+			stagedClasses.clear();
+			return PatchResult.builder().success(false).message("Failed to receive class files").build();
+		}
+		final Map<String, byte[]> classFiles;
+		try {
+			classFiles = ClassFileBundle.decode(bundle);
+		}
+		catch (IOException e) {
+			Log.warn("Failed to read class files", e);
+			stagedClasses.clear();
+			return PatchResult.builder().success(false).message("Failed to read class files").build();
+		}
+		final ClassLoader classLoader = classLoaderStore.lookup(classLoaderDescriptor);
+		final StringBuilder problems = new StringBuilder();
+		for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+			final Class<?> klass = instrumentationHelper.getClassByName(classFile.getKey(), classLoader);
+			if (klass == null) {
+				problems.append(classFile.getKey()).append(": class not found\n");
+				continue;
+			}
+			stagedClasses.put(klass, classFile.getValue());
+		}
+		if (problems.length() > 0) {
+			stagedClasses.clear();
+			return PatchResult.builder().success(false).message("No classes were redefined\n" + problems).build();
+		}
+		return PatchResult.builder().success(true).message("Staged " + stagedClasses.size() + " classes").build();
+	}
+
+	@Override
+	public synchronized PatchResult redefineStagedClasses(int patchId) {
+		if (patchId != stagedPatchId || stagedClasses.isEmpty()) {
+			return PatchResult.builder().success(false).message("No classes were staged for the patch").build();
+		}
+		final Map<Class<?>, byte[]> classDefinitions = new LinkedHashMap<>(stagedClasses);
+		stagedClasses.clear();
+		final PatchResult patchResult = instrumentationHelper.redefineClasses(classDefinitions);
+		for (Class<?> klass : classDefinitions.keySet()) {
+			classConstantsCache.invalidate(klass);
+		}
+		return patchResult;
+	}
+
+	@Override
+	public void setCompression(int compression) {
+		Log.info("Using compression: " + compression);
+		((CompressingSerialization) client.getSerialization()).setCompression(client, compression);
 	}
 
 	@Override
@@ -108,62 +259,421 @@ public class JvmConnectionImpl implements JvmConnection {
 			final Class<?> klass = classLoader.loadClass(className);
 			final Callable<Object> callable = (Callable<Object>) klass.getConstructor().newInstance();
 			final Object result = callable.call();
-			return ExecutionResult.builder().success(true).message(String.valueOf(result)).build();
+			return ExecutionResult.builder().success(true).message(toExecutionMessage(result)).build();
 		}
 		catch (Throwable e) {
 			Log.warn("Failed to execute class", e);
 			final StringWriter stringWriter = new StringWriter();
 			final PrintWriter printWriter = new PrintWriter(stringWriter);
 			e.printStackTrace(printWriter);
-			return ExecutionResult.builder().success(false).message(stringWriter.toString()).build();
-		}
-	}
-
-	private void processLoadedClassPackets(PacketType packetType) {
-		final List<Class<?>> applicationClasses = instrumentationHelper.getApplicationClasses();
-		final List<LoadedClass> classes = new ArrayList<>();
-		for (Class<?> c : applicationClasses) {
-			final String className = c.getName();
-			final ClassLoaderDescriptor classLoaderDescriptor =
-					c.getClassLoader() != null ? classLoaderStore.store(c.getClassLoader()) : null;
-			final LoadedClass loadedClass = new LoadedClass(className,
-			                                                classLoaderDescriptor,
-			                                                LoadedClass.MetaType.getFor(c));
-			classes.add(loadedClass);
-		}
-		final int packetSize = 100;
-		final int packetCount = (int) Math.ceil(classes.size() / (double) packetSize);
-		final Queue<LoadedClass[]> loadedClassPackets = new ConcurrentLinkedQueue<>();
-		final IdlePacketSender<LoadedClass> idlePacketSender = new IdlePacketSender<>(loadedClassPackets,
-		                                                                              packetType,
-		                                                                              jvmClient,
-		                                                                              false);
+			return ExecutionResult.builder().success(false).message(toExecutionMessage(stringWriter.toString())).build();
+		}
+	}
+
+	private static String toExecutionMessage(Object value) {
+		return new ValueRenderer(MAX_EXECUTION_MESSAGE_LENGTH,
+		                         MAX_EXECUTION_MESSAGE_LENGTH,
+		                         MAX_EXECUTION_MESSAGE_NANOS,
+		                         true).render(value);
+	}
+
+	private void processLoadedClassPackets(int streamId, LoadedClassFilter filter) {
+		// Start tracking before taking the snapshot so nothing is missed. The explorer ignores duplicates.
+		classLoadListener.enable();
+		final List<Class<?>> loadedClasses = Arrays.asList(instrumentationHelper.getAllLoadedClasses());
+		// Neighbouring names share the longest prefixes this way
+		Collections.sort(loadedClasses, new Comparator<Class<?>>() {
+			@Override
+			public int compare(Class<?> first, Class<?> second) {
+				return first.getName().compareTo(second.getName());
+			}
+		});
+		final LoadedClassFilter.Matcher matcher = filter.matcher();
+		final Queue<LoadedClassBlock[]> loadedClassPackets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<LoadedClassBlock> idlePacketSender = new IdlePacketSender<>(loadedClassPackets,
+		                                                                                   streamId,
+		                                                                                   jvmClient,
+		                                                                                   false);
 		client.addListener(idlePacketSender);
+		// Filtering and describing classes is the slow part, so it's spread out over the shared scan threads. Shards
+		// are still sent in name order.
+		final Queue<Future<List<LoadedClass>>> shards = new ArrayDeque<>();
 		try {
-			for (int i = 0; i < packetCount; i++) {
-				final LoadedClass[] loadedClasses = classes.subList(i * packetSize,
-				                                                    Math.min((i + 1) * packetSize, classes.size()))
-				                                           .toArray(new LoadedClass[0]);
-				loadedClassPackets.add(loadedClasses);
+			// Only a few shards are described ahead of the encoder, so they don't pile up while the explorer catches up
+			final int maxShardsAhead = Math.max(1, Runtime.getRuntime().availableProcessors() - 1) * 2;
+			final Queue<Integer> shardEnds = new ArrayDeque<>();
+			final LoadedClassBlock.Encoder encoder = new LoadedClassBlock.Encoder();
+			int next = 0;
+			int shardStart = 0;
+			while (!idlePacketSender.isCancelled()) {
+				while (shards.size() < maxShardsAhead && next < loadedClasses.size()) {
+					final int end = Math.min(next + MAX_CLASSES_PER_BLOCK, loadedClasses.size());
+					shards.add(scanExecutorService.submit(new LoadedClassSharder(loadedClasses.subList(next, end),
+					                                                             matcher)));
+					shardEnds.add(end);
+					next = end;
+				}
+				final Future<List<LoadedClass>> shard = shards.poll();
+				if (shard == null) {
+					break;
+				}
+				final int shardEnd = shardEnds.poll();
+				final List<Class<?>> shardClasses = loadedClasses.subList(shardStart, shardEnd);
+				final List<LoadedClass> matches = awaitShard(shard, shardClasses, matcher);
+				shardStart = shardEnd;
+				for (LoadedClass loadedClass : matches) {
+					encoder.add(loadedClass.getName(),
+					            loadedClass.getClassLoaderDescriptor(),
+					            loadedClass.getMetaType());
+				}
+				if (encoder.size() > 0) {
+					if (!idlePacketSender.awaitCapacity()) {
+						return;
+					}
+					loadedClassPackets.add(new LoadedClassBlock[] { encoder.finish() });
+				}
 			}
 		}
 		finally {
+			// The scan threads are shared, so only this listing's shards are stopped
+			for (Future<List<LoadedClass>> shard : shards) {
+				shard.cancel(true);
+			}
 			idlePacketSender.end();
 		}
 	}
 
+	private int countMatchingClasses(LoadedClassFilter filter) {
+		final List<Class<?>> loadedClasses = Arrays.asList(instrumentationHelper.getAllLoadedClasses());
+		final LoadedClassFilter.Matcher matcher = filter.matcher();
+		final List<List<Class<?>>> shardClasses = new ArrayList<>();
+		final List<Future<List<LoadedClass>>> shards = new ArrayList<>();
+		try {
+			for (int i = 0; i < loadedClasses.size(); i += MAX_CLASSES_PER_BLOCK) {
+				final List<Class<?>> shard = loadedClasses.subList(i,
+				                                                   Math.min(i + MAX_CLASSES_PER_BLOCK,
+				                                                            loadedClasses.size()));
+				shardClasses.add(shard);
+				shards.add(scanExecutorService.submit(new LoadedClassSharder(shard, matcher)));
+			}
+			int count = 0;
+			for (int i = 0; i < shards.size(); i++) {
+				count += awaitShard(shards.get(i), shardClasses.get(i), matcher).size();
+			}
+			return count;
+		}
+		finally {
+			for (Future<List<LoadedClass>> shard : shards) {
+				shard.cancel(true);
+			}
+		}
+	}
+
+	// If the shard failed as a whole, its classes are described again one at a time, so only the classes that can't
+	// be described at all are left out, rather than everything else in the shard with them
+	private List<LoadedClass> awaitShard(Future<List<LoadedClass>> shard, List<Class<?>> classes,
+	                                     LoadedClassFilter.Matcher matcher) {
+		try {
+			return shard.get();
+		}
+		catch (ExecutionException e) {
+			Log.warn("Failed to process loaded classes, retrying them one at a time", e.getCause());
+			final List<LoadedClass> matches = new ArrayList<>();
+			for (Class<?> klass : classes) {
+				try {
+					final LoadedClass loadedClass = toMatchingLoadedClass(klass, matcher);
+					if (loadedClass != null) {
+						matches.add(loadedClass);
+					}
+				}
+				catch (Throwable t) {
+					Log.warn("Failed to process loaded class " + klass.getName(), t);
+				}
+			}
+			return matches;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while processing loaded classes", e);
+		}
+	}
+
+	// Null if the class doesn't match. The name is checked first since it doesn't need anything worked out.
+	private LoadedClass toMatchingLoadedClass(Class<?> klass, LoadedClassFilter.Matcher matcher) {
+		if (!matcher.matchesName(klass.getName()) || !instrumentationHelper.isApplicationClass(klass)) {
+			return null;
+		}
+		final ClassLoaderDescriptor classLoaderDescriptor =
+				klass.getClassLoader() != null ? classLoaderStore.store(klass.getClassLoader()) : null;
+		if (!matcher.matchesClassLoader(classLoaderDescriptor)) {
+			return null;
+		}
+		final LoadedClass.MetaType metaType = LoadedClass.MetaType.getFor(klass);
+		if (!matcher.matchesMetaType(metaType)) {
+			return null;
+		}
+		return new LoadedClass(klass.getName(), classLoaderDescriptor, metaType);
+	}
+
+	private void processClassBytesPackets(int streamId, LoadedClass[] loadedClasses) {
+		final Queue<ClassBytes[]> classBytesPackets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<ClassBytes> idlePacketSender = new IdlePacketSender<>(classBytesPackets,
+		                                                                             streamId,
+		                                                                             jvmClient,
+		                                                                             false);
+		client.addListener(idlePacketSender);
+		try {
+			final List<ClassBytes> packet = new ArrayList<>();
+			int packetBytes = 0;
+			for (int i = 0; i < loadedClasses.length; i += CLASS_BYTES_BATCH_SIZE) {
+				final List<LoadedClass> batch = Arrays.asList(loadedClasses)
+				                                      .subList(i,
+				                                               Math.min(i + CLASS_BYTES_BATCH_SIZE,
+				                                                        loadedClasses.length));
+				for (ClassBytes classBytes : getClassBytes(batch)) {
+					packet.add(classBytes);
+					if (classBytes.getBytes() != null) {
+						packetBytes += classBytes.getBytes().length;
+					}
+					if (packet.size() >= MAX_CLASSES_PER_PACKET || packetBytes >= Protocol.MAX_INLINE_CLASS_BYTES) {
+						if (!idlePacketSender.awaitCapacity()) {
+							return;
+						}
+						classBytesPackets.add(packet.toArray(new ClassBytes[0]));
+						packet.clear();
+						packetBytes = 0;
+					}
+				}
+			}
+			if (!packet.isEmpty()) {
+				classBytesPackets.add(packet.toArray(new ClassBytes[0]));
+			}
+		}
+		finally {
+			idlePacketSender.end();
+		}
+	}
+
+	private List<ClassBytes> getClassBytes(List<LoadedClass> loadedClasses) {
+		final List<ClassBytes> classBytes = new ArrayList<>();
+		final List<LoadedClass> foundLoadedClasses = new ArrayList<>();
+		final List<Class<?>> foundClasses = new ArrayList<>();
+		for (LoadedClass loadedClass : loadedClasses) {
+			final ClassLoader classLoader = classLoaderStore.lookup(loadedClass.getClassLoaderDescriptor());
+			final Class<?> klass = instrumentationHelper.getClassByName(loadedClass.getName(), classLoader);
+			if (klass == null) {
+				Log.warn("Failed to find class: " + loadedClass);
+				classBytes.add(new ClassBytes(loadedClass, null, 0));
+				continue;
+			}
+			foundLoadedClasses.add(loadedClass);
+			foundClasses.add(klass);
+		}
+		final Map<Class<?>, byte[]> bytes = instrumentationHelper.getClassBytes(foundClasses);
+		for (int i = 0; i < foundClasses.size(); i++) {
+			final LoadedClass loadedClass = foundLoadedClasses.get(i);
+			final byte[] classFile = bytes.get(foundClasses.get(i));
+			if (classFile != null && classFile.length > Protocol.MAX_INLINE_CLASS_BYTES) {
+				// Sent right away, so the chunks are already there by the time the explorer reaches this class
+				final int streamId = nextStreamId.decrementAndGet();
+				ByteStreams.send(client, streamId, classFile);
+				classBytes.add(new ClassBytes(loadedClass, null, streamId));
+			}
+			else {
+				classBytes.add(new ClassBytes(loadedClass, classFile, 0));
+			}
+		}
+		return classBytes;
+	}
+
+	private void processSearchResultPackets(int streamId, String query) {
+		final Queue<ConstantSearchResult[]> resultPackets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<ConstantSearchResult> idlePacketSender = new IdlePacketSender<>(resultPackets,
+		                                                                                       streamId,
+		                                                                                       jvmClient,
+		                                                                                       false);
+		client.addListener(idlePacketSender);
+		// Class files are captured on this thread, while reading them is spread out over the shared scan threads
+		final List<Future<String[]>> scans = new ArrayList<>();
+		try {
+			final String lowerQuery = query.toLowerCase(Locale.ROOT);
+			final List<Class<?>> classes = instrumentationHelper.getApplicationClasses();
+			final List<ConstantSearchResult> packet = new ArrayList<>();
+			for (int i = 0; i < classes.size(); i += CLASS_BYTES_BATCH_SIZE) {
+				final List<Class<?>> batch = classes.subList(i, Math.min(i + CLASS_BYTES_BATCH_SIZE, classes.size()));
+				final Map<Class<?>, byte[]> classBytes = getUnscannedClassBytes(batch);
+				scans.clear();
+				for (Class<?> klass : batch) {
+					scans.add(scanExecutorService.submit(new ConstantScanner(klass, classBytes.get(klass), lowerQuery)));
+				}
+				for (int j = 0; j < batch.size(); j++) {
+					final String[] matches = awaitScan(batch.get(j), scans.get(j));
+					if (matches == null) {
+						continue;
+					}
+					packet.add(new ConstantSearchResult(toLoadedClass(batch.get(j)), matches));
+					if (packet.size() >= MAX_RESULTS_PER_PACKET) {
+						if (!idlePacketSender.awaitCapacity()) {
+							return;
+						}
+						resultPackets.add(packet.toArray(new ConstantSearchResult[0]));
+						packet.clear();
+					}
+				}
+			}
+			if (!packet.isEmpty()) {
+				resultPackets.add(packet.toArray(new ConstantSearchResult[0]));
+			}
+		}
+		finally {
+			// The scan threads are shared, so only this search's scans are stopped
+			for (Future<String[]> scan : scans) {
+				scan.cancel(true);
+			}
+			idlePacketSender.end();
+		}
+	}
+
+	private Map<Class<?>, byte[]> getUnscannedClassBytes(List<Class<?>> classes) {
+		final List<Class<?>> unscannedClasses = new ArrayList<>();
+		for (Class<?> klass : classes) {
+			if (classConstantsCache.get(klass) == null) {
+				unscannedClasses.add(klass);
+			}
+		}
+		return instrumentationHelper.getClassBytes(unscannedClasses);
+	}
+
+	private String[] awaitScan(Class<?> klass, Future<String[]> scan) {
+		try {
+			return scan.get();
+		}
+		catch (ExecutionException e) {
+			Log.warn("Failed to scan constants of " + klass.getName(), e.getCause());
+			return null;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while scanning constants", e);
+		}
+	}
+
+	private LoadedClass toLoadedClass(Class<?> klass) {
+		final ClassLoaderDescriptor classLoaderDescriptor =
+				klass.getClassLoader() != null ? classLoaderStore.store(klass.getClassLoader()) : null;
+		return new LoadedClass(klass.getName(), classLoaderDescriptor, LoadedClass.MetaType.getFor(klass));
+	}
+
+	@RequiredArgsConstructor
+	private class ClassBytesSender implements Runnable {
+		private final int streamId;
+		private final LoadedClass loadedClass;
+
+		@Override
+		public void run() {
+			byte[] bytes = null;
+			try {
+				bytes = getClassBytes(loadedClass);
+			}
+			catch (Exception e) {
+				Log.warn("Failed to get class bytes for " + loadedClass, e);
+			}
+			ByteStreams.send(client, streamId, bytes);
+		}
+	}
+
+	@RequiredArgsConstructor
+	private class LoadedClassSharder implements Callable<List<LoadedClass>> {
+		// Sorted by name, and not yet filtered
+		private final List<Class<?>> shard;
+		private final LoadedClassFilter.Matcher matcher;
+
+		@Override
+		public List<LoadedClass> call() {
+			final List<LoadedClass> matches = new ArrayList<>();
+			for (Class<?> c : shard) {
+				final LoadedClass loadedClass = toMatchingLoadedClass(c, matcher);
+				if (loadedClass != null) {
+					matches.add(loadedClass);
+				}
+			}
+			return matches;
+		}
+	}
+
+	@RequiredArgsConstructor
+	private class LoadedClassCounter implements Runnable {
+		private final int requestId;
+		private final LoadedClassFilter filter;
+
+		@Override
+		public void run() {
+			int count = -1;
+			try {
+				count = countMatchingClasses(filter);
+			}
+			catch (Exception e) {
+				Log.warn("Failed to count loaded classes", e);
+			}
+			jvmClient.sendLoadedClassCount(requestId, count);
+		}
+	}
+
+	@RequiredArgsConstructor
+	private class ConstantScanner implements Callable<String[]> {
+		private final Class<?> klass;
+		// Null if the constants are already cached
+		private final byte[] classFile;
+		private final String lowerQuery;
+
+		// Null if nothing matched
+		@Override
+		public String[] call() throws IOException {
+			ClassConstantsCache.Constants constants = classConstantsCache.get(klass);
+			if (constants == null) {
+				if (classFile == null || classFile.length == 0) {
+					return null;
+				}
+				constants = classConstantsCache.put(klass, ConstantPoolScanner.getConstants(classFile));
+			}
+			final List<String> matches = new ArrayList<>();
+			for (int i = 0; i < constants.size(); i++) {
+				if (constants.getLowerConstant(i).contains(lowerQuery)) {
+					matches.add(constants.getConstant(i));
+					if (matches.size() >= MAX_MATCHES_PER_CLASS) {
+						break;
+					}
+				}
+			}
+			return matches.isEmpty() ? null : matches.toArray(new String[0]);
+		}
+	}
+
 	@RequiredArgsConstructor
 	private class PacketProcessor implements Runnable {
+		private final int streamId;
 		private final PacketType packetType;
+		// Only set for CLASS_BYTES
+		private final LoadedClass[] loadedClasses;
+		// Only set for SEARCH_RESULTS
+		private final String query;
+		// Only set for LOADED_CLASSES
+		private final LoadedClassFilter filter;
 
 		@Override
 		public void run() {
-			Log.debug("Received packet request for " + packetType);
+			Log.debug("Received packet request for " + packetType + " on stream " + streamId);
 			try {
 				// Note: could probably generalize the logic for packets in the future, if needed
 				switch (packetType) {
 				case LOADED_CLASSES:
-					processLoadedClassPackets(packetType);
+					processLoadedClassPackets(streamId, filter);
+					break;
+				case CLASS_BYTES:
+					processClassBytesPackets(streamId, loadedClasses);
+					break;
+				case SEARCH_RESULTS:
+					processSearchResultPackets(streamId, query);
 					break;
 				default:
 					Log.warn("Unknown packet type: " + packetType);
@@ -172,7 +682,7 @@ public class JvmConnectionImpl implements JvmConnection {
 			}
 			catch (Exception e) {
 				Log.warn("Caught exception while initializing packet transfer", e);
-				jvmClient.endPacketTransfer(packetType, 0);
+				jvmClient.endPacketTransfer(streamId, 0);
 			}
 		}
 	}
@@ -0,0 +1,22 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import lombok.RequiredArgsConstructor;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+
+// Transformers outlive the agent, so make sure nothing is left behind once the explorer goes away
+@RequiredArgsConstructor
+public class RemoveTransformerListener extends Listener {
+
+	private final Instrumentation instrumentation;
+	private final ClassFileTransformer transformer;
+
+	@Override
+	public void disconnected(Connection connection) {
+		instrumentation.removeTransformer(transformer);
+	}
+
+}
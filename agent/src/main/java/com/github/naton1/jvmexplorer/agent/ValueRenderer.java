@@ -0,0 +1,281 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.regex.Pattern;
+
+// Describes field values without calling toString on anything from the target app unless asked to, since that can be
+// arbitrarily slow on a large object graph. Arrays and the JDK's own collections and maps show their size and first few
+// elements instead. Each set of fields gets its own renderer, which stops going into detail once it has used up its
+// time or characters. Not thread safe.
+class ValueRenderer {
+
+	private static final int MAX_ELEMENTS = 10;
+	// Elements of elements are still shown, but anything deeper is just its size
+	private static final int MAX_DEPTH = 2;
+	private static final String TRUNCATED = "...";
+
+	// Walk every element just to count them
+	private static final Class<?>[] LINEAR_SIZE_CLASSES = { ConcurrentLinkedQueue.class,
+	                                                        ConcurrentLinkedDeque.class,
+	                                                        LinkedTransferQueue.class,
+	                                                        ConcurrentSkipListMap.class,
+	                                                        ConcurrentSkipListSet.class };
+	// Nested JDK collections are mostly views and wrappers, which pass every call on to whatever they wrap. These ones
+	// hold their own elements.
+	private static final String[] SELF_CONTAINED_NESTED_PREFIXES = { "java.util.ImmutableCollections$",
+	                                                                 "java.util.Arrays$ArrayList",
+	                                                                 "java.util.Collections$Empty",
+	                                                                 "java.util.Collections$Singleton" };
+
+	private final int maxValueLength;
+	private final long deadline;
+	private final boolean invokeToString;
+	private int remainingChars;
+
+	ValueRenderer(int maxChars, int maxValueLength, long maxNanos, boolean invokeToString) {
+		this.remainingChars = maxChars;
+		this.maxValueLength = maxValueLength;
+		this.deadline = System.nanoTime() + maxNanos;
+		this.invokeToString = invokeToString;
+	}
+
+	// For what's sent no matter what, like field keys. False once there's nothing left.
+	boolean consume(long chars) {
+		remainingChars = (int) Math.max(Integer.MIN_VALUE, remainingChars - chars);
+		return remainingChars >= 0;
+	}
+
+	// Values sent as they are still count towards the budget
+	boolean tryReserve(long chars) {
+		if (chars > remainingChars || isExpired()) {
+			return false;
+		}
+		remainingChars -= (int) chars;
+		return true;
+	}
+
+	String render(Object value) {
+		final int limit = Math.max(0, Math.min(maxValueLength, remainingChars));
+		final StringBuilder builder = new StringBuilder();
+		if (limit == 0 || isExpired()) {
+			appendIdentity(builder, value);
+		}
+		else {
+			append(builder, value, 0, limit);
+			if (builder.length() > limit) {
+				builder.setLength(limit);
+				builder.append(TRUNCATED);
+			}
+		}
+		remainingChars -= builder.length();
+		return builder.toString();
+	}
+
+	private void append(StringBuilder builder, Object value, int depth, int limit) {
+		if (value == null) {
+			builder.append("null");
+		}
+		else if (value instanceof Class) {
+			builder.append(value);
+		}
+		else if (value instanceof Enum) {
+			builder.append(((Enum<?>) value).name());
+		}
+		else if (value instanceof CharSequence && isJdkClass(value)) {
+			final CharSequence charSequence = (CharSequence) value;
+			final int room = Math.max(0, limit - builder.length());
+			builder.append(charSequence, 0, Math.min(charSequence.length(), room + 1));
+		}
+		else if (value.getClass().isArray()) {
+			appendArray(builder, value, depth, limit);
+		}
+		else if (invokeToString && depth == 0) {
+			appendToString(builder, value);
+		}
+		else if (value instanceof Collection && isSelfContainedJdkClass(value) && !isExpired()) {
+			appendCollection(builder, (Collection<?>) value, depth, limit);
+		}
+		else if (value instanceof Map && isSelfContainedJdkClass(value) && !isExpired()) {
+			appendMap(builder, (Map<?, ?>) value, depth, limit);
+		}
+		else if (isSafeToString(value)) {
+			builder.append(String.valueOf(value));
+		}
+		else {
+			appendIdentity(builder, value);
+		}
+	}
+
+	private void appendArray(StringBuilder builder, Object array, int depth, int limit) {
+		final int length = Array.getLength(array);
+		builder.append(array.getClass().getComponentType().getName()).append('[').append(length).append(']');
+		if (depth >= MAX_DEPTH || isExpired()) {
+			return;
+		}
+		builder.append(" [");
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			if (i >= MAX_ELEMENTS || builder.length() >= limit) {
+				builder.append(TRUNCATED);
+				break;
+			}
+			append(builder, Array.get(array, i), depth + 1, limit);
+		}
+		builder.append(']');
+	}
+
+	private void appendCollection(StringBuilder builder, Collection<?> collection, int depth, int limit) {
+		builder.append(collection.getClass().getName());
+		appendSize(builder, collection, " elements");
+		if (depth >= MAX_DEPTH) {
+			return;
+		}
+		builder.append(" [");
+		try {
+			final Iterator<?> iterator = collection.iterator();
+			for (int i = 0; iterator.hasNext(); i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				if (i >= MAX_ELEMENTS || builder.length() >= limit) {
+					builder.append(TRUNCATED);
+					break;
+				}
+				append(builder, iterator.next(), depth + 1, limit);
+			}
+		}
+		catch (Exception e) {
+			// Most likely changed while we were looking at it
+			Log.debug("Failed to iterate over " + collection.getClass().getName() + ": " + e);
+			builder.append(TRUNCATED);
+		}
+		builder.append(']');
+	}
+
+	private void appendMap(StringBuilder builder, Map<?, ?> map, int depth, int limit) {
+		builder.append(map.getClass().getName());
+		appendSize(builder, map, " entries");
+		if (depth >= MAX_DEPTH) {
+			return;
+		}
+		builder.append(" {");
+		try {
+			final Iterator<? extends Map.Entry<?, ?>> iterator = map.entrySet().iterator();
+			for (int i = 0; iterator.hasNext(); i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				if (i >= MAX_ELEMENTS || builder.length() >= limit) {
+					builder.append(TRUNCATED);
+					break;
+				}
+				final Map.Entry<?, ?> entry = iterator.next();
+				append(builder, entry.getKey(), depth + 1, limit);
+				builder.append('=');
+				append(builder, entry.getValue(), depth + 1, limit);
+			}
+		}
+		catch (Exception e) {
+			Log.debug("Failed to iterate over " + map.getClass().getName() + ": " + e);
+			builder.append(TRUNCATED);
+		}
+		builder.append('}');
+	}
+
+	private void appendSize(StringBuilder builder, Object collectionOrMap, String unit) {
+		final Class<?> klass = collectionOrMap.getClass();
+		for (Class<?> linearSizeClass : LINEAR_SIZE_CLASSES) {
+			if (linearSizeClass.isAssignableFrom(klass)) {
+				return;
+			}
+		}
+		final String className = klass.getName();
+		try {
+			final int size = collectionOrMap instanceof Map
+			                 ? ((Map<?, ?>) collectionOrMap).size()
+			                 : ((Collection<?>) collectionOrMap).size();
+			builder.append(" (").append(size).append(unit).append(')');
+		}
+		catch (Exception e) {
+			Log.debug("Failed to get size of " + className + ": " + e);
+		}
+	}
+
+	private void appendToString(StringBuilder builder, Object value) {
+		try {
+			builder.append(String.valueOf(value));
+		}
+		catch (Exception e) {
+			// toString can throw an exception, we don't know the implementation
+			Log.warn("Failed to get string representation of " + value.getClass().getName(), e);
+			appendIdentity(builder, value);
+		}
+	}
+
+	private static void appendIdentity(StringBuilder builder, Object value) {
+		if (value == null) {
+			builder.append("null");
+			return;
+		}
+		builder.append(value.getClass().getName())
+		       .append('@')
+		       .append(Integer.toHexString(System.identityHashCode(value)));
+	}
+
+	// JDK value types whose toString only looks at the object itself
+	private static boolean isSafeToString(Object value) {
+		if (!isJdkClass(value)) {
+			return false;
+		}
+		return value instanceof Number || value instanceof Boolean || value instanceof Character
+		       || value instanceof Date || value instanceof UUID || value instanceof File || value instanceof URI
+		       || value instanceof URL || value instanceof Locale || value instanceof Charset
+		       || value instanceof Pattern || value.getClass().getName().startsWith("java.time.");
+	}
+
+	// Only the JDK's own collections are looked into, since a single size or iterator call on anything else can take
+	// as long as it likes, and the time budget is only checked in between calls
+	private static boolean isSelfContainedJdkClass(Object value) {
+		if (!isJdkClass(value)) {
+			return false;
+		}
+		final String className = value.getClass().getName();
+		if (className.indexOf('$') == -1) {
+			return true;
+		}
+		for (String prefix : SELF_CONTAINED_NESTED_PREFIXES) {
+			if (className.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isJdkClass(Object value) {
+		return value.getClass().getClassLoader() == null;
+	}
+
+	private boolean isExpired() {
+		return System.nanoTime() - deadline > 0;
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+// Map key that doesn't keep a class (and its class loader) from being unloaded. Once the class is collected, the key
+// itself shows up in the queue it was created with, and still equals itself so it can be removed.
+class WeakClassKey extends WeakReference<Class<?>> {
+
+	private final int hashCode;
+
+	// Only used to look up a class
+	WeakClassKey(Class<?> klass) {
+		this(klass, null);
+	}
+
+	WeakClassKey(Class<?> klass, ReferenceQueue<Class<?>> queue) {
+		super(klass, queue);
+		this.hashCode = System.identityHashCode(klass);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof WeakClassKey)) {
+			return false;
+		}
+		final Class<?> klass = get();
+		return klass != null && klass == ((WeakClassKey) o).get();
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+public class ClassBytesCacheTest {
+
+	@Test
+	public void givenCacheOverMaxBytes_whenPut_thenLeastRecentlyUsedEvicted() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(25);
+		classBytesCache.put(String.class, new byte[10]);
+		classBytesCache.put(Integer.class, new byte[10]);
+		classBytesCache.get(String.class);
+
+		classBytesCache.put(Long.class, new byte[10]);
+
+		Assert.assertNotNull(classBytesCache.get(String.class));
+		Assert.assertNull(classBytesCache.get(Integer.class));
+		Assert.assertNotNull(classBytesCache.get(Long.class));
+		Assert.assertEquals(20, classBytesCache.getCachedBytes());
+	}
+
+	@Test
+	public void givenClassReplaced_whenPut_thenCachedBytesUpdated() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(100);
+		classBytesCache.put(String.class, new byte[10]);
+		classBytesCache.put(String.class, new byte[20]);
+
+		Assert.assertEquals(1, classBytesCache.size());
+		Assert.assertEquals(20, classBytesCache.getCachedBytes());
+	}
+
+	@Test
+	public void givenClassLargerThanCache_whenPut_thenNotCached() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(5);
+		classBytesCache.put(String.class, new byte[10]);
+
+		Assert.assertNull(classBytesCache.get(String.class));
+		Assert.assertEquals(0, classBytesCache.getCachedBytes());
+	}
+
+	@Test
+	public void givenCachedClass_whenInvalidate_thenRemoved() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(100);
+		classBytesCache.put(String.class, new byte[10]);
+
+		classBytesCache.invalidate(String.class);
+
+		Assert.assertNull(classBytesCache.get(String.class));
+		Assert.assertEquals(0, classBytesCache.getCachedBytes());
+	}
+
+	@Test
+	public void givenClassUnloaded_whenGetCachedBytes_thenNotCounted() throws InterruptedException {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(100);
+		classBytesCache.put(String.class, new byte[10]);
+		classBytesCache.put(createUnloadableClass(), new byte[20]);
+
+		for (int i = 0; i < 50 && classBytesCache.size() > 1; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+
+		Assert.assertEquals(1, classBytesCache.size());
+		Assert.assertEquals(10, classBytesCache.getCachedBytes());
+	}
+
+	// Defined in a class loader nothing else holds on to, so it's unloaded once collected
+	private static Class<?> createUnloadableClass() {
+		final ClassLoader classLoader = new URLClassLoader(new URL[0], null);
+		return Proxy.getProxyClass(classLoader, Runnable.class);
+	}
+
+}
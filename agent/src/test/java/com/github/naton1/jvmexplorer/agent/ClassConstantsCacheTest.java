@@ -0,0 +1,48 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClassConstantsCacheTest {
+
+	@Test
+	public void givenCacheOverMaxChars_whenPut_thenLeastRecentlyUsedEvicted() {
+		final ClassConstantsCache classConstantsCache = new ClassConstantsCache(25);
+		classConstantsCache.put(String.class, new String[] { "0123456789" });
+		classConstantsCache.put(Integer.class, new String[] { "01234", "56789" });
+		classConstantsCache.get(String.class);
+
+		classConstantsCache.put(Long.class, new String[] { "0123456789" });
+
+		Assert.assertNotNull(classConstantsCache.get(String.class));
+		Assert.assertNull(classConstantsCache.get(Integer.class));
+		Assert.assertNotNull(classConstantsCache.get(Long.class));
+		Assert.assertEquals(20, classConstantsCache.getCachedChars());
+	}
+
+	@Test
+	public void givenCachedClass_whenInvalidate_thenRemoved() {
+		final ClassConstantsCache classConstantsCache = new ClassConstantsCache(100);
+		classConstantsCache.put(String.class, new String[] { "0123456789" });
+
+		classConstantsCache.invalidate(String.class);
+
+		Assert.assertNull(classConstantsCache.get(String.class));
+		Assert.assertEquals(0, classConstantsCache.getCachedChars());
+	}
+
+	@Test
+	public void givenMixedCaseConstants_whenPut_thenLowercasedCopyCachedAndCounted() {
+		final ClassConstantsCache classConstantsCache = new ClassConstantsCache(100);
+		classConstantsCache.put(String.class, new String[] { "Hello", "world" });
+
+		final ClassConstantsCache.Constants constants = classConstantsCache.get(String.class);
+
+		Assert.assertEquals("Hello", constants.getConstant(0));
+		Assert.assertEquals("hello", constants.getLowerConstant(0));
+		Assert.assertEquals("world", constants.getLowerConstant(1));
+		// Only the constant that changed case needs a second copy
+		Assert.assertEquals(15, classConstantsCache.getCachedChars());
+	}
+
+}
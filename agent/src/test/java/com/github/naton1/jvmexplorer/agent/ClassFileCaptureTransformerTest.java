@@ -0,0 +1,49 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class ClassFileCaptureTransformerTest {
+
+	@Test
+	public void givenCapturingClass_whenTransform_thenBytesCaptured() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(1000);
+		final ClassFileCaptureTransformer transformer = new ClassFileCaptureTransformer(classBytesCache);
+		final byte[] classBytes = new byte[10];
+
+		final Map<Class<?>, byte[]> captured = transformer.beginCapture(Collections.<Class<?>>singletonList(String.class));
+		transformer.transform(String.class.getClassLoader(), "java/lang/String", String.class, null, classBytes);
+		transformer.endCapture();
+
+		Assert.assertEquals(classBytes, captured.get(String.class));
+	}
+
+	@Test
+	public void givenNotCapturingClass_whenTransform_thenCachedBytesInvalidated() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(1000);
+		final ClassFileCaptureTransformer transformer = new ClassFileCaptureTransformer(classBytesCache);
+		classBytesCache.put(String.class, new byte[10]);
+
+		final Map<Class<?>, byte[]> captured = transformer.beginCapture(Collections.<Class<?>>singletonList(Integer.class));
+		transformer.transform(String.class.getClassLoader(), "java/lang/String", String.class, null, new byte[10]);
+		transformer.endCapture();
+
+		Assert.assertNull(captured.get(String.class));
+		Assert.assertNull(classBytesCache.get(String.class));
+	}
+
+	@Test
+	public void givenNewClassDefinition_whenTransform_thenIgnored() {
+		final ClassBytesCache classBytesCache = new ClassBytesCache(1000);
+		final ClassFileCaptureTransformer transformer = new ClassFileCaptureTransformer(classBytesCache);
+
+		final byte[] result = transformer.transform(null, "some/NewClass", null, null, new byte[10]);
+
+		Assert.assertNull(result);
+		Assert.assertEquals(0, classBytesCache.size());
+	}
+
+}
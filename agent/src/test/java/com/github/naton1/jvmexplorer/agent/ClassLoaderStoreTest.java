@@ -4,6 +4,16 @@ import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class ClassLoaderStoreTest {
 
 	@Test
@@ -11,7 +21,7 @@ public class ClassLoaderStoreTest {
 		final ClassLoaderStore classLoaderStore = new ClassLoaderStore();
 		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
 		                                                                         .description("desc")
-		                                                                         .id("id")
+		                                                                         .id(1)
 		                                                                         .simpleClassName("ClassLoader")
 		                                                                         .build();
 
@@ -66,4 +76,55 @@ public class ClassLoaderStoreTest {
 		Assert.assertFalse(classLoaderStore.containsDescriptor(classLoaderDescriptor));
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void givenCachedClassloader_whenClassLoaderGcdAndCleanCalled_thenUnloadedDescriptorReturned() {
+		final ClassLoader classLoader = getClass().getClassLoader();
+		final ClassLoaderStore classLoaderStore = new ClassLoaderStore();
+		final ClassLoaderDescriptor classLoaderDescriptor = classLoaderStore.store(classLoader);
+
+		Assert.assertTrue(classLoaderStore.clean().isEmpty());
+
+		classLoaderStore.removeClassLoader(classLoader); // simulate gc
+
+		Assert.assertEquals(Collections.singletonList(classLoaderDescriptor), classLoaderStore.clean());
+	}
+
+	@Test
+	public void givenClassLoaderWithParent_whenStore_thenSequentialIdsAssignedParentFirst() {
+		final ClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+		final ClassLoaderStore classLoaderStore = new ClassLoaderStore();
+
+		final ClassLoaderDescriptor classLoaderDescriptor = classLoaderStore.store(classLoader);
+
+		Assert.assertEquals(classLoaderDescriptor.getParent().getId() + 1, classLoaderDescriptor.getId());
+		Assert.assertSame(classLoaderDescriptor.getParent(), classLoaderStore.store(getClass().getClassLoader()));
+	}
+
+	@Test
+	public void givenManyThreads_whenStoreSameClassLoader_thenSameDescriptorReturned() throws Exception {
+		final ClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+		final ClassLoaderStore classLoaderStore = new ClassLoaderStore();
+		final ExecutorService executorService = Executors.newFixedThreadPool(8);
+		final List<Future<ClassLoaderDescriptor>> futures = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < 100; i++) {
+				futures.add(executorService.submit(new Callable<ClassLoaderDescriptor>() {
+					@Override
+					public ClassLoaderDescriptor call() {
+						return classLoaderStore.store(classLoader);
+					}
+				}));
+			}
+			final ClassLoaderDescriptor classLoaderDescriptor = futures.get(0).get();
+			for (Future<ClassLoaderDescriptor> future : futures) {
+				Assert.assertSame(classLoaderDescriptor, future.get());
+			}
+			Assert.assertSame(classLoader, classLoaderStore.lookup(classLoaderDescriptor));
+		}
+		finally {
+			executorService.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class ConstantPoolScannerTest {
+
+	private static final String SEARCH_CONSTANT = "constant pool search marker";
+
+	@Test
+	public void givenClassFile_whenGetConstants_thenStringsClassesAndReferencesFound() throws IOException {
+		final List<String> constants = Arrays.asList(ConstantPoolScanner.getConstants(readClassFile()));
+
+		Assert.assertTrue(constants.contains(SEARCH_CONSTANT));
+		Assert.assertTrue(constants.contains("org.junit.Assert"));
+		Assert.assertTrue(constants.contains("org.junit.Assert.assertTrue"));
+	}
+
+	@Test(expected = IOException.class)
+	public void givenInvalidMagic_whenGetConstants_thenExceptionThrown() throws IOException {
+		ConstantPoolScanner.getConstants(new byte[] { 1, 2, 3, 4, 0, 0, 0, 52, 0, 1 });
+	}
+
+	private byte[] readClassFile() throws IOException {
+		try (final InputStream inputStream = getClass().getResourceAsStream("ConstantPoolScannerTest.class")) {
+			final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
+import com.github.naton1.jvmexplorer.protocol.JvmClient;
+import com.github.naton1.jvmexplorer.protocol.PacketCancel;
+import com.github.naton1.jvmexplorer.protocol.Protocol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class IdlePacketSenderTest {
+
+	private static final int STREAM_ID = 1;
+
+	private final RecordingJvmClient jvmClient = new RecordingJvmClient();
+	private final Connection connection = new Connection() {
+		@Override
+		public int getTcpWriteBufferSize() {
+			return 0;
+		}
+	};
+
+	@Test
+	public void givenQueuedPackets_whenIdleAfterEnd_thenAllSentAndEnded() {
+		final Queue<String[]> packets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<String> idlePacketSender = new IdlePacketSender<>(packets,
+		                                                                         STREAM_ID,
+		                                                                         jvmClient,
+		                                                                         false);
+		packets.add(new String[] { "a", "b" });
+		packets.add(new String[] { "c" });
+		idlePacketSender.end();
+
+		idlePacketSender.idle(connection);
+
+		Assert.assertEquals(2, jvmClient.packets.size());
+		Assert.assertEquals(Integer.valueOf(3), jvmClient.packetsSent);
+	}
+
+	@Test
+	public void givenFullQueue_whenCancelled_thenProducerStopsAndEndIsConfirmed() throws Exception {
+		final Queue<String[]> packets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<String> idlePacketSender = new IdlePacketSender<>(packets,
+		                                                                         STREAM_ID,
+		                                                                         jvmClient,
+		                                                                         false);
+		for (int i = 0; i < Protocol.INITIAL_PACKET_CREDITS * 2; i++) {
+			packets.add(new String[] { "a" });
+		}
+		final ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Boolean> capacity = executorService.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return idlePacketSender.awaitCapacity();
+				}
+			});
+
+			idlePacketSender.received(connection, new PacketCancel(STREAM_ID));
+			idlePacketSender.idle(connection);
+
+			Assert.assertFalse(capacity.get(5, TimeUnit.SECONDS));
+			Assert.assertTrue(packets.isEmpty());
+			Assert.assertTrue(jvmClient.packets.isEmpty());
+			Assert.assertEquals(Integer.valueOf(0), jvmClient.packetsSent);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Test
+	public void givenOtherStreamCancelled_whenAwaitCapacity_thenStillWanted() {
+		final Queue<String[]> packets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<String> idlePacketSender = new IdlePacketSender<>(packets,
+		                                                                         STREAM_ID,
+		                                                                         jvmClient,
+		                                                                         false);
+
+		idlePacketSender.received(connection, new PacketCancel(STREAM_ID + 1));
+
+		Assert.assertTrue(idlePacketSender.awaitCapacity());
+		Assert.assertFalse(idlePacketSender.isCancelled());
+	}
+
+	@Test
+	public void givenDisconnected_whenAwaitCapacity_thenNotWanted() {
+		final Queue<String[]> packets = new ConcurrentLinkedQueue<>();
+		final IdlePacketSender<String> idlePacketSender = new IdlePacketSender<>(packets,
+		                                                                         STREAM_ID,
+		                                                                         jvmClient,
+		                                                                         false);
+
+		idlePacketSender.disconnected(connection);
+
+		Assert.assertFalse(idlePacketSender.awaitCapacity());
+	}
+
+	private static class RecordingJvmClient implements JvmClient {
+
+		private final List<Object[]> packets = new ArrayList<>();
+		private Integer packetsSent;
+
+		@Override
+		public void register(String identifier, int supportedCompressions) {
+		}
+
+		@Override
+		public <T> void sendPacket(int streamId, T[] packets) {
+			this.packets.add(packets);
+		}
+
+		@Override
+		public void endPacketTransfer(int streamId, int packetsSent) {
+			this.packetsSent = packetsSent;
+		}
+
+		@Override
+		public void sendLoadedClassCount(int requestId, int count) {
+		}
+
+		@Override
+		public void sendClassListDelta(ClassListDelta classListDelta) {
+		}
+
+	}
+
+}
@@ -2,6 +2,7 @@ package com.github.naton1.jvmexplorer.agent;
 
 import com.github.naton1.jvmexplorer.protocol.ClassFieldKey;
 import com.github.naton1.jvmexplorer.protocol.ClassFields;
+import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import lombok.Value;
 import org.junit.Assert;
 import org.junit.Before;
@@ -14,13 +15,18 @@ import org.mockito.stubbing.Answer;
 
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class InstrumentationHelperTest {
 
@@ -59,12 +65,66 @@ public class InstrumentationHelperTest {
 	@Test
 	public void testGetClassBytes() throws UnmodifiableClassException {
 		final byte[] classBytes = new byte[10];
-		final ClassFileSaveTransformer[] classFileSaveTransformer = new ClassFileSaveTransformer[1];
 		final Class<?> targetClass = String.class;
+		mockRetransform(Collections.<Class<?>, byte[]>singletonMap(targetClass, classBytes));
+
+		final byte[] classBytesResult = instrumentationHelper.getClassBytes(targetClass);
+
+		Assert.assertEquals(classBytes, classBytesResult);
+	}
+
+	@Test
+	public void givenClassBytesAlreadyCaptured_whenGetClassBytes_thenClassNotRetransformedAgain()
+			throws UnmodifiableClassException {
+		final byte[] classBytes = new byte[10];
+		final Class<?> targetClass = String.class;
+		mockRetransform(Collections.<Class<?>, byte[]>singletonMap(targetClass, classBytes));
+
+		instrumentationHelper.getClassBytes(targetClass);
+		final byte[] classBytesResult = instrumentationHelper.getClassBytes(targetClass);
+
+		Assert.assertEquals(classBytes, classBytesResult);
+		Mockito.verify(instrumentation, Mockito.times(1))
+		       .addTransformer(ArgumentMatchers.any(ClassFileTransformer.class), ArgumentMatchers.anyBoolean());
+		Mockito.verify(instrumentation, Mockito.times(1)).retransformClasses(ArgumentMatchers.<Class<?>>any());
+	}
+
+	@Test
+	public void givenClassRedefined_whenGetClassBytes_thenClassRetransformedAgain()
+			throws UnmodifiableClassException, ClassNotFoundException {
+		final byte[] classBytes = new byte[10];
+		final Class<?> targetClass = String.class;
+		mockRetransform(Collections.<Class<?>, byte[]>singletonMap(targetClass, classBytes));
+
+		instrumentationHelper.getClassBytes(targetClass);
+		instrumentationHelper.redefineClass(targetClass, new byte[10]);
+		instrumentationHelper.getClassBytes(targetClass);
+
+		Mockito.verify(instrumentation, Mockito.times(2)).retransformClasses(ArgumentMatchers.<Class<?>>any());
+	}
+
+	@Test
+	public void givenMultipleClasses_whenGetClassBytes_thenClassesRetransformedTogether()
+			throws UnmodifiableClassException {
+		final Map<Class<?>, byte[]> classBytes = new HashMap<>();
+		classBytes.put(String.class, new byte[10]);
+		classBytes.put(Integer.class, new byte[20]);
+		mockRetransform(classBytes);
+
+		final Map<Class<?>, byte[]> classBytesResult =
+				instrumentationHelper.getClassBytes(Arrays.<Class<?>>asList(String.class, Integer.class));
+
+		Assert.assertEquals(classBytes.get(String.class), classBytesResult.get(String.class));
+		Assert.assertEquals(classBytes.get(Integer.class), classBytesResult.get(Integer.class));
+		Mockito.verify(instrumentation, Mockito.times(1)).retransformClasses(ArgumentMatchers.<Class<?>>any());
+	}
+
+	private void mockRetransform(final Map<Class<?>, byte[]> classBytes) throws UnmodifiableClassException {
+		final ClassFileTransformer[] classFileTransformer = new ClassFileTransformer[1];
 		Mockito.doAnswer(new Answer<Void>() {
 			       @Override
 			       public Void answer(final InvocationOnMock invocation) {
-				       classFileSaveTransformer[0] = invocation.getArgument(0, ClassFileSaveTransformer.class);
+				       classFileTransformer[0] = invocation.getArgument(0, ClassFileTransformer.class);
 				       return null;
 			       }
 		       })
@@ -72,19 +132,18 @@ public class InstrumentationHelperTest {
 		       .addTransformer(ArgumentMatchers.any(ClassFileTransformer.class), ArgumentMatchers.anyBoolean());
 		Mockito.doAnswer(new Answer<Void>() {
 			@Override
-			public Void answer(final InvocationOnMock invocation) {
-				classFileSaveTransformer[0].transform(targetClass.getClassLoader(),
-				                                      targetClass.getName(),
-				                                      targetClass,
-				                                      targetClass.getProtectionDomain(),
-				                                      classBytes);
+			public Void answer(final InvocationOnMock invocation) throws IllegalClassFormatException {
+				for (Object argument : invocation.getArguments()) {
+					final Class<?> targetClass = (Class<?>) argument;
+					classFileTransformer[0].transform(targetClass.getClassLoader(),
+					                                  targetClass.getName(),
+					                                  targetClass,
+					                                  targetClass.getProtectionDomain(),
+					                                  classBytes.get(targetClass));
+				}
 				return null;
 			}
-		}).when(instrumentation).retransformClasses(ArgumentMatchers.any(Class.class));
-
-		final byte[] classBytesResult = instrumentationHelper.getClassBytes(targetClass);
-
-		Assert.assertEquals(classBytes, classBytesResult);
+		}).when(instrumentation).retransformClasses(ArgumentMatchers.<Class<?>>any());
 	}
 
 	@Test
@@ -211,6 +270,61 @@ public class InstrumentationHelperTest {
 		Assert.assertEquals(newClassBytes, classDefinition.getDefinitionClassFile());
 	}
 
+	@Test
+	public void givenMultipleClasses_whenRedefineClasses_thenClassesRedefinedTogether()
+			throws UnmodifiableClassException, ClassNotFoundException {
+		Mockito.when(instrumentation.isModifiableClass(ArgumentMatchers.<Class<?>>any())).thenReturn(true);
+		final Map<Class<?>, byte[]> classFiles = new LinkedHashMap<>();
+		classFiles.put(String.class, new byte[10]);
+		classFiles.put(Integer.class, new byte[20]);
+
+		final PatchResult patchResult = instrumentationHelper.redefineClasses(classFiles);
+
+		Assert.assertTrue(patchResult.isSuccess());
+		final ArgumentCaptor<ClassDefinition> classDefinitionCaptor = ArgumentCaptor.forClass(ClassDefinition.class);
+		Mockito.verify(instrumentation, Mockito.times(1)).redefineClasses(classDefinitionCaptor.capture());
+		final List<ClassDefinition> classDefinitions = classDefinitionCaptor.getAllValues();
+		Assert.assertEquals(2, classDefinitions.size());
+		Assert.assertEquals(String.class, classDefinitions.get(0).getDefinitionClass());
+		Assert.assertEquals(Integer.class, classDefinitions.get(1).getDefinitionClass());
+	}
+
+	@Test
+	public void givenUnmodifiableClass_whenRedefineClasses_thenNothingRedefined()
+			throws UnmodifiableClassException, ClassNotFoundException {
+		Mockito.when(instrumentation.isModifiableClass(String.class)).thenReturn(true);
+		Mockito.when(instrumentation.isModifiableClass(int.class)).thenReturn(false);
+		final Map<Class<?>, byte[]> classFiles = new LinkedHashMap<>();
+		classFiles.put(String.class, new byte[10]);
+		classFiles.put(int.class, new byte[20]);
+
+		final PatchResult patchResult = instrumentationHelper.redefineClasses(classFiles);
+
+		Assert.assertFalse(patchResult.isSuccess());
+		Assert.assertTrue(patchResult.getMessage().contains("int"));
+		Mockito.verify(instrumentation, Mockito.never()).redefineClasses(ArgumentMatchers.<ClassDefinition>anyVararg());
+	}
+
+	@Test
+	public void givenDefinedClasses_whenGetDefinedClasses_thenOnlyClassesFromTheirOwnLoaderFound() {
+		final ClassLoader classLoader = InstrumentationHelperTest.class.getClassLoader();
+		final ClassLoadListener.DefinedClass string = new ClassLoadListener.DefinedClass("java.lang.String", null);
+		final ClassLoadListener.DefinedClass testClass =
+				new ClassLoadListener.DefinedClass(TestStaticClass.class.getName(), classLoader);
+		// Found through delegation, but String isn't defined by this loader
+		final ClassLoadListener.DefinedClass delegated =
+				new ClassLoadListener.DefinedClass("java.lang.String", classLoader);
+		Mockito.when(instrumentation.getAllLoadedClasses()).thenReturn(new Class<?>[] { String.class });
+
+		final Map<ClassLoadListener.DefinedClass, Class<?>> classes =
+				instrumentationHelper.getDefinedClasses(Arrays.asList(string, testClass, delegated));
+
+		Assert.assertEquals(String.class, classes.get(string));
+		Assert.assertEquals(TestStaticClass.class, classes.get(testClass));
+		Assert.assertFalse(classes.containsKey(delegated));
+		Mockito.verify(instrumentation, Mockito.times(1)).getAllLoadedClasses();
+	}
+
 	@Value
 	public static class TestStaticClass {
 		public static TestStaticClass instance;
@@ -1,6 +1,7 @@
 package com.github.naton1.jvmexplorer.agent;
 
 import com.esotericsoftware.kryonet.Client;
+import com.github.naton1.jvmexplorer.protocol.ByteStreamAssembler;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.ExecutionResult;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
@@ -36,6 +37,9 @@ public class JvmConnectionImplTest {
 	@Mock
 	private ClassLoaderStore classLoaderStore;
 
+	private final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+	private final ClassLoadListener classLoadListener = new ClassLoadListener();
+
 	@Before
 	public void setup() {
 		executorService = Executors.newSingleThreadExecutor();
@@ -52,7 +56,10 @@ public class JvmConnectionImplTest {
 		                                                              instrumentationHelper,
 		                                                              client,
 		                                                              executorService,
-		                                                              classLoaderStore);
+		                                                              executorService,
+		                                                              classLoaderStore,
+		                                                              byteStreamAssembler,
+		                                                              classLoadListener);
 
 		final byte[] classBytes = getClassBytes("TestCallable.class");
 		final String className = "com.github.naton1.jvmexplorer.agent.resource.TestCallable";
@@ -84,7 +91,10 @@ public class JvmConnectionImplTest {
 		                                                              instrumentationHelper,
 		                                                              client,
 		                                                              executorService,
-		                                                              classLoaderStore);
+		                                                              executorService,
+		                                                              classLoaderStore,
+		                                                              byteStreamAssembler,
+		                                                              classLoadListener);
 
 		Mockito.when(classLoaderStore.lookup(ArgumentMatchers.<ClassLoaderDescriptor>any()))
 		       .thenReturn(URLClassLoader.newInstance(new URL[0]));
@@ -106,7 +116,10 @@ public class JvmConnectionImplTest {
 		                                                              instrumentationHelper,
 		                                                              client,
 		                                                              executorService,
-		                                                              classLoaderStore);
+		                                                              executorService,
+		                                                              classLoaderStore,
+		                                                              byteStreamAssembler,
+		                                                              classLoadListener);
 
 		Mockito.when(classLoaderStore.lookup(ArgumentMatchers.<ClassLoaderDescriptor>any()))
 		       .thenReturn(new CustomClassLoader());
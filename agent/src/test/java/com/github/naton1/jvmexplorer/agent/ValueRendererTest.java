@@ -0,0 +1,116 @@
+package com.github.naton1.jvmexplorer.agent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+public class ValueRendererTest {
+
+	private static final long MAX_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	@Test
+	public void givenLargeMap_whenRendered_thenSizeAndFirstEntriesShown() {
+		final Map<Integer, String> map = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			map.put(i, "value" + i);
+		}
+
+		final String rendered = new ValueRenderer(10000, 1000, MAX_NANOS, false).render(map);
+
+		Assert.assertTrue(rendered, rendered.startsWith("java.util.HashMap (100000 entries) {"));
+		Assert.assertTrue(rendered, rendered.endsWith(", ...}"));
+		Assert.assertTrue(rendered, rendered.length() < 1000);
+	}
+
+	@Test
+	public void givenAppObjects_whenRendered_thenToStringNotCalled() {
+		final List<Object> list = new ArrayList<>();
+		list.add(new ThrowingToString());
+		list.add(Arrays.asList(1, 2));
+
+		final String rendered = new ValueRenderer(10000, 1000, MAX_NANOS, false).render(list);
+
+		Assert.assertTrue(rendered, rendered.startsWith("java.util.ArrayList (2 elements) ["));
+		Assert.assertTrue(rendered, rendered.contains(ThrowingToString.class.getName() + "@"));
+		Assert.assertTrue(rendered, rendered.contains("java.util.Arrays$ArrayList (2 elements) [1, 2]"));
+	}
+
+	@Test
+	public void givenAppCollections_whenRendered_thenNotLookedInto() {
+		final List<Object> list = new ArrayList<>();
+		list.add(new ThrowingList());
+		list.add(Collections.synchronizedList(new ThrowingList()));
+
+		final String rendered = new ValueRenderer(10000, 1000, MAX_NANOS, false).render(list);
+
+		Assert.assertTrue(rendered, rendered.contains(ThrowingList.class.getName() + "@"));
+		Assert.assertTrue(rendered, rendered.contains("java.util.Collections$SynchronizedRandomAccessList@"));
+	}
+
+	@Test
+	public void givenSkipListMap_whenRendered_thenSizeNotCounted() {
+		final Map<Integer, String> map = new ConcurrentSkipListMap<>();
+		map.put(1, "one");
+
+		final String rendered = new ValueRenderer(10000, 1000, MAX_NANOS, false).render(map);
+
+		Assert.assertEquals("java.util.concurrent.ConcurrentSkipListMap {1=one}", rendered);
+	}
+
+	@Test
+	public void givenToStringRequested_whenRendered_thenToStringCalled() {
+		final ValueRenderer valueRenderer = new ValueRenderer(10000, 1000, MAX_NANOS, true);
+
+		Assert.assertEquals("custom", valueRenderer.render(new CustomToString()));
+	}
+
+	@Test
+	public void givenBudgetUsedUp_whenRendered_thenOnlyIdentityShown() {
+		final ValueRenderer valueRenderer = new ValueRenderer(20, 1000, MAX_NANOS, false);
+
+		Assert.assertTrue(valueRenderer.tryReserve(20));
+		Assert.assertFalse(valueRenderer.tryReserve(1));
+		Assert.assertTrue(valueRenderer.render(Arrays.asList(1, 2)).startsWith("java.util.Arrays$ArrayList@"));
+	}
+
+	@Test
+	public void givenLongString_whenRendered_thenCutOff() {
+		final char[] chars = new char[5000];
+		Arrays.fill(chars, 'a');
+
+		final String rendered = new ValueRenderer(10000, 100, MAX_NANOS, false).render(new String(chars));
+
+		Assert.assertEquals(103, rendered.length());
+		Assert.assertTrue(rendered.endsWith("..."));
+	}
+
+	private static class ThrowingToString {
+		@Override
+		public String toString() {
+			throw new IllegalStateException("Should not be called");
+		}
+	}
+
+	private static class ThrowingList extends ArrayList<Object> {
+		@Override
+		public int size() {
+			throw new IllegalStateException("Should not be called");
+		}
+	}
+
+	private static class CustomToString {
+		@Override
+		public String toString() {
+			return "custom";
+		}
+	}
+
+}
@@ -1,11 +1,18 @@
 package com.github.naton1.jvmexplorer.cli;
 
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
 import com.sun.tools.attach.VirtualMachineDescriptor;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class CLIHandler {
+    private static final int MAX_FOUND_CLASSES = 20;
+
     private final JVMManager jvmManager;
+    // Built on the first search after a JVM is selected, then kept in step with the loaded classes
+    private ClassNameIndex<String> classNameIndex;
 
     public CLIHandler(JVMManager jvmManager) {
         this.jvmManager = jvmManager;
@@ -35,6 +42,13 @@ public class CLIHandler {
             case "list-classes":
                 listClasses();
                 break;
+            case "find-class":
+                if (parts.length > 1) {
+                    findClass(parts[1]);
+                } else {
+                    System.out.println("Usage: find-class <query>");
+                }
+                break;
             case "inspect-class":
                 if (parts.length > 1) {
                     inspectClass(parts[1]);
@@ -59,6 +73,7 @@ public class CLIHandler {
         System.out.println("  list-jvms                - List all running JVMs");
         System.out.println("  select-jvm <pid>         - Attach to a JVM by PID");
         System.out.println("  list-classes             - List loaded classes in the selected JVM");
+        System.out.println("  find-class <query>       - Find loaded classes by name or camel case, best match first");
         System.out.println("  inspect-class <class>    - Inspect a class's details");
         System.out.println("  edit-field <class> <field> <value> - Edit a field value");
         System.out.println("  exit                     - Quit the CLI");
@@ -78,6 +93,7 @@ public class CLIHandler {
 
     private void selectJVM(String pid) {
         if (jvmManager.attachToJVM(pid)) {
+            classNameIndex = null;
             System.out.println("Attached to JVM with PID: " + pid);
         }
     }
@@ -98,6 +114,39 @@ public class CLIHandler {
         }
     }
 
+    private void findClass(String query) {
+        if (jvmManager.getCurrentJVM() == null) {
+            System.out.println("No JVM selected. Use 'select-jvm <pid>' first.");
+            return;
+        }
+        if (query.length() < ClassNameIndex.MIN_QUERY_LENGTH) {
+            System.out.println("Query must be at least " + ClassNameIndex.MIN_QUERY_LENGTH + " characters.");
+            return;
+        }
+        updateClassNameIndex();
+        List<String> classes = classNameIndex.findBest(query, MAX_FOUND_CLASSES);
+        if (classes.isEmpty()) {
+            System.out.println("No classes found.");
+            return;
+        }
+        for (String cls : classes) {
+            System.out.println("  " + cls);
+        }
+    }
+
+    // Classes load and unload between searches, so only the difference is applied rather than rebuilding the index
+    private void updateClassNameIndex() {
+        Set<String> loadedClasses = new HashSet<>(jvmManager.listClasses());
+        if (classNameIndex == null) {
+            classNameIndex = new ClassNameIndex<>();
+        } else {
+            classNameIndex.removeAll(cls -> !loadedClasses.contains(cls));
+        }
+        for (String cls : loadedClasses) {
+            classNameIndex.add(cls, cls);
+        }
+    }
+
     private void inspectClass(String className) {
         if (jvmManager.getCurrentJVM() == null) {
             System.out.println("No JVM selected. Use 'select-jvm <pid>' first.");
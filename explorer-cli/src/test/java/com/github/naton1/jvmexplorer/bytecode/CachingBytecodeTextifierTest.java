@@ -0,0 +1,155 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingBytecodeTextifierTest {
+
+	@Test
+	void givenSameBytes_whenProcessedTwice_delegateCalledOnce() {
+		final AtomicInteger calls = new AtomicInteger();
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> "result" + calls.incrementAndGet(),
+		                                                                 10);
+
+		Assertions.assertEquals("result1", textifier.process(new byte[] { 1, 2, 3 }));
+		Assertions.assertEquals("result1", textifier.process(new byte[] { 1, 2, 3 }));
+		Assertions.assertEquals(1, calls.get());
+	}
+
+	@Test
+	void givenFullCache_whenNewBytesProcessed_leastRecentlyUsedEvicted() {
+		final AtomicInteger calls = new AtomicInteger();
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> "result" + calls.incrementAndGet(),
+		                                                                 2);
+
+		textifier.process(new byte[] { 1 });
+		textifier.process(new byte[] { 2 });
+		textifier.process(new byte[] { 1 });
+		textifier.process(new byte[] { 3 });
+		textifier.process(new byte[] { 1 });
+		textifier.process(new byte[] { 2 });
+
+		Assertions.assertEquals(4, calls.get());
+	}
+
+	@Test
+	void givenFailedResult_whenProcessedAgain_delegateCalledAgain() {
+		final AtomicInteger calls = new AtomicInteger();
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> {
+			calls.incrementAndGet();
+			return null;
+		}, 10);
+
+		textifier.process(new byte[] { 1 });
+		textifier.process(new byte[] { 1 });
+
+		Assertions.assertEquals(2, calls.get());
+	}
+
+	@Test
+	void givenSpillDirectory_whenNewCacheCreated_resultReadFromDisk(@TempDir File spillDirectory) {
+		final AtomicInteger calls = new AtomicInteger();
+		final BytecodeTextifier delegate = bytes -> "result" + calls.incrementAndGet();
+
+		new CachingBytecodeTextifier(delegate, 10, spillDirectory, () -> 1024).process(new byte[] { 1, 2, 3 });
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(delegate, 10, spillDirectory, () -> 1024);
+		final String result = textifier.process(new byte[] { 1, 2, 3 });
+
+		Assertions.assertEquals("result1", result);
+		Assertions.assertEquals(1, calls.get());
+	}
+
+	@Test
+	void givenNewVersion_whenNewCacheCreated_spilledResultNotReused(@TempDir File spillDirectory) {
+		final AtomicInteger calls = new AtomicInteger();
+
+		new CachingBytecodeTextifier(new VersionedTextifier("1", calls), 10, spillDirectory, () -> 1024).process(
+				new byte[] { 1, 2, 3 });
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(new VersionedTextifier("2", calls),
+		                                                                 10,
+		                                                                 spillDirectory,
+		                                                                 () -> 1024);
+		final String result = textifier.process(new byte[] { 1, 2, 3 });
+
+		Assertions.assertEquals("result2", result);
+		Assertions.assertEquals(2, calls.get());
+	}
+
+	@Test
+	void givenSpillingDisabled_whenProcessed_nothingWrittenToDisk(@TempDir File spillDirectory) {
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> "result",
+		                                                                 10,
+		                                                                 spillDirectory,
+		                                                                 () -> 0);
+
+		textifier.process(new byte[] { 1, 2, 3 });
+
+		Assertions.assertEquals(0, Objects.requireNonNull(spillDirectory.list()).length);
+	}
+
+	@Test
+	void givenFullSpillDirectory_whenNewResultSpilled_oldestResultsDeleted(@TempDir File spillDirectory) {
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> "0123456789",
+		                                                                 10,
+		                                                                 spillDirectory,
+		                                                                 () -> 35);
+
+		for (byte i = 0; i < 4; i++) {
+			textifier.process(new byte[] { i });
+		}
+
+		final long spilledBytes = Arrays.stream(Objects.requireNonNull(spillDirectory.listFiles()))
+		                                .mapToLong(File::length)
+		                                .sum();
+		Assertions.assertTrue(spilledBytes <= 35);
+		Assertions.assertTrue(spilledBytes > 0);
+	}
+
+	@Test
+	void givenLeftoverTempFile_whenResultSpilled_tempFileDeleted(@TempDir File spillDirectory) throws IOException {
+		final File tempFile = new File(spillDirectory, "leftover.tmp");
+		Files.writeString(tempFile.toPath(), "partial");
+		tempFile.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+		final BytecodeTextifier textifier = new CachingBytecodeTextifier(bytes -> "result",
+		                                                                 10,
+		                                                                 spillDirectory,
+		                                                                 () -> 1024);
+
+		textifier.process(new byte[] { 1, 2, 3 });
+
+		Assertions.assertFalse(tempFile.exists());
+		Assertions.assertEquals(1, Objects.requireNonNull(spillDirectory.list()).length);
+	}
+
+	private static class VersionedTextifier implements BytecodeTextifier {
+
+		private final String version;
+		private final AtomicInteger calls;
+
+		VersionedTextifier(String version, AtomicInteger calls) {
+			this.version = version;
+			this.calls = calls;
+		}
+
+		@Override
+		public String process(byte[] bytecode) {
+			return "result" + calls.incrementAndGet();
+		}
+
+		@Override
+		public String getVersion() {
+			return version;
+		}
+
+	}
+
+}
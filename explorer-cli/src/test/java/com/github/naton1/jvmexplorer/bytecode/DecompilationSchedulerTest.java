@@ -0,0 +1,135 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class DecompilationSchedulerTest {
+
+	private DecompilationScheduler decompilationScheduler;
+
+	@AfterEach
+	void teardown() {
+		decompilationScheduler.shutdown();
+	}
+
+	@Test
+	void givenQueuedJobs_whenWorkerFree_visibleJobRunsBeforePrefetch() throws Exception {
+		decompilationScheduler = new DecompilationScheduler(1, 10, TimeUnit.SECONDS);
+		final CountDownLatch blocker = new CountDownLatch(1);
+		final List<String> order = new CopyOnWriteArrayList<>();
+
+		decompilationScheduler.submit(bytes -> await(blocker), new byte[0], DecompilationScheduler.Priority.VISIBLE);
+		final DecompilationScheduler.Job prefetch = decompilationScheduler.submit(bytes -> record(order, "prefetch"),
+		                                                                          new byte[0],
+		                                                                          DecompilationScheduler.Priority.PREFETCH);
+		final DecompilationScheduler.Job visible = decompilationScheduler.submit(bytes -> record(order, "visible"),
+		                                                                         new byte[0],
+		                                                                         DecompilationScheduler.Priority.VISIBLE);
+		blocker.countDown();
+
+		prefetch.getResult().get(5, TimeUnit.SECONDS);
+		visible.getResult().get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(List.of("visible", "prefetch"), order);
+	}
+
+	@Test
+	void givenSlowJob_whenDeadlinePasses_jobTimesOutAndWorkerIsFreed() throws Exception {
+		decompilationScheduler = new DecompilationScheduler(1, 100, TimeUnit.MILLISECONDS);
+
+		final DecompilationScheduler.Job slow = decompilationScheduler.submit(bytes -> await(new CountDownLatch(1)),
+		                                                                      new byte[0],
+		                                                                      DecompilationScheduler.Priority.VISIBLE);
+		final DecompilationScheduler.Job next = decompilationScheduler.submit(bytes -> "done",
+		                                                                      new byte[0],
+		                                                                      DecompilationScheduler.Priority.VISIBLE);
+
+		final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+		                                                             () -> slow.getResult().get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+		Assertions.assertEquals("done", next.getResult().get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void givenJobIgnoringInterrupts_whenDeadlinePasses_queuedJobsStillRun() throws Exception {
+		decompilationScheduler = new DecompilationScheduler(1, 100, TimeUnit.MILLISECONDS);
+		final CountDownLatch blocker = new CountDownLatch(1);
+
+		final DecompilationScheduler.Job stuck = decompilationScheduler.submit(bytes -> awaitUninterruptibly(blocker),
+		                                                                       new byte[0],
+		                                                                       DecompilationScheduler.Priority.VISIBLE);
+		final DecompilationScheduler.Job next = decompilationScheduler.submit(bytes -> "done",
+		                                                                      new byte[0],
+		                                                                      DecompilationScheduler.Priority.VISIBLE);
+
+		try {
+			Assertions.assertEquals("done", next.getResult().get(5, TimeUnit.SECONDS));
+			Assertions.assertThrows(ExecutionException.class, () -> stuck.getResult().get());
+		}
+		finally {
+			blocker.countDown();
+		}
+	}
+
+	@Test
+	void givenQueuedJob_whenCancelled_jobNeverRuns() throws Exception {
+		decompilationScheduler = new DecompilationScheduler(1, 10, TimeUnit.SECONDS);
+		final CountDownLatch blocker = new CountDownLatch(1);
+		final List<String> order = new CopyOnWriteArrayList<>();
+
+		final DecompilationScheduler.Job running = decompilationScheduler.submit(bytes -> await(blocker),
+		                                                                         new byte[0],
+		                                                                         DecompilationScheduler.Priority.VISIBLE);
+		final DecompilationScheduler.Job cancelled = decompilationScheduler.submit(bytes -> record(order, "cancelled"),
+		                                                                           new byte[0],
+		                                                                           DecompilationScheduler.Priority.VISIBLE);
+		cancelled.cancel();
+		blocker.countDown();
+
+		running.getResult().get(5, TimeUnit.SECONDS);
+		Assertions.assertThrows(CancellationException.class, () -> cancelled.getResult().get());
+		Assertions.assertTrue(order.isEmpty());
+	}
+
+	private String await(CountDownLatch latch) {
+		try {
+			latch.await();
+			return "done";
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private String awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return "done";
+	}
+
+	private String record(List<String> order, String name) {
+		order.add(name);
+		return name;
+	}
+
+}
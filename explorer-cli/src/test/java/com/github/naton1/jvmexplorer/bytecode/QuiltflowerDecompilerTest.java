@@ -4,6 +4,9 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 class QuiltflowerDecompilerTest {
@@ -20,4 +23,29 @@ class QuiltflowerDecompilerTest {
 		Assertions.assertTrue(decompiledClassFile.contains("public class SleepForever"));
 	}
 
-}
\ No newline at end of file
+	@Test
+	void givenOuterAndInnerClass_whenBatchDecompile_innerClassMergedIntoOuter() throws IOException {
+		final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		classFiles.put(Outer.class.getName(), readClassFile(Outer.class));
+		classFiles.put(Outer.Inner.class.getName(), readClassFile(Outer.Inner.class));
+
+		final Map<String, String> sources = new HashMap<>();
+		new QuiltflowerDecompiler().decompile(classFiles, sources::put);
+
+		Assertions.assertEquals(1, sources.size());
+		final String outerPath = Outer.class.getName().replace('.', '/') + ".java";
+		Assertions.assertTrue(sources.containsKey(outerPath), sources.keySet().toString());
+		Assertions.assertTrue(sources.get(outerPath).contains("class Inner"));
+	}
+
+	private byte[] readClassFile(Class<?> klass) throws IOException {
+		final String path = klass.getName().replace('.', '/') + ".class";
+		return Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream(path)).readAllBytes();
+	}
+
+}
+
+// Needs to be top level, otherwise the decompiler expects the test class to be part of the batch too
+class Outer {
+	static class Inner {}
+}
@@ -2,13 +2,18 @@ package com.github.naton1.jvmexplorer.helper;
 
 import com.github.naton1.jvmexplorer.fx.classes.ClassTreeNode;
 import com.github.naton1.jvmexplorer.fx.classes.FilterableTreeItem;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
 import javafx.scene.control.TreeItem;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 class ClassTreeHelperTest {
 
@@ -17,13 +22,13 @@ class ClassTreeHelperTest {
 		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
 		final ClassLoaderDescriptor parentClassLoaderDescriptor = ClassLoaderDescriptor.builder()
 		                                                                               .description("test1")
-		                                                                               .id("1")
+		                                                                               .id(1)
 		                                                                               .simpleClassName("ClassLoader")
 		                                                                               .parent(null)
 		                                                                               .build();
 		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
 		                                                                         .description("test2")
-		                                                                         .id("2")
+		                                                                         .id(2)
 		                                                                         .simpleClassName("ClassLoader")
 		                                                                         .parent(parentClassLoaderDescriptor)
 		                                                                         .build();
@@ -51,13 +56,13 @@ class ClassTreeHelperTest {
 		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
 		final ClassLoaderDescriptor parentClassLoaderDescriptor = ClassLoaderDescriptor.builder()
 		                                                                               .description("test1")
-		                                                                               .id("1")
+		                                                                               .id(1)
 		                                                                               .simpleClassName("ClassLoader")
 		                                                                               .parent(null)
 		                                                                               .build();
 		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
 		                                                                         .description("test2")
-		                                                                         .id("2")
+		                                                                         .id(2)
 		                                                                         .simpleClassName("ClassLoader")
 		                                                                         .parent(parentClassLoaderDescriptor)
 		                                                                         .build();
@@ -78,6 +83,65 @@ class ClassTreeHelperTest {
 		                        expectedRoot.toDetailedString() + "\n!=\n" + root.toDetailedString() + "\n");
 	}
 
+	@Test
+	void givenClassLoaders_whenBuildLazyClassTree_thenSameTreeLoadedOnDemand() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+		final ClassLoaderDescriptor parentClassLoaderDescriptor = ClassLoaderDescriptor.builder()
+		                                                                               .description("test1")
+		                                                                               .id(1)
+		                                                                               .simpleClassName("ClassLoader")
+		                                                                               .parent(null)
+		                                                                               .build();
+		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
+		                                                                         .description("test2")
+		                                                                         .id(2)
+		                                                                         .simpleClassName("ClassLoader")
+		                                                                         .parent(parentClassLoaderDescriptor)
+		                                                                         .build();
+		final LoadedClass loadedClass = new LoadedClass("test.TestClass", classLoaderDescriptor, null);
+		final LoadedClass otherClass = new LoadedClass("test.something.OtherClass", classLoaderDescriptor, null);
+		final LoadedClass rootClass = new LoadedClass("test.Root", parentClassLoaderDescriptor, null);
+		final LoadedClass bootstrapClass = new LoadedClass("java.lang.Object", null, null);
+		final List<LoadedClass> loadedClasses = List.of(loadedClass, otherClass, rootClass, bootstrapClass);
+		final FilterableTreeItem<ClassTreeNode> expected = classTreeHelper.buildClassLoaderTree(loadedClasses)
+		                                                                  .toTreeItem();
+
+		final FilterableTreeItem<ClassTreeNode> root = classTreeHelper.buildLazyClassTree(loadedClasses, true);
+
+		Assertions.assertEquals(describe(expected.streamSource()).sorted().collect(Collectors.toList()),
+		                        describe(root.streamSource()).sorted().collect(Collectors.toList()));
+		Assertions.assertFalse(root.isLoaded());
+		final FilterableTreeItem<ClassTreeNode> otherClassItem = classTreeHelper.findClassItem(root, otherClass, true);
+		Assertions.assertEquals(otherClass, otherClassItem.getValue().getLoadedClass());
+		final List<String> expectedItems = describe(expected.streamSourceItems().map(TreeItem::getValue))
+				.collect(Collectors.toList());
+		final List<String> items = describe(root.streamSourceItems().map(TreeItem::getValue))
+				.collect(Collectors.toList());
+		Assertions.assertEquals(expectedItems, items);
+	}
+
+	private Stream<String> describe(Stream<ClassTreeNode> nodes) {
+		return nodes.map(n -> n.getType() + ":" + n.getPackageSegment());
+	}
+
+	@Test
+	void givenMatches_whenBranchPredicateCreated_thenOnlyFullPackagePrefixesAccepted() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+		final List<LoadedClass> matches = List.of(new LoadedClass("org.test.Match", null, null),
+		                                          new LoadedClass("com.other.Match", null, null));
+
+		final FilterableTreeItem.BranchPredicate<ClassTreeNode> root = classTreeHelper.createBranchPredicate(matches,
+		                                                                                                     false);
+		final FilterableTreeItem.BranchPredicate<ClassTreeNode> org = root.forBranch(ClassTreeNode.ofPackage("org"));
+
+		Assertions.assertTrue(root.test(ClassTreeNode.ofPackage("org")));
+		Assertions.assertFalse(root.test(ClassTreeNode.ofPackage("test")));
+		Assertions.assertTrue(org.test(ClassTreeNode.ofPackage("test")));
+		// Also a segment of a match, but not along the way to it
+		Assertions.assertFalse(org.test(ClassTreeNode.ofPackage("other")));
+		Assertions.assertFalse(root.forBranch(ClassTreeNode.ofPackage("test")).test(ClassTreeNode.ofPackage("org")));
+	}
+
 	@Test
 	void testClassLoaderScope() {
 		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
@@ -119,20 +183,20 @@ class ClassTreeHelperTest {
 	private FilterableTreeItem<ClassTreeNode> buildClassTree() {
 		final ClassTreeNode root = ClassTreeNode.root();
 		final ClassLoaderDescriptor someClassLoaderParent = ClassLoaderDescriptor.builder()
-		                                                                         .id("SomeClassLoaderParent")
+		                                                                         .id(1)
 		                                                                         .description(
 				                                                                         "SomeClassLoaderParentDescription")
 		                                                                         .simpleClassName(
 				                                                                         "SomeClassLoaderParent")
 		                                                                         .build();
 		final ClassLoaderDescriptor someClassLoader = ClassLoaderDescriptor.builder()
-		                                                                   .id("SomeClassLoader")
+		                                                                   .id(2)
 		                                                                   .description("SomeClassLoaderDescription")
 		                                                                   .simpleClassName("SomeClassLoader")
 		                                                                   .parent(someClassLoaderParent)
 		                                                                   .build();
 		final ClassLoaderDescriptor someOtherClassLoader = ClassLoaderDescriptor.builder()
-		                                                                        .id("SomeOtherClassLoader")
+		                                                                        .id(3)
 		                                                                        .description(
 				                                                                        "SomeOtherClassLoaderDescription")
 		                                                                        .simpleClassName(
@@ -249,4 +313,134 @@ class ClassTreeHelperTest {
 		Assertions.assertEquals(2, count);
 	}
 
-}
\ No newline at end of file
+	@Test
+	void givenClassLoaderTree_whenApplyDeltaWithNewClass_thenClassAddedToExistingPackage() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+
+		final FilterableTreeItem<ClassTreeNode> root = buildClassTree();
+		final ClassLoaderDescriptor someClassLoader = findClass(root, "test.ing.stuff.TestClass").getValue()
+		                                                                                         .getLoadedClass()
+		                                                                                         .getClassLoaderDescriptor();
+		final LoadedClass newClass = new LoadedClass("test.ing.stuff.NewClass", someClassLoader, null);
+
+		classTreeHelper.applyClassListDelta(root,
+		                                    new ClassListDelta(new LoadedClass[] { newClass },
+		                                                       new ClassLoaderDescriptor[0]),
+		                                    true);
+
+		final TreeItem<ClassTreeNode> newClassItem = findClass(root, "test.ing.stuff.NewClass");
+		Assertions.assertSame(findClass(root, "test.ing.stuff.TestClass").getParent(), newClassItem.getParent());
+		Assertions.assertEquals("NewClass",
+		                        newClassItem.getParent().getChildren().get(0).getValue().getPackageSegment());
+	}
+
+	@Test
+	void givenClassLoaderTree_whenApplyDeltaWithDuplicateClass_thenClassNotAddedTwice() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+
+		final FilterableTreeItem<ClassTreeNode> root = buildClassTree();
+		final LoadedClass existingClass = findClass(root, "test.ing.stuff.TestClass").getValue().getLoadedClass();
+		final long classCount = root.streamSource().filter(n -> n.getType() == ClassTreeNode.Type.CLASS).count();
+
+		classTreeHelper.applyClassListDelta(root,
+		                                    new ClassListDelta(new LoadedClass[] { existingClass },
+		                                                       new ClassLoaderDescriptor[0]),
+		                                    true);
+
+		Assertions.assertEquals(classCount,
+		                        root.streamSource().filter(n -> n.getType() == ClassTreeNode.Type.CLASS).count());
+	}
+
+	@Test
+	void givenClassLoaderTree_whenApplyDeltaWithUnloadedClassLoader_thenClassLoaderRemoved() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+
+		final FilterableTreeItem<ClassTreeNode> root = buildClassTree();
+		final ClassLoaderDescriptor someClassLoader = findClass(root, "test.ing.stuff.TestClass").getValue()
+		                                                                                         .getLoadedClass()
+		                                                                                         .getClassLoaderDescriptor();
+
+		classTreeHelper.applyClassListDelta(root,
+		                                    new ClassListDelta(new LoadedClass[0],
+		                                                       new ClassLoaderDescriptor[] { someClassLoader }),
+		                                    true);
+
+		Assertions.assertTrue(root.streamSource()
+		                          .noneMatch(n -> someClassLoader.equals(n.getClassLoaderDescriptor())));
+		Assertions.assertNotNull(findClass(root, "org.test.Test"));
+	}
+
+	@Test
+	void givenPackageTree_whenApplyDeltaWithUnloadedClassLoader_thenClassesAndEmptyPackagesRemoved() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
+		                                                                         .description("test")
+		                                                                         .id(1)
+		                                                                         .simpleClassName("ClassLoader")
+		                                                                         .build();
+		final LoadedClass loadedClass = new LoadedClass("test.TestClass", null, null);
+		final LoadedClass unloadedClass = new LoadedClass("test.other.OtherClass", classLoaderDescriptor, null);
+		final FilterableTreeItem<ClassTreeNode> root = classTreeHelper.buildClassTree(List.of(loadedClass,
+		                                                                                      unloadedClass))
+		                                                              .toTreeItem();
+
+		classTreeHelper.applyClassListDelta(root,
+		                                    new ClassListDelta(new LoadedClass[0],
+		                                                       new ClassLoaderDescriptor[] { classLoaderDescriptor }),
+		                                    false);
+
+		Assertions.assertEquals(List.of("test", "TestClass"),
+		                        root.streamSource().map(ClassTreeNode::getPackageSegment).collect(Collectors.toList()));
+	}
+
+	@Test
+	void givenReferencedClasses_whenGetNeighbouringClasses_thenReferencesBeforeSiblings() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+		final LoadedClass openClass = new LoadedClass("test.OpenClass", null, null);
+		final LoadedClass sibling = new LoadedClass("test.Sibling", null, null);
+		final LoadedClass otherSibling = new LoadedClass("test.OtherSibling", null, null);
+		final LoadedClass referenced = new LoadedClass("other.Referenced", null, null);
+		final LoadedClass unrelated = new LoadedClass("other.Unrelated", null, null);
+		final ClassNameIndex<LoadedClass> classNameIndex = new ClassNameIndex<>();
+		Stream.of(openClass, sibling, otherSibling, referenced, unrelated)
+		      .forEach(c -> classNameIndex.add(c.getName(), c));
+
+		final List<LoadedClass> neighbours = classTreeHelper.getNeighbouringClasses(classNameIndex,
+		                                                                            openClass,
+		                                                                            Set.of("other.Referenced",
+		                                                                                   "java.lang.String"),
+		                                                                            2);
+
+		Assertions.assertEquals(2, neighbours.size());
+		Assertions.assertEquals(referenced, neighbours.get(0));
+		Assertions.assertTrue(neighbours.get(1).equals(sibling) || neighbours.get(1).equals(otherSibling));
+	}
+
+	@Test
+	void givenClassLoaderTree_whenFindClassItem_thenPathFollowed() {
+		final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
+		final FilterableTreeItem<ClassTreeNode> root = buildClassTree();
+		final TreeItem<ClassTreeNode> expected = findClass(root, "test.ing.stuff.TestClass");
+
+		final FilterableTreeItem<ClassTreeNode> found =
+				classTreeHelper.findClassItem(root, expected.getValue().getLoadedClass(), true);
+
+		Assertions.assertSame(expected, found);
+		Assertions.assertNull(classTreeHelper.findClassItem(root,
+		                                                    new LoadedClass("test.ing.stuff.Missing",
+		                                                                    expected.getValue()
+		                                                                            .getLoadedClass()
+		                                                                            .getClassLoaderDescriptor(),
+		                                                                    null),
+		                                                    true));
+	}
+
+	private TreeItem<ClassTreeNode> findClass(FilterableTreeItem<ClassTreeNode> root, String className) {
+		return root.streamSourceItems()
+		           .filter(i -> i.getValue().getType() == ClassTreeNode.Type.CLASS)
+		           .filter(i -> i.getValue().getLoadedClass().getName().equals(className))
+		           .findFirst()
+		           .orElseThrow();
+	}
+
+}
@@ -2,8 +2,10 @@ package com.github.naton1.jvmexplorer.helper;
 
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -16,23 +18,34 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 @ExtendWith(MockitoExtension.class)
 class ExportHelperTest {
 
 	private static final RunningJvm JVM = new RunningJvm("id", "name");
 
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+
 	@Mock
 	private ClientHandler clientHandler;
 
+	@AfterEach
+	void tearDown() {
+		executorService.shutdownNow();
+	}
+
 	@Test
 	void testExport() throws IOException {
-		final ExportHelper exportHelper = new ExportHelper(clientHandler);
+		final ExportHelper exportHelper = new ExportHelper(clientHandler, executorService);
 		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder().build();
 		final List<LoadedClass> classesToExport = List.of(new LoadedClass("org.test.MyClass", null, null),
 		                                                  new LoadedClass("org.othertest.SomeClass",
@@ -46,8 +59,7 @@ class ExportHelperTest {
 		                                                     .collect(Collectors.toMap(LoadedClass::getName,
 		                                                                               l -> generateClassBytes()));
 
-		Mockito.when(clientHandler.getClassBytes(ArgumentMatchers.eq(JVM), ArgumentMatchers.any()))
-		       .thenAnswer(ctx -> classData.get(ctx.getArgument(1, LoadedClass.class).getName()));
+		mockClassBytes(classData);
 
 		final File outputFile = File.createTempFile("export", ".jar");
 		final AtomicInteger exportCount = new AtomicInteger();
@@ -70,6 +82,69 @@ class ExportHelperTest {
 		}
 	}
 
+	@Test
+	void testExportSkipsMissingClasses() throws IOException {
+		final ExportHelper exportHelper = new ExportHelper(clientHandler, executorService);
+		final List<LoadedClass> classesToExport = List.of(new LoadedClass("org.test.MyClass", null, null),
+		                                                  new LoadedClass("org.test.Missing", null, null));
+
+		final Map<String, byte[]> classData = Map.of("org.test.MyClass", generateClassBytes());
+
+		mockClassBytes(classData);
+
+		final File outputFile = File.createTempFile("export", ".jar");
+		final AtomicInteger exportCount = new AtomicInteger();
+
+		final boolean success = exportHelper.export(JVM, classesToExport, outputFile, exportCount::set);
+
+		Assertions.assertTrue(success);
+		Assertions.assertEquals(classesToExport.size(), exportCount.get());
+
+		final JarFile jarFile = new JarFile(outputFile);
+		Assertions.assertNotNull(jarFile.getEntry("org/test/MyClass.class"));
+		Assertions.assertNull(jarFile.getEntry("org/test/Missing.class"));
+	}
+
+	@Test
+	void testExportStored() throws IOException {
+		final ExportHelper exportHelper = new ExportHelper(clientHandler, executorService);
+		final List<LoadedClass> classesToExport = List.of(new LoadedClass("org.test.MyClass", null, null),
+		                                                  new LoadedClass("org.test.Other", null, null));
+
+		final Map<String, byte[]> classData = classesToExport.stream()
+		                                                     .collect(Collectors.toMap(LoadedClass::getName,
+		                                                                               l -> generateClassBytes()));
+
+		mockClassBytes(classData);
+
+		final File outputFile = File.createTempFile("export", ".jar");
+
+		final boolean success = exportHelper.export(JVM,
+		                                            classesToExport,
+		                                            outputFile,
+		                                            true,
+		                                            Deflater.DEFAULT_COMPRESSION,
+		                                            c -> {});
+
+		Assertions.assertTrue(success);
+
+		final JarFile jarFile = new JarFile(outputFile);
+		for (LoadedClass loadedClass : classesToExport) {
+			final JarEntry jarEntry = jarFile.getJarEntry(loadedClass.getName().replace('.', '/') + ".class");
+			Assertions.assertEquals(ZipEntry.STORED, jarEntry.getMethod());
+			Assertions.assertArrayEquals(classData.get(loadedClass.getName()),
+			                             jarFile.getInputStream(jarEntry).readAllBytes());
+		}
+	}
+
+	private void mockClassBytes(Map<String, byte[]> classData) {
+		Mockito.when(clientHandler.streamClassBytes(ArgumentMatchers.eq(JVM), ArgumentMatchers.any()))
+		       .thenAnswer(ctx -> {
+			       final List<LoadedClass> loadedClasses = ctx.getArgument(1);
+			       return loadedClasses.stream().map(l -> new ClassBytes(l, classData.get(l.getName()), 0));
+		       });
+	}
+
 	private byte[] generateClassBytes() {
 		// These are of course not real class files, but random byte arrays to ensure exporting works
 		final int size = ThreadLocalRandom.current().nextInt(100) + 20;
@@ -31,8 +31,10 @@ class PatchHelperTest {
 		final File jarFile = JarTestHelper.buildJar(Startup.class);
 		final AtomicInteger patchedClasses = new AtomicInteger();
 
-		Mockito.when(clientHandler.replaceClass(ArgumentMatchers.any(), ArgumentMatchers.any(),
-		                                        ArgumentMatchers.any()))
+		Mockito.when(clientHandler.stageClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt(),
+		                                        ArgumentMatchers.any(), ArgumentMatchers.any()))
+		       .thenReturn(PatchResult.builder().success(true).build());
+		Mockito.when(clientHandler.redefineStagedClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt()))
 		       .thenReturn(PatchResult.builder().success(true).build());
 
 		final boolean success = patchHelper.patch(jarFile, JVM, clientHandler, null, patchedClasses::set);
@@ -40,8 +42,49 @@ class PatchHelperTest {
 		Assertions.assertTrue(success);
 		Assertions.assertEquals(1, patchedClasses.get());
 
-		Mockito.verify(clientHandler, Mockito.times(patchedClasses.get()))
-		       .replaceClass(ArgumentMatchers.eq(JVM), ArgumentMatchers.any(), ArgumentMatchers.any());
+		Mockito.verify(clientHandler, Mockito.times(1))
+		       .stageClasses(ArgumentMatchers.eq(JVM),
+		                     ArgumentMatchers.anyInt(),
+		                     ArgumentMatchers.any(),
+		                     ArgumentMatchers.argThat(classFiles -> classFiles.containsKey(Startup.class.getName())));
+		Mockito.verify(clientHandler, Mockito.times(1))
+		       .redefineStagedClasses(ArgumentMatchers.eq(JVM), ArgumentMatchers.anyInt());
+	}
+
+	@Test
+	void testPatchFailure() throws Exception {
+		final PatchHelper patchHelper = new PatchHelper();
+
+		final File jarFile = JarTestHelper.buildJar(Startup.class);
+		final AtomicInteger patchedClasses = new AtomicInteger();
+
+		Mockito.when(clientHandler.stageClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt(),
+		                                        ArgumentMatchers.any(), ArgumentMatchers.any()))
+		       .thenReturn(PatchResult.builder().success(false).message("No classes were redefined").build());
+
+		final boolean success = patchHelper.patch(jarFile, JVM, clientHandler, null, patchedClasses::set);
+
+		Assertions.assertFalse(success);
+		Assertions.assertEquals(0, patchedClasses.get());
+		Mockito.verify(clientHandler, Mockito.never())
+		       .redefineStagedClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt());
+	}
+
+	@Test
+	void testPatchRedefineFailure() throws Exception {
+		final PatchHelper patchHelper = new PatchHelper();
+
+		final File jarFile = JarTestHelper.buildJar(Startup.class);
+
+		Mockito.when(clientHandler.stageClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt(),
+		                                        ArgumentMatchers.any(), ArgumentMatchers.any()))
+		       .thenReturn(PatchResult.builder().success(true).build());
+		Mockito.when(clientHandler.redefineStagedClasses(ArgumentMatchers.any(), ArgumentMatchers.anyInt()))
+		       .thenReturn(PatchResult.builder().success(false).message("No classes were redefined").build());
+
+		final boolean success = patchHelper.patch(jarFile, JVM, clientHandler, null, c -> {});
+
+		Assertions.assertFalse(success);
 	}
 
-}
\ No newline at end of file
+}
@@ -14,6 +14,7 @@ import com.github.naton1.jvmexplorer.net.JvmExplorerServer;
 import com.github.naton1.jvmexplorer.net.OpenPortProvider;
 import com.github.naton1.jvmexplorer.net.ServerLauncher;
 import com.github.naton1.jvmexplorer.protocol.ClassContent;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
 import com.github.naton1.jvmexplorer.protocol.helper.VerboseScheduledExecutorService;
 import com.github.naton1.jvmexplorer.settings.JvmExplorerSettings;
 import javafx.application.Platform;
@@ -50,6 +51,7 @@ public class JvmExplorerController {
 	private final ClientHandler clientHandler = ClientHandler.builder()
 	                                                         .onConnect(this::onConnect)
 	                                                         .onDisconnect(this::onDisconnect)
+	                                                         .onClassListDelta(this::onClassListDelta)
 	                                                         .build();
 	private JvmExplorerServer server;
 
@@ -112,7 +114,9 @@ public class JvmExplorerController {
 		                                       currentJvm,
 		                                       currentClass,
 		                                       classesTreeRoot,
-		                                       loadedClassesController::select);
+		                                       loadedClassesController::getClassNameIndex,
+		                                       loadedClassesController::select,
+		                                       jvmExplorerSettings);
 	}
 
 	private void initializeStage(JvmExplorerSettings jvmExplorerSettings) {
@@ -212,6 +216,10 @@ public class JvmExplorerController {
 		}
 	}
 
+	private void onClassListDelta(RunningJvm jvm, ClassListDelta classListDelta) {
+		loadedClassesController.onClassListDelta(jvm, classListDelta);
+	}
+
 	private void onDisconnect(RunningJvm jvm) {
 		Platform.runLater(() -> {
 			final RunningJvm selectedJvm = runningJvmsController.getCurrentJvm();
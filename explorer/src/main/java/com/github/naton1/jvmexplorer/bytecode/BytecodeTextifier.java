@@ -4,4 +4,10 @@ public interface BytecodeTextifier {
 
 	String process(byte[] bytecode);
 
+	// Cached results are only reused while this stays the same, so it should change along with anything that changes
+	// the output, like the library's version or settings
+	default String getVersion() {
+		return getClass().getName();
+	}
+
 }
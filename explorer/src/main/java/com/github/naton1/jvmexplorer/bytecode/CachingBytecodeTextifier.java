@@ -0,0 +1,229 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Results are keyed by a hash of the class file, so the same class is only processed once no matter which jvm it came
+// from. If a spill directory is given, results also survive restarts, which is why the textifier's version is part of
+// the hash too.
+@Slf4j
+public class CachingBytecodeTextifier implements BytecodeTextifier {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	// Temp files older than this were left behind by a crash, rather than being written right now
+	private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private final BytecodeTextifier bytecodeTextifier;
+	private final byte[] version;
+	private final File spillDirectory;
+	private final LongSupplier maxSpillBytes;
+	private final Map<String, String> cache;
+
+	private final Object spillLock = new Object();
+	// Unknown until the spill directory is first looked at
+	private long spilledBytes = -1;
+
+	public CachingBytecodeTextifier(BytecodeTextifier bytecodeTextifier, int maxEntries) {
+		this(bytecodeTextifier, maxEntries, null, () -> 0);
+	}
+
+	// Nothing is spilled or read back while the max is zero or less. Once the directory grows past the max, the least
+	// recently used results are deleted.
+	public CachingBytecodeTextifier(BytecodeTextifier bytecodeTextifier, int maxEntries, File spillDirectory,
+	                                LongSupplier maxSpillBytes) {
+		this.bytecodeTextifier = bytecodeTextifier;
+		this.version = bytecodeTextifier.getVersion().getBytes(StandardCharsets.UTF_8);
+		this.spillDirectory = spillDirectory;
+		this.maxSpillBytes = maxSpillBytes;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public String process(byte[] bytecode) {
+		final String key = hash(bytecode);
+		synchronized (cache) {
+			final String cached = cache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		String result = readSpilled(key);
+		if (result == null) {
+			result = bytecodeTextifier.process(bytecode);
+			// Failures aren't cached, so they can be retried
+			if (result == null || result.isEmpty()) {
+				return result;
+			}
+			writeSpilled(key, result);
+		}
+		synchronized (cache) {
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	private boolean isSpilling() {
+		return spillDirectory != null && maxSpillBytes.getAsLong() > 0;
+	}
+
+	private String readSpilled(String key) {
+		if (!isSpilling()) {
+			return null;
+		}
+		final File spilled = new File(spillDirectory, key);
+		try {
+			final String result = Files.readString(spilled.toPath());
+			// Trimming goes by last modified, so this keeps results that are still used around the longest
+			spilled.setLastModified(System.currentTimeMillis());
+			return result;
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+		catch (IOException e) {
+			log.warn("Failed to read cached result {}", key, e);
+			return null;
+		}
+	}
+
+	private void writeSpilled(String key, String result) {
+		if (!isSpilling()) {
+			return;
+		}
+		File tempFile = null;
+		try {
+			Files.createDirectories(spillDirectory.toPath());
+			// Write to a temp file first, so a partially written result is never read back
+			tempFile = File.createTempFile(key, TEMP_SUFFIX, spillDirectory);
+			Files.writeString(tempFile.toPath(), result);
+			final File spilled = new File(spillDirectory, key);
+			Files.move(tempFile.toPath(),
+			           spilled.toPath(),
+			           StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+			onSpilled(spilled.length());
+		}
+		catch (IOException e) {
+			log.warn("Failed to write cached result {}", key, e);
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	private void onSpilled(long bytes) {
+		synchronized (spillLock) {
+			if (spilledBytes < 0) {
+				spilledBytes = scanSpillDirectory();
+			}
+			else {
+				spilledBytes += bytes;
+			}
+			final long maxBytes = maxSpillBytes.getAsLong();
+			if (spilledBytes > maxBytes) {
+				// Trims well under the max, so this doesn't happen again on the very next write
+				trimSpillDirectory(maxBytes * 3 / 4);
+			}
+		}
+	}
+
+	// Also removes temp files left behind by a crash part way through a write
+	private long scanSpillDirectory() {
+		final File[] files = spillDirectory.listFiles(File::isFile);
+		if (files == null) {
+			return 0;
+		}
+		final long now = System.currentTimeMillis();
+		long bytes = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				if (now - file.lastModified() > STALE_TEMP_FILE_MILLIS) {
+					file.delete();
+				}
+				continue;
+			}
+			bytes += file.length();
+		}
+		return bytes;
+	}
+
+	private void trimSpillDirectory(long targetBytes) {
+		final File[] files = spillDirectory.listFiles(file -> file.isFile()
+		                                                      && !file.getName().endsWith(TEMP_SUFFIX));
+		if (files == null) {
+			spilledBytes = -1;
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		long remainingBytes = Arrays.stream(files).mapToLong(File::length).sum();
+		for (File file : files) {
+			if (remainingBytes <= targetBytes) {
+				break;
+			}
+			final long length = file.length();
+			if (file.delete()) {
+				remainingBytes -= length;
+			}
+		}
+		log.debug("Trimmed {} to {} bytes", spillDirectory, remainingBytes);
+		spilledBytes = remainingBytes;
+	}
+
+	// The version of the jar a library class was loaded from. The jar's own manifest may not have one, but then its
+	// file name usually does.
+	public static String getLibraryVersion(Class<?> libraryClass) {
+		final String version = libraryClass.getPackage().getImplementationVersion();
+		if (version != null) {
+			return version;
+		}
+		final CodeSource codeSource = libraryClass.getProtectionDomain().getCodeSource();
+		final URL location = codeSource != null ? codeSource.getLocation() : null;
+		return location != null ? location.getPath() : "unknown";
+	}
+
+	private String hash(byte[] bytecode) {
+		try {
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			messageDigest.update(version);
+			// Keeps the version from running into the class file
+			messageDigest.update((byte) 0);
+			final byte[] digest = messageDigest.digest(bytecode);
+			final StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every jvm is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CachingBytecodeTextifier(" + bytecodeTextifier + ")";
+	}
+
+}
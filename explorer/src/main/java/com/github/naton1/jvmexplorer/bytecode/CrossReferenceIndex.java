@@ -0,0 +1,312 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import com.github.naton1.jvmexplorer.helper.AsmHelper;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import lombok.Value;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Callers of methods, and readers/writers of fields, across a set of classes. Every name is interned, so a usage is
+// stored as a few ints no matter how long the names involved are. Thread safe; parsing happens outside the lock, so
+// classes can be added from several threads at once.
+public class CrossReferenceIndex {
+
+	public enum Kind {
+		CALL,
+		READ,
+		WRITE,
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final int KIND_BITS = 2;
+	private static final int INTS_PER_USAGE = 3;
+
+	private final Interner classNames = new Interner();
+	private final Interner memberNames = new Interner();
+	private final Interner descriptors = new Interner();
+
+	// Caller methods, as a name id and descriptor id pair
+	private final Map<Long, Integer> signatureIds = new HashMap<>();
+	private final IntList signatureNames = new IntList();
+	private final IntList signatureDescriptors = new IntList();
+
+	// Indexed by class id, null once a class is removed
+	private final List<LoadedClass> classes = new ArrayList<>();
+	private final Map<LoadedClass, Integer> classIds = new HashMap<>();
+	private int removedClasses;
+
+	// Keyed by the owner and name of the used member. Each usage is the class id, the caller signature id and the
+	// used member's descriptor id combined with the kind of usage.
+	private final Map<Long, IntList> usages = new HashMap<>();
+
+	public synchronized boolean contains(LoadedClass loadedClass) {
+		return classIds.containsKey(loadedClass);
+	}
+
+	public synchronized int size() {
+		return classIds.size();
+	}
+
+	public void add(LoadedClass loadedClass, byte[] classFile) {
+		final ClassNode classNode = AsmHelper.parse(classFile, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+		final Set<Reference> references = getReferences(classNode);
+		synchronized (this) {
+			removeClass(loadedClass);
+			compactIfNeeded();
+			final int classId = classes.size();
+			classes.add(loadedClass);
+			classIds.put(loadedClass, classId);
+			for (Reference reference : references) {
+				final long key = pack(classNames.intern(reference.getOwner()), memberNames.intern(reference.getName()));
+				final int usageDescriptor = descriptors.intern(reference.getDescriptor()) << KIND_BITS
+				                            | reference.getKind().ordinal();
+				final IntList memberUsages = usages.computeIfAbsent(key, k -> new IntList());
+				memberUsages.add(classId);
+				memberUsages.add(internSignature(reference.getCallerName(), reference.getCallerDescriptor()));
+				memberUsages.add(usageDescriptor);
+			}
+		}
+	}
+
+	// Usages of removed classes are skipped by queries until there are more of them than live classes, at which point
+	// they're dropped all at once
+	public synchronized void remove(LoadedClass loadedClass) {
+		removeClass(loadedClass);
+		compactIfNeeded();
+	}
+
+	public synchronized void retainAll(Collection<LoadedClass> loadedClasses) {
+		final Set<LoadedClass> retained = new HashSet<>(loadedClasses);
+		new ArrayList<>(classIds.keySet()).stream().filter(c -> !retained.contains(c)).forEach(this::removeClass);
+		compactIfNeeded();
+	}
+
+	// The owner is an internal name. A null descriptor matches every overload.
+	public synchronized List<Usage> findUsages(String owner, String name, String descriptor) {
+		final int ownerId = classNames.get(owner);
+		final int nameId = memberNames.get(name);
+		final int descriptorId = descriptor != null ? descriptors.get(descriptor) : -1;
+		if (ownerId == -1 || nameId == -1 || (descriptor != null && descriptorId == -1)) {
+			return Collections.emptyList();
+		}
+		final IntList memberUsages = usages.get(pack(ownerId, nameId));
+		if (memberUsages == null) {
+			return Collections.emptyList();
+		}
+		final List<Usage> found = new ArrayList<>();
+		for (int i = 0; i < memberUsages.size(); i += INTS_PER_USAGE) {
+			final LoadedClass loadedClass = classes.get(memberUsages.get(i));
+			final int usageDescriptor = memberUsages.get(i + 2);
+			if (loadedClass == null || (descriptor != null && usageDescriptor >>> KIND_BITS != descriptorId)) {
+				continue;
+			}
+			final int signatureId = memberUsages.get(i + 1);
+			found.add(new Usage(loadedClass,
+			                    memberNames.value(signatureNames.get(signatureId)),
+			                    descriptors.value(signatureDescriptors.get(signatureId)),
+			                    descriptors.value(usageDescriptor >>> KIND_BITS),
+			                    KINDS[usageDescriptor & ((1 << KIND_BITS) - 1)]));
+		}
+		return found;
+	}
+
+	private void removeClass(LoadedClass loadedClass) {
+		final Integer classId = classIds.remove(loadedClass);
+		if (classId != null) {
+			classes.set(classId, null);
+			removedClasses++;
+		}
+	}
+
+	// Renumbers the live classes and drops every usage of a removed one. Names stay interned, most of them are shared
+	// with the classes that are left anyway.
+	private void compactIfNeeded() {
+		if (removedClasses <= classIds.size()) {
+			return;
+		}
+		final int[] newClassIds = new int[classes.size()];
+		final List<LoadedClass> liveClasses = new ArrayList<>(classIds.size());
+		for (int i = 0; i < classes.size(); i++) {
+			final LoadedClass loadedClass = classes.get(i);
+			newClassIds[i] = loadedClass != null ? liveClasses.size() : -1;
+			if (loadedClass != null) {
+				classIds.put(loadedClass, liveClasses.size());
+				liveClasses.add(loadedClass);
+			}
+		}
+		classes.clear();
+		classes.addAll(liveClasses);
+		usages.values().removeIf(memberUsages -> memberUsages.compact(newClassIds) == 0);
+		removedClasses = 0;
+	}
+
+	private int internSignature(String name, String descriptor) {
+		final int nameId = memberNames.intern(name);
+		final int descriptorId = descriptors.intern(descriptor);
+		return signatureIds.computeIfAbsent(pack(nameId, descriptorId), k -> {
+			signatureNames.add(nameId);
+			signatureDescriptors.add(descriptorId);
+			return signatureNames.size() - 1;
+		});
+	}
+
+	private static long pack(int high, int low) {
+		return (long) high << 32 | (low & 0xFFFFFFFFL);
+	}
+
+	// A method calling the same member several times only counts once
+	private static Set<Reference> getReferences(ClassNode classNode) {
+		final Set<Reference> references = new LinkedHashSet<>();
+		for (MethodNode methodNode : classNode.methods) {
+			for (AbstractInsnNode insn : methodNode.instructions) {
+				if (insn instanceof MethodInsnNode) {
+					final MethodInsnNode methodInsnNode = (MethodInsnNode) insn;
+					references.add(new Reference(methodNode.name,
+					                             methodNode.desc,
+					                             methodInsnNode.owner,
+					                             methodInsnNode.name,
+					                             methodInsnNode.desc,
+					                             Kind.CALL));
+				}
+				else if (insn instanceof FieldInsnNode) {
+					final FieldInsnNode fieldInsnNode = (FieldInsnNode) insn;
+					final boolean write = insn.getOpcode() == Opcodes.PUTFIELD
+					                      || insn.getOpcode() == Opcodes.PUTSTATIC;
+					references.add(new Reference(methodNode.name,
+					                             methodNode.desc,
+					                             fieldInsnNode.owner,
+					                             fieldInsnNode.name,
+					                             fieldInsnNode.desc,
+					                             write ? Kind.WRITE : Kind.READ));
+				}
+				else if (insn instanceof InvokeDynamicInsnNode) {
+					// Method references and lambdas point at their implementation through handles
+					Arrays.stream(((InvokeDynamicInsnNode) insn).bsmArgs)
+					      .filter(Handle.class::isInstance)
+					      .map(Handle.class::cast)
+					      .forEach(handle -> references.add(new Reference(methodNode.name,
+					                                                      methodNode.desc,
+					                                                      handle.getOwner(),
+					                                                      handle.getName(),
+					                                                      handle.getDesc(),
+					                                                      getKind(handle))));
+				}
+			}
+		}
+		return references;
+	}
+
+	private static Kind getKind(Handle handle) {
+		switch (handle.getTag()) {
+		case Opcodes.H_GETFIELD:
+		case Opcodes.H_GETSTATIC:
+			return Kind.READ;
+		case Opcodes.H_PUTFIELD:
+		case Opcodes.H_PUTSTATIC:
+			return Kind.WRITE;
+		default:
+			return Kind.CALL;
+		}
+	}
+
+	@Value
+	public static class Usage {
+		private final LoadedClass loadedClass;
+		private final String methodName;
+		private final String methodDescriptor;
+		// The descriptor of the member being used, useful when looking up every overload
+		private final String descriptor;
+		private final Kind kind;
+	}
+
+	@Value
+	private static class Reference {
+		private final String callerName;
+		private final String callerDescriptor;
+		private final String owner;
+		private final String name;
+		private final String descriptor;
+		private final Kind kind;
+	}
+
+	private static class Interner {
+
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final List<String> values = new ArrayList<>();
+
+		int intern(String value) {
+			return ids.computeIfAbsent(value, v -> {
+				values.add(v);
+				return values.size() - 1;
+			});
+		}
+
+		int get(String value) {
+			return ids.getOrDefault(value, -1);
+		}
+
+		String value(int id) {
+			return values.get(id);
+		}
+
+	}
+
+	private static class IntList {
+
+		private int[] values = new int[INTS_PER_USAGE];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+		// Usages whose class has no new id are dropped. Returns the number of ints left.
+		int compact(int[] newClassIds) {
+			int compactedSize = 0;
+			for (int i = 0; i < size; i += INTS_PER_USAGE) {
+				final int newClassId = newClassIds[values[i]];
+				if (newClassId == -1) {
+					continue;
+				}
+				values[compactedSize] = newClassId;
+				values[compactedSize + 1] = values[i + 1];
+				values[compactedSize + 2] = values[i + 2];
+				compactedSize += INTS_PER_USAGE;
+			}
+			size = compactedSize;
+			values = Arrays.copyOf(values, Math.max(INTS_PER_USAGE, size));
+			return size;
+		}
+
+	}
+
+}
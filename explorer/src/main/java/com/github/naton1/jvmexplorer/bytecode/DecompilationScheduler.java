@@ -0,0 +1,179 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs bytecode processing on its own pool, so expensive classes can't starve the rest of the app. Jobs for what the
+// user is looking at always run before background work.
+@Slf4j
+public class DecompilationScheduler {
+
+	// Declared in order of priority
+	public enum Priority {
+		VISIBLE,
+		PREFETCH,
+	}
+
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final ThreadPoolExecutor executor;
+	private final long timeoutMs;
+	private final int threads;
+
+	// Workers still stuck in a job that was cancelled or timed out. Each one is replaced while it finishes, up to as
+	// many as there are threads, so a job that ignores interrupts can't hold up everything queued behind it.
+	private int abandonedWorkers;
+
+	public DecompilationScheduler(int threads, long timeout, TimeUnit timeUnit) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads,
+		                                       threads,
+		                                       0L,
+		                                       TimeUnit.MILLISECONDS,
+		                                       new PriorityBlockingQueue<>(),
+		                                       r -> {
+			                                       final Thread thread = new Thread(r,
+			                                                                        "decompiler-"
+			                                                                        + threadCount.incrementAndGet());
+			                                       thread.setDaemon(true);
+			                                       return thread;
+		                                       });
+		this.timeoutMs = timeUnit.toMillis(timeout);
+		this.threads = threads;
+	}
+
+	public Job submit(BytecodeTextifier bytecodeTextifier, byte[] bytecode, Priority priority) {
+		final Job job = new Job(bytecodeTextifier, bytecode, priority, nextSequence.getAndIncrement());
+		// Must be execute rather than submit, otherwise the job gets wrapped and can't be ordered by the queue
+		executor.execute(job);
+		return job;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	// Starts another worker, if there's room for one
+	private synchronized boolean replaceWorker() {
+		if (abandonedWorkers >= threads) {
+			return false;
+		}
+		abandonedWorkers++;
+		resize();
+		return true;
+	}
+
+	// An abandoned worker finally finished, so its replacement isn't needed anymore
+	private synchronized void releaseWorker() {
+		abandonedWorkers--;
+		resize();
+	}
+
+	private void resize() {
+		final int poolSize = threads + abandonedWorkers;
+		// The core size can never be above the max, so the order depends on which way this goes
+		if (poolSize > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(poolSize);
+			executor.setCorePoolSize(poolSize);
+		}
+		else {
+			executor.setCorePoolSize(poolSize);
+			executor.setMaximumPoolSize(poolSize);
+		}
+	}
+
+	public class Job implements Runnable, Comparable<Job> {
+
+		private final BytecodeTextifier bytecodeTextifier;
+		private final byte[] bytecode;
+		private final Priority priority;
+		private final long sequence;
+
+		private final CompletableFuture<String> result = new CompletableFuture<>();
+
+		private Thread worker;
+		private boolean abandoned;
+
+		private Job(BytecodeTextifier bytecodeTextifier, byte[] bytecode, Priority priority, long sequence) {
+			this.bytecodeTextifier = bytecodeTextifier;
+			this.bytecode = bytecode;
+			this.priority = priority;
+			this.sequence = sequence;
+			// Covers cancellation and timeouts. The processors don't check for interrupts everywhere, but they do in
+			// a lot of places, so this usually frees the worker up early.
+			result.whenComplete((r, t) -> {
+				if (t != null) {
+					abandonWorker();
+				}
+			});
+		}
+
+		// Completes with null if processing fails, or exceptionally if cancelled or timed out
+		public CompletableFuture<String> getResult() {
+			return result;
+		}
+
+		public void cancel() {
+			if (result.cancel(false)) {
+				executor.remove(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (result.isDone()) {
+				return;
+			}
+			synchronized (this) {
+				worker = Thread.currentThread();
+			}
+			result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+			try {
+				result.complete(bytecodeTextifier.process(bytecode));
+			}
+			catch (Throwable t) {
+				if (!result.isDone()) {
+					log.warn("Failed to process bytecode using {}", bytecodeTextifier, t);
+				}
+				result.complete(null);
+			}
+			finally {
+				final boolean wasAbandoned;
+				synchronized (this) {
+					worker = null;
+					wasAbandoned = abandoned;
+					// Don't leave the pool thread interrupted for the next job
+					Thread.interrupted();
+				}
+				if (wasAbandoned) {
+					releaseWorker();
+				}
+			}
+		}
+
+		private synchronized void abandonWorker() {
+			if (worker != null && !abandoned) {
+				log.debug("Interrupting {} job", bytecodeTextifier);
+				worker.interrupt();
+				// Fernflower in particular mostly just sets a flag, so the queue moves on without waiting for it
+				abandoned = replaceWorker();
+			}
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			final int priorityComparison = priority.compareTo(other.priority);
+			if (priorityComparison != 0) {
+				return priorityComparison;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+}
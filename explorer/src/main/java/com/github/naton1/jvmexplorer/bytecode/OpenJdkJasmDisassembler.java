@@ -12,6 +12,8 @@ import java.nio.file.Files;
 @Slf4j
 public class OpenJdkJasmDisassembler implements Disassembler {
 
+	private static final String VERSION = "jdis " + CachingBytecodeTextifier.getLibraryVersion(Main.class);
+
 	@Override
 	public String process(byte[] bytecode) {
 		try {
@@ -35,4 +37,9 @@ public class OpenJdkJasmDisassembler implements Disassembler {
 		}
 	}
 
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+
 }
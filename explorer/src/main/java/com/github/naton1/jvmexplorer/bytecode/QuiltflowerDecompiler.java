@@ -10,18 +10,36 @@ import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 import java.util.jar.Manifest;
 
 @Slf4j
 public class QuiltflowerDecompiler implements Decompiler {
 
+	// Class files are never read from disk, this just gives each one a unique path
+	private static final File BATCH_ROOT = new File("batch-decompile");
+
+	// Gives up on a single method after this many seconds, rather than letting one pathological method hang the class
+	private static final int MAX_METHOD_PROCESSING_SECONDS = 10;
+
+	private static final Map<String, Object> PREFERENCES = createPreferences();
+	private static final String VERSION = "quiltflower " + CachingBytecodeTextifier.getLibraryVersion(Fernflower.class)
+	                                      + " " + new TreeMap<>(PREFERENCES);
+
 	public String process(byte[] bytes) {
 		final IBytecodeProvider bytecodeProvider = new BytecodeProvider(bytes);
 		final ResultSaver resultSaver = new ResultSaver();
 		final IFernflowerLogger fernflowerLogger = new FernflowerLogger();
 		final Fernflower fernflower = new Fernflower(bytecodeProvider,
 		                                             resultSaver,
-		                                             IFernflowerPreferences.DEFAULTS,
+		                                             PREFERENCES,
 		                                             fernflowerLogger);
 
 		try {
@@ -35,6 +53,43 @@ public class QuiltflowerDecompiler implements Decompiler {
 		return resultSaver.getContent();
 	}
 
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+
+	// Decompiling everything in one context lets inner classes be resolved and merged into their outer class. Sources
+	// are handed off as each top level class finishes, keyed by their path (e.g. org/example/Main.java).
+	public void decompile(Map<String, byte[]> classFiles, BiConsumer<String, String> onSource) {
+		final Map<String, byte[]> classFilesByPath = new HashMap<>();
+		final List<File> sources = new ArrayList<>();
+		for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+			final File source = new File(BATCH_ROOT, classFile.getKey().replace('.', '/') + ".class");
+			classFilesByPath.put(source.getAbsolutePath(), classFile.getValue());
+			sources.add(source);
+		}
+		final IBytecodeProvider bytecodeProvider = new MultiClassBytecodeProvider(classFilesByPath);
+		final IResultSaver resultSaver = new StreamingResultSaver(onSource);
+		final Fernflower fernflower = new Fernflower(bytecodeProvider,
+		                                             resultSaver,
+		                                             PREFERENCES,
+		                                             new FernflowerLogger());
+
+		try {
+			sources.forEach(fernflower::addSource);
+			fernflower.decompileContext();
+		}
+		catch (Exception e) {
+			log.warn("Failed to decompile classes", e);
+		}
+	}
+
+	private static Map<String, Object> createPreferences() {
+		final Map<String, Object> preferences = new HashMap<>(IFernflowerPreferences.DEFAULTS);
+		preferences.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, String.valueOf(MAX_METHOD_PROCESSING_SECONDS));
+		return preferences;
+	}
+
 	@RequiredArgsConstructor
 	private static class BytecodeProvider implements IBytecodeProvider {
 		private final byte[] bytes;
@@ -45,6 +100,20 @@ public class QuiltflowerDecompiler implements Decompiler {
 		}
 	}
 
+	@RequiredArgsConstructor
+	private static class MultiClassBytecodeProvider implements IBytecodeProvider {
+		private final Map<String, byte[]> classFilesByPath;
+
+		@Override
+		public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
+			final byte[] classFile = classFilesByPath.get(externalPath);
+			if (classFile == null) {
+				throw new FileNotFoundException(externalPath);
+			}
+			return classFile;
+		}
+	}
+
 	private static class FernflowerLogger extends IFernflowerLogger {
 		@Override
 		public void writeMessage(String message, Severity severity) {
@@ -115,4 +184,40 @@ public class QuiltflowerDecompiler implements Decompiler {
 		public void closeArchive(String path, String archiveName) {}
 	}
 
+	@RequiredArgsConstructor
+	private static class StreamingResultSaver implements IResultSaver {
+		private final BiConsumer<String, String> onSource;
+
+		@Override
+		public void saveFolder(String path) {}
+
+		@Override
+		public void copyFile(String source, String path, String entryName) {}
+
+		@Override
+		public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
+			if (content == null) {
+				log.warn("No decompiled source for {}", qualifiedName);
+				return;
+			}
+			onSource.accept(qualifiedName + ".java", content);
+		}
+
+		@Override
+		public void createArchive(String path, String archiveName, Manifest manifest) {}
+
+		@Override
+		public void saveDirEntry(String path, String archiveName, String entryName) {}
+
+		@Override
+		public void copyEntry(String source, String path, String archiveName, String entry) {}
+
+		@Override
+		public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName,
+		                           String content) {}
+
+		@Override
+		public void closeArchive(String path, String archiveName) {}
+	}
+
 }
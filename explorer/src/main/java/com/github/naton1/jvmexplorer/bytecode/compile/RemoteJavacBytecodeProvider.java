@@ -2,13 +2,17 @@ package com.github.naton1.jvmexplorer.bytecode.compile;
 
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
 import com.github.naton1.jvmexplorer.protocol.helper.ClassNameHelper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.stream.Stream;
 import javax.tools.JavaFileObject;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
@@ -22,10 +26,13 @@ public class RemoteJavacBytecodeProvider implements JavacBytecodeProvider {
 
 	@Override
 	public List<JavaFileObject> list(String packageName, boolean recurse) {
-		return classpath.stream()
-		                .filter(l -> isClassInPackage(l, packageName, recurse))
-		                .map(this::getProvidedJavaFileObject)
-		                .collect(Collectors.toList());
+		final List<LoadedClass> classes = classpath.stream()
+		                                           .filter(l -> isClassInPackage(l, packageName, recurse))
+		                                           .collect(Collectors.toList());
+		final ClassBytesBatch classBytesBatch = new ClassBytesBatch(classes);
+		return classes.stream()
+		              .map(l -> getProvidedJavaFileObject(l, classBytesBatch))
+		              .collect(Collectors.toList());
 	}
 
 	private boolean isClassInPackage(LoadedClass loadedClass, String packageName, boolean recurse) {
@@ -36,10 +43,33 @@ public class RemoteJavacBytecodeProvider implements JavacBytecodeProvider {
 		return classPackageName.equals(packageName);
 	}
 
-	private ProvidedJavaFileObject getProvidedJavaFileObject(LoadedClass loadedClass) {
+	private ProvidedJavaFileObject getProvidedJavaFileObject(LoadedClass loadedClass,
+	                                                        ClassBytesBatch classBytesBatch) {
 		return new ProvidedJavaFileObject(loadedClass.getName(),
 		                                  JavaFileObject.Kind.CLASS,
-		                                  () -> clientHandler.getClassBytes(runningJvm, loadedClass));
+		                                  () -> classBytesBatch.get(loadedClass));
+	}
+
+	// Javac lists whole packages but only reads the classes it needs. Once it reads one class, it'll likely need others
+	// from the same package, so fetch the whole listing in one request instead of one round trip per class.
+	@RequiredArgsConstructor
+	private class ClassBytesBatch {
+
+		private final List<LoadedClass> loadedClasses;
+
+		private Map<LoadedClass, byte[]> classBytes;
+
+		public synchronized byte[] get(LoadedClass loadedClass) {
+			if (classBytes == null) {
+				classBytes = new HashMap<>();
+				try (final Stream<ClassBytes> classBytesStream = clientHandler.streamClassBytes(runningJvm,
+				                                                                                 loadedClasses)) {
+					classBytesStream.forEach(c -> classBytes.put(c.getLoadedClass(), c.getBytes()));
+				}
+			}
+			return classBytes.get(loadedClass);
+		}
+
 	}
 
 }
@@ -1,28 +1,38 @@
 package com.github.naton1.jvmexplorer.fx.classes;
 
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.bytecode.QuiltflowerDecompiler;
 import com.github.naton1.jvmexplorer.helper.AlertHelper;
 import com.github.naton1.jvmexplorer.helper.ClassTreeHelper;
+import com.github.naton1.jvmexplorer.helper.DecompileHelper;
 import com.github.naton1.jvmexplorer.helper.ExportHelper;
 import com.github.naton1.jvmexplorer.helper.FileHelper;
 import com.github.naton1.jvmexplorer.helper.PatchHelper;
 import com.github.naton1.jvmexplorer.helper.RemoteCodeHelper;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
+import com.github.naton1.jvmexplorer.protocol.ConstantSearchResult;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassFilter;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import com.github.naton1.jvmexplorer.settings.JvmExplorerSettings;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.StringBinding;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.scene.control.Alert;
 import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Tooltip;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
@@ -31,25 +41,36 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.stage.Window;
 import javafx.util.Callback;
+import javafx.util.Duration;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.text.NumberFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RequiredArgsConstructor
 @Slf4j
 public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeCell<ClassTreeNode>> {
 
 	private static final Map<LoadedClass.MetaType, Image> CLASS_IMAGES = new ConcurrentHashMap<>();
+	private static final NumberFormat numberFormat = NumberFormat.getInstance();
+	private static final String LIMIT_PACKAGES_HEADER =
+			"Only load classes in these packages (comma separated, empty for all):";
+	// Counting means describing every class in the agent, so it waits for a pause in typing
+	private static final Duration MATCHING_COUNT_DELAY = Duration.millis(500);
 	private final PatchHelper patchHelper = new PatchHelper();
 	private final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
 	private final FileHelper fileHelper = new FileHelper();
@@ -121,25 +142,39 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 
 		final MenuItem scopedExport = createScopedExport(treeCell, classes);
 		final MenuItem exportClasses = createExportClasses(classes);
+		final MenuItem scopedDecompile = createScopedDecompile(treeCell, classes, false);
+		final MenuItem scopedDecompileToFolder = createScopedDecompile(treeCell, classes, true);
+		final MenuItem decompileClasses = createDecompileClasses(classes, false);
+		final MenuItem decompileClassesToFolder = createDecompileClasses(classes, true);
 		final MenuItem reloadClasses = createReloadClasses();
 		final MenuItem scopedReplace = createScopedReplace(treeCell, classes);
 		final MenuItem replaceClasses = createReplaceClasses(classes);
 		final MenuItem includeClassLoader = createShowClassLoader(reloadClasses);
+		final MenuItem limitPackages = createLimitPackages(reloadClasses, classes);
 		final MenuItem executeCode = createExecuteCode(treeCell, classes);
+		final MenuItem searchConstants = createSearchConstants(classes);
 
 		treeCell.itemProperty().addListener((obs, old, newv) -> {
 			classesContextMenu.getItems().clear();
 			if (newv != null) {
-				classesContextMenu.getItems().addAll(scopedExport, scopedReplace, new SeparatorMenuItem());
+				classesContextMenu.getItems().addAll(scopedExport, scopedReplace);
+				if (newv.getType() != ClassTreeNode.Type.CLASS) {
+					classesContextMenu.getItems().addAll(scopedDecompile, scopedDecompileToFolder);
+				}
+				classesContextMenu.getItems().add(new SeparatorMenuItem());
 			}
 			classesContextMenu.getItems()
 			                  .addAll(executeCode,
+			                          searchConstants,
 			                          new SeparatorMenuItem(),
 			                          exportClasses,
+			                          decompileClasses,
+			                          decompileClassesToFolder,
 			                          replaceClasses,
 			                          reloadClasses,
 			                          new SeparatorMenuItem(),
-			                          includeClassLoader);
+			                          includeClassLoader,
+			                          limitPackages);
 		});
 
 		treeCell.setContextMenu(classesContextMenu);
@@ -277,6 +312,80 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 		return exportClasses;
 	}
 
+	private MenuItem createScopedDecompile(TreeCell<ClassTreeNode> treeCell, TreeView<ClassTreeNode> classes,
+	                                       boolean toDirectory) {
+		final MenuItem scopedDecompile = new MenuItem();
+		scopedDecompile.textProperty().bind(Bindings.createStringBinding(() -> {
+			final ClassTreeNode classTreeNode = treeCell.getItem();
+			if (classTreeNode == null) {
+				return "";
+			}
+			final String text = classTreeNode.getType() == ClassTreeNode.Type.CLASSLOADER
+			                    ? "Decompile Class Loader"
+			                    : "Decompile Package";
+			return toDirectory ? text + " To Folder" : text;
+		}, treeCell.itemProperty()));
+		scopedDecompile.setOnAction(e -> {
+			final RunningJvm activeJvm = currentJvm.get();
+			if (activeJvm == null) {
+				return;
+			}
+			final ClassTreeNode classTreeNode = treeCell.getItem();
+			if (classTreeNode == null || classTreeNode.getType() == ClassTreeNode.Type.CLASS) {
+				return;
+			}
+			final File selectedFile = selectDecompileFile(classTreeNode.getPackageSegment() + "-sources",
+			                                              classes.getScene().getWindow(),
+			                                              toDirectory);
+			if (selectedFile == null) {
+				return;
+			}
+			final List<LoadedClass> scopedClasses;
+			if (classTreeNode.getType() == ClassTreeNode.Type.CLASSLOADER) {
+				scopedClasses = classTreeHelper.getClassesInPackage(classesTreeRoot,
+				                                                    "",
+				                                                    classTreeNode.getClassLoaderDescriptor());
+			}
+			else {
+				final String fullPackageName = classTreeHelper.getPackageName(treeCell.getTreeItem());
+				final ClassLoaderDescriptor packageClassLoader = this.settings.getShowClassLoader().get()
+				                                                 ?
+				                                                 classTreeHelper.getNodeClassLoader(treeCell.getTreeItem())
+				                                                 : null;
+				scopedClasses = classTreeHelper.getClassesInPackage(classesTreeRoot,
+				                                                    fullPackageName,
+				                                                    packageClassLoader);
+			}
+			log.debug("Decompiling {} classes in {}", scopedClasses.size(), classTreeNode);
+			executorService.submit(() -> decompile(selectedFile, scopedClasses, activeJvm));
+		});
+		return scopedDecompile;
+	}
+
+	private MenuItem createDecompileClasses(TreeView<ClassTreeNode> classes, boolean toDirectory) {
+		final MenuItem decompileClasses = new MenuItem(toDirectory
+		                                               ? "Decompile Classes To Folder"
+		                                               : "Decompile Classes");
+		decompileClasses.setOnAction(e -> {
+			final RunningJvm activeJvm = currentJvm.get();
+			if (activeJvm == null) {
+				return;
+			}
+			final File selectedFile = selectDecompileFile(activeJvm.getName() + "-sources",
+			                                              classes.getScene().getWindow(),
+			                                              toDirectory);
+			if (selectedFile == null) {
+				return;
+			}
+			final List<LoadedClass> loadedClasses = classesTreeRoot.streamVisible()
+			                                                       .map(ClassTreeNode::getLoadedClass)
+			                                                       .filter(Objects::nonNull)
+			                                                       .collect(Collectors.toList());
+			executorService.submit(() -> decompile(selectedFile, loadedClasses, activeJvm));
+		});
+		return decompileClasses;
+	}
+
 	private MenuItem createReloadClasses() {
 		final MenuItem reloadClasses = new MenuItem("Refresh Classes");
 		reloadClasses.setOnAction(e -> {
@@ -380,6 +489,112 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 		return includeClassLoader;
 	}
 
+	private MenuItem createLimitPackages(MenuItem reloadClasses, TreeView<ClassTreeNode> classes) {
+		final MenuItem limitPackages = new MenuItem("Limit Packages");
+		limitPackages.setOnAction(e -> {
+			final TextInputDialog dialog = new TextInputDialog(settings.getClassListPackages().get());
+			dialog.setTitle("Limit Packages");
+			dialog.setHeaderText(LIMIT_PACKAGES_HEADER);
+			dialog.setContentText(null);
+			dialog.initOwner(classes.getScene().getWindow());
+			final RunningJvm activeJvm = currentJvm.get();
+			if (activeJvm != null) {
+				showMatchingCount(dialog, activeJvm);
+			}
+			dialog.showAndWait().map(String::trim).ifPresent(packages -> {
+				settings.getClassListPackages().set(packages);
+				if (currentJvm.get() != null) {
+					reloadClasses.getOnAction().handle(e);
+				}
+			});
+		});
+		return limitPackages;
+	}
+
+	// Shows how many classes the packages being edited match, so it's clear what a reload would load
+	private void showMatchingCount(TextInputDialog dialog, RunningJvm activeJvm) {
+		final AtomicInteger latestCount = new AtomicInteger();
+		final PauseTransition countDelay = new PauseTransition(MATCHING_COUNT_DELAY);
+		countDelay.setOnFinished(e -> {
+			final int count = latestCount.incrementAndGet();
+			dialog.setHeaderText(LIMIT_PACKAGES_HEADER + "\nCounting matching classes...");
+			final LoadedClassFilter filter = LoadedClassesController.buildClassFilter(dialog.getEditor().getText());
+			clientHandler.countLoadedClasses(activeJvm, filter).whenComplete((matching, t) -> Platform.runLater(() -> {
+				// The packages were edited again, so a newer count is on its way
+				if (count != latestCount.get()) {
+					return;
+				}
+				if (matching == null) {
+					dialog.setHeaderText(LIMIT_PACKAGES_HEADER + "\nFailed to count matching classes");
+					return;
+				}
+				dialog.setHeaderText(LIMIT_PACKAGES_HEADER + "\n" + numberFormat.format(matching) + " classes match");
+			}));
+		});
+		dialog.getEditor().textProperty().addListener((obs, old, newv) -> countDelay.playFromStart());
+		dialog.setOnHidden(e -> {
+			countDelay.stop();
+			latestCount.incrementAndGet();
+		});
+		countDelay.playFromStart();
+	}
+
+	private MenuItem createSearchConstants(TreeView<ClassTreeNode> classes) {
+		final MenuItem searchConstants = new MenuItem("Search Constants");
+		searchConstants.setOnAction(e -> {
+			final RunningJvm activeJvm = currentJvm.get();
+			if (activeJvm == null) {
+				return;
+			}
+			final TextInputDialog dialog = new TextInputDialog();
+			dialog.setTitle("Search Constants");
+			dialog.setHeaderText("Find classes referencing a string, class, field or method:");
+			dialog.setContentText(null);
+			dialog.initOwner(classes.getScene().getWindow());
+			dialog.showAndWait()
+			      .map(String::trim)
+			      .filter(query -> !query.isEmpty())
+			      .ifPresent(query -> searchConstants(query, activeJvm));
+		});
+		return searchConstants;
+	}
+
+	// Results are shown as they arrive. Closing the dialog cancels the search.
+	private void searchConstants(String query, RunningJvm activeJvm) {
+		final ObservableList<String> resultLines = FXCollections.observableArrayList();
+		final StringProperty headerText = new SimpleStringProperty("Searching for \"" + query + "\"...");
+		final AtomicBoolean closed = new AtomicBoolean();
+		final AtomicReference<Stream<ConstantSearchResult>> searchResults = new AtomicReference<>();
+		executorService.submit(() -> {
+			final Stream<ConstantSearchResult> results = clientHandler.searchConstants(activeJvm, query, count -> {});
+			if (results == null) {
+				Platform.runLater(() -> headerText.set("Failed to search constants"));
+				return;
+			}
+			searchResults.set(results);
+			final AtomicInteger found = new AtomicInteger();
+			try (results) {
+				results.takeWhile(r -> !closed.get()).forEach(r -> {
+					final String resultLine = r.getLoadedClass().getName() + ": " + String.join(", ", r.getMatches());
+					final int count = found.incrementAndGet();
+					Platform.runLater(() -> {
+						resultLines.add(resultLine);
+						headerText.set("Found " + count + " classes referencing \"" + query + "\" so far...");
+					});
+				});
+			}
+			Platform.runLater(() -> headerText.set(found.get() + " classes reference \"" + query + "\""));
+		});
+		alertHelper.showObservableList("Search Results", headerText, resultLines, () -> {
+			closed.set(true);
+			// Stops waiting on the agent right away, rather than once the next result arrives
+			final Stream<ConstantSearchResult> results = searchResults.get();
+			if (results != null) {
+				results.close();
+			}
+		});
+	}
+
 	private MenuItem createExecuteCode(TreeCell<ClassTreeNode> treeCell, TreeView<ClassTreeNode> treeView) {
 		final MenuItem executeCode = new MenuItem();
 		executeCode.textProperty().bind(Bindings.createStringBinding(() -> {
@@ -511,6 +726,8 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 		final boolean result = exportHelper.export(activeJvm,
 		                                           classes,
 		                                           selectedFile,
+		                                           settings.getExportUncompressed().get(),
+		                                           settings.getExportCompressionLevel().get(),
 		                                           currentExportProgress -> Platform.runLater(() -> progress.set(
 				                                           currentExportProgress)));
 		Platform.runLater(() -> {
@@ -519,6 +736,52 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 		});
 	}
 
+	// Sources are written as separate files when a directory is picked
+	private File selectDecompileFile(String initialFileName, Window owner, boolean toDirectory) {
+		if (toDirectory) {
+			return fileHelper.openDirectory(owner, "Decompile Classes To Folder");
+		}
+		return fileHelper.saveJar(owner, "Decompile Classes", initialFileName);
+	}
+
+	private void decompile(File selectedFile, List<LoadedClass> classes, RunningJvm activeJvm) {
+		final File decompileParentFile = selectedFile.getParentFile();
+		if (decompileParentFile != null) {
+			decompileParentFile.mkdirs();
+		}
+		final SimpleIntegerProperty fetched = new SimpleIntegerProperty(0);
+		final SimpleIntegerProperty written = new SimpleIntegerProperty(0);
+		final SimpleBooleanProperty isComplete = new SimpleBooleanProperty(false);
+		final SimpleBooleanProperty success = new SimpleBooleanProperty(false);
+		Platform.runLater(() -> {
+			final StringBinding titleText = Bindings.when(isComplete)
+			                                        .then("Decompile Finished")
+			                                        .otherwise("Decompile In Progress");
+			final StringBinding contentText = Bindings.createStringBinding(() -> {
+				if (isComplete.get()) {
+					return "Decompile " + (success.get() ? "succeeded" : "failed");
+				}
+				else {
+					return "Fetched: " + fetched.get() + " / " + classes.size() + " classes\nDecompiled: "
+					       + written.get() + " sources";
+				}
+			}, isComplete, success, fetched, written);
+			alertHelper.showObservableInfo(titleText, contentText);
+		});
+		final DecompileHelper decompileHelper = new DecompileHelper(clientHandler, new QuiltflowerDecompiler());
+		final boolean result = decompileHelper.decompile(activeJvm,
+		                                                 classes,
+		                                                 selectedFile,
+		                                                 currentProgress -> Platform.runLater(() -> {
+			                                                 fetched.set(currentProgress.getFetchedClasses());
+			                                                 written.set(currentProgress.getWrittenSources());
+		                                                 }));
+		Platform.runLater(() -> {
+			isComplete.set(true);
+			success.set(result);
+		});
+	}
+
 	private File selectExportClassFile(String initialFileName, Window owner) {
 		return fileHelper.saveClass(owner, "Export Class", initialFileName);
 	}
@@ -550,7 +813,7 @@ public class ClassCellFactory implements Callback<TreeView<ClassTreeNode>, TreeC
 					return "Patch " + (success.get() ? "succeeded" : "failed");
 				}
 				else {
-					return "Patching: " + progress.get() + " classes";
+					return "Sent: " + progress.get() + " classes";
 				}
 			}, isComplete, success, progress);
 			alertHelper.showObservableInfo(titleText, contentText);
@@ -48,7 +48,7 @@ public class ClassTreeNode implements Comparable<ClassTreeNode> {
 		return ClassTreeNode.Type.PACKAGE.name() + ":" + packagePart;
 	}
 
-	private static ClassTreeNode ofPackage(String packagePart) {
+	public static ClassTreeNode ofPackage(String packagePart) {
 		return new ClassTreeNode(null, packagePart, null);
 	}
 
@@ -66,7 +66,7 @@ public class ClassTreeNode implements Comparable<ClassTreeNode> {
 		return ClassTreeNode.Type.CLASS.name() + ":" + loadedClass.getSimpleName();
 	}
 
-	private static ClassTreeNode ofClass(LoadedClass loadedClass) {
+	public static ClassTreeNode ofClass(LoadedClass loadedClass) {
 		return new ClassTreeNode(loadedClass, loadedClass.getSimpleName(), null);
 	}
 
@@ -79,7 +79,7 @@ public class ClassTreeNode implements Comparable<ClassTreeNode> {
 		return ClassTreeNode.Type.CLASSLOADER.name() + ":" + classLoaderDescriptor.getId();
 	}
 
-	private static ClassTreeNode ofClassLoader(ClassLoaderDescriptor classLoaderDescriptor) {
+	public static ClassTreeNode ofClassLoader(ClassLoaderDescriptor classLoaderDescriptor) {
 		return new ClassTreeNode(null, classLoaderDescriptor.getSimpleClassName(), classLoaderDescriptor);
 	}
 
@@ -21,11 +21,16 @@ import java.util.stream.Stream;
 @Slf4j
 public class FilterableTreeItem<T> extends TreeItem<T> {
 
-	private final ObservableList<TreeItem<T>> sourceChildren = FXCollections.observableArrayList();
 	private final ObjectProperty<Predicate<T>> predicate = new SimpleObjectProperty<>();
+	// Optional. If a branch is rejected by this, it's hidden without visiting anything below it.
+	private final ObjectProperty<BranchPredicate<T>> branchPredicate = new SimpleObjectProperty<>();
 
+	// These are only created once something asks for the children. Most items in a big tree never get asked, and
+	// can't be asked before they're shown or searched. No initializers, the super constructor can get here first.
+	private ObservableList<TreeItem<T>> sourceChildren;
 	// Do not convert this to a local variable. This is a field, so it doesn't get garbage collected.
-	private final FilteredList<TreeItem<T>> filteredChildren = new FilteredList<>(sourceChildren);
+	private FilteredList<TreeItem<T>> filteredChildren;
+	private ChildLoader<T> childLoader;
 
 	public FilterableTreeItem() {
 		this(null);
@@ -33,7 +38,40 @@ public class FilterableTreeItem<T> extends TreeItem<T> {
 
 	public FilterableTreeItem(T value) {
 		super(value);
+	}
+
+	public FilterableTreeItem(T value, ChildLoader<T> childLoader) {
+		super(value);
+		this.childLoader = childLoader;
+	}
+
+	private void initializeChildren() {
+		if (sourceChildren != null) {
+			return;
+		}
+		sourceChildren = FXCollections.observableArrayList();
+		filteredChildren = new FilteredList<>(sourceChildren);
 		setupFilteredItemBinding();
+		if (childLoader != null) {
+			final ChildLoader<T> loader = childLoader;
+			childLoader = null;
+			sourceChildren.setAll(loader.load());
+		}
+	}
+
+	public boolean isLoaded() {
+		return childLoader == null;
+	}
+
+	@Override
+	public ObservableList<TreeItem<T>> getChildren() {
+		initializeChildren();
+		return super.getChildren();
+	}
+
+	@Override
+	public boolean isLeaf() {
+		return isLoaded() && super.isLeaf();
 	}
 
 	private void setupFilteredItemBinding() {
@@ -41,9 +79,20 @@ public class FilterableTreeItem<T> extends TreeItem<T> {
 			// javac blows up if you inline this to a return
 			final Predicate<TreeItem<T>> p = child -> {
 				if (child instanceof FilterableTreeItem) {
-					((FilterableTreeItem<T>) child).predicateProperty().set(predicate.get());
+					final FilterableTreeItem<T> filterableChild = (FilterableTreeItem<T>) child;
+					if (predicate.get() != null && branchPredicate.get() != null
+					    && (!filterableChild.isLoaded() || !filterableChild.getSourceChildren().isEmpty())
+					    && !branchPredicate.get().test(child.getValue())) {
+						// The branch catches up with the current predicates once it can be shown again
+						return false;
+					}
+					filterableChild.branchPredicateProperty()
+					               .set(branchPredicate.get() != null
+					                    ? branchPredicate.get().forBranch(child.getValue())
+					                    : null);
+					filterableChild.predicateProperty().set(predicate.get());
 				}
-				if (predicate.get() == null || !child.getChildren().isEmpty()) {
+				if (predicate.get() == null || (mayHaveChildren(child) && !child.getChildren().isEmpty())) {
 					return true;
 				}
 				return predicate.get().test(child.getValue());
@@ -54,12 +103,26 @@ public class FilterableTreeItem<T> extends TreeItem<T> {
 		Bindings.bindContent(super.getChildren(), filteredChildren);
 	}
 
+	// Saves setting up children for leaves just to find out they're empty
+	private boolean mayHaveChildren(TreeItem<T> item) {
+		if (item instanceof FilterableTreeItem) {
+			final FilterableTreeItem<T> filterableItem = (FilterableTreeItem<T>) item;
+			return !filterableItem.isLoaded() || filterableItem.sourceChildren != null;
+		}
+		return true;
+	}
+
 	public ObjectProperty<Predicate<T>> predicateProperty() {
 		return predicate;
 	}
 
+	public ObjectProperty<BranchPredicate<T>> branchPredicateProperty() {
+		return branchPredicate;
+	}
+
+	// Unlike streaming the items, this doesn't load anything that hasn't been loaded yet
 	public Stream<T> streamVisible() {
-		return streamVisibleItems().map(TreeItem::getValue);
+		return streamValues(FilterableTreeItem::getChildren);
 	}
 
 	public Stream<FilterableTreeItem<T>> streamVisibleItems() {
@@ -85,7 +148,17 @@ public class FilterableTreeItem<T> extends TreeItem<T> {
 	}
 
 	public Stream<T> streamSource() {
-		return streamSourceItems().map(TreeItem::getValue);
+		return streamValues(FilterableTreeItem::getSourceChildren);
+	}
+
+	// Anything not loaded yet can't have been filtered, so the loader's values are all visible
+	private Stream<T> streamValues(Function<FilterableTreeItem<T>, List<TreeItem<T>>> childFunction) {
+		// Items that have never been asked for their children don't have any
+		final Stream<T> values = bfs(item -> item.sourceChildren != null ? childFunction.apply(item) : List.of())
+				.flatMap(item -> item.isLoaded()
+				                 ? Stream.of(item.getValue())
+				                 : Stream.concat(Stream.of(item.getValue()), item.childLoader.streamValues()));
+		return isLoaded() ? values : Stream.concat(childLoader.streamValues(), values);
 	}
 
 	public Stream<FilterableTreeItem<T>> streamSourceItems() {
@@ -93,7 +166,38 @@ public class FilterableTreeItem<T> extends TreeItem<T> {
 	}
 
 	public ObservableList<TreeItem<T>> getSourceChildren() {
+		initializeChildren();
 		return sourceChildren;
 	}
 
-}
\ No newline at end of file
+	// The filtered list only reacts to changes in its own source list. If a hidden child's children change, it has to
+	// be told to re-test that child.
+	public void refilter(TreeItem<T> child) {
+		if (predicate.get() == null || getChildren().contains(child)) {
+			return;
+		}
+		final int index = getSourceChildren().indexOf(child);
+		if (index != -1) {
+			sourceChildren.set(index, child);
+		}
+	}
+
+	public interface ChildLoader<T> {
+
+		List<? extends TreeItem<T>> load();
+
+		// Every value that would end up below the item, without creating any items
+		Stream<T> streamValues();
+
+	}
+
+	public interface BranchPredicate<T> extends Predicate<T> {
+
+		// Used for the children of an accepted branch, so a predicate can keep track of where it is in the tree
+		default BranchPredicate<T> forBranch(T branch) {
+			return this;
+		}
+
+	}
+
+}
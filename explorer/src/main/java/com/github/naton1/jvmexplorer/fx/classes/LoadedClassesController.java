@@ -13,7 +13,11 @@ import com.github.naton1.jvmexplorer.helper.FilterHelper;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
 import com.github.naton1.jvmexplorer.protocol.AgentConfiguration;
 import com.github.naton1.jvmexplorer.protocol.ClassContent;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
+import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassFilter;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
 import com.github.naton1.jvmexplorer.settings.JvmExplorerSettings;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
@@ -36,10 +40,13 @@ import java.io.File;
 import java.io.UncheckedIOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -63,6 +70,12 @@ public class LoadedClassesController {
 	private final SimpleObjectProperty<ClassContent> currentClass = new SimpleObjectProperty<>();
 	private final FilterHelper filterHelper = new FilterHelper();
 	private final SimpleBooleanProperty agentLoading = new SimpleBooleanProperty();
+	// Deltas that arrive while the full class list is loading are applied once it's done
+	private final List<ClassListDelta> pendingClassListDeltas = new ArrayList<>();
+	// Only touched on the fx thread. Replaced whenever the full class list is loaded.
+	private ClassNameIndex<LoadedClass> classNameIndex = new ClassNameIndex<>();
+	// Only touched on the fx thread. Deltas are held to the same filter as the class list they apply to.
+	private LoadedClassFilter.Matcher classFilterMatcher = LoadedClassFilter.ALL.matcher();
 
 	@FXML
 	private TreeView<ClassTreeNode> classes;
@@ -86,13 +99,18 @@ public class LoadedClassesController {
 		return currentClass;
 	}
 
+	// Only call this on the fx thread, though the index itself can be used from anywhere
+	public ClassNameIndex<LoadedClass> getClassNameIndex() {
+		return classNameIndex;
+	}
+
 	public void initialize(Stage stage, ScheduledExecutorService executorService, ClientHandler clientHandler,
 	                       ObjectProperty<RunningJvm> currentJvm, int serverPort, JvmExplorerSettings settings,
 	                       FilterableTreeItem<ClassTreeNode> classesTreeRoot) {
 		this.classesTreeRoot = classesTreeRoot;
 		this.executorService = executorService;
 		this.clientHandler = clientHandler;
-		this.exportHelper = new ExportHelper(clientHandler);
+		this.exportHelper = new ExportHelper(clientHandler, executorService);
 		this.alertHelper = new AlertHelper(stage);
 		this.currentJvm = currentJvm;
 		this.serverPort = serverPort;
@@ -115,50 +133,60 @@ public class LoadedClassesController {
 			// (load that class + decompile), it gets kinda laggy. Therefore, we remove the class on text change.
 			classes.getSelectionModel().clearSelection();
 		});
-		classesTreeRoot.predicateProperty().bind(Bindings.createObjectBinding(() -> {
-			final String text = searchClasses.getText().trim();
-			final Predicate<String> predicate = filterHelper.createStringPredicate(text);
-			return t -> {
-				// We are only searching classes here. A node will stay visible if any of its children are.
-				if (t.getType() == ClassTreeNode.Type.CLASS) {
-					return predicate.test(t.getLoadedClass().toString());
-				}
-				return false;
-			};
-		}, searchClasses.textProperty()));
+		searchClasses.textProperty().addListener((obs, old, newv) -> updateClassFilter());
 		classes.setRoot(classesTreeRoot);
 
 		searchClasses.setOnKeyPressed(e -> {
 			if (e.getCode() == KeyCode.ENTER) {
-				final String className = searchClasses.getText();
+				final String className = searchClasses.getText().trim();
 				log.debug("Pressed enter, attempting to quick-select {}", className);
-				classesTreeRoot.streamSourceItems()
-				               .filter(i -> i.getValue() != null)
-				               .filter(i -> i.getValue().getType() == ClassTreeNode.Type.CLASS)
-				               .filter(i -> i.getValue().getLoadedClass().getSimpleName().equals(className)
-				                            || i.getValue().getLoadedClass().getName().equals(className))
-				               .findFirst()
-				               .ifPresent(selected -> {
-					               // reset first, or javafx breaks and selects the wrong thing
-					               // note we also reset the selected item on text change, but that's unrelated
-					               searchClasses.clear();
-					               log.debug("Quick-selected {}", selected);
-					               select(selected);
-				               });
+				// Only jump to a match that's more than a guess
+				classNameIndex.findBest(className, 1, ClassNameIndex.MIN_CONFIDENT_SCORE)
+				              .stream()
+				              .map(c -> classTreeHelper.findClassItem(classesTreeRoot,
+				                                                      c,
+				                                                      settings.getShowClassLoader().get()))
+				              .filter(Objects::nonNull)
+				              .findFirst()
+				              .ifPresent(selected -> {
+					              // reset first, or javafx breaks and selects the wrong thing
+					              // note we also reset the selected item on text change, but that's unrelated
+					              searchClasses.clear();
+					              log.debug("Quick-selected {}", selected);
+					              select(selected);
+				              });
 			}
 		});
 
 		final Tooltip tooltip = new Tooltip();
-		tooltip.setText("You can also press Enter to directly open a class with the searched name");
+		tooltip.setText("You can also press Enter to directly open the class that best matches the search");
 		searchClasses.setTooltip(tooltip);
 	}
 
+	private void updateClassFilter() {
+		final String text = searchClasses.getText().trim();
+		if (text.isEmpty()) {
+			classesTreeRoot.branchPredicateProperty().set(null);
+			classesTreeRoot.predicateProperty().set(null);
+			return;
+		}
+		final Set<LoadedClass> matches = filterHelper.findMatches(classNameIndex, text);
+		// Branches without a match are skipped entirely, so only the parts of the tree that can change are visited
+		classesTreeRoot.branchPredicateProperty()
+		               .set(classTreeHelper.createBranchPredicate(matches, settings.getShowClassLoader().get()));
+		// We are only searching classes here. A node will stay visible if any of its children are.
+		classesTreeRoot.predicateProperty()
+		               .set(t -> t.getType() == ClassTreeNode.Type.CLASS && matches.contains(t.getLoadedClass()));
+	}
+
 	private void setupAgentLoader() {
 		currentJvm.addListener((obs, old, newv) -> {
 			if (newv == null) {
 				loadedClassProgressCount.set(CLASSES_NOT_LOADING);
 			}
 			classesTreeRoot.getSourceChildren().clear();
+			classNameIndex = new ClassNameIndex<>();
+			pendingClassListDeltas.clear();
 			if (newv != null) {
 				agentLoading.set(true);
 				executorService.submit(() -> {
@@ -291,6 +319,44 @@ public class LoadedClassesController {
 		});
 	}
 
+	public void onClassListDelta(RunningJvm runningJvm, ClassListDelta classListDelta) {
+		Platform.runLater(() -> {
+			if (!runningJvm.equals(currentJvm.get())) {
+				return;
+			}
+			if (loadedClassProgressCount.get() != CLASSES_NOT_LOADING) {
+				pendingClassListDeltas.add(classListDelta);
+				return;
+			}
+			applyClassListDelta(classListDelta);
+		});
+	}
+
+	private void applyClassListDelta(ClassListDelta classListDelta) {
+		log.debug("Applying class list delta, loaded: {}, unloaded class loaders: {}",
+		          classListDelta.getLoadedClasses().length,
+		          classListDelta.getUnloadedClassLoaders().length);
+		if (classListDelta.getUnloadedClassLoaders().length > 0) {
+			final Set<ClassLoaderDescriptor> unloadedClassLoaders =
+					new HashSet<>(Arrays.asList(classListDelta.getUnloadedClassLoaders()));
+			classNameIndex.removeAll(c -> unloadedClassLoaders.contains(c.getClassLoaderDescriptor()));
+		}
+		final LoadedClass[] matchingClasses = Arrays.stream(classListDelta.getLoadedClasses())
+		                                            .filter(classFilterMatcher::matches)
+		                                            .toArray(LoadedClass[]::new);
+		for (LoadedClass loadedClass : matchingClasses) {
+			classNameIndex.add(loadedClass.getName(), loadedClass);
+		}
+		classTreeHelper.applyClassListDelta(classesTreeRoot,
+		                                    new ClassListDelta(matchingClasses,
+		                                                       classListDelta.getUnloadedClassLoaders()),
+		                                    settings.getShowClassLoader().get());
+		if (!searchClasses.getText().trim().isEmpty()) {
+			// The current matches were found before these classes were indexed
+			updateClassFilter();
+		}
+	}
+
 	public void loadClasses(RunningJvm runningJvm) {
 		executorService.submit(() -> doLoadClasses(runningJvm));
 	}
@@ -324,26 +390,44 @@ public class LoadedClassesController {
 
 	private void doLoadClasses(RunningJvm runningJvm) {
 		Platform.runLater(() -> loadedClassProgressCount.set(0));
-		final List<LoadedClass> loadedClasses = clientHandler.getLoadedClasses(runningJvm, loadedClassPercent -> {
-			Platform.runLater(() -> this.loadedClassProgressCount.set(loadedClassPercent));
-		});
+		final LoadedClassFilter classFilter = buildClassFilter(settings.getClassListPackages().get());
+		final List<LoadedClass> loadedClasses =
+				clientHandler.getLoadedClasses(runningJvm, classFilter, loadedClassPercent -> {
+					Platform.runLater(() -> this.loadedClassProgressCount.set(loadedClassPercent));
+				});
 		if (loadedClasses == null) {
 			log.warn("Failed to load active classes: {}", runningJvm);
 			return;
 		}
 		log.debug("Received loaded classes for {}", runningJvm);
-		final ClassTreeNode classTreeRoot = buildClassTree(loadedClasses);
+		final FilterableTreeItem<ClassTreeNode> root =
+				classTreeHelper.buildLazyClassTree(loadedClasses, settings.getShowClassLoader().get());
+		final ClassNameIndex<LoadedClass> loadedClassIndex = new ClassNameIndex<>();
+		loadedClasses.forEach(c -> loadedClassIndex.add(c.getName(), c));
 		Platform.runLater(() -> {
 			if (!runningJvm.equals(currentJvm.get())) {
 				log.debug("JVM changed from {}, ignoring loaded classes", runningJvm);
 				return;
 			}
-			final FilterableTreeItem<ClassTreeNode> root = classTreeRoot.toTreeItem();
+			classNameIndex = loadedClassIndex;
+			classFilterMatcher = classFilter.matcher();
 			classesTreeRoot.getSourceChildren().setAll(root.getSourceChildren());
 			loadedClassProgressCount.set(CLASSES_NOT_LOADING);
+			pendingClassListDeltas.forEach(this::applyClassListDelta);
+			pendingClassListDeltas.clear();
+			updateClassFilter();
 		});
 	}
 
+	// Packages are comma separated, like the Limit Packages setting
+	static LoadedClassFilter buildClassFilter(String packages) {
+		final String[] packagePrefixes = Arrays.stream(packages.split(","))
+		                                       .map(String::trim)
+		                                       .filter(packagePrefix -> !packagePrefix.isEmpty())
+		                                       .toArray(String[]::new);
+		return LoadedClassFilter.builder().packagePrefixes(packagePrefixes).build();
+	}
+
 	private String getLoadedClassDisplay(long visibleItems, long sourceItems) {
 		if (visibleItems == sourceItems) {
 			return numberFormat.format(visibleItems);
@@ -351,13 +435,4 @@ public class LoadedClassesController {
 		return numberFormat.format(visibleItems) + "/" + numberFormat.format(sourceItems);
 	}
 
-	private ClassTreeNode buildClassTree(List<LoadedClass> loadedClasses) {
-		if (this.settings.getShowClassLoader().get()) {
-			return classTreeHelper.buildClassLoaderTree(loadedClasses);
-		}
-		else {
-			return classTreeHelper.buildClassTree(loadedClasses);
-		}
-	}
-
 }
@@ -86,6 +86,26 @@ public class ClassFieldCellFactory implements Callback<TreeView<ClassField>, Tre
 			final String stringValue = String.valueOf(classField.getValue());
 			ClipboardHelper.copy(stringValue);
 		});
+		// Objects are only described in the agent, since their toString could be slow
+		final MenuItem copyToString = new MenuItem("Copy toString");
+		copyToString.setOnAction(e -> {
+			final RunningJvm selectedJvm = currentJvm.get();
+			if (cell.getItem() == null || selectedJvm == null) {
+				return;
+			}
+			final ClassFieldPath classFieldPath = getClassFieldPath(cell.getTreeItem());
+			executorService.submit(() -> {
+				final String objectString = clientHandler.getFieldString(selectedJvm, classFieldPath);
+				Platform.runLater(() -> {
+					if (objectString != null) {
+						ClipboardHelper.copy(objectString);
+					}
+					else {
+						alertHelper.showError("Operation Failed", "Failed to get toString");
+					}
+				});
+			});
+		});
 		cell.itemProperty().addListener((obs, old, newv) -> {
 			rowContextMenu.getItems().clear();
 			if (newv != null) {
@@ -93,6 +113,9 @@ public class ClassFieldCellFactory implements Callback<TreeView<ClassField>, Tre
 					rowContextMenu.getItems().addAll(editRow);
 				}
 				rowContextMenu.getItems().addAll(copyValue);
+				if (newv.getValue() instanceof WrappedObject) {
+					rowContextMenu.getItems().addAll(copyToString);
+				}
 			}
 		});
 		cell.setContextMenu(rowContextMenu);
@@ -123,12 +146,9 @@ public class ClassFieldCellFactory implements Callback<TreeView<ClassField>, Tre
 	}
 
 	private void edit(RunningJvm selectedJvm, TreeItem<ClassField> classField, String newValue) {
-		final ClassFieldKey[] classFieldKeys = fieldTreeHelper.getClassFieldKeyPath(classField);
 		final Object resultObject = editorHelper.edit(classField.getValue().getClassFieldKey().getTypeName(),
 		                                              newValue);
-		final ClassLoaderDescriptor currentClassLoader =
-				currentClass.get().getLoadedClass().getClassLoaderDescriptor();
-		final ClassFieldPath classFieldPath = new ClassFieldPath(classFieldKeys, currentClassLoader);
+		final ClassFieldPath classFieldPath = getClassFieldPath(classField);
 		executorService.submit(() -> {
 			if (clientHandler.setField(selectedJvm, classFieldPath, resultObject)) {
 				final ClassField updatedClassField = classField.getValue().withValue(resultObject);
@@ -140,6 +160,13 @@ public class ClassFieldCellFactory implements Callback<TreeView<ClassField>, Tre
 		});
 	}
 
+	private ClassFieldPath getClassFieldPath(TreeItem<ClassField> classField) {
+		final ClassFieldKey[] classFieldKeys = fieldTreeHelper.getClassFieldKeyPath(classField);
+		final ClassLoaderDescriptor currentClassLoader =
+				currentClass.get().getLoadedClass().getClassLoaderDescriptor();
+		return new ClassFieldPath(classFieldKeys, currentClassLoader);
+	}
+
 	private FieldType getFieldType(ClassField classField) {
 		if (Modifier.isStatic(classField.getClassFieldKey().getModifiers())) {
 			if (Modifier.isFinal(classField.getClassFieldKey().getModifiers())) {
@@ -0,0 +1,162 @@
+package com.github.naton1.jvmexplorer.fx.openclass;
+
+import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.bytecode.BytecodeTextifier;
+import com.github.naton1.jvmexplorer.bytecode.DecompilationScheduler;
+import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Fetches and processes classes the user is likely to open next, so the results are already cached when they do. The
+// agent keeps the class bytes cached as well, so opening one of these classes only costs a quick round trip. Runs on
+// its own low priority thread, so it never holds up anything the user is waiting for.
+@Slf4j
+@RequiredArgsConstructor
+public class ClassPrefetcher {
+
+	// Enough to remember what was prefetched for a good while, without holding on to much
+	private static final int MAX_REMEMBERED_CLASSES = 5000;
+
+	private final ClientHandler clientHandler;
+	private final DecompilationScheduler decompilationScheduler;
+	private final List<BytecodeTextifier> bytecodeTextifiers;
+	// Limits how many class file bytes can be held waiting to be processed
+	private final LongSupplier memoryBudgetBytes;
+
+	// Requests are merged into one, so at most one task is ever queued
+	private final ExecutorService executorService = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "class-prefetcher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicReference<Request> nextRequest = new AtomicReference<>();
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private final Set<PrefetchedClass> prefetched = Collections.newSetFromMap(new LinkedHashMap<>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<PrefetchedClass, Boolean> eldest) {
+			return size() > MAX_REMEMBERED_CLASSES;
+		}
+	});
+
+	// Only the latest request matters. Anything older is dropped, or stopped early if it has already started. The
+	// classes are only worked out once the request is picked up.
+	public void prefetch(RunningJvm runningJvm, Supplier<List<LoadedClass>> loadedClasses) {
+		nextRequest.set(new Request(runningJvm, loadedClasses));
+		if (running.compareAndSet(false, true)) {
+			executorService.submit(this::processRequests);
+		}
+	}
+
+	private void processRequests() {
+		try {
+			Request request;
+			while ((request = nextRequest.getAndSet(null)) != null) {
+				process(request);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Failed to prefetch classes", e);
+		}
+		finally {
+			running.set(false);
+		}
+		// A request could have come in after the last check, but before we marked ourselves as done
+		if (nextRequest.get() != null && running.compareAndSet(false, true)) {
+			executorService.submit(this::processRequests);
+		}
+	}
+
+	private void process(Request request) {
+		final RunningJvm runningJvm = request.getRunningJvm();
+		final List<LoadedClass> loadedClasses = request.getLoadedClasses().get();
+		final List<LoadedClass> toFetch;
+		synchronized (prefetched) {
+			toFetch = loadedClasses.stream()
+			                       .filter(l -> prefetched.add(new PrefetchedClass(runningJvm, l)))
+			                       .collect(Collectors.toList());
+		}
+		if (toFetch.isEmpty()) {
+			return;
+		}
+		log.debug("Prefetching {} classes", toFetch.size());
+		final Set<LoadedClass> fetched = new HashSet<>();
+		// Closing the stream early cancels whatever the agent hasn't sent yet
+		try (final Stream<ClassBytes> classBytesStream = clientHandler.streamClassBytes(runningJvm, toFetch)) {
+			final Iterator<ClassBytes> iterator = classBytesStream.iterator();
+			while (iterator.hasNext()) {
+				if (nextRequest.get() != null) {
+					final List<LoadedClass> skipped = toFetch.stream()
+					                                         .filter(l -> !fetched.contains(l))
+					                                         .collect(Collectors.toList());
+					log.debug("Prefetch superseded, skipping {} classes", skipped.size());
+					forget(runningJvm, skipped);
+					return;
+				}
+				final ClassBytes classBytes = iterator.next();
+				fetched.add(classBytes.getLoadedClass());
+				schedule(runningJvm, classBytes.getLoadedClass(), classBytes.getBytes());
+			}
+		}
+	}
+
+	private void schedule(RunningJvm runningJvm, LoadedClass loadedClass, byte[] bytes) {
+		if (bytes == null) {
+			return;
+		}
+		final long size = (long) bytes.length * bytecodeTextifiers.size();
+		if (pendingBytes.get() + size > memoryBudgetBytes.getAsLong()) {
+			log.debug("Prefetch memory budget used up, skipping {}", loadedClass);
+			forget(runningJvm, List.of(loadedClass));
+			return;
+		}
+		for (BytecodeTextifier bytecodeTextifier : bytecodeTextifiers) {
+			pendingBytes.addAndGet(bytes.length);
+			decompilationScheduler.submit(bytecodeTextifier, bytes, DecompilationScheduler.Priority.PREFETCH)
+			                      .getResult()
+			                      .whenComplete((result, throwable) -> pendingBytes.addAndGet(-bytes.length));
+		}
+	}
+
+	// So they're fetched again the next time they come up
+	private void forget(RunningJvm runningJvm, List<LoadedClass> loadedClasses) {
+		synchronized (prefetched) {
+			loadedClasses.forEach(l -> prefetched.remove(new PrefetchedClass(runningJvm, l)));
+		}
+	}
+
+	@Value
+	private static class Request {
+		private final RunningJvm runningJvm;
+		private final Supplier<List<LoadedClass>> loadedClasses;
+	}
+
+	@Value
+	private static class PrefetchedClass {
+		private final RunningJvm runningJvm;
+		private final LoadedClass loadedClass;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.github.naton1.jvmexplorer.fx.openclass;
+
+import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.bytecode.CrossReferenceIndex;
+import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Keeps a cross-reference index for the current jvm. Only classes that haven't been indexed yet are fetched, and
+// they're parsed in parallel while the rest are still streaming in. Fetching happens on its own thread, so a first
+// index of a large jvm doesn't hold up anything else.
+@Slf4j
+public class CrossReferenceIndexer {
+
+	// Limits how many fetched classes can be waiting to be parsed
+	private static final int MAX_PENDING_CLASSES = 256;
+
+	private final ClientHandler clientHandler;
+	private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "xref-indexer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ExecutorService parsers;
+
+	private RunningJvm indexedJvm;
+	private CrossReferenceIndex index;
+
+	public CrossReferenceIndexer(ClientHandler clientHandler) {
+		this.clientHandler = clientHandler;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			final Thread thread = new Thread(r, "xref-parser-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// Classes that are no longer loaded are dropped from the index right away. The rest are indexed in the background,
+	// unless they already were, in which case the returned future is already done. Progress counts the classes
+	// indexed so far. Cancelling the future stops fetching, but whatever was indexed by then is kept for next time.
+	public CompletableFuture<CrossReferenceIndex> update(RunningJvm runningJvm,
+	                                                     List<LoadedClass> loadedClasses,
+	                                                     Consumer<Integer> currentProgress) {
+		final CrossReferenceIndex index = getIndex(runningJvm);
+		index.retainAll(loadedClasses);
+		final List<LoadedClass> toIndex = loadedClasses.stream()
+		                                               .filter(c -> !index.contains(c))
+		                                               .collect(Collectors.toList());
+		if (toIndex.isEmpty()) {
+			return CompletableFuture.completedFuture(index);
+		}
+		final CompletableFuture<CrossReferenceIndex> future = new CompletableFuture<>();
+		indexer.submit(() -> {
+			try {
+				index(runningJvm, index, toIndex, future::isCancelled, currentProgress);
+				future.complete(index);
+			}
+			catch (Exception e) {
+				log.warn("Failed to index cross references", e);
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	private void index(RunningJvm runningJvm,
+	                   CrossReferenceIndex index,
+	                   List<LoadedClass> toIndex,
+	                   BooleanSupplier isCancelled,
+	                   Consumer<Integer> currentProgress) {
+		log.debug("Indexing {} classes for cross references", toIndex.size());
+		final long start = System.currentTimeMillis();
+		final Semaphore pending = new Semaphore(MAX_PENDING_CLASSES);
+		final AtomicInteger indexed = new AtomicInteger();
+		// Closing the stream early tells the agent to stop sending
+		try (final Stream<ClassBytes> classBytesStream = clientHandler.streamClassBytes(runningJvm, toIndex)) {
+			classBytesStream.takeWhile(classBytes -> !isCancelled.getAsBoolean()).forEach(classBytes -> {
+				if (classBytes.getBytes() == null) {
+					return;
+				}
+				pending.acquireUninterruptibly();
+				parsers.submit(() -> {
+					try {
+						index.add(classBytes.getLoadedClass(), classBytes.getBytes());
+						currentProgress.accept(indexed.incrementAndGet());
+					}
+					catch (Exception e) {
+						log.debug("Failed to index {}", classBytes.getLoadedClass(), e);
+					}
+					finally {
+						pending.release();
+					}
+				});
+			});
+		}
+		// Wait for the last parses to finish
+		pending.acquireUninterruptibly(MAX_PENDING_CLASSES);
+		pending.release(MAX_PENDING_CLASSES);
+		log.debug("Indexed {} classes in {}ms", indexed.get(), System.currentTimeMillis() - start);
+	}
+
+	public synchronized void invalidate(RunningJvm runningJvm, LoadedClass loadedClass) {
+		if (runningJvm.equals(indexedJvm)) {
+			index.remove(loadedClass);
+		}
+	}
+
+	private synchronized CrossReferenceIndex getIndex(RunningJvm runningJvm) {
+		if (!runningJvm.equals(indexedJvm)) {
+			indexedJvm = runningJvm;
+			index = new CrossReferenceIndex();
+		}
+		return index;
+	}
+
+}
@@ -1,10 +1,14 @@
 package com.github.naton1.jvmexplorer.fx.openclass;
 
+import com.github.naton1.jvmexplorer.JvmExplorerCLI;
 import com.github.naton1.jvmexplorer.agent.AgentException;
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
 import com.github.naton1.jvmexplorer.bytecode.Assembler;
 import com.github.naton1.jvmexplorer.bytecode.AssemblyException;
 import com.github.naton1.jvmexplorer.bytecode.BytecodeTextifier;
+import com.github.naton1.jvmexplorer.bytecode.CachingBytecodeTextifier;
+import com.github.naton1.jvmexplorer.bytecode.CrossReferenceIndex;
+import com.github.naton1.jvmexplorer.bytecode.DecompilationScheduler;
 import com.github.naton1.jvmexplorer.bytecode.OpenJdkJasmAssembler;
 import com.github.naton1.jvmexplorer.bytecode.OpenJdkJasmDisassembler;
 import com.github.naton1.jvmexplorer.bytecode.QuiltflowerDecompiler;
@@ -35,11 +39,15 @@ import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import com.github.naton1.jvmexplorer.protocol.WrappedObject;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameHelper;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
+import com.github.naton1.jvmexplorer.settings.JvmExplorerSettings;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -63,14 +71,21 @@ import org.fxmisc.richtext.CodeArea;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -79,10 +94,34 @@ public class CurrentClassController {
 	private static final String NO_CLASS_FILE_OPEN = "Select a loaded class to open";
 	private static final String PROCESSOR_FAILED = "Processor failed";
 
+	private static final int MAX_CACHED_RESULTS = 500;
+
+	private static final int DECOMPILER_THREADS = 2;
+	private static final int DECOMPILER_TIMEOUT_SECONDS = 60;
+
+	private static final int MAX_PREFETCHED_NEIGHBOURS = 16;
+	private static final File CACHE_DIR = new File(JvmExplorerCLI.APP_DIR, "cache");
+
 	private final EditorHelper editorHelper = new EditorHelper();
 	private final FieldTreeHelper fieldTreeHelper = new FieldTreeHelper();
 	private final ClassTreeHelper classTreeHelper = new ClassTreeHelper();
 
+	private final BytecodeTextifier decompiler = new CachingBytecodeTextifier(new QuiltflowerDecompiler(),
+	                                                                          MAX_CACHED_RESULTS,
+	                                                                          new File(CACHE_DIR, "decompiled"),
+	                                                                          this::getMaxDiskCacheBytes);
+	private final BytecodeTextifier disassembler = new CachingBytecodeTextifier(new OpenJdkJasmDisassembler(),
+	                                                                            MAX_CACHED_RESULTS,
+	                                                                            new File(CACHE_DIR,
+	                                                                                     "disassembled"),
+	                                                                            this::getMaxDiskCacheBytes);
+
+	private final DecompilationScheduler decompilationScheduler = new DecompilationScheduler(DECOMPILER_THREADS,
+	                                                                                        DECOMPILER_TIMEOUT_SECONDS,
+	                                                                                        TimeUnit.SECONDS);
+	// Only touched on the fx thread
+	private final List<DecompilationScheduler.Job> activeJobs = new ArrayList<>();
+
 	private final SimpleStringProperty decompiledClass = new SimpleStringProperty();
 	private final SimpleStringProperty disassembledClass = new SimpleStringProperty();
 
@@ -117,12 +156,18 @@ public class CurrentClassController {
 	private CodeAreaHelper codeAreaHelper;
 
 	private FilterableTreeItem<ClassTreeNode> classesTreeRoot;
+	private Supplier<ClassNameIndex<LoadedClass>> classNameIndex;
 	private Consumer<TreeItem<ClassTreeNode>> handleSelection;
 
+	private ClassPrefetcher classPrefetcher;
+	private CrossReferenceIndexer crossReferenceIndexer;
+	private JvmExplorerSettings settings;
+
 	public void initialize(Stage stage, ScheduledExecutorService executorService, ClientHandler clientHandler,
 	                       ObjectProperty<RunningJvm> currentJvm, ObjectProperty<ClassContent> currentClass,
 	                       FilterableTreeItem<ClassTreeNode> classesTreeRoot,
-	                       Consumer<TreeItem<ClassTreeNode>> handleSelection) {
+	                       Supplier<ClassNameIndex<LoadedClass>> classNameIndex,
+	                       Consumer<TreeItem<ClassTreeNode>> handleSelection, JvmExplorerSettings settings) {
 		this.executorService = executorService;
 		this.clientHandler = clientHandler;
 		this.currentJvm = currentJvm;
@@ -130,10 +175,26 @@ public class CurrentClassController {
 		this.alertHelper = new AlertHelper(stage);
 		this.codeAreaHelper = new CodeAreaHelper(executorService);
 		this.classesTreeRoot = classesTreeRoot;
+		this.classNameIndex = classNameIndex;
 		this.handleSelection = handleSelection;
+		this.settings = settings;
+		this.classPrefetcher = new ClassPrefetcher(clientHandler,
+		                                           decompilationScheduler,
+		                                           List.of(decompiler, disassembler),
+		                                           () -> settings.getPrefetchMemoryBudgetMb().get() * 1024L * 1024L);
+		this.crossReferenceIndexer = new CrossReferenceIndexer(clientHandler);
 		initialize();
 	}
 
+	// Split between the decompiled and disassembled results. Nothing goes to disk until the settings are known.
+	private long getMaxDiskCacheBytes() {
+		final JvmExplorerSettings settings = this.settings;
+		if (settings == null || !settings.getDiskCacheEnabled().get()) {
+			return 0;
+		}
+		return settings.getDiskCacheSizeMb().get() * 1024L * 1024L / 2;
+	}
+
 	private void initialize() {
 
 		setupTitlePaneText();
@@ -164,6 +225,8 @@ public class CurrentClassController {
 		}
 		final LoadedClass loadedClass = initialClassContent.getLoadedClass();
 		log.debug("Refreshing class: {}", loadedClass);
+		// It was probably just patched, so its references could have changed
+		crossReferenceIndexer.invalidate(selectedJvm, loadedClass);
 		executorService.submit(() -> {
 			final ClassContent classContent = clientHandler.getClassContent(selectedJvm, loadedClass);
 			log.debug("Refreshed class content for {}", loadedClass);
@@ -214,7 +277,64 @@ public class CurrentClassController {
 		modifyMethod.setAccelerator(accelerator);
 		modifyMethod.setOnAction(e -> showModifyMethod());
 		AcceleratorHelper.process(classFile, accelerator, modifyMethod);
-		contextMenu.getItems().add(modifyMethod);
+		final MenuItem findUsages = new MenuItem("Find Usages");
+		findUsages.setOnAction(e -> findUsagesAtCursor(classFile));
+		contextMenu.getItems().addAll(modifyMethod, findUsages);
+	}
+
+	private void findUsagesAtCursor(CodeArea codeArea) {
+		final RunningJvm runningJvm = currentJvm.get();
+		final ClassContent classContent = currentClass.get();
+		if (runningJvm == null || classContent == null) {
+			return;
+		}
+		final String javaName = getJavaNameAt(codeArea.getCaretPosition(), codeArea.getText());
+		if (javaName == null) {
+			return;
+		}
+		final ClassNode classNode = AsmHelper.parse(classContent.getClassContent(),
+		                                            ClassReader.SKIP_FRAMES | ClassReader.SKIP_CODE
+		                                            | ClassReader.SKIP_DEBUG);
+		final LoadedClass loadedClass = classContent.getLoadedClass();
+		// Constructors show up under the class name in the source
+		final String memberName = javaName.equals(loadedClass.getSimpleName()) ? "<init>" : javaName;
+		final boolean isMember = classNode.methods.stream().anyMatch(m -> m.name.equals(memberName))
+		                         || classNode.fields.stream().anyMatch(f -> f.name.equals(memberName));
+		if (!isMember) {
+			alertHelper.showError("Find Usages", "No field or method named " + javaName + " in " + loadedClass);
+			return;
+		}
+		final List<LoadedClass> loadedClasses = classTreeHelper.getLoadedClassScope(classesTreeRoot, null);
+		final SimpleIntegerProperty progress = new SimpleIntegerProperty(0);
+		final SimpleBooleanProperty isComplete = new SimpleBooleanProperty(false);
+		final Consumer<Integer> currentProgress = indexed -> Platform.runLater(() -> progress.set(indexed));
+		final CompletableFuture<CrossReferenceIndex> indexing = crossReferenceIndexer.update(runningJvm,
+		                                                                                     loadedClasses,
+		                                                                                     currentProgress);
+		indexing.thenApplyAsync(index -> index.findUsages(classNode.name, memberName, null), executorService)
+		        .whenComplete((usages, throwable) -> Platform.runLater(() -> {
+			        isComplete.set(true);
+			        if (usages != null) {
+				        showUsages(javaName, usages);
+			        }
+		        }));
+		// Only the first search in a jvm has much to index
+		if (!indexing.isDone()) {
+			alertHelper.showObservableProgress("Find Usages",
+			                                   Bindings.createStringBinding(() -> "Indexing: " + progress.get()
+			                                                                      + " classes", progress),
+			                                   isComplete,
+			                                   () -> indexing.cancel(false));
+		}
+	}
+
+	private void showUsages(String javaName, List<CrossReferenceIndex.Usage> usages) {
+		final List<String> usageLines = usages.stream()
+		                                      .map(u -> u.getLoadedClass().getName() + "." + u.getMethodName()
+		                                                + u.getMethodDescriptor() + ": "
+		                                                + u.getKind().name().toLowerCase(Locale.ROOT))
+		                                      .collect(Collectors.toList());
+		alertHelper.showExpandableList("Usages", usages.size() + " usages of " + javaName, null, usageLines);
 	}
 
 	private List<LoadedClass> getClassPath(LoadedClass loadedClass) {
@@ -224,14 +344,7 @@ public class CurrentClassController {
 			classLoaderTreeItem = null;
 		}
 		else {
-			classLoaderTreeItem = classesTreeRoot.streamSourceItems()
-			                                     .filter(c -> c.getValue() != null)
-			                                     .filter(c -> c.getValue().getType() == ClassTreeNode.Type.CLASSLOADER)
-			                                     .filter(c -> c.getValue()
-			                                                   .getClassLoaderDescriptor()
-			                                                   .equals(classLoaderDescriptor))
-			                                     .findFirst()
-			                                     .orElse(null);
+			classLoaderTreeItem = classTreeHelper.findClassLoaderItem(classesTreeRoot, classLoaderDescriptor);
 		}
 		return classTreeHelper.getLoadedClassScope(classesTreeRoot, classLoaderTreeItem);
 	}
@@ -390,7 +503,46 @@ public class CurrentClassController {
 	}
 
 	private void openClassAtCursor(int cursorPosition, String text) {
-		if (Character.isJavaIdentifierPart(text.charAt(cursorPosition))) {
+		final String javaName = getJavaNameAt(cursorPosition, text);
+		if (javaName == null) {
+			return;
+		}
+		log.debug("Found java name at mouse click: {}", javaName);
+
+		final LoadedClass openClass = currentClass.get() != null ? currentClass.get().getLoadedClass() : null;
+		// Only the path down to the class gets loaded into the tree
+		final TreeItem<ClassTreeNode> correspondingClass =
+				classNameIndex.get()
+				              .getBySimpleName(javaName)
+				              .stream()
+				              .min(Comparator.comparingInt(c -> getDistance(c, openClass)))
+				              .map(c -> classTreeHelper.findClassItem(classesTreeRoot,
+				                                                      c,
+				                                                      settings.getShowClassLoader().get()))
+				              .orElse(null);
+
+		if (correspondingClass == null) {
+			return;
+		}
+
+		log.debug("Found {}", correspondingClass.getValue());
+		handleSelection.accept(correspondingClass);
+	}
+
+	// Several classes can share a simple name, so prefer one in the same package, and then the same class loader
+	private int getDistance(LoadedClass loadedClass, LoadedClass openClass) {
+		if (openClass == null) {
+			return 0;
+		}
+		final boolean samePackage = ClassNameHelper.getPackageName(loadedClass.getName())
+		                                           .equals(ClassNameHelper.getPackageName(openClass.getName()));
+		final boolean sameClassLoader = Objects.equals(loadedClass.getClassLoaderDescriptor(),
+		                                               openClass.getClassLoaderDescriptor());
+		return (samePackage ? 0 : 2) + (sameClassLoader ? 0 : 1);
+	}
+
+	private String getJavaNameAt(int cursorPosition, String text) {
+		if (cursorPosition < text.length() && Character.isJavaIdentifierPart(text.charAt(cursorPosition))) {
 
 			// Find the left-most character
 			int startIndex = cursorPosition;
@@ -413,30 +565,12 @@ public class CurrentClassController {
 
 			if (startIndex >= endIndex) {
 				// Invalid
-				return;
-			}
-
-			final String javaName = text.substring(startIndex, endIndex + 1);
-			log.debug("Found java name at mouse click: {}", javaName);
-
-			final TreeItem<ClassTreeNode> correspondingClass = classesTreeRoot.streamSourceItems()
-			                                                                  .filter(f -> f.getValue() != null)
-			                                                                  .filter(f -> f.getValue().getType()
-			                                                                               == ClassTreeNode.Type.CLASS)
-			                                                                  .filter(f -> f.getValue()
-			                                                                                .getLoadedClass()
-			                                                                                .getSimpleName()
-			                                                                                .equals(javaName))
-			                                                                  .findFirst()
-			                                                                  .orElse(null);
-
-			if (correspondingClass == null) {
-				return;
+				return null;
 			}
 
-			log.debug("Found {}", correspondingClass.getValue());
-			handleSelection.accept(correspondingClass);
+			return text.substring(startIndex, endIndex + 1);
 		}
+		return null;
 	}
 
 	private void setupTitlePaneText() {
@@ -450,6 +584,9 @@ public class CurrentClassController {
 	}
 
 	private void onClassChange(ClassContent old, ClassContent newv) {
+		// Nobody is going to see the output of these anymore
+		activeJobs.forEach(DecompilationScheduler.Job::cancel);
+		activeJobs.clear();
 		allowClassFileEditing.set(false);
 		allowBytecodeEditing.set(false);
 		if (newv == null) {
@@ -458,23 +595,38 @@ public class CurrentClassController {
 			classFields.getRoot().getChildren().clear();
 		}
 		else {
-			processBytecode(newv, new QuiltflowerDecompiler(), classFile, newDecompiledClass -> {
+			processBytecode(newv, decompiler, classFile, newDecompiledClass -> {
 				allowClassFileEditing.set(!PROCESSOR_FAILED.equals(newDecompiledClass));
 				decompiledClass.set(newDecompiledClass);
 			});
-			processBytecode(newv, new OpenJdkJasmDisassembler(), bytecode, newDisassembledClass -> {
+			processBytecode(newv, disassembler, bytecode, newDisassembledClass -> {
 				allowBytecodeEditing.set(!PROCESSOR_FAILED.equals(newDisassembledClass));
 				disassembledClass.set(newDisassembledClass);
 			});
 			loadChildren(classFields.getRoot(), newv.getClassFields());
-			loadHighlightContext(newv.getClassContent());
+			final ClassNode classNode = AsmHelper.parse(newv.getClassContent(),
+			                                            ClassReader.SKIP_FRAMES | ClassReader.SKIP_CODE
+			                                            | ClassReader.SKIP_DEBUG);
+			loadHighlightContext(classNode);
+			prefetchNeighbours(newv.getLoadedClass(), classNode);
 		}
 	}
 
-	private void loadHighlightContext(byte[] newClass) {
-		final ClassNode classNode = AsmHelper.parse(newClass,
-		                                            ClassReader.SKIP_FRAMES | ClassReader.SKIP_CODE
-		                                            | ClassReader.SKIP_DEBUG);
+	private void prefetchNeighbours(LoadedClass loadedClass, ClassNode classNode) {
+		final RunningJvm runningJvm = currentJvm.get();
+		if (runningJvm == null) {
+			return;
+		}
+		final ClassNameIndex<LoadedClass> classNameIndex = this.classNameIndex.get();
+		classPrefetcher.prefetch(runningJvm,
+		                         () -> classTreeHelper.getNeighbouringClasses(classNameIndex,
+		                                                                      loadedClass,
+		                                                                      AsmHelper.getReferencedClassNames(
+				                                                                      classNode),
+		                                                                      MAX_PREFETCHED_NEIGHBOURS));
+	}
+
+	private void loadHighlightContext(ClassNode classNode) {
 		final String propName = HighlightHelper.HighlightContext.class.getName();
 		final HighlightHelper.HighlightContext context = HighlightHelper.createContextFor(classNode);
 		bytecode.getProperties().put(propName, context);
@@ -499,11 +651,33 @@ public class CurrentClassController {
 				}
 			});
 		}, 500L, TimeUnit.MILLISECONDS);
-		executorService.submit(() -> {
+		final byte[] input = classContent.getClassContent();
+		final CompletableFuture<String> result;
+		if (input == null || input.length == 0) {
+			log.warn("No input to process for {}", bytecodeTextifier);
+			result = CompletableFuture.completedFuture(null);
+		}
+		else {
 			log.debug("Processing class {} with {}", classContent.getLoadedClass(), bytecodeTextifier);
-			final String processedClass = process(bytecodeTextifier, classContent.getClassContent());
-			log.debug("Finished processing class {} with {}", classContent.getLoadedClass(), bytecodeTextifier);
+			final DecompilationScheduler.Job job = decompilationScheduler.submit(bytecodeTextifier,
+			                                                                     input,
+			                                                                     DecompilationScheduler.Priority.VISIBLE);
+			activeJobs.add(job);
+			result = job.getResult();
+		}
+		result.whenComplete((processedClass, throwable) -> {
 			processingPlaceholderTask.cancel(false);
+			if (throwable instanceof CancellationException) {
+				log.debug("Cancelled processing class {} with {}", classContent.getLoadedClass(), bytecodeTextifier);
+				return;
+			}
+			if (throwable != null) {
+				log.warn("Failed to process class {} with {}",
+				         classContent.getLoadedClass(),
+				         bytecodeTextifier,
+				         throwable);
+			}
+			log.debug("Finished processing class {} with {}", classContent.getLoadedClass(), bytecodeTextifier);
 			Platform.runLater(() -> {
 				// Don't update if the class was switched again
 				if (!classContent.equals(currentClass.get())) {
@@ -536,20 +710,6 @@ public class CurrentClassController {
 		});
 	}
 
-	private String process(BytecodeTextifier bytecodeTextifier, byte[] input) {
-		if (input == null || input.length == 0) {
-			log.warn("No input to process for {}", bytecodeTextifier);
-			return null;
-		}
-		try {
-			return bytecodeTextifier.process(input);
-		}
-		catch (Throwable t) {
-			log.warn("Failed to process bytecode using {}", bytecodeTextifier, t);
-			return null;
-		}
-	}
-
 	private void setupClassFieldTree() {
 		final TreeItem<ClassField> classFieldRoot = new TreeItem<>(null);
 		classFields.setShowRoot(false);
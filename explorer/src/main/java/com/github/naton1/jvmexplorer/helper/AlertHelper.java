@@ -1,7 +1,10 @@
 package com.github.naton1.jvmexplorer.helper;
 
+import javafx.beans.value.ObservableBooleanValue;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.ObservableList;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.ListView;
 import javafx.scene.control.Tooltip;
 import javafx.stage.Stage;
@@ -66,6 +69,42 @@ public class AlertHelper {
 		alert.showAndWait();
 	}
 
+	// The list can keep growing while it's shown. Closing it runs onClose, so whatever is adding to it can stop.
+	public void showObservableList(String title, ObservableValue<String> headerText, ObservableList<String> list,
+	                               Runnable onClose) {
+		final Alert alert = new Alert(Alert.AlertType.INFORMATION);
+		alert.setTitle(title);
+		alert.headerTextProperty().bind(headerText);
+		alert.setContentText(null);
+		final ListView<String> stringListView = new ListView<>(list.sorted(Comparator.naturalOrder()));
+		alert.getDialogPane().setExpandableContent(stringListView);
+		// Expanded from the start, so results show up as they arrive
+		alert.getDialogPane().setExpanded(true);
+		alert.initOwner(ownerStage);
+		alert.showAndWait();
+		onClose.run();
+	}
+
+	// Closes itself once complete. Closing it before then cancels whatever it's showing the progress of.
+	public void showObservableProgress(String title,
+	                                   ObservableValue<String> headerText,
+	                                   ObservableBooleanValue isComplete,
+	                                   Runnable onCancel) {
+		final Alert alert = new Alert(Alert.AlertType.INFORMATION, null, ButtonType.CANCEL);
+		alert.setTitle(title);
+		alert.headerTextProperty().bind(headerText);
+		alert.initOwner(ownerStage);
+		isComplete.addListener((obs, old, complete) -> {
+			if (complete) {
+				alert.close();
+			}
+		});
+		alert.showAndWait();
+		if (!isComplete.get()) {
+			onCancel.run();
+		}
+	}
+
 	public void show(Alert.AlertType alertType, String titleText, String headerText) {
 		final Alert alert = new Alert(alertType);
 		alert.setTitle(titleText);
@@ -2,7 +2,14 @@ package com.github.naton1.jvmexplorer.helper;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class AsmHelper {
 
@@ -23,4 +30,45 @@ public class AsmHelper {
 		return classWriter.toByteArray();
 	}
 
+	// Types referenced by the class signature and its members, in the order they're declared. Method bodies aren't
+	// included, so this works on nodes parsed with SKIP_CODE.
+	public static Set<String> getReferencedClassNames(ClassNode classNode) {
+		final Set<String> classNames = new LinkedHashSet<>();
+		addInternalName(classNames, classNode.superName);
+		classNode.interfaces.forEach(i -> addInternalName(classNames, i));
+		for (InnerClassNode innerClassNode : classNode.innerClasses) {
+			addInternalName(classNames, innerClassNode.name);
+		}
+		for (FieldNode fieldNode : classNode.fields) {
+			addType(classNames, Type.getType(fieldNode.desc));
+		}
+		for (MethodNode methodNode : classNode.methods) {
+			final Type methodType = Type.getMethodType(methodNode.desc);
+			addType(classNames, methodType.getReturnType());
+			for (Type argumentType : methodType.getArgumentTypes()) {
+				addType(classNames, argumentType);
+			}
+			if (methodNode.exceptions != null) {
+				methodNode.exceptions.forEach(e -> addInternalName(classNames, e));
+			}
+		}
+		classNames.remove(Type.getObjectType(classNode.name).getClassName());
+		return classNames;
+	}
+
+	private static void addType(Set<String> classNames, Type type) {
+		if (type.getSort() == Type.ARRAY) {
+			type = type.getElementType();
+		}
+		if (type.getSort() == Type.OBJECT) {
+			classNames.add(type.getClassName());
+		}
+	}
+
+	private static void addInternalName(Set<String> classNames, String internalName) {
+		if (internalName != null) {
+			classNames.add(Type.getObjectType(internalName).getClassName());
+		}
+	}
+
 }
@@ -2,23 +2,37 @@ package com.github.naton1.jvmexplorer.helper;
 
 import com.github.naton1.jvmexplorer.fx.classes.ClassTreeNode;
 import com.github.naton1.jvmexplorer.fx.classes.FilterableTreeItem;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameHelper;
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
 import javafx.scene.control.TreeItem;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Slf4j
 public class ClassTreeHelper {
 
+	private static final Comparator<TreeItem<ClassTreeNode>> TREE_ITEM_COMPARATOR =
+			Comparator.comparing(TreeItem::getValue);
+
 	public ClassTreeNode buildClassLoaderTree(List<LoadedClass> loadedClasses) {
 		final ClassTreeNode classTreeRoot = ClassTreeNode.root();
 		for (LoadedClass loadedClass : loadedClasses) {
@@ -33,13 +47,7 @@ public class ClassTreeHelper {
 
 	private ClassTreeNode addClassLoader(LoadedClass loadedClass, ClassTreeNode treeRoot) {
 		ClassTreeNode classLoaderTree = treeRoot;
-		final List<ClassLoaderDescriptor> classLoaders = Stream.iterate(loadedClass.getClassLoaderDescriptor(),
-		                                                                Objects::nonNull,
-		                                                                ClassLoaderDescriptor::getParent)
-		                                                       .collect(Collectors.toCollection(ArrayList::new));
-		Collections.reverse(classLoaders);
-
-		for (ClassLoaderDescriptor classLoaderDescriptor : classLoaders) {
+		for (ClassLoaderDescriptor classLoaderDescriptor : getClassLoaderChain(loadedClass)) {
 			classLoaderTree = classLoaderTree.addClassLoader(classLoaderDescriptor);
 		}
 
@@ -64,6 +72,246 @@ public class ClassTreeHelper {
 		return classTreeRoot;
 	}
 
+	// Only the class loaders are built up front. Everything below them is loaded from a sorted array of the classes
+	// when it's first expanded or searched, so the cost scales with what's shown rather than with the class count.
+	public FilterableTreeItem<ClassTreeNode> buildLazyClassTree(List<LoadedClass> loadedClasses,
+	                                                            boolean showClassLoader) {
+		if (!showClassLoader) {
+			return new FilterableTreeItem<>(ClassTreeNode.root(), new ClassRange(sortByName(loadedClasses)));
+		}
+		final Map<ClassLoaderDescriptor, List<LoadedClass>> classesByClassLoader = new HashMap<>();
+		for (LoadedClass loadedClass : loadedClasses) {
+			classesByClassLoader.computeIfAbsent(loadedClass.getClassLoaderDescriptor(), c -> new ArrayList<>())
+			                    .add(loadedClass);
+		}
+		final Map<ClassLoaderDescriptor, ClassLoaderChildren> classLoaderChildren = new HashMap<>();
+		final ClassLoaderChildren rootChildren = new ClassLoaderChildren();
+		classesByClassLoader.forEach((classLoader, classes) -> {
+			final ClassRange classRange = new ClassRange(sortByName(classes));
+			if (classLoader == null) {
+				rootChildren.classes = classRange;
+				return;
+			}
+			ClassLoaderChildren parent = rootChildren;
+			for (ClassLoaderDescriptor chainClassLoader : getClassLoaderChain(classes.get(0))) {
+				final ClassLoaderChildren parentChildren = parent;
+				parent = classLoaderChildren.computeIfAbsent(chainClassLoader, c -> {
+					final ClassLoaderChildren children = new ClassLoaderChildren();
+					parentChildren.classLoaders.add(new FilterableTreeItem<>(ClassTreeNode.ofClassLoader(c),
+					                                                         children));
+					return children;
+				});
+			}
+			parent.classes = classRange;
+		});
+		return new FilterableTreeItem<>(ClassTreeNode.root(), rootChildren);
+	}
+
+	private LoadedClass[] sortByName(List<LoadedClass> loadedClasses) {
+		final LoadedClass[] sorted = loadedClasses.stream()
+		                                          .sorted(Comparator.comparing(LoadedClass::getName))
+		                                          .toArray(LoadedClass[]::new);
+		int size = 0;
+		for (LoadedClass loadedClass : sorted) {
+			if (size > 0 && sorted[size - 1].getName().equals(loadedClass.getName())) {
+				log.warn("Loaded duplicate class: {}", loadedClass);
+				continue;
+			}
+			sorted[size++] = loadedClass;
+		}
+		return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+	}
+
+	public void applyClassListDelta(FilterableTreeItem<ClassTreeNode> classesTreeRoot, ClassListDelta classListDelta,
+	                                boolean showClassLoader) {
+		for (ClassLoaderDescriptor unloadedClassLoader : classListDelta.getUnloadedClassLoaders()) {
+			if (showClassLoader) {
+				removeClassLoader(classesTreeRoot, unloadedClassLoader);
+			}
+			else {
+				removeClassesLoadedBy(classesTreeRoot, unloadedClassLoader);
+			}
+		}
+		for (LoadedClass loadedClass : classListDelta.getLoadedClasses()) {
+			final List<FilterableTreeItem<ClassTreeNode>> path = new ArrayList<>();
+			path.add(classesTreeRoot);
+			if (showClassLoader && loadedClass.getClassLoaderDescriptor() != null) {
+				for (ClassLoaderDescriptor classLoaderDescriptor : getClassLoaderChain(loadedClass)) {
+					path.add(getOrAddChild(path.get(path.size() - 1),
+					                       ClassTreeNode.ofClassLoader(classLoaderDescriptor)));
+				}
+			}
+			final String[] classNameParts = loadedClass.getName().split("\\.");
+			for (int i = 0; i < classNameParts.length - 1; i++) {
+				path.add(getOrAddChild(path.get(path.size() - 1), ClassTreeNode.ofPackage(classNameParts[i])));
+			}
+			final FilterableTreeItem<ClassTreeNode> classParent = path.get(path.size() - 1);
+			final ClassTreeNode classNode = ClassTreeNode.ofClass(loadedClass);
+			if (findChild(classParent.getSourceChildren(), classNode) >= 0) {
+				// We may see a class in both the full list and a delta
+				continue;
+			}
+			classParent.getSourceChildren().add(getInsertionPoint(classParent.getSourceChildren(), classNode),
+			                                    classNode.toTreeItem());
+			// Anything on the way down may have been hidden by the filter while it had no matching children
+			for (int i = path.size() - 1; i > 0; i--) {
+				path.get(i - 1).refilter(path.get(i));
+			}
+		}
+	}
+
+	// A branch can only hold one of these classes if the path down to it is the start of the path down to one of
+	// them. Some branches that pass won't actually hold a match, but none that fail will.
+	public FilterableTreeItem.BranchPredicate<ClassTreeNode> createBranchPredicate(
+			Collection<LoadedClass> loadedClasses, boolean showClassLoader) {
+		final BranchPrefix root = new BranchPrefix();
+		for (LoadedClass loadedClass : loadedClasses) {
+			BranchPrefix prefix = root;
+			if (showClassLoader) {
+				for (ClassLoaderDescriptor classLoaderDescriptor : getClassLoaderChain(loadedClass)) {
+					prefix = prefix.classLoaders.computeIfAbsent(classLoaderDescriptor, c -> new BranchPrefix());
+				}
+			}
+			final String[] classNameParts = loadedClass.getName().split("\\.");
+			for (int i = 0; i < classNameParts.length - 1; i++) {
+				prefix = prefix.packages.computeIfAbsent(classNameParts[i], p -> new BranchPrefix());
+			}
+		}
+		return root;
+	}
+
+	// Follows the class's path down from the root, so no other classes have to be looked at
+	public FilterableTreeItem<ClassTreeNode> findClassItem(FilterableTreeItem<ClassTreeNode> classesTreeRoot,
+	                                                       LoadedClass loadedClass, boolean showClassLoader) {
+		final List<ClassTreeNode> path = new ArrayList<>();
+		if (showClassLoader && loadedClass.getClassLoaderDescriptor() != null) {
+			getClassLoaderChain(loadedClass).forEach(c -> path.add(ClassTreeNode.ofClassLoader(c)));
+		}
+		final String[] classNameParts = loadedClass.getName().split("\\.");
+		for (int i = 0; i < classNameParts.length - 1; i++) {
+			path.add(ClassTreeNode.ofPackage(classNameParts[i]));
+		}
+		path.add(ClassTreeNode.ofClass(loadedClass));
+		FilterableTreeItem<ClassTreeNode> current = classesTreeRoot;
+		for (ClassTreeNode node : path) {
+			final int index = findChild(current.getSourceChildren(), node);
+			if (index < 0) {
+				return null;
+			}
+			current = (FilterableTreeItem<ClassTreeNode>) current.getSourceChildren().get(index);
+		}
+		return current;
+	}
+
+	public FilterableTreeItem<ClassTreeNode> findClassLoaderItem(FilterableTreeItem<ClassTreeNode> classesTreeRoot,
+	                                                             ClassLoaderDescriptor classLoaderDescriptor) {
+		final List<ClassLoaderDescriptor> chain = Stream.iterate(classLoaderDescriptor,
+		                                                         Objects::nonNull,
+		                                                         ClassLoaderDescriptor::getParent)
+		                                                .collect(Collectors.toCollection(ArrayList::new));
+		Collections.reverse(chain);
+		FilterableTreeItem<ClassTreeNode> current = classesTreeRoot;
+		for (ClassLoaderDescriptor chainClassLoader : chain) {
+			final int index = findChild(current.getSourceChildren(), ClassTreeNode.ofClassLoader(chainClassLoader));
+			if (index < 0) {
+				return null;
+			}
+			current = (FilterableTreeItem<ClassTreeNode>) current.getSourceChildren().get(index);
+		}
+		return current;
+	}
+
+	private List<ClassLoaderDescriptor> getClassLoaderChain(LoadedClass loadedClass) {
+		final List<ClassLoaderDescriptor> classLoaders = Stream.iterate(loadedClass.getClassLoaderDescriptor(),
+		                                                                Objects::nonNull,
+		                                                                ClassLoaderDescriptor::getParent)
+		                                                       .collect(Collectors.toCollection(ArrayList::new));
+		Collections.reverse(classLoaders);
+		return classLoaders;
+	}
+
+	private FilterableTreeItem<ClassTreeNode> getOrAddChild(FilterableTreeItem<ClassTreeNode> parent,
+	                                                        ClassTreeNode node) {
+		final List<TreeItem<ClassTreeNode>> children = parent.getSourceChildren();
+		final int index = findChild(children, node);
+		if (index >= 0) {
+			return (FilterableTreeItem<ClassTreeNode>) children.get(index);
+		}
+		final FilterableTreeItem<ClassTreeNode> child = node.toTreeItem();
+		children.add(getInsertionPoint(children, node), child);
+		return child;
+	}
+
+	// Children are kept sorted, but class loaders with the same name compare as equal so check the whole equal range
+	private int findChild(List<TreeItem<ClassTreeNode>> children, ClassTreeNode node) {
+		final int index = Collections.binarySearch(children, new TreeItem<>(node), TREE_ITEM_COMPARATOR);
+		if (index < 0) {
+			return -1;
+		}
+		int start = index;
+		while (start > 0 && children.get(start - 1).getValue().compareTo(node) == 0) {
+			start--;
+		}
+		for (int i = start; i < children.size() && children.get(i).getValue().compareTo(node) == 0; i++) {
+			if (isSameNode(children.get(i).getValue(), node)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int getInsertionPoint(List<TreeItem<ClassTreeNode>> children, ClassTreeNode node) {
+		final int index = Collections.binarySearch(children, new TreeItem<>(node), TREE_ITEM_COMPARATOR);
+		return index < 0 ? -index - 1 : index;
+	}
+
+	private boolean isSameNode(ClassTreeNode first, ClassTreeNode second) {
+		if (first.getType() != second.getType()) {
+			return false;
+		}
+		if (first.getType() == ClassTreeNode.Type.CLASSLOADER) {
+			return first.getClassLoaderDescriptor().equals(second.getClassLoaderDescriptor());
+		}
+		return first.getPackageSegment().equals(second.getPackageSegment());
+	}
+
+	private void removeClassLoader(FilterableTreeItem<ClassTreeNode> parent, ClassLoaderDescriptor classLoader) {
+		// Class loaders only ever show up nested directly under other class loaders
+		final Iterator<TreeItem<ClassTreeNode>> iterator = parent.getSourceChildren().iterator();
+		while (iterator.hasNext()) {
+			final TreeItem<ClassTreeNode> child = iterator.next();
+			if (child.getValue().getType() != ClassTreeNode.Type.CLASSLOADER) {
+				continue;
+			}
+			if (classLoader.equals(child.getValue().getClassLoaderDescriptor())) {
+				iterator.remove();
+				return;
+			}
+			removeClassLoader((FilterableTreeItem<ClassTreeNode>) child, classLoader);
+		}
+	}
+
+	// Returns whether the node is now empty
+	private boolean removeClassesLoadedBy(FilterableTreeItem<ClassTreeNode> parent, ClassLoaderDescriptor classLoader) {
+		parent.getSourceChildren().removeIf(child -> {
+			final ClassTreeNode node = child.getValue();
+			if (node.getType() == ClassTreeNode.Type.CLASS) {
+				return classLoader.equals(node.getLoadedClass().getClassLoaderDescriptor());
+			}
+			final FilterableTreeItem<ClassTreeNode> filterableChild = (FilterableTreeItem<ClassTreeNode>) child;
+			// No need to load branches that don't hold any of the classes
+			if (!filterableChild.isLoaded() && filterableChild.streamSource()
+			                                                  .filter(c -> c.getType() == ClassTreeNode.Type.CLASS)
+			                                                  .map(ClassTreeNode::getLoadedClass)
+			                                                  .map(LoadedClass::getClassLoaderDescriptor)
+			                                                  .noneMatch(classLoader::equals)) {
+				return false;
+			}
+			return removeClassesLoadedBy(filterableChild, classLoader);
+		});
+		return parent.getSourceChildren().isEmpty();
+	}
+
 	public List<LoadedClass> getLoadedClassScope(FilterableTreeItem<ClassTreeNode> classesTreeRoot,
 	                                             TreeItem<ClassTreeNode> classLoaderNode) {
 		if (classLoaderNode == null) {
@@ -146,4 +394,155 @@ public class ClassTreeHelper {
 		return getNodeClassLoaderTreeItemStream(treeItem).findFirst().orElse(null);
 	}
 
+	// Classes likely to be opened after this one. Referenced types come first, then classes in the same package. Only
+	// the index is used, so this can run off the fx thread.
+	public List<LoadedClass> getNeighbouringClasses(ClassNameIndex<LoadedClass> classNameIndex,
+	                                                LoadedClass loadedClass, Set<String> referencedClassNames,
+	                                                int limit) {
+		final List<LoadedClass> neighbours = new ArrayList<>();
+		for (String referencedClassName : referencedClassNames) {
+			if (neighbours.size() >= limit) {
+				return neighbours;
+			}
+			// The same name can show up in multiple class loaders, prefer the one we're looking at
+			classNameIndex.getByName(referencedClassName)
+			              .stream()
+			              .filter(c -> !c.equals(loadedClass))
+			              .reduce((existing, other) -> isSameClassLoader(other, loadedClass) ? other : existing)
+			              .ifPresent(neighbours::add);
+		}
+		final String packageName = ClassNameHelper.getPackageName(loadedClass.getName());
+		classNameIndex.getInPackage(packageName)
+		              .stream()
+		              .filter(c -> !c.equals(loadedClass) && isSameClassLoader(c, loadedClass))
+		              .filter(c -> !referencedClassNames.contains(c.getName()))
+		              .limit(Math.max(0, limit - neighbours.size()))
+		              .forEach(neighbours::add);
+		return neighbours;
+	}
+
+	private boolean isSameClassLoader(LoadedClass loadedClass, LoadedClass other) {
+		return Objects.equals(loadedClass.getClassLoaderDescriptor(), other.getClassLoaderDescriptor());
+	}
+
+	// The class loaders and packages that lead to at least one class, starting from one spot in the tree
+	private static class BranchPrefix implements FilterableTreeItem.BranchPredicate<ClassTreeNode> {
+
+		// Nothing below a branch that isn't a prefix can match
+		private static final BranchPrefix NONE = new BranchPrefix();
+
+		private final Map<ClassLoaderDescriptor, BranchPrefix> classLoaders = new HashMap<>();
+		private final Map<String, BranchPrefix> packages = new HashMap<>();
+
+		@Override
+		public boolean test(ClassTreeNode node) {
+			return getChild(node) != null;
+		}
+
+		@Override
+		public FilterableTreeItem.BranchPredicate<ClassTreeNode> forBranch(ClassTreeNode branch) {
+			final BranchPrefix child = getChild(branch);
+			return child != null ? child : NONE;
+		}
+
+		private BranchPrefix getChild(ClassTreeNode node) {
+			switch (node.getType()) {
+			case PACKAGE:
+				return packages.get(node.getPackageSegment());
+			case CLASSLOADER:
+				return classLoaders.get(node.getClassLoaderDescriptor());
+			default:
+				return this;
+			}
+		}
+
+	}
+
+	// A range of classes sorted by name that all share the same package prefix. Packages below it are contiguous
+	// ranges, so they can be split off without copying anything.
+	private static class ClassRange implements FilterableTreeItem.ChildLoader<ClassTreeNode> {
+
+		private final LoadedClass[] classes;
+		private final int from;
+		private final int to;
+		private final int prefixLength;
+
+		ClassRange(LoadedClass[] classes) {
+			this(classes, 0, classes.length, 0);
+		}
+
+		ClassRange(LoadedClass[] classes, int from, int to, int prefixLength) {
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+			this.prefixLength = prefixLength;
+		}
+
+		@Override
+		public List<FilterableTreeItem<ClassTreeNode>> load() {
+			final List<FilterableTreeItem<ClassTreeNode>> children = new ArrayList<>();
+			forEachChild((node, range) -> children.add(new FilterableTreeItem<>(node, range)));
+			children.sort(TREE_ITEM_COMPARATOR);
+			return children;
+		}
+
+		@Override
+		public Stream<ClassTreeNode> streamValues() {
+			final List<Stream<ClassTreeNode>> values = new ArrayList<>();
+			// Sub ranges are only walked once the stream gets to them
+			forEachChild((node, range) -> values.add(range != null
+			                                         ? Stream.concat(Stream.of(node),
+			                                                         Stream.of(range).flatMap(ClassRange::streamValues))
+			                                         : Stream.of(node)));
+			return values.stream().flatMap(s -> s);
+		}
+
+		// The range is null for classes
+		private void forEachChild(BiConsumer<ClassTreeNode, ClassRange> consumer) {
+			int i = from;
+			while (i < to) {
+				final String name = classes[i].getName();
+				final int packageEnd = name.indexOf('.', prefixLength);
+				if (packageEnd == -1) {
+					consumer.accept(ClassTreeNode.ofClass(classes[i]), null);
+					i++;
+					continue;
+				}
+				final String packagePrefix = name.substring(0, packageEnd + 1);
+				int end = i + 1;
+				while (end < to && classes[end].getName().startsWith(packagePrefix)) {
+					end++;
+				}
+				consumer.accept(ClassTreeNode.ofPackage(name.substring(prefixLength, packageEnd)),
+				                new ClassRange(classes, i, end, packageEnd + 1));
+				i = end;
+			}
+		}
+
+	}
+
+	private static class ClassLoaderChildren implements FilterableTreeItem.ChildLoader<ClassTreeNode> {
+
+		private final List<FilterableTreeItem<ClassTreeNode>> classLoaders = new ArrayList<>();
+		private ClassRange classes;
+
+		@Override
+		public List<FilterableTreeItem<ClassTreeNode>> load() {
+			final List<FilterableTreeItem<ClassTreeNode>> children = new ArrayList<>(classLoaders);
+			if (classes != null) {
+				children.addAll(classes.load());
+			}
+			children.sort(TREE_ITEM_COMPARATOR);
+			return children;
+		}
+
+		@Override
+		public Stream<ClassTreeNode> streamValues() {
+			final Stream<ClassTreeNode> classLoaderValues =
+					classLoaders.stream().flatMap(c -> Stream.concat(Stream.of(c.getValue()), c.streamSource()));
+			return classes != null ? Stream.concat(classLoaderValues, classes.streamValues()) : classLoaderValues;
+		}
+
+	}
+
 }
@@ -0,0 +1,167 @@
+package com.github.naton1.jvmexplorer.helper;
+
+import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.bytecode.QuiltflowerDecompiler;
+import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+@RequiredArgsConstructor
+@Slf4j
+public class DecompileHelper {
+
+	// Classes are fetched and decompiled this many at a time, so only one batch is ever held in memory and sources are
+	// written as soon as their batch is done. Inner classes always share a batch with their outer class, so they can
+	// still be merged into it.
+	private static final int BATCH_SIZE = 500;
+
+	private final ClientHandler clientHandler;
+	private final QuiltflowerDecompiler decompiler;
+
+	// Writes a source jar, or source files if the output is a directory
+	public boolean decompile(RunningJvm jvm, List<LoadedClass> loadedClasses, File output,
+	                         Consumer<Progress> currentProgress) {
+		log.debug("Decompiling {} classes in {} to {}", loadedClasses.size(), jvm, output);
+		final AtomicInteger fetchedCount = new AtomicInteger();
+		final AtomicInteger sourceCount = new AtomicInteger();
+		final Runnable reportProgress = () -> currentProgress.accept(new Progress(fetchedCount.get(),
+		                                                                          sourceCount.get()));
+		// Sources are written from inside the decompiler, which swallows exceptions, so failures are tracked here
+		final AtomicReference<IOException> writeException = new AtomicReference<>();
+		final Consumer<SourceWriter> decompileTo = sourceWriter -> {
+			for (List<LoadedClass> batch : splitIntoBatches(loadedClasses)) {
+				final Map<String, byte[]> classFiles = fetchClassFiles(jvm, batch, () -> {
+					fetchedCount.incrementAndGet();
+					reportProgress.run();
+				});
+				decompiler.decompile(classFiles, (path, source) -> {
+					if (writeException.get() != null) {
+						return;
+					}
+					try {
+						sourceWriter.write(path, source);
+						sourceCount.incrementAndGet();
+						reportProgress.run();
+					}
+					catch (IOException e) {
+						writeException.set(e);
+					}
+				});
+				if (writeException.get() != null) {
+					return;
+				}
+			}
+		};
+		try {
+			if (output.isDirectory()) {
+				decompileTo.accept((path, source) -> writeFile(output.toPath().resolve(path), source));
+			}
+			else {
+				Files.deleteIfExists(output.toPath());
+				try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(output.toPath()))) {
+					decompileTo.accept((path, source) -> writeEntry(path, source, jarOutputStream));
+				}
+			}
+		}
+		catch (IOException e) {
+			writeException.set(e);
+		}
+		if (writeException.get() != null) {
+			log.warn("Failed to decompile to {}", output, writeException.get());
+			return false;
+		}
+		log.debug("Decompiled {} sources to {}", sourceCount.get(), output);
+		return true;
+	}
+
+	private List<List<LoadedClass>> splitIntoBatches(List<LoadedClass> loadedClasses) {
+		final List<LoadedClass> sorted = new ArrayList<>(loadedClasses);
+		sorted.sort(Comparator.comparing(LoadedClass::getName));
+		final List<List<LoadedClass>> batches = new ArrayList<>();
+		List<LoadedClass> batch = new ArrayList<>();
+		String previousOuterName = null;
+		for (LoadedClass loadedClass : sorted) {
+			final String outerName = getOuterName(loadedClass.getName());
+			// Classes sharing a name sort next to each other, so they end up in the same batch too
+			if (batch.size() >= BATCH_SIZE && !outerName.equals(previousOuterName)) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+			}
+			batch.add(loadedClass);
+			previousOuterName = outerName;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	private static String getOuterName(String name) {
+		final int innerIndex = name.indexOf('$');
+		return innerIndex == -1 ? name : name.substring(0, innerIndex);
+	}
+
+	private Map<String, byte[]> fetchClassFiles(RunningJvm jvm, List<LoadedClass> loadedClasses,
+	                                            Runnable onFetched) {
+		final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		try (final Stream<ClassBytes> classBytesStream = clientHandler.streamClassBytes(jvm, loadedClasses)) {
+			classBytesStream.forEach(classBytes -> {
+				onFetched.run();
+				if (classBytes.getBytes() == null) {
+					log.warn("Failed to get class bytes for {}, skipping", classBytes.getLoadedClass());
+					return;
+				}
+				// The same class name can be loaded by multiple class loaders, but a source tree can only hold one
+				final byte[] existing = classFiles.putIfAbsent(classBytes.getLoadedClass().getName(),
+				                                               classBytes.getBytes());
+				if (existing != null) {
+					log.debug("Skipping duplicate class {}", classBytes.getLoadedClass());
+				}
+			});
+		}
+		return classFiles;
+	}
+
+	private void writeFile(Path path, String source) throws IOException {
+		Files.createDirectories(path.getParent());
+		Files.writeString(path, source);
+	}
+
+	private void writeEntry(String name, String source, JarOutputStream jarOutputStream) throws IOException {
+		jarOutputStream.putNextEntry(new ZipEntry(name));
+		jarOutputStream.write(source.getBytes(StandardCharsets.UTF_8));
+		jarOutputStream.closeEntry();
+	}
+
+	private interface SourceWriter {
+		void write(String path, String source) throws IOException;
+	}
+
+	// Fetching and decompiling are counted separately, since a class can only be decompiled after it has been fetched
+	@Value
+	public static class Progress {
+		private final int fetchedClasses;
+		private final int writtenSources;
+	}
+
+}
@@ -2,29 +2,47 @@ package com.github.naton1.jvmexplorer.helper;
 
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
-import javafx.util.Pair;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 @RequiredArgsConstructor
 @Slf4j
 public class ExportHelper {
 
+	// Bounds how many classes can be held in memory waiting to be written
+	private static final int MAX_PENDING_CLASSES = 64;
+
+	private static final ClassBytes END = new ClassBytes(null, null, 0);
+
 	private final ClientHandler clientHandler;
+	private final ExecutorService executorService;
 
 	public boolean export(RunningJvm jvm, List<LoadedClass> loadedClasses, File outputJar,
 	                      Consumer<Integer> currentProgress) {
+		return export(jvm, loadedClasses, outputJar, false, Deflater.DEFAULT_COMPRESSION, currentProgress);
+	}
+
+	// Stored entries skip compression entirely, in which case the compression level is ignored
+	public boolean export(RunningJvm jvm, List<LoadedClass> loadedClasses, File outputJar, boolean stored,
+	                      int compressionLevel, Consumer<Integer> currentProgress) {
 		log.debug("Exporting {} files in {} to {}", loadedClasses.size(), jvm, outputJar);
 		try {
 			Files.deleteIfExists(outputJar.toPath());
@@ -34,46 +52,95 @@ public class ExportHelper {
 			log.warn("Failed to create initial file for export", e);
 			return false;
 		}
-		final AtomicInteger count = new AtomicInteger();
+		// Class bytes are fetched on a separate task, so the network transfer overlaps with compression. The queue
+		// is bounded, so if writing falls behind, fetching stops and the agent stops getting credits to send more.
+		final BlockingQueue<ClassBytes> pendingClasses = new ArrayBlockingQueue<>(MAX_PENDING_CLASSES);
+		final AtomicReference<Exception> fetchException = new AtomicReference<>();
+		final Future<?> fetchTask = executorService.submit(() -> {
+			try (final Stream<ClassBytes> classBytesStream = clientHandler.streamClassBytes(jvm, loadedClasses)) {
+				classBytesStream.forEach(classBytes -> {
+					try {
+						pendingClasses.put(classBytes);
+					}
+					catch (InterruptedException e) {
+						throw new IllegalStateException("Interrupted while queueing class bytes", e);
+					}
+				});
+			}
+			catch (Exception e) {
+				fetchException.set(e);
+			}
+			finally {
+				try {
+					pendingClasses.put(END);
+				}
+				catch (InterruptedException e) {
+					log.debug("Export writer stopped before all classes were fetched");
+				}
+			}
+		});
+		int count = 0;
 		try (JarOutputStream jarOutputStream = new JarOutputStream(Files.newOutputStream(outputJar.toPath()))) {
-			// Note - parallel stream runs in common fork join pool despite these being io bound tasks
-			loadedClasses.stream()
-			             .parallel()
-			             .map(loadedClass -> new Pair<>(loadedClass, clientHandler.getClassBytes(jvm, loadedClass)))
-			             .forEach(pair -> {
-				             log.debug("Exporting: {}", loadedClasses);
-				             synchronized (count) {
-					             // Possible race condition - count could be incremented before another thread, but the
-					             // other thread could run currentProgress first. Therefore, we synchronize.
-					             currentProgress.accept(count.incrementAndGet());
-				             }
-				             final String name = pair.getKey().getName().replace('.', '/') + ".class";
-				             final byte[] content = pair.getValue();
-				             write(name, content, jarOutputStream);
-			             });
-			log.debug("Jar created: {} with {} classes", outputJar, count.get());
+			if (!stored) {
+				jarOutputStream.setLevel(getValidLevel(compressionLevel));
+			}
+			for (ClassBytes classBytes = pendingClasses.take(); classBytes != END; classBytes = pendingClasses.take()) {
+				log.debug("Exporting: {}", classBytes.getLoadedClass());
+				currentProgress.accept(++count);
+				if (classBytes.getBytes() == null) {
+					log.warn("Failed to get class bytes for {}, skipping", classBytes.getLoadedClass());
+					continue;
+				}
+				final String name = classBytes.getLoadedClass().getName().replace('.', '/') + ".class";
+				write(name, classBytes.getBytes(), stored, jarOutputStream);
+			}
+			if (fetchException.get() != null) {
+				log.warn("Failed to fetch classes for export", fetchException.get());
+				return false;
+			}
+			log.debug("Jar created: {} with {} classes", outputJar, count);
 			return true;
 		}
-		catch (IOException | UncheckedIOException e) {
+		catch (IOException e) {
 			log.warn("Failed to export", e);
 			return false;
 		}
+		catch (InterruptedException e) {
+			log.warn("Interrupted while exporting", e);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		finally {
+			// Unblocks the fetch task if the writer stopped early
+			fetchTask.cancel(true);
+			pendingClasses.clear();
+		}
 	}
 
-	private void write(String name, byte[] content, JarOutputStream jarOutputStream) {
-		final ZipEntry zipEntry = new ZipEntry(name);
-		try {
-			// This synchronization is intentional and it works. Ignore any IDE warning.
-			synchronized (jarOutputStream) {
-				jarOutputStream.putNextEntry(zipEntry);
-				jarOutputStream.write(content);
-				jarOutputStream.closeEntry();
-			}
+	// The level comes straight from the settings file, which may have been edited by hand
+	private static int getValidLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			log.warn("Invalid compression level {}, using the default", compressionLevel);
+			return Deflater.DEFAULT_COMPRESSION;
 		}
-		catch (IOException e) {
-			log.warn("Failed to write zip file: {}", name, e);
-			throw new UncheckedIOException(e);
+		return compressionLevel;
+	}
+
+	private void write(String name, byte[] content, boolean stored, JarOutputStream jarOutputStream)
+			throws IOException {
+		final ZipEntry zipEntry = new ZipEntry(name);
+		if (stored) {
+			// Stored entries need the size and checksum up front
+			final CRC32 crc = new CRC32();
+			crc.update(content);
+			zipEntry.setMethod(ZipEntry.STORED);
+			zipEntry.setSize(content.length);
+			zipEntry.setCompressedSize(content.length);
+			zipEntry.setCrc(crc.getValue());
 		}
+		jarOutputStream.putNextEntry(zipEntry);
+		jarOutputStream.write(content);
+		jarOutputStream.closeEntry();
 	}
 
 }
@@ -1,5 +1,6 @@
 package com.github.naton1.jvmexplorer.helper;
 
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Window;
 
@@ -51,6 +52,16 @@ public class FileHelper {
 		return fileChooser.showSaveDialog(owner);
 	}
 
+	public File openDirectory(Window owner, String title) {
+		final File testFile = getTestFile(owner);
+		if (testFile != null) {
+			return testFile;
+		}
+		final DirectoryChooser directoryChooser = new DirectoryChooser();
+		directoryChooser.setTitle(title);
+		return directoryChooser.showDialog(owner);
+	}
+
 	public File openClass(Window owner, String title) {
 		final File testFile = getTestFile(owner);
 		if (testFile != null) {
@@ -1,6 +1,10 @@
 package com.github.naton1.jvmexplorer.helper;
 
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
+
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -8,28 +12,50 @@ import java.util.stream.Collectors;
 
 public class FilterHelper {
 
+	private static final Pattern CLASS_NAME_PATTERN = Pattern.compile("[\\p{L}\\p{N}_$.,]*");
+
 	public Predicate<String> createStringPredicate(String text) {
 		final String searchPattern = createSearchPattern(text);
 		final Pattern pattern = Pattern.compile(searchPattern);
 		return string -> pattern.matcher(string).find();
 	}
 
+	// Plain searches are answered by the index, so only regex searches have to test every name
+	public <T> Set<T> findMatches(ClassNameIndex<T> classNameIndex, String text) {
+		if (isRegex(text)) {
+			final Predicate<String> predicate = createStringPredicate(text);
+			return new HashSet<>(classNameIndex.find(predicate::test));
+		}
+		final Set<T> matches = new HashSet<>();
+		for (String piece : text.split(",")) {
+			matches.addAll(classNameIndex.search(piece));
+		}
+		return matches;
+	}
+
 	private String createSearchPattern(String text) {
 		if (text.isEmpty()) {
 			return ".*";
 		}
-		final Pattern classNamePattern = Pattern.compile("[\\p{L}\\p{N}_$.,]*");
-		if (!classNamePattern.matcher(text).matches()) {
-			try {
-				Pattern.compile(text);
-				// Text is valid regex
-				return text;
-			}
-			catch (PatternSyntaxException ignored) {
-			}
+		if (isRegex(text)) {
+			return text;
 		}
 		final String[] pieces = text.split(",");
 		return "(?:" + Arrays.stream(pieces).map(Pattern::quote).collect(Collectors.joining("|")) + ")";
 	}
 
+	private boolean isRegex(String text) {
+		if (CLASS_NAME_PATTERN.matcher(text).matches()) {
+			return false;
+		}
+		try {
+			Pattern.compile(text);
+			// Text is valid regex
+			return true;
+		}
+		catch (PatternSyntaxException ignored) {
+			return false;
+		}
+	}
+
 }
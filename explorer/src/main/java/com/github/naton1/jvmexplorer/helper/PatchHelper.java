@@ -3,52 +3,96 @@ package com.github.naton1.jvmexplorer.helper;
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
 import com.github.naton1.jvmexplorer.net.ClientHandler;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
-import com.github.naton1.jvmexplorer.protocol.LoadedClass;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 @Slf4j
 public class PatchHelper {
 
+	// Keeps each request well within the response timeout, and gives progress to show on large jars
+	private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+	private static final AtomicInteger NEXT_PATCH_ID = new AtomicInteger();
+
+	// Classes are sent in batches, but all of them are redefined together at the end, so a bad class file can't leave
+	// the jvm partially patched. Progress is the number of classes sent so far.
 	public boolean patch(File jarFile, RunningJvm runningJvm, ClientHandler clientHandler,
 	                     ClassLoaderDescriptor classLoaderDescriptor, Consumer<Integer> patchedClasses) {
 		log.debug("Attempting to patch {} with {}", runningJvm, jarFile);
-		final AtomicInteger patchedClassCount = new AtomicInteger();
+		final List<Map<String, byte[]>> batches;
+		try {
+			batches = readBatches(jarFile);
+		}
+		catch (IOException e) {
+			log.warn("Failed to read {}", jarFile, e);
+			return false;
+		}
+		if (batches.isEmpty()) {
+			log.debug("No classes to patch in {}", jarFile);
+			return true;
+		}
+		final int patchId = NEXT_PATCH_ID.incrementAndGet();
+		int sentClasses = 0;
+		for (Map<String, byte[]> batch : batches) {
+			log.debug("Staging {} classes", batch.size());
+			final PatchResult result = clientHandler.stageClasses(runningJvm, patchId, classLoaderDescriptor, batch);
+			if (!isSuccess(result, runningJvm, jarFile)) {
+				return false;
+			}
+			sentClasses += batch.size();
+			patchedClasses.accept(sentClasses);
+		}
+		log.debug("Patching {} classes", sentClasses);
+		return isSuccess(clientHandler.redefineStagedClasses(runningJvm, patchId), runningJvm, jarFile);
+	}
+
+	private List<Map<String, byte[]>> readBatches(File jarFile) throws IOException {
+		final List<Map<String, byte[]>> batches = new ArrayList<>();
+		Map<String, byte[]> batch = new LinkedHashMap<>();
+		int batchBytes = 0;
 		try (final JarFile jar = new JarFile(jarFile)) {
-			jar.stream().parallel().filter(j -> j.getName().endsWith(".class")).forEach(classFile -> {
-				try {
-					final String name = classFile.getName().replace('/', '.').replace(".class", "");
-					log.debug("Patching {}", name);
-					final byte[] classContents = jar.getInputStream(classFile).readAllBytes();
-					// Note - we may not always want to pass in the class loader. It could be in a child classloader.
-					final LoadedClass loadedClass = new LoadedClass(name, classLoaderDescriptor, null);
-					final PatchResult result = clientHandler.replaceClass(runningJvm, loadedClass, classContents);
-					if (!result.isSuccess()) {
-						throw new IllegalStateException(
-								"Failed to replace class on jvm: " + name + " because " + result.getMessage());
-					}
+			final Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				final JarEntry classFile = entries.nextElement();
+				if (!classFile.getName().endsWith(".class")) {
+					continue;
 				}
-				catch (IOException e) {
-					log.warn("Failed to process {}", classFile.getName());
-					throw new UncheckedIOException(e);
+				final String name = classFile.getName().replace('/', '.').replace(".class", "");
+				final byte[] bytes = jar.getInputStream(classFile).readAllBytes();
+				if (!batch.isEmpty() && batchBytes + bytes.length > MAX_BATCH_BYTES) {
+					batches.add(batch);
+					batch = new LinkedHashMap<>();
+					batchBytes = 0;
 				}
-				synchronized (patchedClassCount) {
-					patchedClasses.accept(patchedClassCount.incrementAndGet());
-				}
-			});
-			return true;
+				// Note - we may not always want to pass in the class loader. It could be in a child classloader.
+				batch.put(name, bytes);
+				batchBytes += bytes.length;
+			}
 		}
-		catch (IOException | UncheckedIOException | IllegalStateException e) {
-			log.warn("Failed to patch {} with {}", runningJvm, jarFile, e);
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	private boolean isSuccess(PatchResult result, RunningJvm runningJvm, File jarFile) {
+		if (result == null || !result.isSuccess()) {
+			log.warn("Failed to patch {} with {}: {}", runningJvm, jarFile, result != null ? result.getMessage() : null);
 			return false;
 		}
+		return true;
 	}
 
 }
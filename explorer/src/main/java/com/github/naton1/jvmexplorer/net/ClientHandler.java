@@ -3,26 +3,32 @@ package com.github.naton1.jvmexplorer.net;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
 import com.github.naton1.jvmexplorer.protocol.ClassContent;
 import com.github.naton1.jvmexplorer.protocol.ClassFieldPath;
 import com.github.naton1.jvmexplorer.protocol.ClassFields;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
 import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
+import com.github.naton1.jvmexplorer.protocol.ConstantSearchResult;
 import com.github.naton1.jvmexplorer.protocol.ExecutionResult;
 import com.github.naton1.jvmexplorer.protocol.JvmConnection;
 import com.github.naton1.jvmexplorer.protocol.LoadedClass;
-import com.github.naton1.jvmexplorer.protocol.PacketType;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassFilter;
 import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RequiredArgsConstructor
 @Builder
@@ -33,9 +39,10 @@ public class ClientHandler extends Listener {
 
 	private final BiConsumer<RunningJvm, Connection> onConnect;
 	private final Consumer<RunningJvm> onDisconnect;
+	private final BiConsumer<RunningJvm, ClassListDelta> onClassListDelta;
 
 	public ClassContent getClassContent(RunningJvm runningJvm, LoadedClass loadedClass) {
-		return getJvmConnection(runningJvm).map(j -> j.getClassContent(loadedClass)).orElse(null);
+		return getServerTracker(runningJvm).map(j -> j.getClassContent(loadedClass)).orElse(null);
 	}
 
 	private Optional<JvmConnection> getJvmConnection(RunningJvm runningJvm) {
@@ -57,23 +64,73 @@ public class ClientHandler extends Listener {
 		return getJvmConnection(runningJvm).map(j -> j.getFields(classFieldPath)).orElse(null);
 	}
 
+	public String getFieldString(RunningJvm runningJvm, ClassFieldPath classFieldPath) {
+		return getJvmConnection(runningJvm).map(j -> j.getFieldString(classFieldPath)).orElse(null);
+	}
+
 	public byte[] getClassBytes(RunningJvm runningJvm, LoadedClass loadedClass) {
-		return getJvmConnection(runningJvm).map(j -> j.getClassBytes(loadedClass)).orElse(null);
+		return getServerTracker(runningJvm).map(j -> j.getClassBytes(loadedClass)).orElse(null);
+	}
+
+	// Bytes are null for any class that couldn't be found. Results come back in no particular order.
+	public Stream<ClassBytes> streamClassBytes(RunningJvm runningJvm, List<LoadedClass> loadedClasses) {
+		return getServerTracker(runningJvm).map(j -> j.streamClassBytes(loadedClasses)).orElseGet(Stream::empty);
 	}
 
 	public List<LoadedClass> getLoadedClasses(RunningJvm runningJvm, Consumer<Integer> onUpdateCount) {
-		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.<LoadedClass>getPacketStream(PacketType.LOADED_CLASSES,
-		                                                                                                    onUpdateCount))
-		                                   .map(str -> str.collect(Collectors.toList()))
+		return getLoadedClasses(runningJvm, LoadedClassFilter.ALL, onUpdateCount);
+	}
+
+	public List<LoadedClass> getLoadedClasses(RunningJvm runningJvm, LoadedClassFilter filter,
+	                                          Consumer<Integer> onUpdateCount) {
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.streamLoadedClasses(filter,
+		                                                                                           onUpdateCount))
+		                                   .map(ClientHandler::collectAndClose)
+		                                   .orElse(null);
+	}
+
+	// Counted in the agent, so nothing but the count is sent. Completes with null if the JVM isn't connected.
+	public CompletableFuture<Integer> countLoadedClasses(RunningJvm runningJvm, LoadedClassFilter filter) {
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.countLoadedClasses(filter))
+		                                   .orElseGet(() -> CompletableFuture.completedFuture(null));
+	}
+
+	// Results arrive as the agent finds them, and closing the stream cancels the search. Null if the JVM isn't
+	// connected.
+	public Stream<ConstantSearchResult> searchConstants(RunningJvm runningJvm, String query,
+	                                                    Consumer<Integer> onUpdateCount) {
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.searchConstants(query, onUpdateCount))
 		                                   .orElse(null);
 	}
 
+	// Closing the stream cancels it in the agent if collecting fails part way
+	private static <T> List<T> collectAndClose(Stream<T> stream) {
+		try (stream) {
+			return stream.collect(Collectors.toList());
+		}
+	}
+
 	public void close(RunningJvm runningJvm) {
 		getServerTracker(runningJvm).ifPresent(Connection::close);
 	}
 
 	public PatchResult replaceClass(RunningJvm runningJvm, LoadedClass loadedClass, byte[] bytes) {
-		return getJvmConnection(runningJvm).map(jvmConnection -> jvmConnection.redefineClass(loadedClass, bytes))
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.redefineClass(loadedClass, bytes))
+		                                   .orElse(null);
+	}
+
+	// Class files are keyed by class name. Nothing is redefined until redefineStagedClasses is called for the patch.
+	public PatchResult stageClasses(RunningJvm runningJvm, int patchId, ClassLoaderDescriptor classLoaderDescriptor,
+	                                Map<String, byte[]> classFiles) {
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.stageClasses(patchId,
+		                                                                                    classLoaderDescriptor,
+		                                                                                    classFiles))
+		                                   .orElse(null);
+	}
+
+	// Either every staged class is redefined or none are
+	public PatchResult redefineStagedClasses(RunningJvm runningJvm, int patchId) {
+		return getServerTracker(runningJvm).map(serverTracker -> serverTracker.redefineStagedClasses(patchId))
 		                                   .orElse(null);
 	}
 
@@ -90,6 +147,13 @@ public class ClientHandler extends Listener {
 		final JvmClientImpl serverTrackerImpl = (JvmClientImpl) connection;
 		clients.add(serverTrackerImpl);
 		serverTrackerImpl.setOnRegister(jvm -> this.onConnect.accept(jvm, connection));
+		if (onClassListDelta != null) {
+			serverTrackerImpl.setOnClassListDelta(delta -> {
+				if (serverTrackerImpl.isRegistered()) {
+					onClassListDelta.accept(serverTrackerImpl.getRunningJvm(), delta);
+				}
+			});
+		}
 	}
 
 	@Override
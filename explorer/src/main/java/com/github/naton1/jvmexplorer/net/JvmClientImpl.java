@@ -1,31 +1,67 @@
 package com.github.naton1.jvmexplorer.net;
 
 import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.kryonet.rmi.ObjectSpace;
 import com.esotericsoftware.kryonet.rmi.RemoteObject;
 import com.github.naton1.jvmexplorer.agent.RunningJvm;
+import com.github.naton1.jvmexplorer.protocol.ByteChunk;
+import com.github.naton1.jvmexplorer.protocol.ByteStreamAssembler;
+import com.github.naton1.jvmexplorer.protocol.ByteStreams;
+import com.github.naton1.jvmexplorer.protocol.ClassBytes;
+import com.github.naton1.jvmexplorer.protocol.ClassContent;
+import com.github.naton1.jvmexplorer.protocol.ClassFileBundle;
+import com.github.naton1.jvmexplorer.protocol.ClassListDelta;
+import com.github.naton1.jvmexplorer.protocol.ClassLoaderDescriptor;
+import com.github.naton1.jvmexplorer.protocol.CompressingSerialization;
+import com.github.naton1.jvmexplorer.protocol.ConstantSearchResult;
 import com.github.naton1.jvmexplorer.protocol.JvmClient;
 import com.github.naton1.jvmexplorer.protocol.JvmConnection;
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassBlock;
+import com.github.naton1.jvmexplorer.protocol.LoadedClassFilter;
+import com.github.naton1.jvmexplorer.protocol.PacketCancel;
+import com.github.naton1.jvmexplorer.protocol.PacketCredits;
 import com.github.naton1.jvmexplorer.protocol.PacketType;
+import com.github.naton1.jvmexplorer.protocol.PatchResult;
 import com.github.naton1.jvmexplorer.protocol.Protocol;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.ref.Cleaner;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 @Slf4j
 public class JvmClientImpl extends Connection implements JvmClient {
 
-	private final Map<PacketType, PacketResponseHandler<?>> packetResponseHandlers = new ConcurrentHashMap<>();
+	private static final int STREAM_TIMEOUT_SECONDS = 30;
+
+	// Keeps each request small enough to fit in a single object buffer
+	private static final int CLASS_BYTES_REQUEST_SIZE = 1000;
+
+	private static final Cleaner PACKET_STREAM_CLEANER = Cleaner.create();
+
+	// Keyed by stream id, so any number of packet streams can be active at once, whatever their type
+	private final Map<Integer, PacketResponseHandler<?>> packetResponseHandlers = new ConcurrentHashMap<>();
 	private final ScheduledExecutorService executorService;
+	private final CompressingSerialization serialization;
+	private final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+	private final AtomicInteger nextStreamId = new AtomicInteger();
+	private final Map<Integer, CompletableFuture<Integer>> pendingClassCounts = new ConcurrentHashMap<>();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
 
 	@Getter
 	private final JvmConnection jvmConnection;
@@ -33,11 +69,15 @@ public class JvmClientImpl extends Connection implements JvmClient {
 	@Setter
 	private volatile Consumer<RunningJvm> onRegister;
 
+	@Setter
+	private volatile Consumer<ClassListDelta> onClassListDelta;
+
 	@Getter
 	private volatile RunningJvm runningJvm;
 
-	public JvmClientImpl(ScheduledExecutorService executorService) {
+	public JvmClientImpl(ScheduledExecutorService executorService, CompressingSerialization serialization) {
 		this.executorService = executorService;
+		this.serialization = serialization;
 		final ObjectSpace objectSpace = new ObjectSpace(this);
 		objectSpace.setExecutor(executorService);
 		objectSpace.register(Protocol.RMI_JVM_CLIENT, this);
@@ -45,10 +85,18 @@ public class JvmClientImpl extends Connection implements JvmClient {
 		// Loading class names can take a bit
 		((RemoteObject) jvmConnection).setResponseTimeout(30000);
 		((RemoteObject) jvmConnection).setTransmitExceptions(false);
+		addListener(new Listener() {
+			@Override
+			public void received(Connection connection, Object object) {
+				if (object instanceof ByteChunk) {
+					byteStreamAssembler.onChunk((ByteChunk) object);
+				}
+			}
+		});
 	}
 
 	@Override
-	public void register(String identifier) {
+	public void register(String identifier, int supportedCompressions) {
 		if (this.runningJvm != null) {
 			close();
 			return;
@@ -58,6 +106,12 @@ public class JvmClientImpl extends Connection implements JvmClient {
 			close();
 			return;
 		}
+		final int compression = CompressingSerialization.choose(supportedCompressions);
+		if (compression != Protocol.COMPRESSION_NONE) {
+			log.debug("Using compression {} for {}", compression, identifier);
+			jvmConnection.setCompression(compression);
+			serialization.setCompression(this, compression);
+		}
 		this.runningJvm = new RunningJvm(id[0], id[1]);
 		final Consumer<RunningJvm> onRegister = this.onRegister;
 		if (onRegister != null) {
@@ -66,9 +120,9 @@ public class JvmClientImpl extends Connection implements JvmClient {
 	}
 
 	@Override
-	public <T> void sendPacket(PacketType packetType, T[] packet) {
+	public <T> void sendPacket(int streamId, T[] packet) {
 		final PacketResponseHandler<T> packetResponseHandler = (PacketResponseHandler<T>) packetResponseHandlers.get(
-				packetType);
+				streamId);
 		if (packetResponseHandler != null) {
 			packetResponseHandler.onPacketReceived(packet);
 		}
@@ -78,10 +132,10 @@ public class JvmClientImpl extends Connection implements JvmClient {
 	}
 
 	@Override
-	public void endPacketTransfer(PacketType packetType, int packetsSent) {
-		final PacketResponseHandler<?> packetResponseHandler = packetResponseHandlers.get(packetType);
+	public void endPacketTransfer(int streamId, int packetsSent) {
+		final PacketResponseHandler<?> packetResponseHandler = packetResponseHandlers.get(streamId);
 		if (packetResponseHandler != null) {
-			log.debug("Received all packets for {}", packetType);
+			log.debug("Received all packets for stream {}", streamId);
 			packetResponseHandler.receivedEnd(packetsSent);
 		}
 		else {
@@ -89,34 +143,200 @@ public class JvmClientImpl extends Connection implements JvmClient {
 		}
 	}
 
+	@Override
+	public void sendLoadedClassCount(int requestId, int count) {
+		final CompletableFuture<Integer> pendingClassCount = pendingClassCounts.remove(requestId);
+		if (pendingClassCount == null) {
+			log.debug("Received class count {} after giving up on it", requestId);
+			return;
+		}
+		if (count < 0) {
+			pendingClassCount.completeExceptionally(new IllegalStateException("Agent failed to count classes"));
+		}
+		else {
+			pendingClassCount.complete(count);
+		}
+	}
+
+	@Override
+	public void sendClassListDelta(ClassListDelta classListDelta) {
+		final Consumer<ClassListDelta> onClassListDelta = this.onClassListDelta;
+		if (onClassListDelta != null) {
+			onClassListDelta.accept(classListDelta);
+		}
+	}
+
 	@Override
 	public void close() {
 		super.close();
 		packetResponseHandlers.values().forEach(PacketResponseHandler::interrupt);
 		packetResponseHandlers.clear();
+		pendingClassCounts.values().forEach(count -> count.completeExceptionally(new IllegalStateException("Closed")));
+		pendingClassCounts.clear();
+		byteStreamAssembler.clear();
 	}
 
 	public boolean isRegistered() {
 		return runningJvm != null;
 	}
 
+	public ClassContent getClassContent(LoadedClass loadedClass) {
+		final ClassContent classContent = jvmConnection.getClassContent(loadedClass);
+		if (classContent == null || classContent.getClassContent() != null) {
+			return classContent;
+		}
+		log.debug("Class content for {} was too large to send inline, streaming it", loadedClass);
+		final byte[] classBytes = getClassBytes(loadedClass);
+		if (classBytes == null) {
+			return null;
+		}
+		return new ClassContent(classContent.getLoadedClass(), classBytes, classContent.getClassFields());
+	}
+
+	public byte[] getClassBytes(LoadedClass loadedClass) {
+		final int streamId = nextStreamId.incrementAndGet();
+		try {
+			jvmConnection.streamClassBytes(streamId, loadedClass);
+			return byteStreamAssembler.await(streamId, STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		finally {
+			byteStreamAssembler.discard(streamId);
+		}
+	}
+
+	public PatchResult redefineClass(LoadedClass loadedClass, byte[] bytes) {
+		final int streamId = nextStreamId.incrementAndGet();
+		if (!ByteStreams.send(this, streamId, bytes)) {
+			return PatchResult.builder().success(false).message("Failed to send class file").build();
+		}
+		return jvmConnection.redefineClass(loadedClass, streamId);
+	}
+
+	public PatchResult stageClasses(int patchId, ClassLoaderDescriptor classLoaderDescriptor,
+	                                Map<String, byte[]> classFiles) {
+		final int streamId = nextStreamId.incrementAndGet();
+		if (!ByteStreams.send(this, streamId, ClassFileBundle.encode(classFiles))) {
+			return PatchResult.builder().success(false).message("Failed to send class files").build();
+		}
+		return jvmConnection.stageClasses(patchId, classLoaderDescriptor, streamId);
+	}
+
+	public PatchResult redefineStagedClasses(int patchId) {
+		return jvmConnection.redefineStagedClasses(patchId);
+	}
+
+	// Bytes are null for any class that couldn't be found
+	public Stream<ClassBytes> streamClassBytes(List<LoadedClass> loadedClasses) {
+		final int requestCount = (loadedClasses.size() + CLASS_BYTES_REQUEST_SIZE - 1) / CLASS_BYTES_REQUEST_SIZE;
+		return IntStream.range(0, requestCount)
+		                .mapToObj(i -> loadedClasses.subList(i * CLASS_BYTES_REQUEST_SIZE,
+		                                                     Math.min((i + 1) * CLASS_BYTES_REQUEST_SIZE,
+		                                                              loadedClasses.size())))
+		                .flatMap(this::requestClassBytes)
+		                .map(this::resolveClassBytes);
+	}
+
+	private Stream<ClassBytes> requestClassBytes(List<LoadedClass> loadedClasses) {
+		final LoadedClass[] request = loadedClasses.toArray(new LoadedClass[0]);
+		return getPacketStream(PacketType.CLASS_BYTES,
+		                       count -> {},
+		                       (jvmConnection, streamId) -> jvmConnection.requestClassBytes(streamId, request));
+	}
+
+	private ClassBytes resolveClassBytes(ClassBytes classBytes) {
+		if (classBytes.getStreamId() == 0) {
+			return classBytes;
+		}
+		try {
+			final byte[] bytes = byteStreamAssembler.await(classBytes.getStreamId(),
+			                                               STREAM_TIMEOUT_SECONDS,
+			                                               TimeUnit.SECONDS);
+			return new ClassBytes(classBytes.getLoadedClass(), bytes, 0);
+		}
+		finally {
+			byteStreamAssembler.discard(classBytes.getStreamId());
+		}
+	}
+
+	// Progress is reported in classes rather than blocks. Classes come back in name order.
+	public Stream<LoadedClass> streamLoadedClasses(LoadedClassFilter filter, Consumer<Integer> onUpdateCount) {
+		final LoadedClassBlock.Decoder decoder = new LoadedClassBlock.Decoder();
+		final AtomicInteger decodedCount = new AtomicInteger();
+		final BiConsumer<JvmConnection, Integer> request =
+				(jvmConnection, streamId) -> jvmConnection.requestLoadedClasses(streamId, filter);
+		return this.<LoadedClassBlock>getPacketStream(PacketType.LOADED_CLASSES, count -> {}, request)
+		           .map(block -> {
+			           final List<LoadedClass> loadedClasses = decoder.decode(block);
+			           onUpdateCount.accept(decodedCount.addAndGet(loadedClasses.size()));
+			           return loadedClasses;
+		           })
+		           .flatMap(List::stream);
+	}
+
+	// Counted on the agent's own time, so a large JVM can't make the call time out
+	public CompletableFuture<Integer> countLoadedClasses(LoadedClassFilter filter) {
+		final int requestId = nextRequestId.incrementAndGet();
+		final CompletableFuture<Integer> classCount = new CompletableFuture<>();
+		pendingClassCounts.put(requestId, classCount);
+		classCount.orTimeout(300, TimeUnit.SECONDS).whenComplete((count, throwable) -> {
+			pendingClassCounts.remove(requestId);
+		});
+		try {
+			jvmConnection.countLoadedClasses(requestId, filter);
+		}
+		catch (RuntimeException e) {
+			classCount.completeExceptionally(e);
+		}
+		return classCount;
+	}
+
+	public Stream<ConstantSearchResult> searchConstants(String query, Consumer<Integer> onUpdateCount) {
+		return getPacketStream(PacketType.SEARCH_RESULTS,
+		                       onUpdateCount,
+		                       (jvmConnection, streamId) -> jvmConnection.searchConstants(streamId, query));
+	}
+
 	public <T> Stream<T> getPacketStream(PacketType packetType, Consumer<Integer> onUpdateCount) {
+		return getPacketStream(packetType,
+		                       onUpdateCount,
+		                       (jvmConnection, streamId) -> jvmConnection.requestPackets(streamId, packetType));
+	}
+
+	// The request is given the stream id the agent has to send the packets back with
+	private <T> Stream<T> getPacketStream(PacketType packetType, Consumer<Integer> onUpdateCount,
+	                                      BiConsumer<JvmConnection, Integer> request) {
+		final int streamId = nextStreamId.incrementAndGet();
 		final AtomicReference<Future<?>> scheduledCleanup = new AtomicReference<>();
 		final PacketResponseHandler<T> packetResponseHandler = new PacketResponseHandler<>(() -> {
-			log.debug("Cleaning up packet stream for {}", packetType);
-			packetResponseHandlers.remove(packetType);
+			log.debug("Cleaning up {} stream {}", packetType, streamId);
+			packetResponseHandlers.remove(streamId);
 			final Future<?> cleanup = scheduledCleanup.get();
 			if (cleanup != null) {
-				log.debug("Cancelling cleanup task for {}", packetType);
+				log.debug("Cancelling cleanup task for stream {}", streamId);
 				cleanup.cancel(false);
 			}
-		}, onUpdateCount);
-		packetResponseHandlers.put(packetType, packetResponseHandler);
+		}, onUpdateCount, credits -> sendTCP(new PacketCredits(streamId, credits)));
+		packetResponseHandlers.put(streamId, packetResponseHandler);
 		final Future<?> cleanup = executorService.schedule(packetResponseHandler::interrupt, 310, TimeUnit.SECONDS);
 		scheduledCleanup.set(cleanup);
-		getJvmConnection().requestPackets(packetType);
+		try {
+			request.accept(getJvmConnection(), streamId);
+		}
+		catch (RuntimeException e) {
+			packetResponseHandler.interrupt();
+			throw e;
+		}
+		final Runnable cancel = () -> {
+			if (packetResponseHandler.cancel() && isConnected()) {
+				log.debug("Cancelling {} stream {}", packetType, streamId);
+				sendTCP(new PacketCancel(streamId));
+			}
+		};
 		// Exports can take some time
-		return packetResponseHandler.getPacketStream(300, TimeUnit.SECONDS);
+		final Stream<T> packetStream = packetResponseHandler.getPacketStream(300, TimeUnit.SECONDS).onClose(cancel);
+		// Not every consumer closes the stream, this still stops the agent sending once an abandoned one is collected
+		PACKET_STREAM_CLEANER.register(packetStream, cancel);
+		return packetStream;
 	}
 
 }
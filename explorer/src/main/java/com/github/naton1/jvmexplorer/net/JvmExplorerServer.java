@@ -1,5 +1,6 @@
 package com.github.naton1.jvmexplorer.net;
 
+import com.esotericsoftware.kryonet.Serialization;
 import com.esotericsoftware.kryonet.Server;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -11,8 +12,8 @@ public class JvmExplorerServer extends Server {
 	@Getter
 	private int port;
 
-	public JvmExplorerServer(int writeBufferSize, int objectBufferSize) {
-		super(writeBufferSize, objectBufferSize);
+	public JvmExplorerServer(int writeBufferSize, int objectBufferSize, Serialization serialization) {
+		super(writeBufferSize, objectBufferSize, serialization);
 	}
 
 }
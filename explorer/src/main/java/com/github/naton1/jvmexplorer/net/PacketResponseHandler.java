@@ -4,7 +4,9 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Collections;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -16,16 +18,32 @@ class PacketResponseHandler<T> {
 
 	private static final Object INTERRUPT = new Object();
 
+	// Grant credits back in batches to cut down on the number of messages sent
+	private static final int CREDIT_BATCH_SIZE = 4;
+
 	private final Runnable onCleanup;
 	private final Consumer<Integer> onUpdateCount;
+	private final Consumer<Integer> onGrantCredits;
 	private final BlockingQueue<Object> linkedBlockingQueue = new LinkedBlockingQueue<>();
+	private final Queue<Integer> packetSizes = new ConcurrentLinkedQueue<>();
+
+	// Only touched by the thread consuming the stream
+	private int drainedItemCount = 0;
+	private int pendingCredits = 0;
 
 	private volatile int receivedItemCount = 0;
 	private volatile int totalItemsSent = -1;
 	private volatile boolean addedInterrupt = false;
+	private volatile boolean cancelled = false;
+	private boolean cleanedUp = false;
 
 	public synchronized void onPacketReceived(T[] packets) {
+		if (cancelled) {
+			// Already on its way when the stream was cancelled
+			return;
+		}
 		receivedItemCount += packets.length;
+		packetSizes.add(packets.length);
 		Collections.addAll(linkedBlockingQueue, packets);
 		log.debug("Received packet. Total items received: {}", receivedItemCount);
 		onUpdateCount.accept(receivedItemCount);
@@ -36,23 +54,61 @@ class PacketResponseHandler<T> {
 	}
 
 	public synchronized void interrupt() {
+		endStream();
+		if (!cleanedUp) {
+			cleanedUp = true;
+			onCleanup.run();
+		}
+	}
+
+	// Ends the stream early. The cleanup waits for the agent to confirm it stopped, so that packets still on their way
+	// don't end up in the next stream of this type. False if the stream had already ended.
+	public synchronized boolean cancel() {
+		if (addedInterrupt) {
+			return false;
+		}
+		cancelled = true;
+		linkedBlockingQueue.clear();
+		endStream();
+		return true;
+	}
+
+	private void endStream() {
 		if (addedInterrupt) {
 			return;
 		}
 		addedInterrupt = true;
 		log.debug("Ending packet collection, received: {}", receivedItemCount);
 		linkedBlockingQueue.add(INTERRUPT);
-		onCleanup.run();
 	}
 
 	public synchronized void receivedEnd(int totalItemsSent) {
 		log.debug("Received total item count: {}", totalItemsSent);
+		if (cancelled) {
+			interrupt();
+			return;
+		}
 		this.totalItemsSent = totalItemsSent;
 		if (this.totalItemsSent == this.receivedItemCount) {
 			interrupt();
 		}
 	}
 
+	private void onItemDrained() {
+		drainedItemCount++;
+		Integer packetSize;
+		while ((packetSize = packetSizes.peek()) != null && packetSize <= drainedItemCount) {
+			packetSizes.poll();
+			drainedItemCount -= packetSize;
+			pendingCredits++;
+		}
+		if (pendingCredits >= CREDIT_BATCH_SIZE) {
+			log.trace("Granting {} credits", pendingCredits);
+			onGrantCredits.accept(pendingCredits);
+			pendingCredits = 0;
+		}
+	}
+
 	public Stream<T> getPacketStream(long timeout, TimeUnit timeUnit) {
 		log.trace("Creating stream...");
 		final long durationMs = TimeUnit.MILLISECONDS.convert(timeout, timeUnit);
@@ -75,6 +131,9 @@ class PacketResponseHandler<T> {
 							continue;
 						}
 					}
+					else {
+						onItemDrained();
+					}
 					return t;
 				}
 				catch (InterruptedException e) {
@@ -4,6 +4,7 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Server;
 import com.esotericsoftware.minlog.Log;
+import com.github.naton1.jvmexplorer.protocol.CompressingSerialization;
 import com.github.naton1.jvmexplorer.protocol.Protocol;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -20,10 +21,12 @@ public class ServerLauncher {
 
 	public JvmExplorerServer launch(ScheduledExecutorService executorService, ClientHandler clientHandler) {
 		setupLogging();
+		final CompressingSerialization serialization = new CompressingSerialization();
 		final JvmExplorerServer server = new JvmExplorerServer(Protocol.WRITE_BUFFER_SIZE,
-		                                                       Protocol.OBJECT_BUFFER_SIZE) {
+		                                                       Protocol.OBJECT_BUFFER_SIZE,
+		                                                       serialization) {
 			protected Connection newConnection() {
-				return new JvmClientImpl(executorService);
+				return new JvmClientImpl(executorService, serialization);
 			}
 		};
 		registerProtocol(server);
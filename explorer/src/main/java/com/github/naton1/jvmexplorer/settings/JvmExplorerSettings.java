@@ -5,6 +5,8 @@ import com.google.gson.Gson;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.hildan.fxgson.FxGson;
@@ -15,6 +17,7 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.util.List;
 import java.util.Objects;
+import java.util.zip.Deflater;
 
 @Slf4j
 @Value
@@ -29,6 +32,9 @@ public class JvmExplorerSettings {
 
 	private final SimpleBooleanProperty showClassLoader = new SimpleBooleanProperty(false);
 
+	// Comma separated package prefixes. When set, the agent only sends classes in these packages.
+	private final SimpleStringProperty classListPackages = new SimpleStringProperty("");
+
 	private final SimpleDoubleProperty firstDividerPosition = new SimpleDoubleProperty(0.23);
 	private final SimpleDoubleProperty secondDividerPosition = new SimpleDoubleProperty(0.5);
 
@@ -40,6 +46,20 @@ public class JvmExplorerSettings {
 	private final SimpleDoubleProperty x = new SimpleDoubleProperty(Double.NaN);
 	private final SimpleDoubleProperty y = new SimpleDoubleProperty(Double.NaN);
 
+	// 0-9, or -1 for the deflater's default
+	private final SimpleIntegerProperty exportCompressionLevel =
+			new SimpleIntegerProperty(Deflater.DEFAULT_COMPRESSION);
+
+	// Skips compression entirely, which is quickest to write but makes the largest jar
+	private final SimpleBooleanProperty exportUncompressed = new SimpleBooleanProperty(false);
+
+	// How much class file data can be held in memory while neighbouring classes are prefetched
+	private final SimpleIntegerProperty prefetchMemoryBudgetMb = new SimpleIntegerProperty(32);
+
+	// Decompiled and disassembled classes are kept on disk between sessions, using up to this much space in total
+	private final SimpleBooleanProperty diskCacheEnabled = new SimpleBooleanProperty(true);
+	private final SimpleIntegerProperty diskCacheSizeMb = new SimpleIntegerProperty(256);
+
 	public static JvmExplorerSettings load(File settingsFile) {
 		try {
 			final String settingsFileContent = Files.readString(settingsFile.toPath());
@@ -75,7 +95,20 @@ public class JvmExplorerSettings {
 	}
 
 	private List<Property<?>> properties() {
-		return List.of(x, y, width, height, maximized, firstDividerPosition, secondDividerPosition, showClassLoader);
+		return List.of(x,
+		               y,
+		               width,
+		               height,
+		               maximized,
+		               firstDividerPosition,
+		               secondDividerPosition,
+		               showClassLoader,
+		               classListPackages,
+		               exportCompressionLevel,
+		               exportUncompressed,
+		               prefetchMemoryBudgetMb,
+		               diskCacheEnabled,
+		               diskCacheSizeMb);
 	}
 
 	public void configureAutoSaving(File settingsFile) {
@@ -0,0 +1,101 @@
+package com.github.naton1.jvmexplorer.bytecode;
+
+import com.github.naton1.jvmexplorer.protocol.LoadedClass;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+class CrossReferenceIndexTest {
+
+	private static final String TARGET = Type.getInternalName(Target.class);
+
+	@Test
+	void givenIndexedCaller_whenFindUsages_thenCallsReadsAndWritesFound() throws IOException {
+		final CrossReferenceIndex index = new CrossReferenceIndex();
+		final LoadedClass caller = new LoadedClass(Caller.class.getName(), null, null);
+		index.add(caller, readClassFile(Caller.class));
+
+		final List<CrossReferenceIndex.Usage> calls = index.findUsages(TARGET, "run", "()V");
+		final List<CrossReferenceIndex.Usage> writes = index.findUsages(TARGET, "value", null);
+		final List<CrossReferenceIndex.Usage> methodReferences = index.findUsages(TARGET, "get", null);
+
+		Assertions.assertEquals(1, calls.size());
+		Assertions.assertEquals(caller, calls.get(0).getLoadedClass());
+		Assertions.assertEquals("call", calls.get(0).getMethodName());
+		Assertions.assertEquals(CrossReferenceIndex.Kind.CALL, calls.get(0).getKind());
+		Assertions.assertEquals(2, writes.size());
+		Assertions.assertTrue(writes.stream().anyMatch(u -> u.getKind() == CrossReferenceIndex.Kind.READ));
+		Assertions.assertTrue(writes.stream().anyMatch(u -> u.getKind() == CrossReferenceIndex.Kind.WRITE));
+		Assertions.assertEquals(1, methodReferences.size());
+		Assertions.assertTrue(index.findUsages(TARGET, "run", "(I)V").isEmpty());
+	}
+
+	@Test
+	void givenRemovedClass_whenFindUsages_thenUsagesSkipped() throws IOException {
+		final CrossReferenceIndex index = new CrossReferenceIndex();
+		final LoadedClass caller = new LoadedClass(Caller.class.getName(), null, null);
+		index.add(caller, readClassFile(Caller.class));
+
+		index.remove(caller);
+
+		Assertions.assertFalse(index.contains(caller));
+		Assertions.assertTrue(index.findUsages(TARGET, "run", null).isEmpty());
+	}
+
+	@Test
+	void givenMostClassesRemoved_whenFindUsages_thenOnlyLiveClassesFound() throws IOException {
+		final CrossReferenceIndex index = new CrossReferenceIndex();
+		final byte[] classFile = readClassFile(Caller.class);
+		final LoadedClass first = new LoadedClass("First", null, null);
+		final LoadedClass second = new LoadedClass("Second", null, null);
+		final LoadedClass third = new LoadedClass("Third", null, null);
+		index.add(first, classFile);
+		index.add(second, classFile);
+		index.add(third, classFile);
+
+		index.retainAll(List.of(third));
+		index.add(first, classFile);
+
+		final List<CrossReferenceIndex.Usage> calls = index.findUsages(TARGET, "run", null);
+		Assertions.assertEquals(2, index.size());
+		Assertions.assertEquals(2, calls.size());
+		Assertions.assertTrue(calls.stream().anyMatch(u -> u.getLoadedClass().equals(first)));
+		Assertions.assertTrue(calls.stream().anyMatch(u -> u.getLoadedClass().equals(third)));
+	}
+
+	private byte[] readClassFile(Class<?> klass) throws IOException {
+		final String path = klass.getName().replace('.', '/') + ".class";
+		return Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream(path)).readAllBytes();
+	}
+
+	private static class Target {
+		private int value;
+
+		void run() {}
+
+		int get() {
+			return value;
+		}
+	}
+
+	private static class Caller {
+		void call(Target target) {
+			target.run();
+			target.run();
+		}
+
+		void increment(Target target) {
+			target.value = target.value + 1;
+		}
+
+		Supplier<Integer> supplier(Target target) {
+			return target::get;
+		}
+	}
+
+}
@@ -4,6 +4,9 @@ import javafx.beans.binding.Bindings;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.stream.Stream;
+
 class FilterableTreeItemTest {
 
 	@Test
@@ -47,4 +50,53 @@ class FilterableTreeItemTest {
 		Assertions.assertEquals(4, sourceItems);
 	}
 
-}
\ No newline at end of file
+	@Test
+	void givenBranchPredicate_whenBranchRejected_thenChildrenNotFiltered() {
+		final FilterableTreeItem<String> root = buildTree();
+		final FilterableTreeItem<String> child = (FilterableTreeItem<String>) root.getSourceChildren().get(0);
+
+		root.branchPredicateProperty().set(t -> !t.equals("hmm"));
+		root.predicateProperty().set(t -> t.startsWith("v"));
+
+		Assertions.assertEquals(0, root.getChildren().size());
+		Assertions.assertNull(child.predicateProperty().get());
+	}
+
+	@Test
+	void givenBranchPredicate_whenBranchAccepted_thenChildrenFiltered() {
+		final FilterableTreeItem<String> root = buildTree();
+
+		root.branchPredicateProperty().set(t -> true);
+		root.predicateProperty().set(t -> t.startsWith("v"));
+
+		Assertions.assertEquals(1, root.getChildren().size());
+		Assertions.assertEquals("hmm", root.getChildren().get(0).getValue());
+	}
+
+	@Test
+	void givenChildLoader_whenPredicateSet_thenChildrenLoadedAndFiltered() {
+		final FilterableTreeItem<String> root = new FilterableTreeItem<>();
+		final FilterableTreeItem.ChildLoader<String> childLoader = new FilterableTreeItem.ChildLoader<>() {
+			@Override
+			public List<FilterableTreeItem<String>> load() {
+				return List.of(new FilterableTreeItem<>("value"), new FilterableTreeItem<>("other"));
+			}
+
+			@Override
+			public Stream<String> streamValues() {
+				return Stream.of("value", "other");
+			}
+		};
+		final FilterableTreeItem<String> lazyChild = new FilterableTreeItem<>("lazy", childLoader);
+		root.getSourceChildren().add(lazyChild);
+
+		Assertions.assertEquals(3, root.streamSource().count());
+		Assertions.assertFalse(lazyChild.isLoaded());
+
+		root.predicateProperty().set(t -> t.startsWith("v"));
+
+		Assertions.assertTrue(lazyChild.isLoaded());
+		Assertions.assertEquals(1, lazyChild.getChildren().size());
+	}
+
+}
@@ -1,8 +1,11 @@
 package com.github.naton1.jvmexplorer.helper;
 
+import com.github.naton1.jvmexplorer.protocol.helper.ClassNameIndex;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 
 class FilterHelperTest {
@@ -65,4 +68,18 @@ class FilterHelperTest {
 		Assertions.assertFalse(predicate.test("123abc.def.ghi.Klm"));
 	}
 
-}
\ No newline at end of file
+	@Test
+	void givenIndex_whenFindMatches_thenPiecesAndRegexMatched() {
+		final FilterHelper filterHelper = new FilterHelper();
+		final ClassNameIndex<String> classNameIndex = new ClassNameIndex<>();
+		List.of("java.util.HashMap", "java.util.concurrent.ConcurrentHashMap", "java.lang.String")
+		    .forEach(name -> classNameIndex.add(name, name));
+
+		Assertions.assertEquals(Set.of("java.util.HashMap", "java.util.concurrent.ConcurrentHashMap"),
+		                        filterHelper.findMatches(classNameIndex, "hashmap"));
+		Assertions.assertEquals(Set.of("java.util.concurrent.ConcurrentHashMap", "java.lang.String"),
+		                        filterHelper.findMatches(classNameIndex, "CHM,String"));
+		Assertions.assertEquals(Set.of("java.lang.String"), filterHelper.findMatches(classNameIndex, "^java\\.lang"));
+	}
+
+}
@@ -20,7 +20,7 @@ class PacketResponseHandlerTest {
 		final AtomicInteger updateCount = new AtomicInteger(0);
 		final PacketResponseHandler<String> packetResponseHandler =
 				new PacketResponseHandler<>(() -> cleanupCalled.set(
-				true), updateCount::set);
+				true), updateCount::set, credits -> {});
 
 		final Thread packetProcessor = new Thread(() -> {
 			packetResponseHandler.onPacketReceived(createPackets(1000));
@@ -50,7 +50,7 @@ class PacketResponseHandlerTest {
 		final AtomicInteger updateCount = new AtomicInteger(0);
 		final PacketResponseHandler<String> packetResponseHandler =
 				new PacketResponseHandler<>(() -> cleanupCalled.set(
-				true), updateCount::set);
+				true), updateCount::set, credits -> {});
 
 		final Thread packetProcessor = new Thread(() -> {
 			packetResponseHandler.onPacketReceived(createPackets(1000));
@@ -76,7 +76,7 @@ class PacketResponseHandlerTest {
 		final AtomicInteger updateCount = new AtomicInteger(0);
 		final PacketResponseHandler<String> packetResponseHandler =
 				new PacketResponseHandler<>(() -> cleanupCalled.set(
-				true), updateCount::set);
+				true), updateCount::set, credits -> {});
 
 		final Thread packetProcessor = new Thread(() -> {
 			packetResponseHandler.onPacketReceived(createPackets(1000));
@@ -106,7 +106,7 @@ class PacketResponseHandlerTest {
 		final AtomicInteger updateCount = new AtomicInteger(0);
 		final PacketResponseHandler<String> packetResponseHandler =
 				new PacketResponseHandler<>(() -> cleanupCalled.set(
-				true), updateCount::set);
+				true), updateCount::set, credits -> {});
 
 		final Thread packetProcessor = new Thread(() -> {
 			packetResponseHandler.onPacketReceived(createPackets(1000));
@@ -127,4 +127,42 @@ class PacketResponseHandlerTest {
 		Assertions.assertFalse(cleanupCalled.get()); // cleanup not called on timeout
 	}
 
-}
\ No newline at end of file
+	@Test
+	void givenPacketsDrained_whenStreamPackets_thenCreditGrantedForEachPacket() {
+		final AtomicInteger grantedCredits = new AtomicInteger(0);
+		final PacketResponseHandler<String> packetResponseHandler = new PacketResponseHandler<>(() -> {},
+		                                                                                        count -> {},
+		                                                                                        grantedCredits::addAndGet);
+
+		for (int i = 0; i < 8; i++) {
+			packetResponseHandler.onPacketReceived(createPackets(10));
+		}
+		packetResponseHandler.receivedEnd(80);
+
+		final List<String> results = packetResponseHandler.getPacketStream(30, TimeUnit.SECONDS)
+		                                                  .collect(Collectors.toList());
+
+		Assertions.assertEquals(80, results.size());
+		Assertions.assertEquals(8, grantedCredits.get());
+	}
+
+	@Test
+	void givenCancelled_whenPacketsStillArrive_thenDroppedAndCleanupWaitsForEnd() {
+		final AtomicBoolean cleanupCalled = new AtomicBoolean(false);
+		final PacketResponseHandler<String> packetResponseHandler =
+				new PacketResponseHandler<>(() -> cleanupCalled.set(true), count -> {}, credits -> {});
+		packetResponseHandler.onPacketReceived(createPackets(10));
+
+		Assertions.assertTrue(packetResponseHandler.cancel());
+		packetResponseHandler.onPacketReceived(createPackets(10));
+		final List<String> results = packetResponseHandler.getPacketStream(30, TimeUnit.SECONDS)
+		                                                  .collect(Collectors.toList());
+
+		Assertions.assertTrue(results.isEmpty());
+		Assertions.assertFalse(cleanupCalled.get());
+		packetResponseHandler.receivedEnd(20);
+		Assertions.assertTrue(cleanupCalled.get());
+		Assertions.assertFalse(packetResponseHandler.cancel());
+	}
+
+}
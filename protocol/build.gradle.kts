@@ -16,6 +16,7 @@ repositories {
 
 dependencies {
     compileOnly("com.esotericsoftware:kryonet:2.22.0-RC1")
+    testImplementation("com.esotericsoftware:kryonet:2.22.0-RC1")
     testImplementation("junit:junit:4.13.2")
 }
 
@@ -0,0 +1,35 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Value
+public class ByteChunk {
+
+	private final int streamId;
+	private final int index;
+	// Null data on the last chunk means the sender failed to produce the payload
+	private final byte[] data;
+	private final boolean last;
+
+	public static List<ByteChunk> split(int streamId, byte[] bytes, int chunkSize) {
+		final List<ByteChunk> chunks = new ArrayList<>();
+		if (bytes == null) {
+			chunks.add(new ByteChunk(streamId, 0, null, true));
+			return chunks;
+		}
+		int index = 0;
+		int offset = 0;
+		do {
+			final int end = Math.min(offset + chunkSize, bytes.length);
+			final byte[] data = Arrays.copyOfRange(bytes, offset, end);
+			chunks.add(new ByteChunk(streamId, index++, data, end == bytes.length));
+			offset = end;
+		} while (offset < bytes.length);
+		return chunks;
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Chunks are received on the connection's update thread in the order they were sent, so reassembly only has to append
+public class ByteStreamAssembler {
+
+	// Streams nobody waits for, like the rest of a cancelled transfer, are dropped once they've been quiet this long
+	private static final long STALE_STREAM_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	private final Map<Integer, PendingStream> streams = new HashMap<>();
+
+	// Bumped whenever every stream is dropped, so anyone still waiting knows to stop
+	private int generation;
+	private long lastSweepMillis = System.currentTimeMillis();
+
+	public synchronized void onChunk(ByteChunk chunk) {
+		final long now = System.currentTimeMillis();
+		if (now - lastSweepMillis > STALE_STREAM_MILLIS) {
+			sweep(now);
+		}
+		PendingStream pendingStream = streams.get(chunk.getStreamId());
+		if (pendingStream == null) {
+			pendingStream = new PendingStream();
+			streams.put(chunk.getStreamId(), pendingStream);
+		}
+		pendingStream.lastChunkMillis = now;
+		if (pendingStream.abandoned) {
+			if (chunk.isLast()) {
+				streams.remove(chunk.getStreamId());
+			}
+			return;
+		}
+		if (pendingStream.complete) {
+			Log.warn("Received chunk for completed stream: " + chunk.getStreamId());
+			return;
+		}
+		if (chunk.getIndex() != pendingStream.chunkCount) {
+			Log.warn("Received chunk " + chunk.getIndex() + " out of order for stream " + chunk.getStreamId()
+			         + ", expected " + pendingStream.chunkCount);
+			pendingStream.failed = true;
+		}
+		else if (chunk.getData() != null) {
+			pendingStream.output.write(chunk.getData(), 0, chunk.getData().length);
+		}
+		else {
+			pendingStream.failed = true;
+		}
+		pendingStream.chunkCount++;
+		if (chunk.isLast()) {
+			pendingStream.complete = true;
+			notifyAll();
+		}
+	}
+
+	public synchronized byte[] await(int streamId, long timeout, TimeUnit timeUnit) {
+		final long endMs = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+		final int awaitedGeneration = generation;
+		try {
+			PendingStream pendingStream;
+			while ((pendingStream = streams.get(streamId)) == null || !pendingStream.complete) {
+				final long remainingMs = endMs - System.currentTimeMillis();
+				if (generation != awaitedGeneration) {
+					Log.debug("Connection closed while waiting for stream: " + streamId);
+					return null;
+				}
+				if (remainingMs <= 0) {
+					Log.warn("Timed out waiting for stream: " + streamId);
+					abandon(streamId);
+					return null;
+				}
+				wait(remainingMs);
+			}
+			streams.remove(streamId);
+			return pendingStream.failed ? null : pendingStream.output.toByteArray();
+		}
+		catch (InterruptedException e) {
+			Log.warn("Interrupted while waiting for stream: " + streamId);
+			Thread.currentThread().interrupt();
+			abandon(streamId);
+			return null;
+		}
+	}
+
+	// Anything still to come for the stream is ignored
+	public synchronized void discard(int streamId) {
+		final PendingStream pendingStream = streams.get(streamId);
+		if (pendingStream != null && !pendingStream.abandoned) {
+			abandon(streamId);
+		}
+	}
+
+	// Nothing else is coming on this connection, so nothing pending will ever complete
+	public synchronized void clear() {
+		streams.clear();
+		generation++;
+		notifyAll();
+	}
+
+	public synchronized int getPendingStreamCount() {
+		return streams.size();
+	}
+
+	private void abandon(int streamId) {
+		final PendingStream pendingStream = streams.get(streamId);
+		if (pendingStream != null && pendingStream.complete) {
+			streams.remove(streamId);
+			return;
+		}
+		// Keeps the id around so late chunks don't start a new stream, without holding on to what was received
+		final PendingStream abandoned = new PendingStream();
+		abandoned.abandoned = true;
+		abandoned.lastChunkMillis = System.currentTimeMillis();
+		streams.put(streamId, abandoned);
+	}
+
+	private void sweep(long now) {
+		lastSweepMillis = now;
+		final Iterator<Map.Entry<Integer, PendingStream>> iterator = streams.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<Integer, PendingStream> entry = iterator.next();
+			if (now - entry.getValue().lastChunkMillis > STALE_STREAM_MILLIS) {
+				Log.debug("Dropping stale stream: " + entry.getKey());
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class PendingStream {
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private int chunkCount;
+		private boolean complete;
+		private boolean failed;
+		private boolean abandoned;
+		private long lastChunkMillis;
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.minlog.Log;
+
+public class ByteStreams {
+
+	// Leave room in the write buffer for a couple of chunks plus whatever else is being sent on the connection
+	private static final int MAX_BUFFERED_BYTES = Protocol.WRITE_BUFFER_SIZE - 2 * Protocol.CHUNK_SIZE;
+
+	public static boolean send(Connection connection, int streamId, byte[] bytes) {
+		final WriteCapacityListener writeCapacityListener = new WriteCapacityListener();
+		connection.addListener(writeCapacityListener);
+		try {
+			for (ByteChunk chunk : ByteChunk.split(streamId, bytes, Protocol.CHUNK_SIZE)) {
+				if (!writeCapacityListener.await(connection)) {
+					Log.warn("Connection closed while sending stream: " + streamId);
+					return false;
+				}
+				connection.sendTCP(chunk);
+			}
+			return true;
+		}
+		finally {
+			connection.removeListener(writeCapacityListener);
+		}
+	}
+
+	// Kryonet calls idle once the write buffer has mostly drained, and keeps calling it while it stays that way
+	private static class WriteCapacityListener extends Listener {
+
+		@Override
+		public void idle(Connection connection) {
+			signal();
+		}
+
+		@Override
+		public void disconnected(Connection connection) {
+			signal();
+		}
+
+		synchronized boolean await(Connection connection) {
+			try {
+				while (connection.isConnected() && connection.getTcpWriteBufferSize() > MAX_BUFFERED_BYTES) {
+					// Idle only fires once the buffer is nearly empty, so this also picks up anything in between
+					wait(100);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return connection.isConnected();
+		}
+
+		private synchronized void signal() {
+			notifyAll();
+		}
+
+	}
+
+}
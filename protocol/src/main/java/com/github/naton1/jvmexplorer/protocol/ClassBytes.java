@@ -0,0 +1,14 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+@Value
+public class ClassBytes {
+
+	private final LoadedClass loadedClass;
+	// Null if the class wasn't found, or if it was too large to send inline
+	private final byte[] bytes;
+	// If non-zero, the bytes are sent separately as a ByteChunk stream with this id
+	private final int streamId;
+
+}
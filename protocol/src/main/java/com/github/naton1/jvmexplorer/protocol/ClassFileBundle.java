@@ -0,0 +1,46 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Packs a set of class files into one payload, so they can be sent as a single ByteChunk stream
+public class ClassFileBundle {
+
+	public static byte[] encode(Map<String, byte[]> classFiles) {
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+			dataOutputStream.writeInt(classFiles.size());
+			for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+				dataOutputStream.writeUTF(classFile.getKey());
+				dataOutputStream.writeInt(classFile.getValue().length);
+				dataOutputStream.write(classFile.getValue());
+			}
+		}
+		catch (IOException e) {
+			// Can't happen when writing to memory
+			throw new IllegalStateException(e);
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	// Class names are kept in the order they were encoded
+	public static Map<String, byte[]> decode(byte[] bundle) throws IOException {
+		try (final DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bundle))) {
+			final int count = dataInputStream.readInt();
+			final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				final String name = dataInputStream.readUTF();
+				final byte[] classFile = new byte[dataInputStream.readInt()];
+				dataInputStream.readFully(classFile);
+				classFiles.put(name, classFile);
+			}
+			return classFiles;
+		}
+	}
+
+}
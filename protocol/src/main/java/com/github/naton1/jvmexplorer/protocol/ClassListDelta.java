@@ -0,0 +1,12 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+@Value
+public class ClassListDelta {
+
+	private final LoadedClass[] loadedClasses;
+	// All classes defined by these class loaders have been unloaded
+	private final ClassLoaderDescriptor[] unloadedClassLoaders;
+
+}
@@ -9,7 +9,8 @@ import lombok.Value;
 @Builder
 public class ClassLoaderDescriptor {
 
-	private final String id;
+	// Assigned in order by the agent, starting from 1
+	private final int id;
 
 	private final String simpleClassName;
 	private final String description;
@@ -0,0 +1,176 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoNetException;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compresses large objects once the other side of a connection has agreed to it. Every object starts with a byte
+// saying how it was compressed, so either side can always read what the other sends. Which compression to send with
+// is agreed on when the agent registers.
+public class CompressingSerialization extends KryoSerialization {
+
+	// Small requests and responses don't compress well enough to be worth it
+	private static final int MIN_COMPRESSED_SIZE = 1024;
+	// Header of a compressed object: the compression byte and the uncompressed size
+	private static final int COMPRESSED_HEADER_SIZE = 5;
+	private static final int MAX_UNCOMPRESSED_SIZE = Math.max(Protocol.WRITE_BUFFER_SIZE, Protocol.OBJECT_BUFFER_SIZE);
+
+	// Deflate looks for matches in here before it has seen any data, which helps since even a single packet of class
+	// files or class names repeats these. The most common strings go last, as closer matches are cheaper.
+	private static final byte[] DICTIONARY = ("RuntimeVisibleAnnotations" + "LocalVariableTypeTable" + "Exceptions"
+	                                          + "BootstrapMethods" + "java/lang/invoke/LambdaMetafactory"
+	                                          + "metafactory" + "java/lang/invoke/MethodHandles$Lookup" + "Lookup"
+	                                          + "InnerClasses" + "EnclosingMethod" + "Signature" + "Deprecated"
+	                                          + "ConstantValue" + "java/lang/Integer" + "java/util/List"
+	                                          + "java/util/Map" + "Ljava/util/List;" + "Ljava/util/Map;"
+	                                          + "java/lang/StringBuilder" + "append" + "toString" + "valueOf"
+	                                          + "hashCode" + "equals" + "(Ljava/lang/Object;)Z" + "()Ljava/lang/String;"
+	                                          + "(Ljava/lang/String;)V" + "StackMapTable" + "SourceFile"
+	                                          + "LocalVariableTable" + "LineNumberTable" + "this" + "Code"
+	                                          + "java/lang/String" + "Ljava/lang/String;" + "java/lang/Object"
+	                                          + "Ljava/lang/Object;" + "<clinit>" + "<init>" + "()V" + "java.util."
+	                                          + "java.lang.")
+			.getBytes(Charset.forName("UTF-8"));
+
+	// A server shares one serialization between every connection, so compressing happens outside the lock. These are
+	// reused afterwards, so there's only ever about as many as there are threads sending or reading at once.
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+	private final Map<Connection, Integer> compressions =
+			Collections.synchronizedMap(new WeakHashMap<Connection, Integer>());
+
+	// Picks what to compress with, given the compressions the other side supports
+	public static int choose(int supportedCompressions) {
+		return (supportedCompressions & Protocol.COMPRESSION_DEFLATE) != 0
+		       ? Protocol.COMPRESSION_DEFLATE
+		       : Protocol.COMPRESSION_NONE;
+	}
+
+	// Objects sent over the connection from now on are compressed with this, if they're large enough
+	public void setCompression(Connection connection, int compression) {
+		compressions.put(connection, compression);
+	}
+
+	// Kryo can only be used by one thread at a time, but the buffer belongs to the connection, which is only written to
+	// by one thread at a time as well
+	@Override
+	public void write(Connection connection, ByteBuffer buffer, Object object) {
+		final int start = buffer.position();
+		buffer.put((byte) Protocol.COMPRESSION_NONE);
+		synchronized (this) {
+			super.write(connection, buffer, object);
+		}
+		final int end = buffer.position();
+		final int length = end - start - 1;
+		final Integer compression = compressions.get(connection);
+		if (compression == null || compression != Protocol.COMPRESSION_DEFLATE || length < MIN_COMPRESSED_SIZE) {
+			return;
+		}
+		final byte[] uncompressed = new byte[length];
+		buffer.position(start + 1);
+		buffer.get(uncompressed);
+		// Only worth keeping if it ends up smaller, so there's no need to go past the uncompressed size
+		final byte[] compressed = new byte[length - COMPRESSED_HEADER_SIZE];
+		final int compressedLength = deflate(uncompressed, compressed);
+		if (compressedLength < 0) {
+			buffer.position(end);
+			return;
+		}
+		buffer.position(start);
+		buffer.put((byte) Protocol.COMPRESSION_DEFLATE);
+		buffer.putInt(length);
+		buffer.put(compressed, 0, compressedLength);
+	}
+
+	@Override
+	public Object read(Connection connection, ByteBuffer buffer) {
+		final int compression = buffer.get();
+		if (compression == Protocol.COMPRESSION_NONE) {
+			synchronized (this) {
+				return super.read(connection, buffer);
+			}
+		}
+		if (compression != Protocol.COMPRESSION_DEFLATE) {
+			throw new KryoNetException("Unknown compression: " + compression);
+		}
+		final int length = buffer.getInt();
+		if (length < 0 || length > MAX_UNCOMPRESSED_SIZE) {
+			throw new KryoNetException("Invalid uncompressed size: " + length);
+		}
+		final byte[] compressed = new byte[buffer.remaining()];
+		buffer.get(compressed);
+		final byte[] uncompressed = inflate(compressed, length);
+		synchronized (this) {
+			return super.read(connection, ByteBuffer.wrap(uncompressed));
+		}
+	}
+
+	// The compressed length, or -1 if it didn't fit
+	private int deflate(byte[] uncompressed, byte[] compressed) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		try {
+			deflater.reset();
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(uncompressed);
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished() && compressedLength < compressed.length) {
+				compressedLength += deflater.deflate(compressed,
+				                                     compressedLength,
+				                                     compressed.length - compressedLength);
+			}
+			return deflater.finished() ? compressedLength : -1;
+		}
+		finally {
+			deflaters.add(deflater);
+		}
+	}
+
+	private byte[] inflate(byte[] compressed, int length) {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		try {
+			final byte[] uncompressed = new byte[length];
+			inflater.reset();
+			inflater.setInput(compressed);
+			int uncompressedLength = 0;
+			while (uncompressedLength < length) {
+				final int inflated = inflater.inflate(uncompressed, uncompressedLength, length - uncompressedLength);
+				if (inflated == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(DICTIONARY);
+					}
+					else if (inflater.finished() || inflater.needsInput()) {
+						throw new KryoNetException("Compressed object ended early");
+					}
+				}
+				uncompressedLength += inflated;
+			}
+			return uncompressed;
+		}
+		catch (DataFormatException e) {
+			throw new KryoNetException("Invalid compressed object", e);
+		}
+		finally {
+			inflaters.add(inflater);
+		}
+	}
+
+}
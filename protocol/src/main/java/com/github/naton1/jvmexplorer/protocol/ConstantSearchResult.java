@@ -0,0 +1,12 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+@Value
+public class ConstantSearchResult {
+
+	private final LoadedClass loadedClass;
+	// String literals, class names, or field and method references (as owner.name) that matched the search
+	private final String[] matches;
+
+}
@@ -3,10 +3,18 @@ package com.github.naton1.jvmexplorer.protocol;
 // Implemented in the server
 public interface JvmClient {
 
-	void register(String identifier);
+	// The supported compressions are Protocol.COMPRESSION_* flags. The explorer picks one and sets it on the connection
+	void register(String identifier, int supportedCompressions);
 
-	<T> void sendPacket(PacketType packetType, T[] packets);
+	// Packets belong to the stream the explorer asked for them with, so any number of streams can be sent at once
+	<T> void sendPacket(int streamId, T[] packets);
 
-	void endPacketTransfer(PacketType packetType, int packetsSent);
+	void endPacketTransfer(int streamId, int packetsSent);
+
+	// Answers JvmConnection.countLoadedClasses, or -1 if the classes couldn't be counted
+	void sendLoadedClassCount(int requestId, int count);
+
+	// Pushed periodically once the loaded classes have been requested
+	void sendClassListDelta(ClassListDelta classListDelta);
 
 }
@@ -9,11 +9,42 @@ public interface JvmConnection {
 
 	ClassFields getFields(ClassFieldPath classFieldPath);
 
-	byte[] getClassBytes(LoadedClass loadedClass);
+	// The object's own toString, cut off if it's too long. Field values never call it, since it can be slow.
+	String getFieldString(ClassFieldPath classFieldPath);
 
-	void requestPackets(PacketType packetType);
+	// The bytes are sent back as a ByteChunk stream with the given id
+	void streamClassBytes(int streamId, LoadedClass loadedClass);
 
-	PatchResult redefineClass(LoadedClass loadedClass, byte[] bytes);
+	// Packets are sent back through JvmClient.sendPacket with the given stream id, which the explorer picks
+	void requestPackets(int streamId, PacketType packetType);
+
+	// Only the classes matching the filter are sent back as LOADED_CLASSES packets, in name order
+	void requestLoadedClasses(int streamId, LoadedClassFilter filter);
+
+	// How many classes the filter matches. Counting means describing every class, so the count is sent back later
+	// through JvmClient.sendLoadedClassCount with the given id.
+	void countLoadedClasses(int requestId, LoadedClassFilter filter);
+
+	// The bytes are sent back as CLASS_BYTES packets, in no particular order
+	void requestClassBytes(int streamId, LoadedClass[] loadedClasses);
+
+	// Classes with a string literal, class, field or method reference containing the query (ignoring case) are sent
+	// back as SEARCH_RESULTS packets
+	void searchConstants(int streamId, String query);
+
+	// The new class file must already be sent as a ByteChunk stream with the given id
+	PatchResult redefineClass(LoadedClass loadedClass, int streamId);
+
+	// A patch is sent in batches. The class files in each batch must already be sent as a ClassFileBundle in a
+	// ByteChunk stream with the given id. They're only looked up and held on to until the patch is redefined, and
+	// staging a batch for a different patch drops whatever was staged before.
+	PatchResult stageClasses(int patchId, ClassLoaderDescriptor classLoaderDescriptor, int streamId);
+
+	// Either every class staged for the patch is redefined or none are
+	PatchResult redefineStagedClasses(int patchId);
+
+	// Large objects sent to the explorer from now on are compressed with this
+	void setCompression(int compression);
 
 	ExecutionResult executeCallable(String className, byte[] classFile, ClassLoaderDescriptor classLoaderDescriptor);
 
@@ -36,39 +36,72 @@ public class LoadedClass implements Comparable<LoadedClass> {
 	public enum MetaType {
 		INNER, INTERFACE, ABSTRACT, ENUM, ANNOTATION, EXCEPTION, ABSTRACT_EXCEPTION, ANONYMOUS;
 
+		// Not public in Modifier, but these are the class file access flags
+		private static final int ENUM_FLAG = 0x4000;
+		private static final int ANNOTATION_FLAG = 0x2000;
+
+		// Called for every loaded class, so this sticks to the access flags, the superclass and the name. Reflection
+		// like getEnclosingClass or isAnonymousClass resolves the inner class attributes, which can load other
+		// classes or fail to link.
 		public static MetaType getFor(final Class<?> c) {
 			try {
-				if (c.isAnonymousClass()) {
+				final int modifiers = c.getModifiers();
+				final String name = c.getName();
+				if (isAnonymousName(name)) {
 					return ANONYMOUS;
 				}
-				else if (c.isEnum()) {
+				else if ((modifiers & ENUM_FLAG) != 0 && c.getSuperclass() == Enum.class) {
 					return ENUM;
 				}
-				else if (c.isInterface()) {
+				else if (Modifier.isInterface(modifiers)) {
 					return INTERFACE;
 				}
-				else if (c.isAnnotation()) {
+				else if ((modifiers & ANNOTATION_FLAG) != 0) {
 					return ANNOTATION;
 				}
 				else if (Exception.class.isAssignableFrom(c)) {
-					if (Modifier.isAbstract(c.getModifiers())) {
+					if (Modifier.isAbstract(modifiers)) {
 						return ABSTRACT_EXCEPTION;
 					}
 					return EXCEPTION;
 				}
-				else if (Modifier.isAbstract(c.getModifiers())) {
+				else if (Modifier.isAbstract(modifiers)) {
 					return ABSTRACT;
 				}
-				else if (c.getEnclosingClass() != null) {
+				else if (isNestedName(name)) {
 					return INNER;
 				}
 			}
 			catch (Throwable t) {
-				// Likely failed to load a dependent class (such as inner class)
 				Log.debug("Failed to get MetaType for " + c + ": " + t.getClass() + " " + t.getMessage());
 			}
 			return null;
 		}
+
+		// Compilers name anonymous classes after their enclosing class, followed by $ and a number
+		private static boolean isAnonymousName(String name) {
+			final int index = name.lastIndexOf('$');
+			if (index == -1 || index == name.length() - 1 || isGeneratedName(name)) {
+				return false;
+			}
+			for (int i = index + 1; i < name.length(); i++) {
+				if (!Character.isDigit(name.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isNestedName(String name) {
+			final int index = name.lastIndexOf('$');
+			return index > name.lastIndexOf('.') + 1 && index < name.length() - 1 && !isGeneratedName(name);
+		}
+
+		// Proxies and lambdas, like Foo$$SpringCGLIB$$0 or Foo$$Lambda$12, aren't nested in the class they're named
+		// after, even though the name looks like it
+		private static boolean isGeneratedName(String name) {
+			return name.contains("$$");
+		}
 	}
 
 }
@@ -0,0 +1,169 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A batch of loaded classes, stored by column. Class loaders are sent once per transfer and then referred to by their
+// index, and each name only carries the part that differs from the name before it. Classes should be added in name
+// order so consecutive names share as much as possible.
+@Value
+public class LoadedClassBlock {
+
+	private static final LoadedClass.MetaType[] META_TYPES = LoadedClass.MetaType.values();
+
+	// Class loaders seen for the first time in this block, appended to the table in this order
+	private final int[] classLoaderIds;
+	private final String[] classLoaderNames;
+	private final String[] classLoaderDescriptions;
+	// Table index of each class loader's parent, or -1. Parents always come before their children.
+	private final int[] classLoaderParents;
+
+	private final int[] sharedPrefixLengths;
+	private final String[] nameSuffixes;
+	// Table index of each class's class loader, or -1 for the bootstrap class loader
+	private final int[] classLoaders;
+	// The meta type ordinal plus one, or 0 if there isn't one
+	private final byte[] metaTypes;
+
+	public int size() {
+		return nameSuffixes.length;
+	}
+
+	// Keeps the class loader table for a whole transfer, so it has to see every block in order
+	public static class Encoder {
+
+		private final Map<ClassLoaderDescriptor, Integer> classLoaderTable = new HashMap<>();
+
+		private final List<ClassLoaderDescriptor> newClassLoaders = new ArrayList<>();
+		private final List<Integer> newClassLoaderParents = new ArrayList<>();
+
+		private final List<Integer> sharedPrefixLengths = new ArrayList<>();
+		private final List<String> nameSuffixes = new ArrayList<>();
+		private final List<Integer> classLoaders = new ArrayList<>();
+		private final List<Byte> metaTypes = new ArrayList<>();
+
+		private String previousName = "";
+
+		public void add(String name, ClassLoaderDescriptor classLoaderDescriptor, LoadedClass.MetaType metaType) {
+			final int sharedPrefixLength = getSharedPrefixLength(previousName, name);
+			sharedPrefixLengths.add(sharedPrefixLength);
+			nameSuffixes.add(name.substring(sharedPrefixLength));
+			classLoaders.add(getClassLoaderIndex(classLoaderDescriptor));
+			metaTypes.add((byte) (metaType != null ? metaType.ordinal() + 1 : 0));
+			previousName = name;
+		}
+
+		public int size() {
+			return nameSuffixes.size();
+		}
+
+		// Returns the classes added since the last block
+		public LoadedClassBlock finish() {
+			final int classLoaderCount = newClassLoaders.size();
+			final int[] classLoaderIds = new int[classLoaderCount];
+			final String[] classLoaderNames = new String[classLoaderCount];
+			final String[] classLoaderDescriptions = new String[classLoaderCount];
+			final int[] classLoaderParents = new int[classLoaderCount];
+			for (int i = 0; i < classLoaderCount; i++) {
+				final ClassLoaderDescriptor classLoaderDescriptor = newClassLoaders.get(i);
+				classLoaderIds[i] = classLoaderDescriptor.getId();
+				classLoaderNames[i] = classLoaderDescriptor.getSimpleClassName();
+				classLoaderDescriptions[i] = classLoaderDescriptor.getDescription();
+				classLoaderParents[i] = newClassLoaderParents.get(i);
+			}
+			final int classCount = nameSuffixes.size();
+			final int[] sharedPrefixLengths = new int[classCount];
+			final int[] classLoaders = new int[classCount];
+			final byte[] metaTypes = new byte[classCount];
+			for (int i = 0; i < classCount; i++) {
+				sharedPrefixLengths[i] = this.sharedPrefixLengths.get(i);
+				classLoaders[i] = this.classLoaders.get(i);
+				metaTypes[i] = this.metaTypes.get(i);
+			}
+			final LoadedClassBlock block = new LoadedClassBlock(classLoaderIds,
+			                                                    classLoaderNames,
+			                                                    classLoaderDescriptions,
+			                                                    classLoaderParents,
+			                                                    sharedPrefixLengths,
+			                                                    nameSuffixes.toArray(new String[0]),
+			                                                    classLoaders,
+			                                                    metaTypes);
+			newClassLoaders.clear();
+			newClassLoaderParents.clear();
+			this.sharedPrefixLengths.clear();
+			nameSuffixes.clear();
+			this.classLoaders.clear();
+			this.metaTypes.clear();
+			// Each block has to be readable on its own
+			previousName = "";
+			return block;
+		}
+
+		private int getClassLoaderIndex(ClassLoaderDescriptor classLoaderDescriptor) {
+			if (classLoaderDescriptor == null) {
+				return -1;
+			}
+			final Integer index = classLoaderTable.get(classLoaderDescriptor);
+			if (index != null) {
+				return index;
+			}
+			final int parentIndex = getClassLoaderIndex(classLoaderDescriptor.getParent());
+			final int newIndex = classLoaderTable.size();
+			classLoaderTable.put(classLoaderDescriptor, newIndex);
+			newClassLoaders.add(classLoaderDescriptor);
+			newClassLoaderParents.add(parentIndex);
+			return newIndex;
+		}
+
+		private static int getSharedPrefixLength(String first, String second) {
+			final int maxLength = Math.min(first.length(), second.length());
+			int length = 0;
+			while (length < maxLength && first.charAt(length) == second.charAt(length)) {
+				length++;
+			}
+			return length;
+		}
+
+	}
+
+	// Every class from the same class loader shares one descriptor instance
+	public static class Decoder {
+
+		private final List<ClassLoaderDescriptor> classLoaderTable = new ArrayList<>();
+
+		public List<LoadedClass> decode(LoadedClassBlock block) {
+			for (int i = 0; i < block.getClassLoaderIds().length; i++) {
+				final int parentIndex = block.getClassLoaderParents()[i];
+				classLoaderTable.add(ClassLoaderDescriptor.builder()
+				                                          .id(block.getClassLoaderIds()[i])
+				                                          .simpleClassName(block.getClassLoaderNames()[i])
+				                                          .description(block.getClassLoaderDescriptions()[i])
+				                                          .parent(parentIndex != -1
+				                                                  ? classLoaderTable.get(parentIndex)
+				                                                  : null)
+				                                          .build());
+			}
+			final List<LoadedClass> loadedClasses = new ArrayList<>(block.size());
+			String previousName = "";
+			for (int i = 0; i < block.size(); i++) {
+				final String name = previousName.substring(0, block.getSharedPrefixLengths()[i])
+				                    + block.getNameSuffixes()[i];
+				final int classLoaderIndex = block.getClassLoaders()[i];
+				final ClassLoaderDescriptor classLoaderDescriptor =
+						classLoaderIndex != -1 ? classLoaderTable.get(classLoaderIndex) : null;
+				final int metaType = block.getMetaTypes()[i];
+				loadedClasses.add(new LoadedClass(name,
+				                                  classLoaderDescriptor,
+				                                  metaType != 0 ? META_TYPES[metaType - 1] : null));
+				previousName = name;
+			}
+			return loadedClasses;
+		}
+
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.regex.Pattern;
+
+// Which loaded classes to send, evaluated in the agent so classes nobody asked for never leave the JVM. Anything left
+// unset matches every class.
+@Value
+@Builder
+public class LoadedClassFilter {
+
+	public static final LoadedClassFilter ALL = LoadedClassFilter.builder().build();
+
+	// Dotted, like "com.example." or "com.example.Main"
+	private final String[] packagePrefixes;
+	// Only classes defined by this class loader, or 0 for any
+	private final int classLoaderId;
+	// Has to match the whole class name
+	private final String nameRegex;
+	private final LoadedClass.MetaType[] metaTypes;
+	private final boolean excludeBootstrap;
+
+	public Matcher matcher() {
+		return new Matcher(this);
+	}
+
+	// The checks are split up so the agent can turn a class away by its name before describing it
+	public static class Matcher {
+
+		private final LoadedClassFilter filter;
+		private final Pattern namePattern;
+
+		private Matcher(LoadedClassFilter filter) {
+			this.filter = filter;
+			this.namePattern = filter.nameRegex != null ? Pattern.compile(filter.nameRegex) : null;
+		}
+
+		public boolean matches(LoadedClass loadedClass) {
+			return matchesName(loadedClass.getName())
+			       && matchesClassLoader(loadedClass.getClassLoaderDescriptor())
+			       && matchesMetaType(loadedClass.getMetaType());
+		}
+
+		public boolean matchesName(String name) {
+			if (filter.packagePrefixes != null && filter.packagePrefixes.length > 0) {
+				boolean prefixed = false;
+				for (String packagePrefix : filter.packagePrefixes) {
+					if (name.startsWith(packagePrefix)) {
+						prefixed = true;
+						break;
+					}
+				}
+				if (!prefixed) {
+					return false;
+				}
+			}
+			return namePattern == null || namePattern.matcher(name).matches();
+		}
+
+		// Null for the bootstrap class loader
+		public boolean matchesClassLoader(ClassLoaderDescriptor classLoaderDescriptor) {
+			if (classLoaderDescriptor == null) {
+				return !filter.excludeBootstrap && filter.classLoaderId == 0;
+			}
+			return filter.classLoaderId == 0 || filter.classLoaderId == classLoaderDescriptor.getId();
+		}
+
+		public boolean matchesMetaType(LoadedClass.MetaType metaType) {
+			if (filter.metaTypes == null) {
+				return true;
+			}
+			for (LoadedClass.MetaType allowed : filter.metaTypes) {
+				if (allowed == metaType) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+}
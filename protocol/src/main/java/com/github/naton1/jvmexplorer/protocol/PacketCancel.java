@@ -0,0 +1,11 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+// Tells the agent to stop sending a packet stream, once the explorer no longer wants the rest of the stream
+@Value
+public class PacketCancel {
+
+	private final int streamId;
+
+}
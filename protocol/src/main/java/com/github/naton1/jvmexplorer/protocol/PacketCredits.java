@@ -0,0 +1,12 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import lombok.Value;
+
+// Sent as a plain message rather than through RMI so that it's handled on the update thread right away
+@Value
+public class PacketCredits {
+
+	private final int streamId;
+	private final int credits;
+
+}
@@ -3,5 +3,7 @@ package com.github.naton1.jvmexplorer.protocol;
 public enum PacketType {
 
 	LOADED_CLASSES,
+	CLASS_BYTES,
+	SEARCH_RESULTS,
 
 }
@@ -8,14 +8,24 @@ import java.lang.reflect.Array;
 
 public class Protocol {
 
-	// Kryonet requires specifying the max object size that we'll send up front.
-	// This is unfortunate since we have no idea. It could definitely fail to send a class if it's extremely large.
-	// A few solutions:
-	// 1) Change everything to byte arrays and send them in chunks, then reprocess here
-	// 2) Completely remove kryonet and roll a custom client/server
-	// 3) Replace with java's RMI. Hesitant to do it because it relies on RMI being in the target JVM.
-	public static final int WRITE_BUFFER_SIZE = 1024 * 1024;
-	public static final int OBJECT_BUFFER_SIZE = 1024 * 1024;
+	// Kryonet requires specifying the max object size that we'll send up front. Anything that can get arbitrarily large
+	// (class files) is sent as a stream of ByteChunks instead, so these only need to fit a handful of chunks and the
+	// regular RMI traffic.
+	public static final int WRITE_BUFFER_SIZE = 256 * 1024;
+	public static final int OBJECT_BUFFER_SIZE = 256 * 1024;
+
+	public static final int CHUNK_SIZE = 32 * 1024;
+
+	// Class content larger than this is streamed separately instead of being sent inline
+	public static final int MAX_INLINE_CLASS_BYTES = 64 * 1024;
+
+	// How many packets can be in flight before the explorer has to grant more credits
+	public static final int INITIAL_PACKET_CREDITS = 16;
+
+	// Compressions are bit flags, so the agent can offer several when it registers
+	public static final int COMPRESSION_NONE = 0;
+	public static final int COMPRESSION_DEFLATE = 1;
+	public static final int SUPPORTED_COMPRESSIONS = COMPRESSION_DEFLATE;
 
 	public static final int RMI_JVM_CLIENT = 1;
 	public static final int RMI_JVM_CONNECTION = 2;
@@ -43,23 +53,44 @@ public class Protocol {
 		kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
 
 		// Setup core classes
-		kryo.register(LoadedClass.class);
+		kryo.register(ByteChunk.class, ProtocolSerializers.BYTE_CHUNK);
+		kryo.register(ClassBytes.class, ProtocolSerializers.CLASS_BYTES);
+		kryo.register(ClassBytes[].class,
+		              ProtocolSerializers.arrayOf(ClassBytes.class, ProtocolSerializers.CLASS_BYTES));
+		kryo.register(LoadedClass.class, ProtocolSerializers.LOADED_CLASS);
 		kryo.register(LoadedClass.MetaType.class);
-		kryo.register(LoadedClass[].class);
-		kryo.register(ClassContent.class);
-		kryo.register(ClassField.class);
-		kryo.register(ClassField[].class);
-		kryo.register(ClassFieldKey.class);
-		kryo.register(ClassFieldKey[].class);
-		kryo.register(ClassFieldPath.class);
-		kryo.register(ClassFields.class);
-		kryo.register(ClassLoaderDescriptor.class);
-		kryo.register(ExecutionResult.class);
+		kryo.register(LoadedClass[].class,
+		              ProtocolSerializers.arrayOf(LoadedClass.class, ProtocolSerializers.LOADED_CLASS));
+		kryo.register(LoadedClassBlock.class, ProtocolSerializers.LOADED_CLASS_BLOCK);
+		kryo.register(LoadedClassBlock[].class,
+		              ProtocolSerializers.arrayOf(LoadedClassBlock.class, ProtocolSerializers.LOADED_CLASS_BLOCK));
+		kryo.register(LoadedClassFilter.class, ProtocolSerializers.LOADED_CLASS_FILTER);
+		kryo.register(ClassContent.class, ProtocolSerializers.CLASS_CONTENT);
+		kryo.register(ClassField.class, ProtocolSerializers.CLASS_FIELD);
+		kryo.register(ClassField[].class,
+		              ProtocolSerializers.arrayOf(ClassField.class, ProtocolSerializers.CLASS_FIELD));
+		kryo.register(ClassFieldKey.class, ProtocolSerializers.CLASS_FIELD_KEY);
+		kryo.register(ClassFieldKey[].class,
+		              ProtocolSerializers.arrayOf(ClassFieldKey.class, ProtocolSerializers.CLASS_FIELD_KEY));
+		kryo.register(ClassFieldPath.class, ProtocolSerializers.CLASS_FIELD_PATH);
+		kryo.register(ClassFields.class, ProtocolSerializers.CLASS_FIELDS);
+		kryo.register(ClassListDelta.class, ProtocolSerializers.CLASS_LIST_DELTA);
+		kryo.register(ClassLoaderDescriptor.class, ProtocolSerializers.CLASS_LOADER_DESCRIPTOR);
+		kryo.register(ClassLoaderDescriptor[].class,
+		              ProtocolSerializers.arrayOf(ClassLoaderDescriptor.class,
+		                                          ProtocolSerializers.CLASS_LOADER_DESCRIPTOR));
+		kryo.register(ConstantSearchResult.class, ProtocolSerializers.CONSTANT_SEARCH_RESULT);
+		kryo.register(ConstantSearchResult[].class,
+		              ProtocolSerializers.arrayOf(ConstantSearchResult.class,
+		                                          ProtocolSerializers.CONSTANT_SEARCH_RESULT));
+		kryo.register(ExecutionResult.class, ProtocolSerializers.EXECUTION_RESULT);
 		kryo.register(JvmClient.class);
 		kryo.register(JvmConnection.class);
+		kryo.register(PacketCancel.class, ProtocolSerializers.PACKET_CANCEL);
+		kryo.register(PacketCredits.class, ProtocolSerializers.PACKET_CREDITS);
 		kryo.register(PacketType.class);
-		kryo.register(PatchResult.class);
-		kryo.register(WrappedObject.class);
+		kryo.register(PatchResult.class, ProtocolSerializers.PATCH_RESULT);
+		kryo.register(WrappedObject.class, ProtocolSerializers.WRAPPED_OBJECT);
 
 		// Setup all primitives for field reading/writing
 		for (Class<?> clazz : DEFAULTS) {
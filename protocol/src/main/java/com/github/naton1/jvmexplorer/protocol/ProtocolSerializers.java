@@ -0,0 +1,564 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+import com.esotericsoftware.kryonet.Connection;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Hand written serializers for the protocol types, so nothing goes through reflection. Types nested in each other are
+// written inline without class tags or reference ids, and sizes and ids are varints. Strings that repeat a lot, like
+// class names, go through a dictionary kept for the whole connection, so each is usually only sent once. Class
+// loaders are interned for the length of a message.
+class ProtocolSerializers {
+
+	private static final LoadedClass.MetaType[] META_TYPES = LoadedClass.MetaType.values();
+
+	// Kryonet puts the connection being read from or written to in the context
+	private static final String CONNECTION = "connection";
+	private static final Object DICTIONARIES = new Object();
+	// Enough for the class and field names of a typical session, while keeping each table to a few megabytes at most
+	private static final int DICTIONARY_CAPACITY = 32 * 1024;
+
+	// Kryo clears the graph context after every message, which is exactly how long these tables should live
+	private static final Object WRITE_CLASS_LOADERS = new Object();
+	private static final Object READ_CLASS_LOADERS = new Object();
+
+	// Class loaders are written as 0 for null, 1 for a new one that follows, or their table index plus 2
+	private static final int NULL_ID = 0;
+	private static final int NEW_ID = 1;
+	private static final int FIRST_TABLE_ID = 2;
+
+	static final ValueSerializer<ClassLoaderDescriptor> CLASS_LOADER_DESCRIPTOR =
+			new ValueSerializer<ClassLoaderDescriptor>() {
+				@Override
+				public void write(Kryo kryo, Output output, ClassLoaderDescriptor classLoaderDescriptor) {
+					writeClassLoader(kryo, output, classLoaderDescriptor);
+				}
+
+				@Override
+				public ClassLoaderDescriptor read(Kryo kryo, Input input, Class<ClassLoaderDescriptor> type) {
+					return readClassLoader(kryo, input);
+				}
+
+				// Null is already handled by the class loader table
+				@Override
+				void writeNullable(Kryo kryo, Output output, ClassLoaderDescriptor value) {
+					writeClassLoader(kryo, output, value);
+				}
+
+				@Override
+				ClassLoaderDescriptor readNullable(Kryo kryo, Input input) {
+					return readClassLoader(kryo, input);
+				}
+			};
+
+	static final ValueSerializer<LoadedClass> LOADED_CLASS = new ValueSerializer<LoadedClass>() {
+		@Override
+		public void write(Kryo kryo, Output output, LoadedClass loadedClass) {
+			writeInterned(kryo, output, loadedClass.getName());
+			writeClassLoader(kryo, output, loadedClass.getClassLoaderDescriptor());
+			output.writeByte(loadedClass.getMetaType() != null ? loadedClass.getMetaType().ordinal() + 1 : 0);
+		}
+
+		@Override
+		public LoadedClass read(Kryo kryo, Input input, Class<LoadedClass> type) {
+			final String name = readInterned(kryo, input);
+			final ClassLoaderDescriptor classLoaderDescriptor = readClassLoader(kryo, input);
+			final int metaType = input.readByte();
+			return new LoadedClass(name, classLoaderDescriptor, metaType != 0 ? META_TYPES[metaType - 1] : null);
+		}
+	};
+
+	static final ValueSerializer<LoadedClassBlock> LOADED_CLASS_BLOCK = new ValueSerializer<LoadedClassBlock>() {
+		@Override
+		public void write(Kryo kryo, Output output, LoadedClassBlock block) {
+			writeIndexes(output, block.getClassLoaderIds());
+			writeStrings(kryo, output, block.getClassLoaderNames(), true);
+			writeStrings(kryo, output, block.getClassLoaderDescriptions(), false);
+			writeIndexes(output, block.getClassLoaderParents());
+			writeIndexes(output, block.getSharedPrefixLengths());
+			writeStrings(kryo, output, block.getNameSuffixes(), false);
+			writeIndexes(output, block.getClassLoaders());
+			writeBytes(output, block.getMetaTypes());
+		}
+
+		@Override
+		public LoadedClassBlock read(Kryo kryo, Input input, Class<LoadedClassBlock> type) {
+			return new LoadedClassBlock(readIndexes(input),
+			                            readStrings(kryo, input, true),
+			                            readStrings(kryo, input, false),
+			                            readIndexes(input),
+			                            readIndexes(input),
+			                            readStrings(kryo, input, false),
+			                            readIndexes(input),
+			                            readBytes(input));
+		}
+	};
+
+	static final ValueSerializer<LoadedClassFilter> LOADED_CLASS_FILTER = new ValueSerializer<LoadedClassFilter>() {
+		@Override
+		public void write(Kryo kryo, Output output, LoadedClassFilter filter) {
+			writeStrings(kryo, output, filter.getPackagePrefixes(), false);
+			output.writeVarInt(filter.getClassLoaderId(), true);
+			output.writeString(filter.getNameRegex());
+			writeMetaTypes(output, filter.getMetaTypes());
+			output.writeBoolean(filter.isExcludeBootstrap());
+		}
+
+		@Override
+		public LoadedClassFilter read(Kryo kryo, Input input, Class<LoadedClassFilter> type) {
+			return LoadedClassFilter.builder()
+			                        .packagePrefixes(readStrings(kryo, input, false))
+			                        .classLoaderId(input.readVarInt(true))
+			                        .nameRegex(input.readString())
+			                        .metaTypes(readMetaTypes(input))
+			                        .excludeBootstrap(input.readBoolean())
+			                        .build();
+		}
+	};
+
+	static final ValueSerializer<ClassFieldKey> CLASS_FIELD_KEY = new ValueSerializer<ClassFieldKey>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassFieldKey classFieldKey) {
+			writeInterned(kryo, output, classFieldKey.getClassName());
+			writeInterned(kryo, output, classFieldKey.getFieldName());
+			writeInterned(kryo, output, classFieldKey.getTypeName());
+			output.writeVarInt(classFieldKey.getModifiers(), true);
+		}
+
+		@Override
+		public ClassFieldKey read(Kryo kryo, Input input, Class<ClassFieldKey> type) {
+			return new ClassFieldKey(readInterned(kryo, input),
+			                         readInterned(kryo, input),
+			                         readInterned(kryo, input),
+			                         input.readVarInt(true));
+		}
+	};
+
+	static final ValueSerializer<ClassField> CLASS_FIELD = new ValueSerializer<ClassField>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassField classField) {
+			CLASS_FIELD_KEY.writeNullable(kryo, output, classField.getClassFieldKey());
+			// Values can be anything, so these are the only objects that need their class written
+			kryo.writeClassAndObject(output, classField.getValue());
+		}
+
+		@Override
+		public ClassField read(Kryo kryo, Input input, Class<ClassField> type) {
+			return new ClassField(CLASS_FIELD_KEY.readNullable(kryo, input), kryo.readClassAndObject(input));
+		}
+	};
+
+	static final ValueSerializer<ClassFields> CLASS_FIELDS = new ValueSerializer<ClassFields>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassFields classFields) {
+			writeArray(kryo, output, classFields.getFields(), CLASS_FIELD);
+		}
+
+		@Override
+		public ClassFields read(Kryo kryo, Input input, Class<ClassFields> type) {
+			return new ClassFields(readArray(kryo, input, ClassField.class, CLASS_FIELD));
+		}
+	};
+
+	static final ValueSerializer<ClassFieldPath> CLASS_FIELD_PATH = new ValueSerializer<ClassFieldPath>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassFieldPath classFieldPath) {
+			writeArray(kryo, output, classFieldPath.getClassFieldKeys(), CLASS_FIELD_KEY);
+			writeClassLoader(kryo, output, classFieldPath.getClassLoaderDescriptor());
+		}
+
+		@Override
+		public ClassFieldPath read(Kryo kryo, Input input, Class<ClassFieldPath> type) {
+			return new ClassFieldPath(readArray(kryo, input, ClassFieldKey.class, CLASS_FIELD_KEY),
+			                          readClassLoader(kryo, input));
+		}
+	};
+
+	static final ValueSerializer<ClassBytes> CLASS_BYTES = new ValueSerializer<ClassBytes>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassBytes classBytes) {
+			LOADED_CLASS.writeNullable(kryo, output, classBytes.getLoadedClass());
+			writeBytes(output, classBytes.getBytes());
+			// Stream ids the agent picks are negative, so they're zigzag encoded to stay short
+			output.writeVarInt(classBytes.getStreamId(), false);
+		}
+
+		@Override
+		public ClassBytes read(Kryo kryo, Input input, Class<ClassBytes> type) {
+			return new ClassBytes(LOADED_CLASS.readNullable(kryo, input), readBytes(input), input.readVarInt(false));
+		}
+	};
+
+	static final ValueSerializer<ClassContent> CLASS_CONTENT = new ValueSerializer<ClassContent>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassContent classContent) {
+			LOADED_CLASS.writeNullable(kryo, output, classContent.getLoadedClass());
+			writeBytes(output, classContent.getClassContent());
+			CLASS_FIELDS.writeNullable(kryo, output, classContent.getClassFields());
+		}
+
+		@Override
+		public ClassContent read(Kryo kryo, Input input, Class<ClassContent> type) {
+			return new ClassContent(LOADED_CLASS.readNullable(kryo, input),
+			                        readBytes(input),
+			                        CLASS_FIELDS.readNullable(kryo, input));
+		}
+	};
+
+	static final ValueSerializer<ClassListDelta> CLASS_LIST_DELTA = new ValueSerializer<ClassListDelta>() {
+		@Override
+		public void write(Kryo kryo, Output output, ClassListDelta classListDelta) {
+			writeArray(kryo, output, classListDelta.getLoadedClasses(), LOADED_CLASS);
+			writeArray(kryo, output, classListDelta.getUnloadedClassLoaders(), CLASS_LOADER_DESCRIPTOR);
+		}
+
+		@Override
+		public ClassListDelta read(Kryo kryo, Input input, Class<ClassListDelta> type) {
+			return new ClassListDelta(readArray(kryo, input, LoadedClass.class, LOADED_CLASS),
+			                          readArray(kryo, input, ClassLoaderDescriptor.class, CLASS_LOADER_DESCRIPTOR));
+		}
+	};
+
+	static final ValueSerializer<ConstantSearchResult> CONSTANT_SEARCH_RESULT =
+			new ValueSerializer<ConstantSearchResult>() {
+				@Override
+				public void write(Kryo kryo, Output output, ConstantSearchResult constantSearchResult) {
+					LOADED_CLASS.writeNullable(kryo, output, constantSearchResult.getLoadedClass());
+					writeStrings(kryo, output, constantSearchResult.getMatches(), false);
+				}
+
+				@Override
+				public ConstantSearchResult read(Kryo kryo, Input input, Class<ConstantSearchResult> type) {
+					return new ConstantSearchResult(LOADED_CLASS.readNullable(kryo, input),
+					                                readStrings(kryo, input, false));
+				}
+			};
+
+	static final ValueSerializer<ExecutionResult> EXECUTION_RESULT = new ValueSerializer<ExecutionResult>() {
+		@Override
+		public void write(Kryo kryo, Output output, ExecutionResult executionResult) {
+			output.writeBoolean(executionResult.isSuccess());
+			output.writeString(executionResult.getMessage());
+		}
+
+		@Override
+		public ExecutionResult read(Kryo kryo, Input input, Class<ExecutionResult> type) {
+			return ExecutionResult.builder().success(input.readBoolean()).message(input.readString()).build();
+		}
+	};
+
+	static final ValueSerializer<PatchResult> PATCH_RESULT = new ValueSerializer<PatchResult>() {
+		@Override
+		public void write(Kryo kryo, Output output, PatchResult patchResult) {
+			output.writeBoolean(patchResult.isSuccess());
+			output.writeString(patchResult.getMessage());
+		}
+
+		@Override
+		public PatchResult read(Kryo kryo, Input input, Class<PatchResult> type) {
+			return PatchResult.builder().success(input.readBoolean()).message(input.readString()).build();
+		}
+	};
+
+	static final ValueSerializer<WrappedObject> WRAPPED_OBJECT = new ValueSerializer<WrappedObject>() {
+		@Override
+		public void write(Kryo kryo, Output output, WrappedObject wrappedObject) {
+			output.writeString(wrappedObject.getObjectDescription());
+		}
+
+		@Override
+		public WrappedObject read(Kryo kryo, Input input, Class<WrappedObject> type) {
+			return new WrappedObject(input.readString());
+		}
+	};
+
+	static final ValueSerializer<ByteChunk> BYTE_CHUNK = new ValueSerializer<ByteChunk>() {
+		@Override
+		public void write(Kryo kryo, Output output, ByteChunk byteChunk) {
+			output.writeVarInt(byteChunk.getStreamId(), false);
+			output.writeVarInt(byteChunk.getIndex(), true);
+			writeBytes(output, byteChunk.getData());
+			output.writeBoolean(byteChunk.isLast());
+		}
+
+		@Override
+		public ByteChunk read(Kryo kryo, Input input, Class<ByteChunk> type) {
+			return new ByteChunk(input.readVarInt(false), input.readVarInt(true), readBytes(input), input.readBoolean());
+		}
+	};
+
+	static final ValueSerializer<PacketCredits> PACKET_CREDITS = new ValueSerializer<PacketCredits>() {
+		@Override
+		public void write(Kryo kryo, Output output, PacketCredits packetCredits) {
+			output.writeVarInt(packetCredits.getStreamId(), false);
+			output.writeVarInt(packetCredits.getCredits(), true);
+		}
+
+		@Override
+		public PacketCredits read(Kryo kryo, Input input, Class<PacketCredits> type) {
+			return new PacketCredits(input.readVarInt(false), input.readVarInt(true));
+		}
+	};
+
+	static final ValueSerializer<PacketCancel> PACKET_CANCEL = new ValueSerializer<PacketCancel>() {
+		@Override
+		public void write(Kryo kryo, Output output, PacketCancel packetCancel) {
+			output.writeVarInt(packetCancel.getStreamId(), false);
+		}
+
+		@Override
+		public PacketCancel read(Kryo kryo, Input input, Class<PacketCancel> type) {
+			return new PacketCancel(input.readVarInt(false));
+		}
+	};
+
+	private ProtocolSerializers() {
+	}
+
+	static <T> Serializer<T[]> arrayOf(final Class<T> elementType, final ValueSerializer<T> elementSerializer) {
+		return new Serializer<T[]>(false, true) {
+			@Override
+			public void write(Kryo kryo, Output output, T[] array) {
+				writeArray(kryo, output, array, elementSerializer);
+			}
+
+			@Override
+			public T[] read(Kryo kryo, Input input, Class<T[]> type) {
+				return readArray(kryo, input, elementType, elementSerializer);
+			}
+		};
+	}
+
+	private static void writeInterned(Kryo kryo, Output output, String value) {
+		getDictionary(kryo).write(output, value);
+	}
+
+	private static String readInterned(Kryo kryo, Input input) {
+		return getDictionary(kryo).read(input);
+	}
+
+	// Parents are written before their children are added to the table, so both sides number them the same way
+	private static void writeClassLoader(Kryo kryo, Output output, ClassLoaderDescriptor classLoaderDescriptor) {
+		if (classLoaderDescriptor == null) {
+			output.writeVarInt(NULL_ID, true);
+			return;
+		}
+		final Map<ClassLoaderDescriptor, Integer> table = getWriteTable(kryo, WRITE_CLASS_LOADERS);
+		final Integer index = table.get(classLoaderDescriptor);
+		if (index != null) {
+			output.writeVarInt(index + FIRST_TABLE_ID, true);
+			return;
+		}
+		output.writeVarInt(NEW_ID, true);
+		output.writeVarInt(classLoaderDescriptor.getId(), true);
+		writeInterned(kryo, output, classLoaderDescriptor.getSimpleClassName());
+		output.writeString(classLoaderDescriptor.getDescription());
+		writeClassLoader(kryo, output, classLoaderDescriptor.getParent());
+		table.put(classLoaderDescriptor, table.size());
+	}
+
+	private static ClassLoaderDescriptor readClassLoader(Kryo kryo, Input input) {
+		final int id = input.readVarInt(true);
+		if (id == NULL_ID) {
+			return null;
+		}
+		final List<ClassLoaderDescriptor> table = getReadTable(kryo, READ_CLASS_LOADERS);
+		if (id != NEW_ID) {
+			return table.get(id - FIRST_TABLE_ID);
+		}
+		final ClassLoaderDescriptor classLoaderDescriptor = ClassLoaderDescriptor.builder()
+		                                                                         .id(input.readVarInt(true))
+		                                                                         .simpleClassName(readInterned(kryo,
+		                                                                                                       input))
+		                                                                         .description(input.readString())
+		                                                                         .parent(readClassLoader(kryo, input))
+		                                                                         .build();
+		table.add(classLoaderDescriptor);
+		return classLoaderDescriptor;
+	}
+
+	// Arrays are written as their length plus one, or 0 for null
+	private static <T> void writeArray(Kryo kryo, Output output, T[] array, ValueSerializer<T> elementSerializer) {
+		if (array == null) {
+			output.writeVarInt(0, true);
+			return;
+		}
+		output.writeVarInt(array.length + 1, true);
+		for (T element : array) {
+			elementSerializer.writeNullable(kryo, output, element);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] readArray(Kryo kryo, Input input, Class<T> elementType,
+	                                 ValueSerializer<T> elementSerializer) {
+		final int length = input.readVarInt(true) - 1;
+		if (length == -1) {
+			return null;
+		}
+		final T[] array = (T[]) Array.newInstance(elementType, length);
+		for (int i = 0; i < length; i++) {
+			array[i] = elementSerializer.readNullable(kryo, input);
+		}
+		return array;
+	}
+
+	// Strings that are unlikely to be sent again shouldn't push the useful ones out of the dictionary
+	private static void writeStrings(Kryo kryo, Output output, String[] strings, boolean interned) {
+		if (strings == null) {
+			output.writeVarInt(0, true);
+			return;
+		}
+		output.writeVarInt(strings.length + 1, true);
+		for (String string : strings) {
+			if (interned) {
+				writeInterned(kryo, output, string);
+			}
+			else {
+				output.writeString(string);
+			}
+		}
+	}
+
+	private static String[] readStrings(Kryo kryo, Input input, boolean interned) {
+		final int length = input.readVarInt(true) - 1;
+		if (length == -1) {
+			return null;
+		}
+		final String[] strings = new String[length];
+		for (int i = 0; i < length; i++) {
+			strings[i] = interned ? readInterned(kryo, input) : input.readString();
+		}
+		return strings;
+	}
+
+	// Indexes and ids are -1 or more, so shifting them up by one keeps them to a single byte when small
+	private static void writeIndexes(Output output, int[] indexes) {
+		output.writeVarInt(indexes.length, true);
+		for (int index : indexes) {
+			output.writeVarInt(index + 1, true);
+		}
+	}
+
+	private static int[] readIndexes(Input input) {
+		final int[] indexes = new int[input.readVarInt(true)];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = input.readVarInt(true) - 1;
+		}
+		return indexes;
+	}
+
+	private static void writeBytes(Output output, byte[] bytes) {
+		if (bytes == null) {
+			output.writeVarInt(0, true);
+			return;
+		}
+		output.writeVarInt(bytes.length + 1, true);
+		output.writeBytes(bytes);
+	}
+
+	private static byte[] readBytes(Input input) {
+		final int length = input.readVarInt(true) - 1;
+		return length != -1 ? input.readBytes(length) : null;
+	}
+
+	private static void writeMetaTypes(Output output, LoadedClass.MetaType[] metaTypes) {
+		if (metaTypes == null) {
+			output.writeVarInt(0, true);
+			return;
+		}
+		output.writeVarInt(metaTypes.length + 1, true);
+		for (LoadedClass.MetaType metaType : metaTypes) {
+			output.writeByte(metaType != null ? metaType.ordinal() + 1 : 0);
+		}
+	}
+
+	private static LoadedClass.MetaType[] readMetaTypes(Input input) {
+		final int length = input.readVarInt(true) - 1;
+		if (length == -1) {
+			return null;
+		}
+		final LoadedClass.MetaType[] metaTypes = new LoadedClass.MetaType[length];
+		for (int i = 0; i < length; i++) {
+			final int metaType = input.readByte();
+			metaTypes[i] = metaType != 0 ? META_TYPES[metaType - 1] : null;
+		}
+		return metaTypes;
+	}
+
+	// Kryo is shared by every connection on the explorer's side, so the dictionaries are kept per connection. Without a
+	// connection, such as in tests, each Kryo gets a single dictionary.
+	@SuppressWarnings("unchecked")
+	private static StringDictionary getDictionary(Kryo kryo) {
+		final ObjectMap<Object, Object> context = kryo.getContext();
+		Map<Object, StringDictionary> dictionaries = (Map<Object, StringDictionary>) context.get(DICTIONARIES);
+		if (dictionaries == null) {
+			dictionaries = new WeakHashMap<>();
+			context.put(DICTIONARIES, dictionaries);
+		}
+		final Connection connection = (Connection) context.get(CONNECTION);
+		final Object key = connection != null ? connection : DICTIONARIES;
+		// A client that reconnects keeps the same connection object, but the other side starts over
+		final int connectionId = connection != null ? connection.getID() : -1;
+		StringDictionary dictionary = dictionaries.get(key);
+		if (dictionary == null || dictionary.getConnectionId() != connectionId) {
+			dictionary = new StringDictionary(connectionId, DICTIONARY_CAPACITY);
+			dictionaries.put(key, dictionary);
+		}
+		return dictionary;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Map<T, Integer> getWriteTable(Kryo kryo, Object key) {
+		final ObjectMap<Object, Object> graphContext = kryo.getGraphContext();
+		Map<T, Integer> table = (Map<T, Integer>) graphContext.get(key);
+		if (table == null) {
+			table = new HashMap<>();
+			graphContext.put(key, table);
+		}
+		return table;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> getReadTable(Kryo kryo, Object key) {
+		final ObjectMap<Object, Object> graphContext = kryo.getGraphContext();
+		List<T> table = (List<T>) graphContext.get(key);
+		if (table == null) {
+			table = new ArrayList<>();
+			graphContext.put(key, table);
+		}
+		return table;
+	}
+
+	abstract static class ValueSerializer<T> extends Serializer<T> {
+
+		ValueSerializer() {
+			// Everything in the protocol is a value object
+			super(false, true);
+		}
+
+		// Used for nested values, where Kryo's own null marker and reference id aren't needed
+		void writeNullable(Kryo kryo, Output output, T value) {
+			output.writeBoolean(value != null);
+			if (value != null) {
+				write(kryo, output, value);
+			}
+		}
+
+		T readNullable(Kryo kryo, Input input) {
+			return input.readBoolean() ? read(kryo, input, null) : null;
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Strings sent over a connection, each given an id the first time it's sent so later uses only need the id. Each
+// side keeps one of these per connection, and one side's writes are mirrored by the other side's reads. The writer
+// decides which ids get reused once it's full, and the reader simply takes whatever string it's told goes in a slot,
+// so the two stay in step without any extra messages.
+// Not thread safe. Kryonet only reads or writes one object at a time, and a message that fails part way closes the
+// connection, so neither side can get ahead of the other.
+class StringDictionary {
+
+	// Ids are written as 0 for null, slot * 2 + 1 for a new string that follows, or slot * 2 + 2 for a known string
+	private static final int NULL_ID = 0;
+
+	private final int connectionId;
+	private final int capacity;
+
+	// Least recently used first, so that's the slot that gets reused
+	private final LinkedHashMap<String, Integer> writeSlots;
+	private final String[] readSlots;
+
+	StringDictionary(int connectionId, int capacity) {
+		this.connectionId = connectionId;
+		this.capacity = capacity;
+		this.writeSlots = new LinkedHashMap<>(16, 0.75f, true);
+		this.readSlots = new String[capacity];
+	}
+
+	int getConnectionId() {
+		return connectionId;
+	}
+
+	void write(Output output, String value) {
+		if (value == null) {
+			output.writeVarInt(NULL_ID, true);
+			return;
+		}
+		final Integer slot = writeSlots.get(value);
+		if (slot != null) {
+			output.writeVarInt(slot * 2 + 2, true);
+			return;
+		}
+		final int newSlot;
+		if (writeSlots.size() < capacity) {
+			newSlot = writeSlots.size();
+		}
+		else {
+			final Map.Entry<String, Integer> eldest = writeSlots.entrySet().iterator().next();
+			newSlot = eldest.getValue();
+			writeSlots.remove(eldest.getKey());
+		}
+		writeSlots.put(value, newSlot);
+		output.writeVarInt(newSlot * 2 + 1, true);
+		output.writeString(value);
+	}
+
+	String read(Input input) {
+		final int id = input.readVarInt(true);
+		if (id == NULL_ID) {
+			return null;
+		}
+		final int slot = (id - 1) / 2;
+		if (id % 2 == 0) {
+			final String value = readSlots[slot];
+			if (value == null) {
+				throw new KryoException("Unknown string id: " + id);
+			}
+			return value;
+		}
+		final String value = input.readString();
+		readSlots[slot] = value;
+		return value;
+	}
+
+}
@@ -0,0 +1,527 @@
+package com.github.naton1.jvmexplorer.protocol.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Finds class names by substring, or by camel case abbreviation like "CHM" for ConcurrentHashMap, without testing every
+// name. Each name is split into trigrams, so a search only has to check the names that contain the query's rarest
+// trigram. Camel case humps are indexed the same way, as ordered pairs of hump initials.
+public class ClassNameIndex<T> {
+
+	private static final int GRAM_LENGTH = 3;
+	// Removed entries stay in the posting lists until enough of them pile up to be worth rebuilding
+	private static final int MIN_REMOVED_FOR_COMPACTION = 1024;
+
+	private static final int EXACT_SCORE = 100;
+	private static final int EXACT_IGNORE_CASE_SCORE = 90;
+	private static final int PREFIX_SCORE = 80;
+	private static final int HUMPS_SCORE = 70;
+	private static final int SIMPLE_NAME_SUBSTRING_SCORE = 60;
+	private static final int SUBSTRING_SCORE = 40;
+	private static final int SUBSEQUENCE_SCORE = 20;
+
+	// Queries shorter than this match too much of any real class list to be worth ranking
+	public static final int MIN_QUERY_LENGTH = 2;
+	// Anything below this is a loose guess, like a subsequence of the name. Fine to list, but not to jump straight to.
+	public static final int MIN_CONFIDENT_SCORE = SUBSTRING_SCORE;
+
+	// Worst first, so the head of a bounded queue is always the next one to drop
+	private static final Comparator<ScoredEntry<?>> WORST_FIRST = new Comparator<ScoredEntry<?>>() {
+		@Override
+		public int compare(ScoredEntry<?> first, ScoredEntry<?> second) {
+			if (first.score != second.score) {
+				return Integer.compare(first.score, second.score);
+			}
+			final int lengthComparison = Integer.compare(second.entry.simpleName.length(),
+			                                             first.entry.simpleName.length());
+			if (lengthComparison != 0) {
+				return lengthComparison;
+			}
+			return second.entry.name.compareTo(first.entry.name);
+		}
+	};
+
+	private final List<Entry<T>> entries = new ArrayList<>();
+	private final Map<T, Integer> ids = new HashMap<>();
+	private final Map<Long, IntList> nameGrams = new HashMap<>();
+	private final Map<Integer, IntList> humpPairs = new HashMap<>();
+	private int removed;
+
+	public synchronized boolean add(String name, T value) {
+		if (ids.containsKey(value)) {
+			return false;
+		}
+		final int id = entries.size();
+		final Entry<T> entry = new Entry<>(name, value);
+		entries.add(entry);
+		ids.put(value, id);
+		index(id, entry);
+		return true;
+	}
+
+	public synchronized boolean remove(T value) {
+		final Integer id = ids.remove(value);
+		if (id == null) {
+			return false;
+		}
+		entries.set(id, null);
+		removed++;
+		compactIfNeeded();
+		return true;
+	}
+
+	// A single pass over every value, rather than a lookup for each one that has to go
+	public synchronized int removeAll(ValueFilter<T> valueFilter) {
+		int count = 0;
+		for (int id = 0; id < entries.size(); id++) {
+			final Entry<T> entry = entries.get(id);
+			if (entry != null && valueFilter.matches(entry.value)) {
+				ids.remove(entry.value);
+				entries.set(id, null);
+				count++;
+			}
+		}
+		removed += count;
+		compactIfNeeded();
+		return count;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		ids.clear();
+		nameGrams.clear();
+		humpPairs.clear();
+		removed = 0;
+	}
+
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	public synchronized List<T> getValues() {
+		final List<T> values = new ArrayList<>(ids.size());
+		for (Entry<T> entry : entries) {
+			if (entry != null) {
+				values.add(entry.value);
+			}
+		}
+		return values;
+	}
+
+	// Case-insensitive substring matches on the full name, plus camel case matches on the simple name
+	public synchronized List<T> search(String query) {
+		if (query.isEmpty()) {
+			return getValues();
+		}
+		final List<T> matches = new ArrayList<>();
+		final String lowerQuery = query.toLowerCase(Locale.ROOT);
+		final String[] queryHumps = splitQueryHumps(query);
+		if (lowerQuery.length() < GRAM_LENGTH) {
+			// Too short for the index, but there's no regex involved so checking everything is still cheap
+			for (Entry<T> entry : entries) {
+				if (entry != null && entry.matches(lowerQuery, queryHumps)) {
+					matches.add(entry.value);
+				}
+			}
+			return matches;
+		}
+		final IntList candidates = IntList.union(getSubstringCandidates(lowerQuery),
+		                                         getHumpCandidates(queryHumps));
+		for (int i = 0; i < candidates.size(); i++) {
+			final Entry<T> entry = entries.get(candidates.get(i));
+			if (entry != null && entry.matches(lowerQuery, queryHumps)) {
+				matches.add(entry.value);
+			}
+		}
+		return matches;
+	}
+
+	// Ranked matches for jumping straight to a class, best first. Only the index candidates are scored, and only the top
+	// results are ever held, so this stays quick no matter how many classes there are. Everything is only checked if
+	// the query is too short for the index or doesn't closely match anything.
+	public synchronized List<T> findBest(String query, int limit) {
+		return findBest(query, limit, 0);
+	}
+
+	// Only matches scoring at least the min are returned
+	public synchronized List<T> findBest(String query, int limit, int minScore) {
+		if (query.length() < MIN_QUERY_LENGTH || limit <= 0) {
+			return new ArrayList<>();
+		}
+		final String lowerQuery = query.toLowerCase(Locale.ROOT);
+		final String[] queryHumps = splitQueryHumps(query);
+		final PriorityQueue<ScoredEntry<T>> best = new PriorityQueue<ScoredEntry<T>>(limit + 1, WORST_FIRST);
+		if (lowerQuery.length() >= GRAM_LENGTH) {
+			final IntList candidates = IntList.union(getSubstringCandidates(lowerQuery),
+			                                         getHumpCandidates(queryHumps));
+			for (int i = 0; i < candidates.size(); i++) {
+				offer(best, limit, minScore, entries.get(candidates.get(i)), query, lowerQuery, queryHumps);
+			}
+		}
+		// Loose subsequence matches need a full pass, as does anything too short for the index
+		if (best.isEmpty() && (minScore <= SUBSEQUENCE_SCORE || lowerQuery.length() < GRAM_LENGTH)) {
+			for (Entry<T> entry : entries) {
+				offer(best, limit, minScore, entry, query, lowerQuery, queryHumps);
+			}
+		}
+		final List<ScoredEntry<T>> sorted = new ArrayList<>(best);
+		Collections.sort(sorted, Collections.reverseOrder(WORST_FIRST));
+		final List<T> values = new ArrayList<>(sorted.size());
+		for (ScoredEntry<T> scoredEntry : sorted) {
+			values.add(scoredEntry.entry.value);
+		}
+		return values;
+	}
+
+	private static <T> void offer(PriorityQueue<ScoredEntry<T>> best, int limit, int minScore, Entry<T> entry,
+	                              String query, String lowerQuery, String[] queryHumps) {
+		if (entry == null) {
+			return;
+		}
+		final int score = entry.score(query, lowerQuery, queryHumps);
+		if (score == 0 || score < minScore) {
+			return;
+		}
+		best.add(new ScoredEntry<>(entry, score));
+		if (best.size() > limit) {
+			best.poll();
+		}
+	}
+
+	// Several values can share a name, like the same class in different class loaders
+	public synchronized List<T> getByName(String name) {
+		final List<T> matches = new ArrayList<>();
+		for (Entry<T> entry : getCandidates(name.toLowerCase(Locale.ROOT))) {
+			if (entry.name.equals(name)) {
+				matches.add(entry.value);
+			}
+		}
+		return matches;
+	}
+
+	// Matches the name without its package, so the same simple name in several packages gives several values
+	public synchronized List<T> getBySimpleName(String simpleName) {
+		final List<T> matches = new ArrayList<>();
+		for (Entry<T> entry : getCandidates(simpleName.toLowerCase(Locale.ROOT))) {
+			if (entry.simpleName.equals(simpleName)) {
+				matches.add(entry.value);
+			}
+		}
+		return matches;
+	}
+
+	// Only classes directly in the package, not in the packages below it
+	public synchronized List<T> getInPackage(String packageName) {
+		final String prefix = packageName.isEmpty() ? "" : packageName + ".";
+		final List<T> matches = new ArrayList<>();
+		for (Entry<T> entry : getCandidates(prefix.toLowerCase(Locale.ROOT))) {
+			if (entry.name.startsWith(prefix) && entry.name.indexOf('.', prefix.length()) == -1) {
+				matches.add(entry.value);
+			}
+		}
+		return matches;
+	}
+
+	public synchronized List<T> find(NameFilter nameFilter) {
+		final List<T> matches = new ArrayList<>();
+		for (Entry<T> entry : entries) {
+			if (entry != null && nameFilter.matches(entry.name)) {
+				matches.add(entry.value);
+			}
+		}
+		return matches;
+	}
+
+	// Every entry whose name could contain the text, which is all of them if the text is too short for the index
+	private List<Entry<T>> getCandidates(String lowerText) {
+		final List<Entry<T>> candidates = new ArrayList<>();
+		if (lowerText.length() < GRAM_LENGTH) {
+			for (Entry<T> entry : entries) {
+				if (entry != null) {
+					candidates.add(entry);
+				}
+			}
+			return candidates;
+		}
+		final IntList ids = getSubstringCandidates(lowerText);
+		for (int i = 0; i < ids.size(); i++) {
+			final Entry<T> entry = entries.get(ids.get(i));
+			if (entry != null) {
+				candidates.add(entry);
+			}
+		}
+		return candidates;
+	}
+
+	private IntList getSubstringCandidates(String lowerQuery) {
+		IntList rarest = null;
+		for (int i = 0; i + GRAM_LENGTH <= lowerQuery.length(); i++) {
+			final IntList postings = nameGrams.get(gram(lowerQuery, i));
+			if (postings == null) {
+				// Some trigram of the query isn't in any name
+				return IntList.EMPTY;
+			}
+			if (rarest == null || postings.size() < rarest.size()) {
+				rarest = postings;
+			}
+		}
+		return rarest;
+	}
+
+	private IntList getHumpCandidates(String[] queryHumps) {
+		if (queryHumps == null) {
+			return IntList.EMPTY;
+		}
+		IntList rarest = null;
+		for (int i = 0; i + 1 < queryHumps.length; i++) {
+			final IntList postings = humpPairs.get(pair(getInitial(queryHumps[i]), getInitial(queryHumps[i + 1])));
+			if (postings == null) {
+				return IntList.EMPTY;
+			}
+			if (rarest == null || postings.size() < rarest.size()) {
+				rarest = postings;
+			}
+		}
+		return rarest;
+	}
+
+	private void index(int id, Entry<T> entry) {
+		for (int i = 0; i + GRAM_LENGTH <= entry.lowerName.length(); i++) {
+			addPosting(nameGrams, gram(entry.lowerName, i), id);
+		}
+		for (int i = 0; i < entry.humps.length; i++) {
+			for (int j = i + 1; j < entry.humps.length; j++) {
+				addPosting(humpPairs, pair(getInitial(entry.humps[i]), getInitial(entry.humps[j])), id);
+			}
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (removed >= MIN_REMOVED_FOR_COMPACTION && removed * 2 >= entries.size()) {
+			compact();
+		}
+	}
+
+	private void compact() {
+		final List<Entry<T>> liveEntries = new ArrayList<>(ids.size());
+		for (Entry<T> entry : entries) {
+			if (entry != null) {
+				liveEntries.add(entry);
+			}
+		}
+		clear();
+		for (Entry<T> entry : liveEntries) {
+			final int id = entries.size();
+			entries.add(entry);
+			ids.put(entry.value, id);
+			index(id, entry);
+		}
+	}
+
+	private static <K> void addPosting(Map<K, IntList> postings, K key, int id) {
+		IntList ids = postings.get(key);
+		if (ids == null) {
+			ids = new IntList();
+			postings.put(key, ids);
+		}
+		// Ids are indexed in increasing order, so a repeated gram in the same name is always the last one added
+		if (ids.size() == 0 || ids.get(ids.size() - 1) != id) {
+			ids.add(id);
+		}
+	}
+
+	private static long gram(String text, int index) {
+		return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+	}
+
+	private static int pair(char first, char second) {
+		return (first << 16) | second;
+	}
+
+	private static char getInitial(String hump) {
+		return Character.toUpperCase(hump.charAt(0));
+	}
+
+	// A query is only treated as camel case if it has at least two humps, like "CHM" or "ConcHashM"
+	private static String[] splitQueryHumps(String query) {
+		if (query.indexOf('.') != -1) {
+			return null;
+		}
+		final String[] humps = splitHumps(query);
+		return humps.length > 1 ? humps : null;
+	}
+
+	static String[] splitHumps(String name) {
+		final List<String> humps = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c)) {
+				if (start != -1) {
+					humps.add(name.substring(start, i));
+				}
+				start = -1;
+			}
+			else if (start == -1) {
+				start = i;
+			}
+			else if (Character.isUpperCase(c)) {
+				humps.add(name.substring(start, i));
+				start = i;
+			}
+		}
+		if (start != -1) {
+			humps.add(name.substring(start));
+		}
+		return humps.toArray(new String[0]);
+	}
+
+	// Each query hump has to start some hump of the name, in order. Humps in between can be skipped.
+	static boolean matchesHumps(String[] queryHumps, String[] humps) {
+		int next = 0;
+		for (String queryHump : queryHumps) {
+			while (next < humps.length && !humps[next].regionMatches(true, 0, queryHump, 0, queryHump.length())) {
+				next++;
+			}
+			if (next == humps.length) {
+				return false;
+			}
+			next++;
+		}
+		return true;
+	}
+
+	public interface NameFilter {
+		boolean matches(String name);
+	}
+
+	public interface ValueFilter<T> {
+		boolean matches(T value);
+	}
+
+	static boolean isSubsequence(String query, String text) {
+		int next = 0;
+		for (int i = 0; i < text.length() && next < query.length(); i++) {
+			if (text.charAt(i) == query.charAt(next)) {
+				next++;
+			}
+		}
+		return next == query.length();
+	}
+
+	private static class Entry<T> {
+		private final String name;
+		private final String lowerName;
+		private final String simpleName;
+		private final String lowerSimpleName;
+		private final String[] humps;
+		private final T value;
+
+		private Entry(String name, T value) {
+			this.name = name;
+			this.lowerName = name.toLowerCase(Locale.ROOT);
+			this.simpleName = ClassNameHelper.getSimpleName(name);
+			this.lowerSimpleName = simpleName.toLowerCase(Locale.ROOT);
+			this.humps = splitHumps(simpleName);
+			this.value = value;
+		}
+
+		private boolean matches(String lowerQuery, String[] queryHumps) {
+			return lowerName.contains(lowerQuery) || queryHumps != null && matchesHumps(queryHumps, humps);
+		}
+
+		private int score(String query, String lowerQuery, String[] queryHumps) {
+			if (simpleName.equals(query) || name.equals(query)) {
+				return EXACT_SCORE;
+			}
+			if (lowerSimpleName.equals(lowerQuery) || lowerName.equals(lowerQuery)) {
+				return EXACT_IGNORE_CASE_SCORE;
+			}
+			if (lowerSimpleName.startsWith(lowerQuery)) {
+				return PREFIX_SCORE;
+			}
+			if (queryHumps != null && matchesHumps(queryHumps, humps)) {
+				return HUMPS_SCORE;
+			}
+			if (lowerSimpleName.contains(lowerQuery)) {
+				return SIMPLE_NAME_SUBSTRING_SCORE;
+			}
+			if (lowerName.contains(lowerQuery)) {
+				return SUBSTRING_SCORE;
+			}
+			if (isSubsequence(lowerQuery, lowerSimpleName)) {
+				return SUBSEQUENCE_SCORE;
+			}
+			return 0;
+		}
+	}
+
+	private static class ScoredEntry<T> {
+		private final Entry<T> entry;
+		private final int score;
+
+		private ScoredEntry(Entry<T> entry, int score) {
+			this.entry = entry;
+			this.score = score;
+		}
+	}
+
+	private static class IntList {
+		private static final IntList EMPTY = new IntList();
+
+		private int[] values = new int[4];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				final int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = value;
+		}
+
+		private int get(int index) {
+			return values[index];
+		}
+
+		private int size() {
+			return size;
+		}
+
+		// Both lists are sorted, so this is a plain merge that drops duplicates
+		private static IntList union(IntList first, IntList second) {
+			if (second.size == 0) {
+				return first;
+			}
+			if (first.size == 0) {
+				return second;
+			}
+			final IntList union = new IntList();
+			int i = 0;
+			int j = 0;
+			while (i < first.size || j < second.size) {
+				final int value;
+				if (j == second.size || i < first.size && first.values[i] < second.values[j]) {
+					value = first.values[i++];
+				}
+				else if (i == first.size || second.values[j] < first.values[i]) {
+					value = second.values[j++];
+				}
+				else {
+					value = first.values[i++];
+					j++;
+				}
+				union.add(value);
+			}
+			return union;
+		}
+	}
+
+}
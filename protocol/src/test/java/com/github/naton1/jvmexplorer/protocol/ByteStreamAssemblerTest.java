@@ -0,0 +1,108 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ByteStreamAssemblerTest {
+
+	@Test
+	public void givenLargePayload_whenSplitAndReassembled_bytesMatch() {
+		final byte[] bytes = new byte[Protocol.CHUNK_SIZE * 3 + 17];
+		new Random(0).nextBytes(bytes);
+		final List<ByteChunk> chunks = ByteChunk.split(1, bytes, Protocol.CHUNK_SIZE);
+		Assert.assertEquals(4, chunks.size());
+		Assert.assertTrue(chunks.get(3).isLast());
+
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		for (ByteChunk chunk : chunks) {
+			byteStreamAssembler.onChunk(chunk);
+		}
+
+		Assert.assertArrayEquals(bytes, byteStreamAssembler.await(1, 1, TimeUnit.SECONDS));
+		Assert.assertEquals(0, byteStreamAssembler.getPendingStreamCount());
+	}
+
+	@Test
+	public void givenEmptyPayload_whenSplitAndReassembled_emptyBytesReturned() {
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		for (ByteChunk chunk : ByteChunk.split(1, new byte[0], Protocol.CHUNK_SIZE)) {
+			byteStreamAssembler.onChunk(chunk);
+		}
+
+		Assert.assertArrayEquals(new byte[0], byteStreamAssembler.await(1, 1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void givenFailedPayload_whenReassembled_nullReturned() {
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		for (ByteChunk chunk : ByteChunk.split(1, null, Protocol.CHUNK_SIZE)) {
+			byteStreamAssembler.onChunk(chunk);
+		}
+
+		Assert.assertNull(byteStreamAssembler.await(1, 1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void givenInterleavedStreams_whenReassembled_eachStreamMatches() {
+		final byte[] first = new byte[Protocol.CHUNK_SIZE + 1];
+		final byte[] second = new byte[Protocol.CHUNK_SIZE * 2];
+		new Random(1).nextBytes(first);
+		new Random(2).nextBytes(second);
+		final List<ByteChunk> firstChunks = ByteChunk.split(1, first, Protocol.CHUNK_SIZE);
+		final List<ByteChunk> secondChunks = ByteChunk.split(2, second, Protocol.CHUNK_SIZE);
+
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		for (int i = 0; i < 2; i++) {
+			byteStreamAssembler.onChunk(firstChunks.get(i));
+			byteStreamAssembler.onChunk(secondChunks.get(i));
+		}
+
+		Assert.assertArrayEquals(second, byteStreamAssembler.await(2, 1, TimeUnit.SECONDS));
+		Assert.assertArrayEquals(first, byteStreamAssembler.await(1, 1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void givenTimedOutStream_whenLateChunksReceived_thenNothingKept() {
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+
+		Assert.assertNull(byteStreamAssembler.await(1, 10, TimeUnit.MILLISECONDS));
+		for (ByteChunk chunk : ByteChunk.split(1, new byte[Protocol.CHUNK_SIZE * 2], Protocol.CHUNK_SIZE)) {
+			byteStreamAssembler.onChunk(chunk);
+		}
+
+		Assert.assertEquals(0, byteStreamAssembler.getPendingStreamCount());
+	}
+
+	@Test
+	public void givenWaitingForStream_whenCleared_thenWaitEnds() throws Exception {
+		final ByteStreamAssembler byteStreamAssembler = new ByteStreamAssembler();
+		byteStreamAssembler.onChunk(ByteChunk.split(1, new byte[Protocol.CHUNK_SIZE * 2], Protocol.CHUNK_SIZE).get(0));
+		final ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			final Future<byte[]> bytes = executorService.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return byteStreamAssembler.await(1, 30, TimeUnit.SECONDS);
+				}
+			});
+			Thread.sleep(50);
+
+			byteStreamAssembler.clear();
+
+			Assert.assertNull(bytes.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, byteStreamAssembler.getPendingStreamCount());
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+}
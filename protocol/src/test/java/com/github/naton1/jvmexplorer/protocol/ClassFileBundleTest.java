@@ -0,0 +1,38 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ClassFileBundleTest {
+
+	@Test
+	public void givenClassFiles_whenEncodedAndDecoded_classFilesMatchInOrder() throws IOException {
+		final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		classFiles.put("org.test.B", new byte[] { 1, 2, 3 });
+		classFiles.put("org.test.A", new byte[0]);
+		classFiles.put("org.test.C", new byte[] { 4 });
+
+		final Map<String, byte[]> decoded = ClassFileBundle.decode(ClassFileBundle.encode(classFiles));
+
+		Assert.assertEquals(new ArrayList<>(classFiles.keySet()), new ArrayList<>(decoded.keySet()));
+		for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+			Assert.assertArrayEquals(classFile.getValue(), decoded.get(classFile.getKey()));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void givenTruncatedBundle_whenDecoded_exceptionThrown() throws IOException {
+		final Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		classFiles.put("org.test.A", new byte[] { 1, 2, 3 });
+		final byte[] bundle = ClassFileBundle.encode(classFiles);
+
+		ClassFileBundle.decode(Arrays.copyOf(bundle, bundle.length - 1));
+	}
+
+}
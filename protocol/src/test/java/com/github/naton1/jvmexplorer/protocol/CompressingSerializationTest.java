@@ -0,0 +1,100 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryonet.Connection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CompressingSerializationTest {
+
+	private final Connection connection = new Connection() {
+	};
+
+	@Test
+	public void givenCompression_whenLargeObjectWritten_objectCompressedAndReadBack() {
+		final LoadedClass[] loadedClasses = new LoadedClass[1000];
+		for (int i = 0; i < loadedClasses.length; i++) {
+			loadedClasses[i] = new LoadedClass("org.test.package.Class" + i, null, null);
+		}
+		final ByteBuffer uncompressed = write(newSerialization(), loadedClasses);
+		final CompressingSerialization writer = newSerialization();
+		writer.setCompression(connection, Protocol.COMPRESSION_DEFLATE);
+
+		final ByteBuffer compressed = write(writer, loadedClasses);
+
+		Assert.assertEquals(Protocol.COMPRESSION_DEFLATE, compressed.get(0));
+		Assert.assertTrue(compressed.remaining() * 2 < uncompressed.remaining());
+		Assert.assertArrayEquals(loadedClasses, (LoadedClass[]) newSerialization().read(connection, compressed));
+		Assert.assertEquals(0, compressed.remaining());
+	}
+
+	@Test
+	public void givenCompression_whenSmallObjectWritten_objectNotCompressed() {
+		final CompressingSerialization writer = newSerialization();
+		writer.setCompression(connection, Protocol.COMPRESSION_DEFLATE);
+
+		final ByteBuffer buffer = write(writer, new WrappedObject("small"));
+
+		Assert.assertEquals(Protocol.COMPRESSION_NONE, buffer.get(0));
+		Assert.assertEquals(new WrappedObject("small"), newSerialization().read(connection, buffer));
+	}
+
+	@Test
+	public void givenSharedSerialization_whenWrittenFromManyThreads_everyObjectReadBack() throws Exception {
+		final CompressingSerialization writer = newSerialization();
+		writer.setCompression(connection, Protocol.COMPRESSION_DEFLATE);
+		final ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Boolean>> writes = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final LoadedClass[] loadedClasses = new LoadedClass[500];
+				for (int j = 0; j < loadedClasses.length; j++) {
+					loadedClasses[j] = new LoadedClass("org.test.package" + i + ".Class" + j, null, null);
+				}
+				writes.add(executorService.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						final ByteBuffer compressed = write(writer, loadedClasses);
+						return compressed.get(0) == Protocol.COMPRESSION_DEFLATE
+						       && Arrays.equals(loadedClasses, (LoadedClass[]) writer.read(connection, compressed));
+					}
+				}));
+			}
+			for (Future<Boolean> write : writes) {
+				Assert.assertTrue(write.get());
+			}
+		}
+		finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void givenSupportedCompressions_whenChosen_deflateOnlyUsedIfSupported() {
+		Assert.assertEquals(Protocol.COMPRESSION_DEFLATE,
+		                    CompressingSerialization.choose(Protocol.SUPPORTED_COMPRESSIONS));
+		Assert.assertEquals(Protocol.COMPRESSION_NONE, CompressingSerialization.choose(Protocol.COMPRESSION_NONE));
+	}
+
+	private static CompressingSerialization newSerialization() {
+		final CompressingSerialization serialization = new CompressingSerialization();
+		Protocol.register(serialization.getKryo());
+		return serialization;
+	}
+
+	private ByteBuffer write(CompressingSerialization serialization, Object object) {
+		final ByteBuffer buffer = ByteBuffer.allocate(Protocol.WRITE_BUFFER_SIZE);
+		serialization.write(connection, buffer, object);
+		buffer.flip();
+		return buffer;
+	}
+
+}
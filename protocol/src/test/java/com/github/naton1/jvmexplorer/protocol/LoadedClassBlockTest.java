@@ -0,0 +1,70 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoadedClassBlockTest {
+
+	private final ClassLoaderDescriptor parent = ClassLoaderDescriptor.builder()
+	                                                                  .id(1)
+	                                                                  .simpleClassName("AppClassLoader")
+	                                                                  .description("app")
+	                                                                  .build();
+	private final ClassLoaderDescriptor child = ClassLoaderDescriptor.builder()
+	                                                                 .id(2)
+	                                                                 .simpleClassName("PluginClassLoader")
+	                                                                 .description("plugin")
+	                                                                 .parent(parent)
+	                                                                 .build();
+
+	@Test
+	public void givenClassesOverSeveralBlocks_whenEncodedAndDecoded_classesMatch() {
+		final List<LoadedClass> loadedClasses = Arrays.asList(new LoadedClass("java.lang.Object", null, null),
+		                                                      new LoadedClass("org.test.A", child, null),
+		                                                      new LoadedClass("org.test.A$1",
+		                                                                      child,
+		                                                                      LoadedClass.MetaType.ANONYMOUS),
+		                                                      new LoadedClass("org.test.B",
+		                                                                      parent,
+		                                                                      LoadedClass.MetaType.ENUM));
+		final LoadedClassBlock.Encoder encoder = new LoadedClassBlock.Encoder();
+		final LoadedClassBlock.Decoder decoder = new LoadedClassBlock.Decoder();
+		final List<LoadedClass> decoded = new ArrayList<>();
+
+		for (int i = 0; i < loadedClasses.size(); i++) {
+			final LoadedClass loadedClass = loadedClasses.get(i);
+			encoder.add(loadedClass.getName(), loadedClass.getClassLoaderDescriptor(), loadedClass.getMetaType());
+			if (i % 2 == 1) {
+				decoded.addAll(decoder.decode(encoder.finish()));
+			}
+		}
+
+		Assert.assertEquals(loadedClasses, decoded);
+		for (int i = 0; i < loadedClasses.size(); i++) {
+			Assert.assertEquals(loadedClasses.get(i).getMetaType(), decoded.get(i).getMetaType());
+		}
+		Assert.assertEquals("plugin", decoded.get(1).getClassLoaderDescriptor().getDescription());
+		Assert.assertSame(decoded.get(1).getClassLoaderDescriptor(), decoded.get(2).getClassLoaderDescriptor());
+		Assert.assertSame(decoded.get(3).getClassLoaderDescriptor(),
+		                  decoded.get(1).getClassLoaderDescriptor().getParent());
+	}
+
+	@Test
+	public void givenSharedPrefixes_whenEncoded_onlyDifferencesSent() {
+		final LoadedClassBlock.Encoder encoder = new LoadedClassBlock.Encoder();
+		encoder.add("org.test.A", parent, null);
+		encoder.add("org.test.A$1", parent, null);
+		encoder.add("org.test.B", parent, null);
+
+		final LoadedClassBlock block = encoder.finish();
+
+		Assert.assertArrayEquals(new String[] { "org.test.A", "$1", "B" }, block.getNameSuffixes());
+		Assert.assertArrayEquals(new int[] { 1 }, block.getClassLoaderIds());
+		Assert.assertArrayEquals(new int[] { 0, 0, 0 }, block.getClassLoaders());
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadedClassFilterTest {
+
+	private final ClassLoaderDescriptor app = ClassLoaderDescriptor.builder().id(1).description("app").build();
+	private final ClassLoaderDescriptor plugin = ClassLoaderDescriptor.builder().id(2).description("plugin").build();
+
+	@Test
+	public void givenEmptyFilter_whenMatching_thenEverythingMatches() {
+		final LoadedClassFilter.Matcher matcher = LoadedClassFilter.ALL.matcher();
+
+		Assert.assertTrue(matcher.matches(new LoadedClass("java.lang.String", null, null)));
+		Assert.assertTrue(matcher.matches(new LoadedClass("org.test.A", plugin, LoadedClass.MetaType.INNER)));
+	}
+
+	@Test
+	public void givenPackagePrefixesAndRegex_whenMatchingName_thenBothMustMatch() {
+		final LoadedClassFilter.Matcher matcher = LoadedClassFilter.builder()
+		                                                           .packagePrefixes(new String[] { "com.example.",
+		                                                                                           "org.test." })
+		                                                           .nameRegex(".*Service")
+		                                                           .build()
+		                                                           .matcher();
+
+		Assert.assertTrue(matcher.matchesName("com.example.UserService"));
+		Assert.assertTrue(matcher.matchesName("org.test.OrderService"));
+		Assert.assertFalse(matcher.matchesName("com.example.UserServiceImpl"));
+		Assert.assertFalse(matcher.matchesName("java.util.Service"));
+	}
+
+	@Test
+	public void givenClassLoaderFilters_whenMatchingClassLoader_thenBootstrapHandled() {
+		final LoadedClassFilter.Matcher excludeBootstrap =
+				LoadedClassFilter.builder().excludeBootstrap(true).build().matcher();
+		final LoadedClassFilter.Matcher onlyPlugin = LoadedClassFilter.builder().classLoaderId(2).build().matcher();
+
+		Assert.assertFalse(excludeBootstrap.matchesClassLoader(null));
+		Assert.assertTrue(excludeBootstrap.matchesClassLoader(app));
+		Assert.assertFalse(onlyPlugin.matchesClassLoader(null));
+		Assert.assertFalse(onlyPlugin.matchesClassLoader(app));
+		Assert.assertTrue(onlyPlugin.matchesClassLoader(plugin));
+	}
+
+	@Test
+	public void givenMetaTypes_whenMatchingMetaType_thenOnlyThoseMatch() {
+		final LoadedClassFilter.Matcher matcher = LoadedClassFilter.builder()
+		                                                           .metaTypes(new LoadedClass.MetaType[] {
+				                                                           LoadedClass.MetaType.INTERFACE, null })
+		                                                           .build()
+		                                                           .matcher();
+
+		Assert.assertTrue(matcher.matchesMetaType(LoadedClass.MetaType.INTERFACE));
+		Assert.assertTrue(matcher.matchesMetaType(null));
+		Assert.assertFalse(matcher.matchesMetaType(LoadedClass.MetaType.ENUM));
+	}
+
+}
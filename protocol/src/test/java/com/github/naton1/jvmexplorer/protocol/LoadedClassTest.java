@@ -0,0 +1,48 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class LoadedClassTest {
+
+	@Test
+	public void givenAnonymousClass_whenGetMetaType_thenAnonymous() {
+		final Object anonymous = new Object() {
+		};
+
+		Assert.assertEquals(LoadedClass.MetaType.ANONYMOUS, LoadedClass.MetaType.getFor(anonymous.getClass()));
+	}
+
+	@Test
+	public void givenNestedClasses_whenGetMetaType_thenMatchesReflection() {
+		class Local {
+		}
+
+		Assert.assertEquals(LoadedClass.MetaType.INNER, LoadedClass.MetaType.getFor(Nested.class));
+		Assert.assertEquals(LoadedClass.MetaType.INNER, LoadedClass.MetaType.getFor(Local.class));
+		Assert.assertEquals(LoadedClass.MetaType.ENUM, LoadedClass.MetaType.getFor(TimeUnit.class));
+		Assert.assertEquals(LoadedClass.MetaType.INTERFACE, LoadedClass.MetaType.getFor(Runnable.class));
+		Assert.assertEquals(LoadedClass.MetaType.EXCEPTION, LoadedClass.MetaType.getFor(IOException.class));
+		Assert.assertNull(LoadedClass.MetaType.getFor(LoadedClassTest.class));
+	}
+
+	@Test
+	public void givenGeneratedClassNames_whenGetMetaType_thenNotAnonymousOrInner() {
+		Assert.assertNull(LoadedClass.MetaType.getFor(Proxy$$SpringCGLIB$$0.class));
+		Assert.assertNull(LoadedClass.MetaType.getFor(Proxy$$Lambda$12.class));
+	}
+
+	private static class Nested {
+	}
+
+	// Named like the proxies and lambdas generated at runtime
+	private static class Proxy$$SpringCGLIB$$0 {
+	}
+
+	private static class Proxy$$Lambda$12 {
+	}
+
+}
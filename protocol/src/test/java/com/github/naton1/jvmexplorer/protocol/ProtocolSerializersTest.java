@@ -0,0 +1,169 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+
+public class ProtocolSerializersTest {
+
+	private final ClassLoaderDescriptor parent = ClassLoaderDescriptor.builder()
+	                                                                  .id(1)
+	                                                                  .simpleClassName("AppClassLoader")
+	                                                                  .description("app")
+	                                                                  .build();
+	private final ClassLoaderDescriptor child = ClassLoaderDescriptor.builder()
+	                                                                 .id(2)
+	                                                                 .simpleClassName("PluginClassLoader")
+	                                                                 .description("plugin")
+	                                                                 .parent(parent)
+	                                                                 .build();
+
+	@Test
+	public void givenLoadedClasses_whenSerialized_classesAndClassLoadersMatch() {
+		final LoadedClass[] loadedClasses = new LoadedClass[] {
+				new LoadedClass("java.lang.Object", null, null),
+				new LoadedClass("org.test.A", child, LoadedClass.MetaType.INNER),
+				new LoadedClass("org.test.B", parent, LoadedClass.MetaType.ENUM),
+				null,
+		};
+
+		final LoadedClass[] read = roundTrip(loadedClasses);
+
+		Assert.assertArrayEquals(loadedClasses, read);
+		Assert.assertEquals(LoadedClass.MetaType.INNER, read[1].getMetaType());
+		Assert.assertEquals("plugin", read[1].getClassLoaderDescriptor().getDescription());
+		Assert.assertEquals("PluginClassLoader", read[1].getClassLoaderDescriptor().getSimpleClassName());
+		Assert.assertSame(read[2].getClassLoaderDescriptor(), read[1].getClassLoaderDescriptor().getParent());
+	}
+
+	@Test
+	public void givenClassFields_whenSerialized_keysAndValuesMatch() {
+		final ClassFieldKey first = new ClassFieldKey("org.test.A", "count", "int", Modifier.PRIVATE);
+		final ClassFieldKey second = new ClassFieldKey("org.test.A", "name", "java.lang.String", Modifier.PUBLIC);
+		final ClassFieldKey third = new ClassFieldKey("org.test.A", "other", "org.test.B", Modifier.STATIC);
+		final ClassContent classContent = new ClassContent(new LoadedClass("org.test.A", child, null),
+		                                                   new byte[] { 1, 2, 3 },
+		                                                   new ClassFields(new ClassField[] {
+				                                                   new ClassField(first, 5),
+				                                                   new ClassField(second, "value"),
+				                                                   new ClassField(third, new WrappedObject("B@1")),
+				                                                   new ClassField(third, null),
+		                                                   }));
+
+		final ClassContent read = roundTrip(classContent);
+
+		Assert.assertEquals(classContent.getLoadedClass(), read.getLoadedClass());
+		Assert.assertArrayEquals(classContent.getClassContent(), read.getClassContent());
+		Assert.assertArrayEquals(classContent.getClassFields().getFields(), read.getClassFields().getFields());
+	}
+
+	@Test
+	public void givenRepeatedNames_whenSerialized_namesOnlyWrittenOnce() {
+		final LoadedClass[] loadedClasses = new LoadedClass[100];
+		for (int i = 0; i < loadedClasses.length; i++) {
+			loadedClasses[i] = new LoadedClass("org.test.SomeLongClassName", child, null);
+		}
+
+		final byte[] bytes = write(newKryo(), loadedClasses);
+
+		// A handful of bytes per class, rather than the whole name every time
+		Assert.assertTrue(bytes.length < loadedClasses.length * 5);
+		Assert.assertArrayEquals(loadedClasses, (LoadedClass[]) read(newKryo(), bytes));
+	}
+
+	@Test
+	public void givenSeveralMessages_whenSerialized_namesOnlySentInTheFirst() {
+		final Kryo writer = newKryo();
+		final Kryo reader = newKryo();
+		final LoadedClass loadedClass = new LoadedClass("org.test.SomeLongClassName", null, null);
+
+		final byte[] first = write(writer, loadedClass);
+		final byte[] second = write(writer, loadedClass);
+
+		Assert.assertTrue(second.length + loadedClass.getName().length() <= first.length);
+		Assert.assertEquals(loadedClass, read(reader, first));
+		Assert.assertEquals(loadedClass, read(reader, second));
+	}
+
+	@Test
+	public void givenLoadedClassBlock_whenSerialized_blockDecodesTheSame() {
+		final LoadedClassBlock.Encoder encoder = new LoadedClassBlock.Encoder();
+		encoder.add("java.lang.Object", null, null);
+		encoder.add("org.test.A", child, LoadedClass.MetaType.INTERFACE);
+		encoder.add("org.test.A$1", child, LoadedClass.MetaType.ANONYMOUS);
+		final LoadedClassBlock block = encoder.finish();
+
+		Assert.assertEquals(new LoadedClassBlock.Decoder().decode(block),
+		                    new LoadedClassBlock.Decoder().decode(roundTrip(block)));
+	}
+
+	@Test
+	public void givenResultsAndCredits_whenSerialized_valuesMatch() {
+		final ExecutionResult executionResult = ExecutionResult.builder().success(true).message("done").build();
+		final PatchResult patchResult = PatchResult.builder().success(false).message(null).build();
+		final PacketCredits packetCredits = new PacketCredits(7, 16);
+		final PacketCancel packetCancel = new PacketCancel(7);
+		final ByteChunk byteChunk = new ByteChunk(3, 1, null, true);
+		final ClassListDelta classListDelta = new ClassListDelta(new LoadedClass[0],
+		                                                         new ClassLoaderDescriptor[] { child });
+
+		Assert.assertEquals(executionResult, roundTrip(executionResult));
+		Assert.assertEquals(patchResult, roundTrip(patchResult));
+		Assert.assertEquals(packetCredits, roundTrip(packetCredits));
+		Assert.assertEquals(packetCancel, roundTrip(packetCancel));
+		Assert.assertEquals(byteChunk, roundTrip(byteChunk));
+		Assert.assertEquals(classListDelta, roundTrip(classListDelta));
+	}
+
+	@Test
+	public void givenAgentStreamIds_whenSerialized_idsMatchAndStayShort() {
+		final ByteChunk byteChunk = new ByteChunk(-1, 0, null, true);
+		final ClassBytes classBytes = new ClassBytes(new LoadedClass("org.test.A", child, null), null, -2);
+
+		Assert.assertEquals(byteChunk, roundTrip(byteChunk));
+		Assert.assertEquals(classBytes, roundTrip(classBytes));
+		Assert.assertEquals(write(newKryo(), new ByteChunk(1, 0, null, true)).length,
+		                    write(newKryo(), byteChunk).length);
+	}
+
+	@Test
+	public void givenLoadedClassFilter_whenSerialized_filterMatches() {
+		final LoadedClassFilter filter = LoadedClassFilter.builder()
+		                                                  .packagePrefixes(new String[] { "org.test.", "com.example." })
+		                                                  .classLoaderId(2)
+		                                                  .nameRegex(".*Service")
+		                                                  .metaTypes(new LoadedClass.MetaType[] {
+				                                                  LoadedClass.MetaType.INTERFACE, null })
+		                                                  .excludeBootstrap(true)
+		                                                  .build();
+
+		Assert.assertEquals(filter, roundTrip(filter));
+		Assert.assertEquals(LoadedClassFilter.ALL, roundTrip(LoadedClassFilter.ALL));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(T object) {
+		return (T) read(newKryo(), write(newKryo(), object));
+	}
+
+	private static Kryo newKryo() {
+		final Kryo kryo = new Kryo();
+		Protocol.register(kryo);
+		return kryo;
+	}
+
+	private static byte[] write(Kryo kryo, Object object) {
+		final Output output = new Output(Protocol.OBJECT_BUFFER_SIZE);
+		kryo.writeClassAndObject(output, object);
+		return output.toBytes();
+	}
+
+	private static Object read(Kryo kryo, byte[] bytes) {
+		return kryo.readClassAndObject(new Input(bytes));
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.github.naton1.jvmexplorer.protocol;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+	@Test
+	public void givenKnownString_whenWritten_onlyIdSent() {
+		final StringDictionary writer = new StringDictionary(1, 4);
+		final Output first = new Output(64);
+		final Output second = new Output(64);
+
+		writer.write(first, "org.test.A");
+		writer.write(second, "org.test.A");
+
+		Assert.assertEquals(1, second.position());
+		Assert.assertTrue(first.position() > "org.test.A".length());
+	}
+
+	@Test
+	public void givenFullDictionary_whenWritten_leastRecentlyUsedSlotReused() {
+		final StringDictionary writer = new StringDictionary(1, 2);
+		final StringDictionary reader = new StringDictionary(1, 2);
+		final String[] values = { "a", "b", "a", "c", "b", "a", null, "c" };
+		final Output output = new Output(256);
+
+		for (String value : values) {
+			writer.write(output, value);
+		}
+
+		final Input input = new Input(output.toBytes());
+		for (String value : values) {
+			Assert.assertEquals(value, reader.read(input));
+		}
+		Assert.assertEquals(output.position(), input.position());
+	}
+
+}
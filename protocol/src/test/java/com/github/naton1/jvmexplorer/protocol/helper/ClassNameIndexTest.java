@@ -0,0 +1,198 @@
+package com.github.naton1.jvmexplorer.protocol.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ClassNameIndexTest {
+
+	@Test
+	public void testSubstringSearchIgnoresCase() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Arrays.asList("java.util.HashMap", "java.util.concurrent.ConcurrentHashMap"),
+		                    index.search("hashmap"));
+		Assert.assertEquals(Collections.singletonList("java.util.concurrent.ConcurrentHashMap"),
+		                    index.search("util.conc"));
+	}
+
+	@Test
+	public void testShortQuery() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.net.URLClassLoader"), index.search("RL"));
+	}
+
+	@Test
+	public void testCamelCaseSearch() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.util.concurrent.ConcurrentHashMap"),
+		                    index.search("CHM"));
+		Assert.assertEquals(Collections.singletonList("java.util.concurrent.ConcurrentHashMap"),
+		                    index.search("ConcHMap"));
+		Assert.assertEquals(Collections.singletonList("java.net.URLClassLoader"), index.search("UCLoader"));
+		Assert.assertEquals(Collections.emptyList(), index.search("HCM"));
+	}
+
+	@Test
+	public void testNoMatch() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.emptyList(), index.search("nothing"));
+	}
+
+	@Test
+	public void testDuplicateAdd() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertFalse(index.add("java.util.HashMap", "java.util.HashMap"));
+		Assert.assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testRemove() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertTrue(index.remove("java.util.HashMap"));
+		Assert.assertFalse(index.remove("java.util.HashMap"));
+
+		Assert.assertEquals(Collections.singletonList("java.util.concurrent.ConcurrentHashMap"),
+		                    index.search("hashmap"));
+		Assert.assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testRemoveManyCompacts() {
+		final ClassNameIndex<Integer> index = new ClassNameIndex<>();
+		for (int i = 0; i < 5000; i++) {
+			index.add("test.Class" + i, i);
+		}
+		for (int i = 0; i < 4000; i++) {
+			index.remove(i);
+		}
+
+		Assert.assertEquals(1000, index.size());
+		Assert.assertEquals(Arrays.asList(4999), index.search("Class4999"));
+		Assert.assertEquals(Collections.emptyList(), index.search("Class3999"));
+	}
+
+	@Test
+	public void testSplitHumps() {
+		Assert.assertArrayEquals(new String[] { "U", "R", "L", "Class", "Loader" },
+		                         ClassNameIndex.splitHumps("URLClassLoader"));
+		Assert.assertArrayEquals(new String[] { "Outer", "Inner" }, ClassNameIndex.splitHumps("Outer$Inner"));
+	}
+
+	@Test
+	public void testFindBestRanksExactMatchFirst() {
+		final ClassNameIndex<String> index = createIndex();
+		index.add("test.StringHelper", "test.StringHelper");
+		index.add("test.string.Helper", "test.string.Helper");
+
+		Assert.assertEquals(Arrays.asList("java.lang.String", "test.StringHelper", "test.string.Helper"),
+		                    index.findBest("String", 10));
+	}
+
+	@Test
+	public void testFindBestLimit() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.util.HashMap"), index.findBest("HashMap", 1));
+	}
+
+	@Test
+	public void testFindBestCamelCase() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.util.concurrent.ConcurrentHashMap"),
+		                    index.findBest("CHM", 10));
+	}
+
+	@Test
+	public void testFindBestSubsequence() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.net.URLClassLoader"), index.findBest("clsldr", 10));
+	}
+
+	@Test
+	public void testIsSubsequence() {
+		Assert.assertTrue(ClassNameIndex.isSubsequence("hsmp", "hashmap"));
+		Assert.assertFalse(ClassNameIndex.isSubsequence("hsmpp", "hashmap"));
+	}
+
+	@Test
+	public void testFindBestConfidentOnly() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.emptyList(),
+		                    index.findBest("clsldr", 10, ClassNameIndex.MIN_CONFIDENT_SCORE));
+		Assert.assertEquals(Collections.singletonList("java.util.HashMap"),
+		                    index.findBest("hashm", 1, ClassNameIndex.MIN_CONFIDENT_SCORE));
+	}
+
+	@Test
+	public void testFindBestQueryTooShort() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.emptyList(), index.findBest("S", 10));
+	}
+
+	@Test
+	public void testGetByName() {
+		final ClassNameIndex<String> index = createIndex();
+		index.add("java.util.HashMap", "other loader");
+
+		Assert.assertEquals(Arrays.asList("java.util.HashMap", "other loader"), index.getByName("java.util.HashMap"));
+		Assert.assertEquals(Collections.emptyList(), index.getByName("java.util.Hash"));
+	}
+
+	@Test
+	public void testGetBySimpleName() {
+		final ClassNameIndex<String> index = createIndex();
+		index.add("org.test.HashMap", "org.test.HashMap");
+
+		Assert.assertEquals(Arrays.asList("java.util.HashMap", "org.test.HashMap"), index.getBySimpleName("HashMap"));
+		Assert.assertEquals(Collections.emptyList(), index.getBySimpleName("Map"));
+	}
+
+	@Test
+	public void testGetInPackage() {
+		final ClassNameIndex<String> index = createIndex();
+
+		Assert.assertEquals(Collections.singletonList("java.util.HashMap"), index.getInPackage("java.util"));
+		Assert.assertEquals(Collections.emptyList(), index.getInPackage("java"));
+	}
+
+	@Test
+	public void testRemoveAll() {
+		final ClassNameIndex<String> index = createIndex();
+		final int size = index.size();
+
+		final int removed = index.removeAll(new ClassNameIndex.ValueFilter<String>() {
+			@Override
+			public boolean matches(String value) {
+				return value.startsWith("java.util.");
+			}
+		});
+
+		Assert.assertEquals(2, removed);
+		Assert.assertEquals(size - 2, index.size());
+		Assert.assertEquals(Collections.emptyList(), index.search("HashMap"));
+	}
+
+	private ClassNameIndex<String> createIndex() {
+		final ClassNameIndex<String> index = new ClassNameIndex<>();
+		for (String name : Arrays.asList("java.util.HashMap",
+		                                 "java.util.concurrent.ConcurrentHashMap",
+		                                 "java.net.URLClassLoader",
+		                                 "java.lang.String")) {
+			index.add(name, name);
+		}
+		return index;
+	}
+
+}